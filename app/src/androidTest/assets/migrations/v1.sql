@@ -0,0 +1,9 @@
+-- Schema of version 1 of the database, as created by ProductDbHelper.onCreate, with sample
+-- products. One statement per line. The last product is deleted, so the next ID is 5.
+CREATE TABLE products (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, price REAL NOT NULL, quantity INTEGER NOT NULL, supplier TEXT NOT NULL, picture TEXT NOT NULL);
+INSERT INTO products (name, price, quantity, supplier, picture) VALUES ('Blue pen', 1.5, 10, 'pens@example.com', '');
+INSERT INTO products (name, price, quantity, supplier, picture) VALUES ('Red pen', 1.5, 0, 'pens@example.com', '');
+INSERT INTO products (name, price, quantity, supplier, picture) VALUES ('Notebook', 3.25, 4, 'paper@example.com', '');
+INSERT INTO products (name, price, quantity, supplier, picture) VALUES ('Stapler', 12.0, 2, 'office@example.com', '');
+DELETE FROM products WHERE name = 'Stapler';
+PRAGMA user_version = 1;
@@ -0,0 +1,14 @@
+-- Schema of version 3 of the database, as created by ProductDbHelper.onCreate, with sample
+-- products. One statement per line. The last product is deleted, so the next ID is 5.
+CREATE TABLE products (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, price REAL NOT NULL, quantity INTEGER NOT NULL, supplier TEXT NOT NULL, picture TEXT NOT NULL);
+CREATE INDEX products_name_index ON products (name);
+CREATE VIRTUAL TABLE products_fts USING fts4(name, supplier);
+CREATE TRIGGER products_fts_insert AFTER INSERT ON products BEGIN INSERT INTO products_fts (docid, name, supplier) VALUES (new._id, new.name, new.supplier); END;
+CREATE TRIGGER products_fts_update AFTER UPDATE OF name, supplier ON products BEGIN UPDATE products_fts SET name = new.name, supplier = new.supplier WHERE docid = old._id; END;
+CREATE TRIGGER products_fts_delete AFTER DELETE ON products BEGIN DELETE FROM products_fts WHERE docid = old._id; END;
+INSERT INTO products (name, price, quantity, supplier, picture) VALUES ('Blue pen', 1.5, 10, 'pens@example.com', '');
+INSERT INTO products (name, price, quantity, supplier, picture) VALUES ('Red pen', 1.5, 0, 'pens@example.com', '');
+INSERT INTO products (name, price, quantity, supplier, picture) VALUES ('Notebook', 3.25, 4, 'paper@example.com', '');
+INSERT INTO products (name, price, quantity, supplier, picture) VALUES ('Stapler', 12.0, 2, 'office@example.com', '');
+DELETE FROM products WHERE name = 'Stapler';
+PRAGMA user_version = 3;
@@ -0,0 +1,19 @@
+-- Schema of version 4 of the database, as created by ProductDbHelper.onCreate, with sample
+-- products. One statement per line. The last product is deleted, so the next ID is 5.
+CREATE TABLE products (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, price REAL NOT NULL, quantity INTEGER NOT NULL, supplier TEXT NOT NULL, picture TEXT NOT NULL);
+CREATE INDEX products_name_index ON products (name);
+CREATE VIRTUAL TABLE products_fts USING fts4(name, supplier);
+CREATE TRIGGER products_fts_insert AFTER INSERT ON products BEGIN INSERT INTO products_fts (docid, name, supplier) VALUES (new._id, new.name, new.supplier); END;
+CREATE TRIGGER products_fts_update AFTER UPDATE OF name, supplier ON products BEGIN UPDATE products_fts SET name = new.name, supplier = new.supplier WHERE docid = old._id; END;
+CREATE TRIGGER products_fts_delete AFTER DELETE ON products BEGIN DELETE FROM products_fts WHERE docid = old._id; END;
+CREATE TABLE products_summary (_id INTEGER PRIMARY KEY CHECK (_id = 1), product_count INTEGER NOT NULL, total_units INTEGER NOT NULL, stock_value REAL NOT NULL, out_of_stock_count INTEGER NOT NULL, low_stock_count INTEGER NOT NULL);
+CREATE TRIGGER products_summary_insert AFTER INSERT ON products BEGIN UPDATE products_summary SET product_count = product_count + 1, total_units = total_units + new.quantity, stock_value = stock_value + new.price * new.quantity, out_of_stock_count = out_of_stock_count + (new.quantity = 0), low_stock_count = low_stock_count + (new.quantity <= 5); END;
+CREATE TRIGGER products_summary_update AFTER UPDATE OF price, quantity ON products BEGIN UPDATE products_summary SET total_units = total_units + new.quantity - old.quantity, stock_value = stock_value + new.price * new.quantity - old.price * old.quantity, out_of_stock_count = out_of_stock_count + (new.quantity = 0) - (old.quantity = 0), low_stock_count = low_stock_count + (new.quantity <= 5) - (old.quantity <= 5); END;
+CREATE TRIGGER products_summary_delete AFTER DELETE ON products BEGIN UPDATE products_summary SET product_count = product_count - 1, total_units = total_units - old.quantity, stock_value = stock_value - old.price * old.quantity, out_of_stock_count = out_of_stock_count - (old.quantity = 0), low_stock_count = low_stock_count - (old.quantity <= 5); END;
+INSERT OR REPLACE INTO products_summary (_id, product_count, total_units, stock_value, out_of_stock_count, low_stock_count) SELECT 1, IFNULL(SUM(1), 0), IFNULL(SUM(quantity), 0), IFNULL(SUM(price * quantity), 0), IFNULL(SUM((quantity = 0)), 0), IFNULL(SUM((quantity <= 5)), 0) FROM products;
+INSERT INTO products (name, price, quantity, supplier, picture) VALUES ('Blue pen', 1.5, 10, 'pens@example.com', '');
+INSERT INTO products (name, price, quantity, supplier, picture) VALUES ('Red pen', 1.5, 0, 'pens@example.com', '');
+INSERT INTO products (name, price, quantity, supplier, picture) VALUES ('Notebook', 3.25, 4, 'paper@example.com', '');
+INSERT INTO products (name, price, quantity, supplier, picture) VALUES ('Stapler', 12.0, 2, 'office@example.com', '');
+DELETE FROM products WHERE name = 'Stapler';
+PRAGMA user_version = 4;
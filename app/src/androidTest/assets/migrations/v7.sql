@@ -0,0 +1,29 @@
+-- Schema of version 7 of the database, as created by ProductDbHelper.onCreate, with sample
+-- products. One statement per line. The last product is deleted, so the next ID is 5.
+CREATE TABLE products (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, price REAL NOT NULL, quantity INTEGER NOT NULL, supplier TEXT NOT NULL, picture TEXT NOT NULL, sku TEXT, sync_id TEXT, change_seq INTEGER NOT NULL DEFAULT 0, quantity_delta INTEGER NOT NULL DEFAULT 0, fields_changed INTEGER NOT NULL DEFAULT 0);
+CREATE INDEX products_name_index ON products (name);
+CREATE UNIQUE INDEX products_sku_index ON products (sku);
+CREATE VIRTUAL TABLE products_fts USING fts4(name, supplier);
+CREATE TRIGGER products_fts_insert AFTER INSERT ON products BEGIN INSERT INTO products_fts (docid, name, supplier) VALUES (new._id, new.name, new.supplier); END;
+CREATE TRIGGER products_fts_update AFTER UPDATE OF name, supplier ON products BEGIN UPDATE products_fts SET name = new.name, supplier = new.supplier WHERE docid = old._id; END;
+CREATE TRIGGER products_fts_delete AFTER DELETE ON products BEGIN DELETE FROM products_fts WHERE docid = old._id; END;
+CREATE TABLE products_summary (_id INTEGER PRIMARY KEY CHECK (_id = 1), product_count INTEGER NOT NULL, total_units INTEGER NOT NULL, stock_value REAL NOT NULL, out_of_stock_count INTEGER NOT NULL, low_stock_count INTEGER NOT NULL);
+CREATE TRIGGER products_summary_insert AFTER INSERT ON products BEGIN UPDATE products_summary SET product_count = product_count + 1, total_units = total_units + new.quantity, stock_value = stock_value + new.price * new.quantity, out_of_stock_count = out_of_stock_count + (new.quantity = 0), low_stock_count = low_stock_count + (new.quantity <= 5); END;
+CREATE TRIGGER products_summary_update AFTER UPDATE OF price, quantity ON products BEGIN UPDATE products_summary SET total_units = total_units + new.quantity - old.quantity, stock_value = stock_value + new.price * new.quantity - old.price * old.quantity, out_of_stock_count = out_of_stock_count + (new.quantity = 0) - (old.quantity = 0), low_stock_count = low_stock_count + (new.quantity <= 5) - (old.quantity <= 5); END;
+CREATE TRIGGER products_summary_delete AFTER DELETE ON products BEGIN UPDATE products_summary SET product_count = product_count - 1, total_units = total_units - old.quantity, stock_value = stock_value - old.price * old.quantity, out_of_stock_count = out_of_stock_count - (old.quantity = 0), low_stock_count = low_stock_count - (old.quantity <= 5); END;
+INSERT OR REPLACE INTO products_summary (_id, product_count, total_units, stock_value, out_of_stock_count, low_stock_count) SELECT 1, IFNULL(SUM(1), 0), IFNULL(SUM(quantity), 0), IFNULL(SUM(price * quantity), 0), IFNULL(SUM((quantity = 0)), 0), IFNULL(SUM((quantity <= 5)), 0) FROM products;
+CREATE TABLE imports (source TEXT PRIMARY KEY, rows_read INTEGER NOT NULL, rows_imported INTEGER NOT NULL, rows_rejected INTEGER NOT NULL);
+CREATE INDEX products_change_seq_index ON products (change_seq);
+CREATE UNIQUE INDEX products_sync_id_index ON products (sync_id);
+CREATE TABLE sync_state (_id INTEGER PRIMARY KEY CHECK (_id = 1), device_id TEXT NOT NULL, last_seq INTEGER NOT NULL, pushed_seq INTEGER NOT NULL, server_cursor INTEGER NOT NULL, applying INTEGER NOT NULL);
+INSERT INTO sync_state VALUES (1, lower(hex(randomblob(8))), 0, 0, 0, 0);
+CREATE TABLE sync_tombstones (sync_id TEXT PRIMARY KEY NOT NULL, change_seq INTEGER NOT NULL);
+CREATE TRIGGER products_sync_insert AFTER INSERT ON products WHEN (SELECT applying FROM sync_state) = 0 BEGIN UPDATE sync_state SET last_seq = last_seq + 1; UPDATE products SET sync_id = IFNULL(new.sync_id, lower(hex(randomblob(8)))), change_seq = (SELECT last_seq FROM sync_state), quantity_delta = new.quantity, fields_changed = 1 WHERE _id = new._id; END;
+CREATE TRIGGER products_sync_update AFTER UPDATE OF name, price, quantity, supplier, picture, sku ON products WHEN (SELECT applying FROM sync_state) = 0 BEGIN UPDATE sync_state SET last_seq = last_seq + 1; UPDATE products SET change_seq = (SELECT last_seq FROM sync_state), quantity_delta = quantity_delta + new.quantity - old.quantity, fields_changed = fields_changed OR new.name IS NOT old.name OR new.price IS NOT old.price OR new.supplier IS NOT old.supplier OR new.picture IS NOT old.picture OR new.sku IS NOT old.sku WHERE _id = new._id; END;
+CREATE TRIGGER products_sync_delete AFTER DELETE ON products WHEN (SELECT applying FROM sync_state) = 0 AND (SELECT pushed_seq + server_cursor FROM sync_state) > 0 AND old.sync_id IS NOT NULL BEGIN UPDATE sync_state SET last_seq = last_seq + 1; INSERT OR REPLACE INTO sync_tombstones (sync_id, change_seq) VALUES (old.sync_id, (SELECT last_seq FROM sync_state)); END;
+INSERT INTO products (name, price, quantity, supplier, picture, sku) VALUES ('Blue pen', 1.5, 10, 'pens@example.com', '', 'PEN-BLUE');
+INSERT INTO products (name, price, quantity, supplier, picture, sku) VALUES ('Red pen', 1.5, 0, 'pens@example.com', '', 'PEN-RED');
+INSERT INTO products (name, price, quantity, supplier, picture, sku) VALUES ('Notebook', 3.25, 4, 'paper@example.com', '', NULL);
+INSERT INTO products (name, price, quantity, supplier, picture, sku) VALUES ('Stapler', 12.0, 2, 'office@example.com', '', 'STAPLER');
+DELETE FROM products WHERE name = 'Stapler';
+PRAGMA user_version = 7;
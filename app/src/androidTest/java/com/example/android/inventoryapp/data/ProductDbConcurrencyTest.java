@@ -0,0 +1,204 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Read latency of catalog pages while quantities are being written, with a rollback journal and
+ * with write-ahead logging. Each run uses its own database file. Results are written to logcat
+ * under the {@link #LOG_TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductDbConcurrencyTest {
+
+    private static final String LOG_TAG = ProductDbConcurrencyTest.class.getSimpleName();
+
+    private static final String ROLLBACK_DATABASE_NAME = "concurrency_rollback.db";
+
+    private static final String WAL_DATABASE_NAME = "concurrency_wal.db";
+
+    private static final int ROW_COUNT = 2000;
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final int READER_THREADS = 4;
+
+    private static final int READS_PER_THREAD = 200;
+
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QTY};
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        deleteDatabases();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDatabases();
+    }
+
+    @Test
+    public void readLatency_rollbackJournalVersusWal() throws InterruptedException {
+        long[] rollbackLatencies = measureReads(ROLLBACK_DATABASE_NAME, false);
+        long[] walLatencies = measureReads(WAL_DATABASE_NAME, true);
+
+        assertEquals(READER_THREADS * READS_PER_THREAD, rollbackLatencies.length);
+        assertEquals(READER_THREADS * READS_PER_THREAD, walLatencies.length);
+        report("rollback journal", rollbackLatencies);
+        report("write-ahead log", walLatencies);
+    }
+
+    /**
+     * Run the reader threads against a writer thread adjusting quantities, and return the
+     * latency (in nanoseconds) of every page read.
+     */
+    private long[] measureReads(String name, boolean writeAheadLogging)
+            throws InterruptedException {
+        ProductDbHelper dbHelper = new ProductDbHelper(context, name, writeAheadLogging);
+        try {
+            final SQLiteDatabase db = dbHelper.getWritableDatabase();
+            insertRows(db);
+
+            final long[] latencies = new long[READER_THREADS * READS_PER_THREAD];
+            final CountDownLatch readersDone = new CountDownLatch(READER_THREADS);
+            final AtomicBoolean writing = new AtomicBoolean(true);
+
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // The same statement as a sale applied by the provider, one per transaction
+                    SQLiteStatement adjust = db.compileStatement("UPDATE " + ProductEntry.TABLE_NAME
+                            + " SET " + ProductEntry.COLUMN_PRODUCT_QTY + " = "
+                            + ProductEntry.COLUMN_PRODUCT_QTY + " + ? WHERE " + ProductEntry._ID + " = ?"
+                            + " AND " + ProductEntry.COLUMN_PRODUCT_QTY + " + ? >= 0");
+                    try {
+                        for (int i = 0; writing.get(); i++) {
+                            db.beginTransaction();
+                            try {
+                                int delta = i % 2 == 0 ? -1 : 1;
+                                adjust.bindLong(1, delta);
+                                adjust.bindLong(2, 1 + i % ROW_COUNT);
+                                adjust.bindLong(3, delta);
+                                adjust.executeUpdateDelete();
+                                db.setTransactionSuccessful();
+                            } finally {
+                                db.endTransaction();
+                            }
+                        }
+                    } finally {
+                        adjust.close();
+                    }
+                }
+            });
+            writer.start();
+
+            for (int t = 0; t < READER_THREADS; t++) {
+                final int firstRead = t * READS_PER_THREAD;
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < READS_PER_THREAD; i++) {
+                                long start = System.nanoTime();
+                                readPage(db, (firstRead + i) * PAGE_SIZE % ROW_COUNT);
+                                latencies[firstRead + i] = System.nanoTime() - start;
+                            }
+                        } finally {
+                            readersDone.countDown();
+                        }
+                    }
+                }).start();
+            }
+
+            readersDone.await();
+            writing.set(false);
+            writer.join();
+            return latencies;
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /**
+     * Read a page of the catalog the way the provider does, after the given ID.
+     */
+    private static void readPage(SQLiteDatabase db, long afterId) {
+        Cursor cursor = db.query(ProductEntry.TABLE_NAME, PROJECTION, ProductEntry._ID + " > ?",
+                new String[]{String.valueOf(afterId)}, null, null, ProductEntry._ID,
+                String.valueOf(PAGE_SIZE));
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void insertRows(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                ContentValues values = new ContentValues();
+                values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+                values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1f + i % 100);
+                values.put(ProductEntry.COLUMN_PRODUCT_QTY, 100);
+                values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, "concurrency@example.com");
+                values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, "");
+                db.insertOrThrow(ProductEntry.TABLE_NAME, null,
+                        ProductDbHelper.toTableValues(db, values));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void report(String label, long[] latencies) {
+        Arrays.sort(latencies);
+        Log.i(LOG_TAG, label + ": " + latencies.length + " page reads, p50 "
+                + percentileMicros(latencies, 50) + " us, p90 "
+                + percentileMicros(latencies, 90) + " us, p99 "
+                + percentileMicros(latencies, 99) + " us, max "
+                + latencies[latencies.length - 1] / 1000 + " us");
+    }
+
+    /**
+     * Return the given percentile of the sorted latencies, in microseconds.
+     */
+    private static long percentileMicros(long[] sortedLatencies, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1000;
+    }
+
+    private void deleteDatabases() {
+        context.deleteDatabase(ROLLBACK_DATABASE_NAME);
+        context.deleteDatabase(WAL_DATABASE_NAME);
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades of fixture databases of every previous version, created from the SQL scripts in the
+ * migrations directory of the test assets. Each holds the same three products, and had a fourth
+ * one deleted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductDbMigrationTest {
+
+    private static final String DATABASE_NAME = "migration.db";
+
+    private static final String NEW_DATABASE_NAME = "migration_new.db";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        context.deleteDatabase(NEW_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(DATABASE_NAME);
+        context.deleteDatabase(NEW_DATABASE_NAME);
+    }
+
+    @Test
+    public void upgrade_fromEveryVersion_matchesNewDatabase() throws IOException {
+        ProductDbHelper newHelper = new ProductDbHelper(context, NEW_DATABASE_NAME, true);
+        SQLiteDatabase newDatabase = newHelper.getWritableDatabase();
+        List<String> newSchema = querySchema(newDatabase);
+        // Creating the database turned on incremental auto-vacuum
+        assertEquals(2, DatabaseUtils.longForQuery(newDatabase, "PRAGMA auto_vacuum", null));
+        newHelper.close();
+
+        for (int version = 1; version < ProductDbHelper.DATABASE_VERSION; version++) {
+            createFixture(version).close();
+            ProductDbHelper helper = new ProductDbHelper(context, DATABASE_NAME, true);
+            SQLiteDatabase database = helper.getWritableDatabase();
+            assertEquals("Schema upgraded from version " + version, newSchema, querySchema(database));
+            assertFixtureProducts(database);
+            helper.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    @Test
+    public void interruptedMigration_resumesOnNextOpen() throws IOException {
+        // Upgrade as SQLiteOpenHelper does, then copy the first two products one per chunk and
+        // stop, as if the process died
+        SQLiteDatabase database = createFixture(7);
+        database.beginTransaction();
+        try {
+            new ProductDbHelper(context, DATABASE_NAME, true)
+                    .onUpgrade(database, 7, ProductDbHelper.DATABASE_VERSION);
+            database.setVersion(ProductDbHelper.DATABASE_VERSION);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        SchemaMigrator migrator = new SchemaMigrator(ProductDbHelper.MIGRATIONS, 1);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(migrator.runNextTransaction(database));
+        }
+        assertEquals(2, DatabaseUtils.longForQuery(database, "SELECT "
+                + ProductDbHelper.COLUMN_MIGRATION_LAST_ID + " FROM "
+                + ProductDbHelper.MIGRATIONS_TABLE_NAME, null));
+        database.close();
+
+        ProductDbHelper helper = new ProductDbHelper(context, DATABASE_NAME, true);
+        assertFixtureProducts(helper.getWritableDatabase());
+        helper.close();
+    }
+
+    @Test(timeout = 10000)
+    public void longMigration_doesNotBlockReaders() throws Exception {
+        // A migration that runs until the test lets it go
+        final CountDownLatch migrationStarted = new CountDownLatch(1);
+        final CountDownLatch migrationReleased = new CountDownLatch(1);
+        SchemaMigrator migrator = new SchemaMigrator(new SchemaMigrator.Migration[]{
+                new SchemaMigrator.Migration(ProductDbHelper.DATABASE_VERSION,
+                        new SchemaMigrator.Step() {
+                            @Override
+                            void run(SQLiteDatabase db) {
+                                migrationStarted.countDown();
+                                try {
+                                    migrationReleased.await();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                        })}, 1);
+        createFixture(ProductDbHelper.DATABASE_VERSION - 1).close();
+        final ProductDbHelper helper = new ProductDbHelper(context, DATABASE_NAME, true, migrator);
+        try {
+            SQLiteDatabase database = helper.getOpenDatabase();
+            migrationStarted.await();
+
+            // The products table is read in the middle of the migration
+            assertEquals(3, DatabaseUtils.queryNumEntries(database, ProductEntry.TABLE_NAME));
+
+            // while the callers needing the migrated schema wait for it
+            Thread migratedReader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    helper.getReadableDatabase();
+                }
+            });
+            migratedReader.start();
+            migratedReader.join(200);
+            assertTrue(migratedReader.isAlive());
+
+            migrationReleased.countDown();
+            migratedReader.join();
+            assertEquals(0, DatabaseUtils.queryNumEntries(helper.getReadableDatabase(),
+                    ProductDbHelper.MIGRATIONS_TABLE_NAME));
+        } finally {
+            migrationReleased.countDown();
+            helper.close();
+        }
+    }
+
+    /**
+     * Create the fixture database of the given version, and return it open.
+     */
+    private SQLiteDatabase createFixture(int version) throws IOException {
+        SQLiteDatabase database = context.openOrCreateDatabase(DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                InstrumentationRegistry.getContext().getAssets()
+                        .open("migrations/v" + version + ".sql"), "UTF-8"));
+        try {
+            // One statement per line
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("--")) {
+                    database.execSQL(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(version, database.getVersion());
+        return database;
+    }
+
+    /**
+     * Check that the products of the fixture survived the migration, with the tables maintained
+     * by triggers in step.
+     */
+    private static void assertFixtureProducts(SQLiteDatabase database) {
+        assertEquals(0, DatabaseUtils.queryNumEntries(database,
+                ProductDbHelper.MIGRATIONS_TABLE_NAME));
+        // Opening the database doesn't rebuild it for incremental auto-vacuum, the next
+        // vacuum of the free pages does
+        assertEquals(0, DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+        ProductDbHelper.vacuumFreePages(database);
+        assertEquals(2, DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null));
+        assertEquals(0, DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null));
+
+        Cursor cursor = database.query(ProductDbHelper.PRODUCTS_VIEW_NAME, new String[]{
+                        ProductEntry.COLUMN_PRODUCT_NAME,
+                        ProductEntry.COLUMN_PRODUCT_SUPPLIER,
+                        ProductEntry.COLUMN_PRODUCT_QTY},
+                null, null, null, null, ProductEntry._ID);
+        try {
+            assertEquals(3, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Blue pen", cursor.getString(0));
+            assertEquals("pens@example.com", cursor.getString(1));
+            assertEquals(10, cursor.getInt(2));
+            cursor.moveToLast();
+            assertEquals("Notebook", cursor.getString(0));
+            assertEquals("paper@example.com", cursor.getString(1));
+        } finally {
+            cursor.close();
+        }
+
+        assertTrue(ProductDbHelper.isSummaryConsistent(database));
+        assertEquals(2, DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM "
+                + ProductDbHelper.SEARCH_TABLE_NAME + " WHERE " + ProductDbHelper.SEARCH_TABLE_NAME
+                + " MATCH 'pens'", null));
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, ProductEntry.TABLE_NAME,
+                ProductDbHelper.COLUMN_SYNC_ID + " IS NULL", null));
+
+        // The ID of the deleted product is not reused
+        ProductDbHelper.insertSupplier(database, "pens@example.com");
+        database.execSQL("INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_QTY + ", " + ProductDbHelper.COLUMN_SUPPLIER_ID + ", "
+                + ProductEntry.COLUMN_PRODUCT_PICTURE + ") VALUES ('Green pen', 1.5, 1, "
+                + ProductDbHelper.SUPPLIER_ID_OF_EMAIL + ", '')", new Object[]{"pens@example.com"});
+        assertEquals(5, DatabaseUtils.longForQuery(database, "SELECT MAX(" + ProductEntry._ID
+                + ") FROM " + ProductEntry.TABLE_NAME, null));
+        assertTrue(ProductDbHelper.isSummaryConsistent(database));
+    }
+
+    /**
+     * Return the type, name and table of every table, index, trigger and view.
+     */
+    private static List<String> querySchema(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery(
+                "SELECT type, name, tbl_name FROM sqlite_master ORDER BY type, name", null);
+        try {
+            List<String> schema = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + " on "
+                        + cursor.getString(2));
+            }
+            return schema;
+        } finally {
+            cursor.close();
+        }
+    }
+}
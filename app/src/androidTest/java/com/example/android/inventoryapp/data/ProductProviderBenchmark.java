@@ -0,0 +1,340 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Throughput comparison between the different write paths of {@link ProductProvider}.
+ * Results are written to logcat under the {@link #LOG_TAG} tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductProviderBenchmark {
+
+    private static final String LOG_TAG = ProductProviderBenchmark.class.getSimpleName();
+
+    /**
+     * Supplier used to tag the rows inserted by the benchmark, so they can be cleaned up.
+     */
+    private static final String BENCHMARK_SUPPLIER = "benchmark@example.com";
+
+    private static final int ROW_COUNT = 2000;
+
+    private static final int UPDATE_COUNT = 2000;
+
+    private static final int IMPORT_ROW_COUNT = 100000;
+
+    private static final int EXPORT_ROW_COUNT = 1000000;
+
+    private static final int SYNC_ROW_COUNT = 100000;
+
+    private static final String SYNC_DATABASE_NAME = "sync_benchmark.db";
+
+    private Context context;
+
+    private ContentResolver resolver;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        resolver = context.getContentResolver();
+        deleteBenchmarkRows();
+    }
+
+    @After
+    public void tearDown() {
+        deleteBenchmarkRows();
+    }
+
+    @Test
+    public void insert_perRowVersusBatches() throws Exception {
+        ContentValues[] rows = createRows(ROW_COUNT);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(ROW_COUNT);
+        for (ContentValues row : rows) {
+            operations.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                    .withValues(row)
+                    .build());
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        for (ContentValues row : rows) {
+            resolver.insert(ProductEntry.CONTENT_URI, row);
+        }
+        long perRowMillis = SystemClock.elapsedRealtime() - start;
+        deleteBenchmarkRows();
+
+        start = SystemClock.elapsedRealtime();
+        int inserted = resolver.bulkInsert(ProductEntry.CONTENT_URI, rows);
+        long bulkMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(ROW_COUNT, inserted);
+        deleteBenchmarkRows();
+
+        start = SystemClock.elapsedRealtime();
+        ContentProviderResult[] results = resolver.applyBatch(ProductContract.CONTENT_AUTHORITY,
+                operations);
+        long batchMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(ROW_COUNT, results.length);
+
+        report("insert (per row)", perRowMillis);
+        report("bulkInsert", bulkMillis);
+        report("applyBatch", batchMillis);
+    }
+
+    @Test
+    public void updateQuantity_genericVersusCompiled() {
+        Uri productUri = resolver.insert(ProductEntry.CONTENT_URI, createRows(1)[0]);
+
+        // Setting the supplier again doesn't change the row, but takes the generic update path
+        ContentValues generic = new ContentValues();
+        generic.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, BENCHMARK_SUPPLIER);
+        reportPerCall("update (generic)", measureUpdates(productUri, generic));
+
+        // A quantity alone goes through the compiled statement
+        reportPerCall("update (compiled)", measureUpdates(productUri, new ContentValues()));
+
+        // Both paths wrote the quantities
+        Cursor cursor = resolver.query(productUri,
+                new String[]{ProductEntry.COLUMN_PRODUCT_QTY}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals((UPDATE_COUNT - 1) % 50, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void import_csvFile() throws IOException {
+        File file = new File(context.getCacheDir(), "benchmark.csv");
+        writeCsv(file, IMPORT_ROW_COUNT);
+        try {
+            final Runtime runtime = Runtime.getRuntime();
+            runtime.gc();
+            final long baseHeap = runtime.totalMemory() - runtime.freeMemory();
+            final long[] peakHeap = {baseHeap};
+
+            long start = SystemClock.elapsedRealtime();
+            ProductImporter.Result result = new ProductImporter(context).importProducts(
+                    Uri.fromFile(file), new ProductImporter.Listener() {
+                        @Override
+                        public void onRowRejected(long rowNumber, String message) {
+                        }
+
+                        @Override
+                        public void onProgress(long rowsRead, long rowsImported, long rowsRejected) {
+                            long heap = runtime.totalMemory() - runtime.freeMemory();
+                            peakHeap[0] = Math.max(peakHeap[0], heap);
+                        }
+                    });
+            long elapsedMillis = SystemClock.elapsedRealtime() - start;
+
+            assertEquals(IMPORT_ROW_COUNT, result.getRowsImported());
+            Log.i(LOG_TAG, "import: " + IMPORT_ROW_COUNT + " rows in " + elapsedMillis + " ms, "
+                    + (IMPORT_ROW_COUNT * 1000L / Math.max(1, elapsedMillis)) + " rows/sec, "
+                    + "heap grew by " + (peakHeap[0] - baseHeap) / 1024 + " KB at most");
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void export_csvVersusBinary() throws IOException {
+        // Fill the catalog through the compiled insert, in a single transaction
+        SQLiteDatabase database = ProductDbHelper.getInstance(context).getWritableDatabase();
+        ProductRepository repository = ProductRepository.getInstance(context);
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < EXPORT_ROW_COUNT; i++) {
+                repository.insertRow("Product " + i, 1f + i % 100, i % 50, BENCHMARK_SUPPLIER, "",
+                        null);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        measureExport(ProductEntry.FORMAT_CSV);
+        measureExport(ProductEntry.FORMAT_BINARY);
+    }
+
+    @Test
+    public void sync_salesOnLargeCatalog() throws IOException {
+        // A device of its own, so the app's catalog is not pushed along
+        context.deleteDatabase(SYNC_DATABASE_NAME);
+        ProductDbHelper device = new ProductDbHelper(context, SYNC_DATABASE_NAME, true);
+        SyncTestServer server = new SyncTestServer();
+        try {
+            SQLiteDatabase database = device.getWritableDatabase();
+            database.beginTransaction();
+            try {
+                for (ContentValues row : createRows(SYNC_ROW_COUNT)) {
+                    database.insertOrThrow(ProductEntry.TABLE_NAME, null,
+                            ProductDbHelper.toTableValues(database, row));
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+
+            SyncEngine engine = new SyncEngine(context, device, server.getUrl(), 10);
+            measureSync("sync (initial)", engine);
+
+            for (int i = 0; i < 10; i++) {
+                database.execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                        + ProductEntry.COLUMN_PRODUCT_QTY + " = " + ProductEntry.COLUMN_PRODUCT_QTY
+                        + " + 1 WHERE " + ProductEntry._ID + " = " + (1 + i * 997));
+            }
+            SyncEngine.Result result = measureSync("sync (10 sales)", engine);
+
+            assertEquals(10, result.getRowsPushed());
+            assertTrue(result.getBytesSent() + result.getBytesReceived() < 1000);
+        } finally {
+            server.close();
+            device.close();
+            context.deleteDatabase(SYNC_DATABASE_NAME);
+        }
+    }
+
+    private static SyncEngine.Result measureSync(String label, SyncEngine engine)
+            throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        SyncEngine.Result result = engine.sync();
+        long elapsedMillis = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, label + ": " + result.getRowsPushed() + " rows pushed, "
+                + result.getRowsPulled() + " pulled, " + result.getBytesSent() + " bytes sent, "
+                + result.getBytesReceived() + " received in " + elapsedMillis + " ms");
+        return result;
+    }
+
+    /**
+     * Read the whole export in the given format, and log its throughput and how much the heap
+     * grew while it was written.
+     */
+    private void measureExport(String format) throws IOException {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        long baseHeap = runtime.totalMemory() - runtime.freeMemory();
+        long peakHeap = baseHeap;
+
+        long start = SystemClock.elapsedRealtime();
+        long bytes = 0;
+        byte[] buffer = new byte[64 * 1024];
+        InputStream input = resolver.openInputStream(ProductEntry.buildExportUri(format));
+        try {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                bytes += read;
+                peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+            }
+        } finally {
+            input.close();
+        }
+        long elapsedMillis = SystemClock.elapsedRealtime() - start;
+
+        assertTrue(bytes > EXPORT_ROW_COUNT);
+        Log.i(LOG_TAG, "export (" + format + "): " + EXPORT_ROW_COUNT + " rows, " + bytes / 1024
+                + " KB in " + elapsedMillis + " ms, "
+                + (EXPORT_ROW_COUNT * 1000L / Math.max(1, elapsedMillis)) + " rows/sec, "
+                + "heap grew by " + (peakHeap - baseHeap) / 1024 + " KB at most");
+    }
+
+    /**
+     * Update the quantity of the product {@link #UPDATE_COUNT} times along with the given extra
+     * values, and return the elapsed time in nanoseconds followed by the number of objects
+     * allocated on this thread.
+     */
+    @SuppressWarnings("deprecation")
+    private long[] measureUpdates(Uri productUri, ContentValues extraValues) {
+        // Build the values up front, so only the cost of the provider is counted
+        ContentValues[] values = new ContentValues[UPDATE_COUNT];
+        for (int i = 0; i < UPDATE_COUNT; i++) {
+            values[i] = new ContentValues(extraValues);
+            values[i].put(ProductEntry.COLUMN_PRODUCT_QTY, i % 50);
+        }
+
+        // Warm up, so the statements are compiled before measuring
+        resolver.update(productUri, values[0], null, null);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (ContentValues value : values) {
+            resolver.update(productUri, value, null, null);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        return new long[]{elapsedNanos, Debug.getThreadAllocCount()};
+    }
+
+    private void reportPerCall(String label, long[] measurement) {
+        Log.i(LOG_TAG, label + ": " + UPDATE_COUNT + " calls, "
+                + measurement[0] / UPDATE_COUNT / 1000 + " us/call, "
+                + measurement[1] / UPDATE_COUNT + " allocations/call, "
+                + (UPDATE_COUNT * 1000000000L / Math.max(1, measurement[0])) + " calls/sec");
+    }
+
+    private void report(String label, long elapsedMillis) {
+        Log.i(LOG_TAG, label + ": " + ROW_COUNT + " rows in " + elapsedMillis + " ms, "
+                + (ROW_COUNT * 1000L / Math.max(1, elapsedMillis)) + " rows/sec");
+    }
+
+    private static ContentValues[] createRows(int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1f + i % 100);
+            values.put(ProductEntry.COLUMN_PRODUCT_QTY, i % 50);
+            values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, BENCHMARK_SUPPLIER);
+            values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, "");
+            rows[i] = values;
+        }
+        return rows;
+    }
+
+    private static void writeCsv(File file, int count) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file));
+        try {
+            writer.write("name,price,quantity,supplier\n");
+            for (int i = 0; i < count; i++) {
+                writer.write("Product " + i + "," + (1 + i % 100) + "," + i % 50 + ","
+                        + BENCHMARK_SUPPLIER + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void deleteBenchmarkRows() {
+        resolver.delete(ProductEntry.CONTENT_URI, ProductEntry.COLUMN_PRODUCT_SUPPLIER + "=?",
+                new String[]{BENCHMARK_SUPPLIER});
+    }
+}
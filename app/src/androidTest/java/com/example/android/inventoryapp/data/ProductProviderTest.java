@@ -0,0 +1,924 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+import com.example.android.inventoryapp.data.ProductContract.SummaryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Instrumentation tests for {@link ProductProvider}, run against the app's own provider.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductProviderTest {
+
+    private Context context;
+
+    private ContentResolver resolver;
+
+    private HandlerThread observerThread;
+
+    private Uri productUri;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        resolver = context.getContentResolver();
+        observerThread = new HandlerThread("ProductProviderTest");
+        observerThread.start();
+        productUri = insertTestProduct(100);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.delete(productUri, null, null);
+        observerThread.quit();
+    }
+
+    @Test
+    public void burstOfSales_isOneTransactionAndOneRequery() throws Exception {
+        final long productId = ContentUris.parseId(productUri);
+        CountingObserver observer = new CountingObserver(new Handler(observerThread.getLooper()));
+        resolver.registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+
+        final AtomicInteger flushes = new AtomicInteger();
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        SaleQueue saleQueue = new SaleQueue(new SaleQueue.Flusher() {
+            @Override
+            public void flush(long[] productIds, int[] quantityDeltas) {
+                flushes.incrementAndGet();
+                Bundle extras = new Bundle();
+                extras.putLongArray(ProductContract.EXTRA_PRODUCT_IDS, productIds);
+                extras.putIntArray(ProductContract.EXTRA_QUANTITY_DELTAS, quantityDeltas);
+                resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_APPLY_SALES,
+                        null, extras);
+            }
+        }, executor, SaleQueue.DEFAULT_WINDOW_MILLIS);
+
+        try {
+            for (int i = 0; i < 30; i++) {
+                saleQueue.recordSale(productId);
+            }
+            // Let the window close and the flush run
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }, SaleQueue.DEFAULT_WINDOW_MILLIS * 2, TimeUnit.MILLISECONDS).get();
+            // Let the notification reach the observer
+            Thread.sleep(200);
+        } finally {
+            executor.shutdownNow();
+            resolver.unregisterContentObserver(observer);
+        }
+
+        assertEquals(1, flushes.get());
+        assertEquals(1, observer.changes.get());
+        assertEquals(70, queryQuantity(productUri));
+    }
+
+    @Test
+    public void applySales_isRejectedBelowZero_andStillNotified() throws Exception {
+        Bundle extras = new Bundle();
+        extras.putLongArray(ProductContract.EXTRA_PRODUCT_IDS,
+                new long[]{ContentUris.parseId(productUri)});
+        extras.putIntArray(ProductContract.EXTRA_QUANTITY_DELTAS, new int[]{-150});
+
+        // The catalog already showed the sale, so it must read the product again
+        CountingObserver observer = new CountingObserver(new Handler(observerThread.getLooper()));
+        resolver.registerContentObserver(productUri, true, observer);
+        try {
+            Bundle result = resolver.call(ProductEntry.CONTENT_URI,
+                    ProductContract.METHOD_APPLY_SALES, null, extras);
+            // Let the notification reach the observer
+            Thread.sleep(200);
+
+            assertEquals(0, result.getInt(ProductContract.EXTRA_ROWS_UPDATED));
+            assertEquals(100, queryQuantity(productUri));
+            assertEquals(1, observer.changes.get());
+        } finally {
+            resolver.unregisterContentObserver(observer);
+        }
+    }
+
+    @Test
+    public void bulkChanges_overMoreProductsThanBindArguments_areOneNotificationEach()
+            throws Exception {
+        String supplier = "bulk@example.com";
+        ContentValues[] rows = new ContentValues[1500];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_NAME, "Bulk " + i);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_PRICE, 9.99f);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_QTY, i % 3);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, supplier);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_PICTURE, "");
+        }
+        resolver.bulkInsert(ProductEntry.CONTENT_URI, rows);
+        long[] ids = queryProductIds(supplier);
+        assertEquals(rows.length, ids.length);
+
+        CountingObserver observer = new CountingObserver(new Handler(observerThread.getLooper()));
+        resolver.registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+        try {
+            Bundle extras = new Bundle();
+            extras.putLongArray(ProductContract.EXTRA_PRODUCT_IDS, ids);
+            extras.putInt(ProductContract.EXTRA_QUANTITY, 5);
+            assertEquals(ids.length, resolver.call(ProductEntry.CONTENT_URI,
+                    ProductContract.METHOD_SET_QUANTITY, null, extras)
+                    .getInt(ProductContract.EXTRA_ROWS_UPDATED));
+
+            extras.putDouble(ProductContract.EXTRA_PRICE_PERCENT, 10);
+            assertEquals(ids.length, resolver.call(ProductEntry.CONTENT_URI,
+                    ProductContract.METHOD_ADJUST_PRICE, null, extras)
+                    .getInt(ProductContract.EXTRA_ROWS_UPDATED));
+            // Let the notifications reach the observer
+            Thread.sleep(200);
+
+            Uri lastUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, ids[ids.length - 1]);
+            assertEquals(5, queryQuantity(lastUri));
+            assertEquals(10.99, queryPrice(lastUri), 0.001);
+            assertEquals(2, observer.changes.get());
+            assertTrue(resolver.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_CHECK_SUMMARY,
+                    null, null).getBoolean(ProductContract.EXTRA_SUMMARY_CONSISTENT));
+        } finally {
+            resolver.unregisterContentObserver(observer);
+            resolver.delete(ProductEntry.CONTENT_URI, ProductEntry.COLUMN_PRODUCT_SUPPLIER + "=?",
+                    new String[]{supplier});
+        }
+    }
+
+    @Test
+    public void bulkInsert_withARejectedRow_insertsNothingAndNotifiesNothing() throws Exception {
+        String supplier = "rejected-bulk@example.com";
+        String sku = "batch-" + System.nanoTime();
+        ContentValues[] rows = new ContentValues[3];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = createProductValues("Rejected " + i, supplier);
+        }
+        // The SKU is unique, so the last row is rejected by the database
+        rows[1].put(ProductEntry.COLUMN_PRODUCT_SKU, sku);
+        rows[2].put(ProductEntry.COLUMN_PRODUCT_SKU, sku);
+
+        CountingObserver observer = new CountingObserver(new Handler(observerThread.getLooper()));
+        resolver.registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+        try {
+            try {
+                resolver.bulkInsert(ProductEntry.CONTENT_URI, rows);
+                fail("The batch should have been rejected");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            // Let any notification reach the observer
+            Thread.sleep(200);
+
+            assertEquals(0, queryProductIds(supplier).length);
+            assertEquals(0, observer.changes.get());
+        } finally {
+            resolver.unregisterContentObserver(observer);
+            resolver.delete(ProductEntry.CONTENT_URI, ProductEntry.COLUMN_PRODUCT_SUPPLIER + "=?",
+                    new String[]{supplier});
+        }
+    }
+
+    @Test
+    public void applyBatch_isOneNotification_andAllOrNothing() throws Exception {
+        String supplier = "batch@example.com";
+        String sku = "batch-" + System.nanoTime();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            operations.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                    .withValues(createProductValues("Batch " + i, supplier))
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newUpdate(productUri)
+                .withValue(ProductEntry.COLUMN_PRODUCT_QTY, 7)
+                .build());
+
+        CountingObserver observer = new CountingObserver(new Handler(observerThread.getLooper()));
+        resolver.registerContentObserver(ProductEntry.CONTENT_URI, true, observer);
+        try {
+            ContentProviderResult[] results = resolver.applyBatch(
+                    ProductContract.CONTENT_AUTHORITY, operations);
+            // Let the notification reach the observer
+            Thread.sleep(200);
+
+            assertEquals(operations.size(), results.length);
+            assertEquals(3, queryProductIds(supplier).length);
+            assertEquals(7, queryQuantity(productUri));
+            assertEquals(1, observer.changes.get());
+
+            // An insert rejected by the database rolls back the batch, without any notification
+            operations.clear();
+            operations.add(ContentProviderOperation.newUpdate(productUri)
+                    .withValue(ProductEntry.COLUMN_PRODUCT_QTY, 9)
+                    .build());
+            for (int i = 0; i < 2; i++) {
+                operations.add(ContentProviderOperation.newInsert(ProductEntry.CONTENT_URI)
+                        .withValues(createProductValues("Batch " + i, supplier))
+                        .withValue(ProductEntry.COLUMN_PRODUCT_SKU, sku)
+                        .build());
+            }
+            try {
+                resolver.applyBatch(ProductContract.CONTENT_AUTHORITY, operations);
+                fail("The batch should have been rejected");
+            } catch (OperationApplicationException e) {
+                // Expected
+            }
+            Thread.sleep(200);
+
+            assertEquals(3, queryProductIds(supplier).length);
+            assertEquals(7, queryQuantity(productUri));
+            assertEquals(1, observer.changes.get());
+        } finally {
+            resolver.unregisterContentObserver(observer);
+            resolver.delete(ProductEntry.CONTENT_URI, ProductEntry.COLUMN_PRODUCT_SUPPLIER + "=?",
+                    new String[]{supplier});
+        }
+    }
+
+    @Test
+    public void bulkDelete_hidesTheProductsUntilTheyAreRestored() {
+        Uri otherUri = insertTestProduct(3);
+        Bundle extras = new Bundle();
+        extras.putLongArray(ProductContract.EXTRA_PRODUCT_IDS,
+                new long[]{ContentUris.parseId(productUri), ContentUris.parseId(otherUri)});
+        try {
+            assertEquals(2, resolver.call(ProductEntry.CONTENT_URI,
+                    ProductContract.METHOD_DELETE_PRODUCTS, null, extras)
+                    .getInt(ProductContract.EXTRA_ROWS_UPDATED));
+            assertEquals(0, countRows(otherUri));
+
+            // Hidden products are left out of the other bulk changes
+            extras.putInt(ProductContract.EXTRA_QUANTITY, 1);
+            assertEquals(0, resolver.call(ProductEntry.CONTENT_URI,
+                    ProductContract.METHOD_SET_QUANTITY, null, extras)
+                    .getInt(ProductContract.EXTRA_ROWS_UPDATED));
+
+            assertEquals(2, resolver.call(ProductEntry.CONTENT_URI,
+                    ProductContract.METHOD_RESTORE_PRODUCTS, null, extras)
+                    .getInt(ProductContract.EXTRA_ROWS_UPDATED));
+            assertEquals(100, queryQuantity(productUri));
+            assertEquals(3, queryQuantity(otherUri));
+        } finally {
+            resolver.delete(otherUri, null, null);
+        }
+    }
+
+    @Test
+    public void adjust_returnsOneRowUpdated_evenDownToZero() {
+        Uri adjustUri = ProductEntry.buildAdjustUri(ContentUris.parseId(productUri));
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.ADJUST_DELTA, -3);
+
+        assertEquals(1, resolver.update(adjustUri, values, null, null));
+        assertEquals(97, queryQuantity(productUri));
+
+        values.put(ProductEntry.ADJUST_DELTA, -97);
+        assertEquals(1, resolver.update(adjustUri, values, null, null));
+        assertEquals(0, queryQuantity(productUri));
+    }
+
+    @Test
+    public void adjust_isRejectedBelowZero() {
+        Uri adjustUri = ProductEntry.buildAdjustUri(ContentUris.parseId(productUri));
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.ADJUST_DELTA, -101);
+
+        assertEquals(0, resolver.update(adjustUri, values, null, null));
+        assertEquals(100, queryQuantity(productUri));
+    }
+
+    @Test
+    public void adjustQuantityCall_returnsNewQuantity() {
+        Bundle extras = new Bundle();
+        extras.putLong(ProductContract.EXTRA_PRODUCT_ID, ContentUris.parseId(productUri));
+        extras.putInt(ProductContract.EXTRA_QUANTITY_DELTA, -3);
+
+        assertEquals(97, resolver.call(ProductEntry.CONTENT_URI,
+                ProductContract.METHOD_ADJUST_QUANTITY, null, extras)
+                .getInt(ProductContract.EXTRA_QUANTITY));
+
+        extras.putInt(ProductContract.EXTRA_QUANTITY_DELTA, -98);
+        assertEquals(-1, resolver.call(ProductEntry.CONTENT_URI,
+                ProductContract.METHOD_ADJUST_QUANTITY, null, extras)
+                .getInt(ProductContract.EXTRA_QUANTITY));
+        assertEquals(97, queryQuantity(productUri));
+    }
+
+    @Test
+    public void repeatedQuery_isCachedUntilTheNextWrite() {
+        // Deleting the statistics resets them
+        resolver.delete(StatsEntry.CONTENT_URI, null, null);
+
+        assertEquals(100, queryQuantity(productUri));
+        assertEquals(100, queryQuantity(productUri));
+        assertEquals(1, queryCachedQueries());
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_QTY, 42);
+        resolver.update(productUri, values, null, null);
+
+        assertEquals(42, queryQuantity(productUri));
+        assertEquals(1, queryCachedQueries());
+        assertEquals(42, queryQuantity(productUri));
+        assertEquals(2, queryCachedQueries());
+    }
+
+    @Test
+    public void pageQuery_seeksAfterTheGivenKey() {
+        Uri secondUri = insertTestProduct(5);
+        Uri thirdUri = insertTestProduct(6);
+        try {
+            Uri pageUri = ProductEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(ProductEntry.QUERY_AFTER_ID,
+                            String.valueOf(ContentUris.parseId(productUri)))
+                    .appendQueryParameter(ProductEntry.QUERY_LIMIT, "1")
+                    .build();
+            Cursor cursor = resolver.query(pageUri, new String[]{ProductEntry._ID}, null, null, null);
+            try {
+                assertEquals(1, cursor.getCount());
+                cursor.moveToFirst();
+                assertEquals(ContentUris.parseId(secondUri), cursor.getLong(0));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            resolver.delete(secondUri, null, null);
+            resolver.delete(thirdUri, null, null);
+        }
+    }
+
+    @Test
+    public void search_matchesWordPrefixes() {
+        Cursor cursor = resolver.query(ProductEntry.buildSearchUri("tes prod"),
+                new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            boolean found = false;
+            while (cursor.moveToNext()) {
+                found |= cursor.getLong(0) == ContentUris.parseId(productUri);
+            }
+            assertTrue(found);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void search_ranksEveryMatchBeforeLimiting() {
+        // The best match comes last in the index, after hundreds of weaker ones
+        String word = "ranked" + System.nanoTime();
+        ContentValues[] rows = new ContentValues[601];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_NAME, i < rows.length - 1
+                    ? word + " " + i
+                    : word + " " + word);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_PRICE, 1.0f);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_QTY, 1);
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, "other@example.com");
+            rows[i].put(ProductEntry.COLUMN_PRODUCT_PICTURE, "");
+        }
+        resolver.bulkInsert(ProductEntry.CONTENT_URI, rows);
+        try {
+            Cursor cursor = resolver.query(ProductEntry.buildSearchUri(word).buildUpon()
+                            .appendQueryParameter(ProductEntry.QUERY_LIMIT, "2").build(),
+                    new String[]{ProductEntry.COLUMN_PRODUCT_NAME}, null, null, null);
+            try {
+                assertEquals(2, cursor.getCount());
+                cursor.moveToFirst();
+                assertEquals(word + " " + word, cursor.getString(0));
+                // Then the first of the equal ones, in index order
+                cursor.moveToNext();
+                assertEquals(word + " 0", cursor.getString(0));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            resolver.delete(ProductEntry.CONTENT_URI, ProductEntry.COLUMN_PRODUCT_NAME + " LIKE ?",
+                    new String[]{word + "%"});
+        }
+    }
+
+    @Test
+    public void supplierChange_isReadSelectedAndSearchedByEmail() {
+        String supplier = "moved" + System.nanoTime() + "@example.com";
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, supplier);
+        assertEquals(1, resolver.update(productUri, values, null, null));
+
+        Cursor cursor = resolver.query(productUri,
+                new String[]{ProductEntry.COLUMN_PRODUCT_SUPPLIER}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(supplier, cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(1, countProducts(supplier));
+        assertEquals(ContentUris.parseId(productUri),
+                querySearchFirstId(supplier.substring(0, supplier.indexOf('@'))));
+
+        // A second product of the same supplier shares its row
+        Uri otherUri = insertTestProduct(1);
+        try {
+            assertEquals(1, resolver.update(otherUri, values, null, null));
+            assertEquals(2, countProducts(supplier));
+            assertEquals(1, DatabaseUtils.longForQuery(
+                    ProductDbHelper.getInstance(context).getReadableDatabase(),
+                    "SELECT COUNT(*) FROM " + ProductDbHelper.SUPPLIERS_TABLE_NAME
+                            + " WHERE " + ProductDbHelper.COLUMN_SUPPLIER_EMAIL + " = ?",
+                    new String[]{supplier}));
+        } finally {
+            resolver.delete(otherUri, null, null);
+        }
+    }
+
+    @Test
+    public void summary_followsInsertsUpdatesAndDeletes() {
+        long[] before = querySummaryCounts();
+        double valueBefore = queryStockValue();
+
+        Uri outOfStockUri = insertTestProduct(0);
+        try {
+            long[] inserted = querySummaryCounts();
+            assertEquals(before[0] + 1, inserted[0]);
+            assertEquals(before[1], inserted[1]);
+            assertEquals(before[2] + 1, inserted[2]);
+            assertEquals(before[3] + 1, inserted[3]);
+
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_QTY, 10);
+            resolver.update(outOfStockUri, values, null, null);
+
+            long[] updated = querySummaryCounts();
+            assertEquals(before[1] + 10, updated[1]);
+            assertEquals(before[2], updated[2]);
+            assertEquals(before[3], updated[3]);
+            assertEquals(valueBefore + 10 * 9.99, queryStockValue(), 0.01);
+        } finally {
+            resolver.delete(outOfStockUri, null, null);
+        }
+
+        assertArrayEquals(before, querySummaryCounts());
+        Bundle result = resolver.call(SummaryEntry.CONTENT_URI,
+                ProductContract.METHOD_CHECK_SUMMARY, null, null);
+        assertTrue(result.getBoolean(ProductContract.EXTRA_SUMMARY_CONSISTENT));
+    }
+
+    @Test
+    public void skuLookup_followsChangesOfTheSku() {
+        String sku = "4006381333931";
+        Uri skuUri = ProductEntry.buildSkuUri(sku);
+        assertEquals(-1, querySkuId(skuUri));
+
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_SKU, sku);
+        resolver.update(productUri, values, null, null);
+        assertEquals(ContentUris.parseId(productUri), querySkuId(skuUri));
+        // Answered from the cache this time
+        assertEquals(ContentUris.parseId(productUri), querySkuId(skuUri));
+
+        Uri secondUri = insertTestProduct(5);
+        try {
+            // The SKU is unique, so the second product can't take it
+            values.put(ProductEntry.COLUMN_PRODUCT_SKU, sku);
+            try {
+                resolver.update(secondUri, values, null, null);
+                fail("The SKU should have been rejected as a duplicate");
+            } catch (SQLiteConstraintException e) {
+                // Expected
+            }
+            // Nor can a product inserted through the repository
+            assertEquals(-1, ProductRepository.getInstance(context).insertProduct(new Product(0,
+                    "Duplicate", 1f, 1, "supplier@example.com", "", sku)));
+
+            // Once released by the first product, the SKU can move to the second one
+            values.putNull(ProductEntry.COLUMN_PRODUCT_SKU);
+            resolver.update(productUri, values, null, null);
+            assertEquals(-1, querySkuId(skuUri));
+            values.put(ProductEntry.COLUMN_PRODUCT_SKU, sku);
+            resolver.update(secondUri, values, null, null);
+            assertEquals(ContentUris.parseId(secondUri), querySkuId(skuUri));
+        } finally {
+            resolver.delete(secondUri, null, null);
+        }
+        assertEquals(-1, querySkuId(skuUri));
+    }
+
+    @Test
+    public void delete_hidesTheProductUntilItIsRestored() {
+        long[] before = querySummaryCounts();
+        long id = ContentUris.parseId(productUri);
+        Uri restoreUri = ProductEntry.buildRestoreUri(id);
+        assertEquals(0, resolver.update(restoreUri, new ContentValues(), null, null));
+
+        assertEquals(1, resolver.delete(productUri, null, null));
+        Cursor cursor = resolver.query(productUri, new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        assertEquals(before[0] - 1, querySummaryCounts()[0]);
+        assertEquals(0, resolver.delete(productUri, null, null));
+
+        assertEquals(1, resolver.update(restoreUri, new ContentValues(), null, null));
+        assertEquals(100, queryQuantity(productUri));
+        assertArrayEquals(before, querySummaryCounts());
+        assertEquals(0, resolver.update(restoreUri, new ContentValues(), null, null));
+    }
+
+    @Test
+    public void updateWithoutSelection_leavesTheDeletedProductsAsTheyAre() {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, "content://deleted");
+        resolver.update(productUri, values, null, null);
+        resolver.delete(productUri, null, null);
+
+        // Every product that is not deleted is updated, and only those
+        values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, "");
+        assertEquals(countRows(ProductEntry.CONTENT_URI),
+                resolver.update(ProductEntry.CONTENT_URI, values, null, null));
+
+        assertEquals(1, resolver.update(ProductEntry.buildRestoreUri(
+                ContentUris.parseId(productUri)), new ContentValues(), null, null));
+        Cursor cursor = resolver.query(productUri,
+                new String[]{ProductEntry.COLUMN_PRODUCT_PICTURE}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("content://deleted", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void purge_removesTheProductsDeletedBeforeTheTime() throws InterruptedException {
+        ProductRepository repository = ProductRepository.getInstance(context);
+        Uri purgedUri = insertTestProduct(1);
+        resolver.delete(purgedUri, null, null);
+        Thread.sleep(5);
+        long purgeTime = System.currentTimeMillis();
+        Thread.sleep(5);
+        resolver.delete(productUri, null, null);
+
+        assertTrue(repository.purgeDeletedRows(purgeTime) >= 1);
+        assertEquals(0, resolver.update(ProductEntry.buildRestoreUri(
+                ContentUris.parseId(purgedUri)), new ContentValues(), null, null));
+        assertEquals(1, resolver.update(ProductEntry.buildRestoreUri(
+                ContentUris.parseId(productUri)), new ContentValues(), null, null));
+        Bundle result = resolver.call(SummaryEntry.CONTENT_URI,
+                ProductContract.METHOD_CHECK_SUMMARY, null, null);
+        assertTrue(result.getBoolean(ProductContract.EXTRA_SUMMARY_CONSISTENT));
+    }
+
+    @Test
+    public void skuOfDeletedProduct_canBeTakenByAnotherProduct() {
+        String sku = "5901234123457";
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_SKU, sku);
+        Uri deletedUri = insertTestProduct(1);
+        resolver.update(deletedUri, values, null, null);
+        resolver.delete(deletedUri, null, null);
+        assertEquals(-1, querySkuId(ProductEntry.buildSkuUri(sku)));
+
+        // Taking the SKU purges the deleted product, which can't be restored anymore
+        resolver.update(productUri, values, null, null);
+        assertEquals(ContentUris.parseId(productUri), querySkuId(ProductEntry.buildSkuUri(sku)));
+        assertEquals(0, resolver.update(ProductEntry.buildRestoreUri(
+                ContentUris.parseId(deletedUri)), new ContentValues(), null, null));
+    }
+
+    @Test
+    public void import_resumesAfterInterruption() throws IOException {
+        String supplier = "import@example.com";
+        int rowCount = ProductImporter.CHUNK_SIZE * 2 + 10;
+        File file = new File(context.getCacheDir(), "import_test.csv");
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write("name,price,quantity,supplier\n");
+            for (int i = 0; i < rowCount; i++) {
+                // Every tenth row has no quantity and is rejected
+                writer.write("Imported " + i + ",1.5," + (i % 10 == 0 ? "" : "3") + ","
+                        + supplier + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        ProductImporter importer = new ProductImporter(context);
+        Uri source = Uri.fromFile(file);
+        try {
+            // Stop after the first chunk
+            try {
+                importer.importProducts(source, new ImportListener() {
+                    @Override
+                    public void onProgress(long rowsRead, long rowsImported, long rowsRejected) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                fail("The import should have been interrupted");
+            } catch (InterruptedIOException e) {
+                assertTrue(Thread.interrupted());
+            }
+            assertTrue(importer.hasProgress(source));
+
+            ProductImporter.Result result = importer.importProducts(source, new ImportListener());
+            assertEquals(rowCount, result.getRowsRead());
+            assertEquals((rowCount + 9) / 10, result.getRowsRejected());
+            assertEquals(rowCount - result.getRowsRejected(), result.getRowsImported());
+            assertEquals(result.getRowsImported(), countProducts(supplier));
+        } finally {
+            resolver.delete(ProductEntry.CONTENT_URI, ProductEntry.COLUMN_PRODUCT_SUPPLIER + "=?",
+                    new String[]{supplier});
+            file.delete();
+        }
+    }
+
+    @Test
+    public void exportCsv_startsWithHeaderAndHoldsTheProduct() throws IOException {
+        String productLine = ContentUris.parseId(productUri) + ",Test product,9.99,100,"
+                + "supplier@example.com,,";
+        InputStream input = resolver.openInputStream(
+                ProductEntry.buildExportUri(ProductEntry.FORMAT_CSV));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+        try {
+            assertEquals("_id,name,price,quantity,supplier,picture,sku", reader.readLine());
+            boolean found = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                found |= line.equals(productLine);
+            }
+            assertTrue(found);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void exportBinary_holdsTheProduct() throws IOException {
+        DataInputStream input = new DataInputStream(resolver.openInputStream(
+                ProductEntry.buildExportUri(ProductEntry.FORMAT_BINARY)));
+        try {
+            assertEquals(ProductEntry.BINARY_EXPORT_MAGIC, input.readInt());
+            assertEquals(ProductEntry.BINARY_EXPORT_VERSION, input.readByte());
+            boolean found = false;
+            while (true) {
+                long id;
+                try {
+                    id = input.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                float price = input.readFloat();
+                int quantity = input.readInt();
+                String name = readBinaryString(input);
+                readBinaryString(input);
+                readBinaryString(input);
+                String sku = readBinaryString(input);
+                if (id == ContentUris.parseId(productUri)) {
+                    found = true;
+                    assertEquals(9.99f, price, 0f);
+                    assertEquals(100, quantity);
+                    assertEquals("Test product", name);
+                    assertEquals("", sku);
+                }
+            }
+            assertTrue(found);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Return the ID of the product found by the given SKU URI, or -1 if there is none.
+     */
+    private long querySkuId(Uri skuUri) {
+        Cursor cursor = resolver.query(skuUri, new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the ID of the first result of a search for the given text, or -1 if there is none.
+     */
+    private long querySearchFirstId(String text) {
+        Cursor cursor = resolver.query(ProductEntry.buildSearchUri(text),
+                new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String readBinaryString(DataInputStream input) throws IOException {
+        int length = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = input.readUnsignedByte();
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private Uri insertTestProduct(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Test product");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 9.99f);
+        values.put(ProductEntry.COLUMN_PRODUCT_QTY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, "supplier@example.com");
+        values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, "");
+        return resolver.insert(ProductEntry.CONTENT_URI, values);
+    }
+
+    private static ContentValues createProductValues(String name, String supplier) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 9.99f);
+        values.put(ProductEntry.COLUMN_PRODUCT_QTY, 1);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, supplier);
+        values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, "");
+        return values;
+    }
+
+    private int queryQuantity(Uri uri) {
+        Cursor cursor = resolver.query(uri, new String[]{ProductEntry.COLUMN_PRODUCT_QTY},
+                null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private double queryPrice(Uri uri) {
+        Cursor cursor = resolver.query(uri, new String[]{ProductEntry.COLUMN_PRODUCT_PRICE},
+                null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getDouble(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = resolver.query(uri, new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long[] queryProductIds(String supplier) {
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID},
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER + "=?", new String[]{supplier},
+                ProductEntry._ID);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the number of single product queries answered from the cache.
+     */
+    private long queryCachedQueries() {
+        Cursor cursor = resolver.query(StatsEntry.CONTENT_URI, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (StatsEntry.OPERATION_CACHED_QUERY.equals(cursor.getString(
+                        cursor.getColumnIndexOrThrow(StatsEntry.COLUMN_OPERATION)))
+                        && (ProductContract.PATH_PRODUCTS + "/#").equals(cursor.getString(
+                        cursor.getColumnIndexOrThrow(StatsEntry.COLUMN_URI)))) {
+                    return cursor.getLong(cursor.getColumnIndexOrThrow(StatsEntry.COLUMN_CALLS));
+                }
+            }
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the product count, total units, out of stock count and low stock count.
+     */
+    private long[] querySummaryCounts() {
+        Cursor cursor = resolver.query(SummaryEntry.CONTENT_URI, new String[]{
+                SummaryEntry.COLUMN_PRODUCT_COUNT,
+                SummaryEntry.COLUMN_TOTAL_UNITS,
+                SummaryEntry.COLUMN_OUT_OF_STOCK_COUNT,
+                SummaryEntry.COLUMN_LOW_STOCK_COUNT}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return new long[]{cursor.getLong(0), cursor.getLong(1), cursor.getLong(2),
+                    cursor.getLong(3)};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private double queryStockValue() {
+        Cursor cursor = resolver.query(SummaryEntry.CONTENT_URI,
+                new String[]{SummaryEntry.COLUMN_STOCK_VALUE}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getDouble(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long countProducts(String supplier) {
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI, new String[]{ProductEntry._ID},
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER + "=?", new String[]{supplier}, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static class ImportListener implements ProductImporter.Listener {
+
+        @Override
+        public void onRowRejected(long rowNumber, String message) {
+        }
+
+        @Override
+        public void onProgress(long rowsRead, long rowsImported, long rowsRejected) {
+        }
+    }
+
+    private static class CountingObserver extends ContentObserver {
+
+        final AtomicInteger changes = new AtomicInteger();
+
+        CountingObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            changes.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link SyncEngine} between two devices, each with its own database file, against
+ * {@link SyncTestServer}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SyncEngineTest {
+
+    private static final String DEVICE_A_DATABASE_NAME = "sync_a.db";
+
+    private static final String DEVICE_B_DATABASE_NAME = "sync_b.db";
+
+    private static final long BACKOFF_MILLIS = 10;
+
+    private Context context;
+
+    private SyncTestServer server;
+
+    private ProductDbHelper deviceA;
+
+    private ProductDbHelper deviceB;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DEVICE_A_DATABASE_NAME);
+        context.deleteDatabase(DEVICE_B_DATABASE_NAME);
+        server = new SyncTestServer();
+        deviceA = new ProductDbHelper(context, DEVICE_A_DATABASE_NAME, true);
+        deviceB = new ProductDbHelper(context, DEVICE_B_DATABASE_NAME, true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        deviceA.close();
+        deviceB.close();
+        server.close();
+        context.deleteDatabase(DEVICE_A_DATABASE_NAME);
+        context.deleteDatabase(DEVICE_B_DATABASE_NAME);
+    }
+
+    @Test
+    public void twoDevices_convergeWithAdditiveQuantities() throws IOException {
+        SyncEngine syncA = new SyncEngine(context, deviceA, server.getUrl(), BACKOFF_MILLIS);
+        SyncEngine syncB = new SyncEngine(context, deviceB, server.getUrl(), BACKOFF_MILLIS);
+
+        insertProduct(deviceA, "Pen", 10);
+        insertProduct(deviceA, "Ink", 4);
+        syncA.sync();
+        assertEquals(2, syncB.sync().getRowsPulled());
+        assertEquals(10, queryQuantity(deviceB, "Pen"));
+
+        // Both devices sell pens, and B renames the ink while A deletes it
+        adjustQuantity(deviceA, "Pen", -3);
+        adjustQuantity(deviceB, "Pen", -2);
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Blue ink");
+        deviceB.getWritableDatabase().update(ProductEntry.TABLE_NAME, values,
+                ProductEntry.COLUMN_PRODUCT_NAME + " = ?", new String[]{"Ink"});
+        deviceA.getWritableDatabase().delete(ProductEntry.TABLE_NAME,
+                ProductEntry.COLUMN_PRODUCT_NAME + " = ?", new String[]{"Ink"});
+
+        syncA.sync();
+        syncB.sync();
+        syncA.sync();
+
+        assertEquals(5, queryQuantity(deviceA, "Pen"));
+        assertEquals(5, queryQuantity(deviceB, "Pen"));
+        assertEquals(1, countProducts(deviceA));
+        assertEquals(1, countProducts(deviceB));
+
+        // Nothing left to exchange
+        SyncEngine.Result result = syncB.sync();
+        assertEquals(0, result.getRowsPushed());
+        assertEquals(0, result.getRowsPulled());
+    }
+
+    @Test
+    public void failedRequests_areRetried() throws IOException {
+        SyncEngine syncA = new SyncEngine(context, deviceA, server.getUrl(), BACKOFF_MILLIS);
+        insertProduct(deviceA, "Pen", 10);
+
+        server.failNextRequests(SyncEngine.MAX_ATTEMPTS);
+        try {
+            syncA.sync();
+            fail("The sync should have given up");
+        } catch (SyncEngine.HttpStatusException e) {
+            assertEquals(503, e.status);
+        }
+        assertEquals(SyncEngine.MAX_ATTEMPTS, server.getRequestCount());
+
+        server.failNextRequests(SyncEngine.MAX_ATTEMPTS - 1);
+        assertEquals(1, syncA.sync().getRowsPushed());
+        assertEquals(10, server.getQuantity(querySyncId(deviceA, "Pen")));
+    }
+
+    @Test
+    public void lostPushAnswers_doNotCountTheDeltasTwice() throws IOException {
+        SyncEngine syncA = new SyncEngine(context, deviceA, server.getUrl(), BACKOFF_MILLIS);
+        insertProduct(deviceA, "Pen", 10);
+        syncA.sync();
+        String syncId = querySyncId(deviceA, "Pen");
+
+        // The server applies the sale, but the device never learns it
+        adjustQuantity(deviceA, "Pen", -3);
+        server.dropNextPushAnswers(SyncEngine.MAX_ATTEMPTS);
+        try {
+            syncA.sync();
+            fail("The sync should have given up");
+        } catch (SyncEngine.HttpStatusException e) {
+            assertEquals(503, e.status);
+        }
+        assertEquals(7, server.getQuantity(syncId));
+
+        // Another sale before the next sync
+        adjustQuantity(deviceA, "Pen", -2);
+        syncA.sync();
+
+        assertEquals(5, server.getQuantity(syncId));
+        assertEquals(5, queryQuantity(deviceA, "Pen"));
+        assertEquals(0, syncA.sync().getRowsPushed());
+    }
+
+    @Test(timeout = 10000)
+    public void pageWithoutMore_endsThePull() throws IOException {
+        SyncEngine syncA = new SyncEngine(context, deviceA, server.getUrl(), BACKOFF_MILLIS);
+        SyncEngine syncB = new SyncEngine(context, deviceB, server.getUrl(), BACKOFF_MILLIS);
+        insertProduct(deviceA, "Pen", 10);
+        syncA.sync();
+
+        server.omitLastMore();
+        assertEquals(1, syncB.sync().getRowsPulled());
+        assertEquals(10, queryQuantity(deviceB, "Pen"));
+    }
+
+    @Test
+    public void rejectedChange_failsThePageUntilTheConflictIsSolved() throws IOException {
+        SyncEngine syncA = new SyncEngine(context, deviceA, server.getUrl(), BACKOFF_MILLIS);
+        SyncEngine syncB = new SyncEngine(context, deviceB, server.getUrl(), BACKOFF_MILLIS);
+        insertProduct(deviceA, "Pen", 10);
+        insertProduct(deviceA, "Ink", 5);
+        setSku(deviceA, "Ink", "4006381333931");
+        syncA.sync();
+
+        // Device B already uses the SKU for a product of its own
+        insertProduct(deviceB, "Local ink", 1);
+        setSku(deviceB, "Local ink", "4006381333931");
+        try {
+            syncB.sync();
+            fail("The sync should have stopped at the rejected change");
+        } catch (SyncEngine.RejectedChangeException e) {
+            assertEquals(querySyncId(deviceA, "Ink"), e.syncId);
+        }
+        // Nothing of the page was kept, and it will be pulled again
+        assertEquals(1, countProducts(deviceB));
+        assertEquals(0, DatabaseUtils.longForQuery(deviceB.getReadableDatabase(), "SELECT "
+                + ProductDbHelper.COLUMN_SYNC_CURSOR + " FROM "
+                + ProductDbHelper.SYNC_STATE_TABLE_NAME, null));
+
+        setSku(deviceB, "Local ink", "4006381333948");
+        assertEquals(2, syncB.sync().getRowsPulled());
+        assertEquals(5, queryQuantity(deviceB, "Ink"));
+    }
+
+    @Test
+    public void salesAfterSync_onlyPushTheirDeltas() throws IOException {
+        SyncEngine syncA = new SyncEngine(context, deviceA, server.getUrl(), BACKOFF_MILLIS);
+        int rowCount = SyncEngine.PUSH_BATCH_SIZE * 5;
+        SQLiteDatabase database = deviceA.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < rowCount; i++) {
+                insertProduct(deviceA, "Product " + i, 50);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        assertEquals(rowCount, syncA.sync().getRowsPushed());
+
+        for (int i = 0; i < 10; i++) {
+            adjustQuantity(deviceA, "Product " + i * 7, -1);
+        }
+        SyncEngine.Result result = syncA.sync();
+
+        assertEquals(10, result.getRowsPushed());
+        assertTrue("Moved " + (result.getBytesSent() + result.getBytesReceived()) + " bytes",
+                result.getBytesSent() + result.getBytesReceived() < 1000);
+        assertEquals(49, server.getQuantity(querySyncId(deviceA, "Product 7")));
+    }
+
+    private static void insertProduct(ProductDbHelper device, String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 1.5f);
+        values.put(ProductEntry.COLUMN_PRODUCT_QTY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, "supplier@example.com");
+        values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, "");
+        SQLiteDatabase database = device.getWritableDatabase();
+        database.insertOrThrow(ProductEntry.TABLE_NAME, null,
+                ProductDbHelper.toTableValues(database, values));
+    }
+
+    private static void setSku(ProductDbHelper device, String name, String sku) {
+        device.getWritableDatabase().execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                        + ProductEntry.COLUMN_PRODUCT_SKU + " = ? WHERE "
+                        + ProductEntry.COLUMN_PRODUCT_NAME + " = ?",
+                new Object[]{sku, name});
+    }
+
+    private static void adjustQuantity(ProductDbHelper device, String name, int delta) {
+        device.getWritableDatabase().execSQL("UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                        + ProductEntry.COLUMN_PRODUCT_QTY + " = " + ProductEntry.COLUMN_PRODUCT_QTY
+                        + " + ? WHERE " + ProductEntry.COLUMN_PRODUCT_NAME + " = ?",
+                new Object[]{delta, name});
+    }
+
+    private static int queryQuantity(ProductDbHelper device, String name) {
+        return (int) DatabaseUtils.longForQuery(device.getReadableDatabase(),
+                "SELECT " + ProductEntry.COLUMN_PRODUCT_QTY + " FROM " + ProductEntry.TABLE_NAME
+                        + " WHERE " + ProductEntry.COLUMN_PRODUCT_NAME + " = ?", new String[]{name});
+    }
+
+    private static String querySyncId(ProductDbHelper device, String name) {
+        Cursor cursor = device.getReadableDatabase().query(ProductEntry.TABLE_NAME,
+                new String[]{ProductDbHelper.COLUMN_SYNC_ID},
+                ProductEntry.COLUMN_PRODUCT_NAME + " = ?", new String[]{name}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long countProducts(ProductDbHelper device) {
+        return DatabaseUtils.queryNumEntries(device.getReadableDatabase(), ProductEntry.TABLE_NAME);
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.android.inventoryapp.data;
+
+import android.net.Uri;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Local stand-in for the sync server of {@link SyncEngine}, keeping the products in memory.
+ * <p>
+ * Serves one HTTP/1.1 request per connection on a loopback port, on its own thread. Each product
+ * is listed in the change log under the sequence number of its last change only, so a pull after
+ * a cursor returns the latest state of every product changed since.
+ */
+class SyncTestServer {
+
+    private final ServerSocket serverSocket;
+
+    private final Thread thread;
+
+    /**
+     * Latest state of each product, by sync ID.
+     */
+    private final Map<String, JSONObject> products = new HashMap<>();
+
+    /**
+     * Sync ID of the product changed or deleted at each sequence number still current.
+     */
+    private final TreeMap<Long, String> changeLog = new TreeMap<>();
+
+    /**
+     * Sequence number of the last change of each product, deleted ones included.
+     */
+    private final Map<String, Long> lastChanges = new HashMap<>();
+
+    /**
+     * Last batch applied for each device.
+     */
+    private final Map<String, Long> lastBatches = new HashMap<>();
+
+    private long seq;
+
+    private int failuresLeft;
+
+    private int pushAnswersToDrop;
+
+    /**
+     * Whether the last page of a pull leaves out "more" rather than setting it to false.
+     */
+    private boolean omitLastMore;
+
+    private long requestCount;
+
+    private long bytesReceived;
+
+    private long bytesSent;
+
+    SyncTestServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "SyncTestServer");
+        thread.start();
+    }
+
+    /**
+     * Return the URL to give to {@link SyncEngine}.
+     */
+    String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/sync";
+    }
+
+    /**
+     * Answer the given number of next requests with a 503 error.
+     */
+    synchronized void failNextRequests(int count) {
+        failuresLeft = count;
+    }
+
+    /**
+     * Apply the given number of next pushes, but answer them with a 503 error, as if the answers
+     * were lost on the way back.
+     */
+    synchronized void dropNextPushAnswers(int count) {
+        pushAnswersToDrop = count;
+    }
+
+    /**
+     * Leave "more" out of the last page of each pull from now on.
+     */
+    synchronized void omitLastMore() {
+        omitLastMore = true;
+    }
+
+    synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Return the number of bytes of the request and response bodies so far.
+     */
+    synchronized long getBodyBytes() {
+        return bytesReceived + bytesSent;
+    }
+
+    /**
+     * Return the quantity of the given product on the server, or -1 if it doesn't have it.
+     */
+    synchronized int getQuantity(String syncId) {
+        JSONObject product = products.get(syncId);
+        return product == null ? -1 : product.optInt(ProductContract.ProductEntry.COLUMN_PRODUCT_QTY);
+    }
+
+    void close() throws IOException {
+        serverSocket.close();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                try {
+                    handle(socket);
+                } finally {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // Closed, or the client went away
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        InputStream input = new BufferedInputStream(socket.getInputStream());
+        String[] requestLine = readLine(input).split(" ");
+        int contentLength = 0;
+        String line;
+        while (!(line = readLine(input)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+            }
+        }
+        byte[] body = new byte[contentLength];
+        for (int read = 0; read < contentLength; ) {
+            int count = input.read(body, read, contentLength - read);
+            if (count == -1) {
+                throw new IOException("Request body cut short");
+            }
+            read += count;
+        }
+
+        int status = 200;
+        String response;
+        synchronized (this) {
+            requestCount++;
+            bytesReceived += contentLength;
+            try {
+                if (failuresLeft > 0) {
+                    failuresLeft--;
+                    status = 503;
+                    response = "";
+                } else if (requestLine[0].equals("GET")) {
+                    response = pull(Uri.parse(requestLine[1])).toString();
+                } else {
+                    response = push(new JSONObject(new String(body, "UTF-8"))).toString();
+                    if (pushAnswersToDrop > 0) {
+                        pushAnswersToDrop--;
+                        status = 503;
+                        response = "";
+                    }
+                }
+            } catch (JSONException | RuntimeException e) {
+                status = 400;
+                response = "";
+            }
+            bytesSent += response.getBytes("UTF-8").length;
+        }
+
+        byte[] responseBytes = response.getBytes("UTF-8");
+        OutputStream output = socket.getOutputStream();
+        output.write(("HTTP/1.1 " + status + " " + (status == 200 ? "OK" : "Error") + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + responseBytes.length + "\r\n"
+                + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+        output.write(responseBytes);
+        output.flush();
+    }
+
+    private JSONObject pull(Uri uri) throws JSONException {
+        long since = Long.parseLong(uri.getQueryParameter("since"));
+        int limit = Integer.parseInt(uri.getQueryParameter("limit"));
+
+        JSONArray changes = new JSONArray();
+        JSONArray deleted = new JSONArray();
+        long cursor = since;
+        Iterator<Map.Entry<Long, String>> entries = changeLog.tailMap(since, false).entrySet().iterator();
+        while (entries.hasNext() && changes.length() + deleted.length() < limit) {
+            Map.Entry<Long, String> entry = entries.next();
+            cursor = entry.getKey();
+            JSONObject product = products.get(entry.getValue());
+            if (product == null) {
+                deleted.put(entry.getValue());
+            } else {
+                changes.put(product);
+            }
+        }
+        if (!entries.hasNext()) {
+            cursor = seq;
+        }
+
+        JSONObject response = new JSONObject()
+                .put("cursor", cursor)
+                .put("changes", changes)
+                .put("deleted", deleted);
+        if (entries.hasNext() || !omitLastMore) {
+            response.put("more", entries.hasNext());
+        }
+        return response;
+    }
+
+    private JSONObject push(JSONObject request) throws JSONException {
+        long cursor = request.getLong("cursor");
+        boolean caughtUp = cursor == seq;
+
+        String device = request.getString("device");
+        long batch = request.getLong("batch");
+        Long lastBatch = lastBatches.get(device);
+        if (lastBatch != null && batch <= lastBatch) {
+            // Already applied, the answer was lost
+            return new JSONObject().put("cursor", cursor);
+        }
+        lastBatches.put(device, batch);
+
+        JSONArray changes = request.getJSONArray("changes");
+        for (int i = 0; i < changes.length(); i++) {
+            JSONObject change = changes.getJSONObject(i);
+            String id = change.getString("id");
+            JSONObject product = products.get(id);
+            if (product == null) {
+                if (lastChanges.containsKey(id) || !change.has("name")) {
+                    // Deleted by another device, or unknown
+                    continue;
+                }
+                product = new JSONObject().put("id", id).put("quantity", 0);
+                products.put(id, product);
+            }
+            product.put("quantity", product.getInt("quantity") + change.optInt("delta"));
+            for (String field : new String[]{"name", "price", "supplier", "picture", "sku"}) {
+                if (change.has(field)) {
+                    product.put(field, change.get(field));
+                }
+            }
+            logChange(id);
+        }
+
+        JSONArray deleted = request.getJSONArray("deleted");
+        for (int i = 0; i < deleted.length(); i++) {
+            String id = deleted.getString(i);
+            if (products.remove(id) != null) {
+                logChange(id);
+            }
+        }
+
+        return new JSONObject().put("cursor", caughtUp ? seq : cursor);
+    }
+
+    private void logChange(String id) {
+        Long previous = lastChanges.put(id, ++seq);
+        if (previous != null) {
+            changeLog.remove(previous);
+        }
+        changeLog.put(seq, id);
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = input.read()) != '\n') {
+            if (c == -1) {
+                throw new IOException("Request cut short");
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        return line.toString("UTF-8");
+    }
+}
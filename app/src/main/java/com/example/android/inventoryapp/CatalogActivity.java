@@ -1,36 +1,152 @@
 package com.example.android.inventoryapp;
 
-import android.app.LoaderManager;
+import android.app.Activity;
+import android.app.AlertDialog;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.view.ActionMode;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.InputType;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
+import android.widget.EditText;
+import android.widget.Toast;
 
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductImporter;
+import com.example.android.inventoryapp.data.ProductWriter;
+import com.example.android.inventoryapp.data.SaleQueue;
 
-public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
+import java.io.IOException;
+
+public class CatalogActivity extends AppCompatActivity {
 
     private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
 
     /**
-     * Identifier for the product data loader
+     * Delay (in milliseconds) without typing before the search text is applied.
+     */
+    private static final long SEARCH_DEBOUNCE_MILLIS = 250;
+
+    /**
+     * Request code of the file picked for an import.
+     */
+    private static final int IMPORT_REQUEST = 1;
+
+    /**
+     * Request code of the details of a product, which hand back the product if it was deleted.
+     */
+    private static final int DETAILS_REQUEST = 2;
+
+    /**
+     * Whether the time to first content of this process was already measured, so that the
+     * activity being created again doesn't measure it from the start of the process.
+     */
+    private static boolean startupMeasured;
+
+    /**
+     * Handler used to debounce the search box
+     */
+    private final Handler searchHandler = new Handler();
+
+    /**
+     * Latest text typed in the search box
+     */
+    private String pendingSearchText;
+
+    /**
+     * Apply the latest text typed in the search box to the list
      */
-    private static final int PRODUCT_LOADER = 0;
+    private final Runnable searchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            productPagingAdapter.setSearchText(pendingSearchText);
+        }
+    };
 
     /**
-     * Adapter for the ListView
+     * Adapter for the RecyclerView
      */
-    ProductCursorAdapter productCursorAdapter;
+    ProductPagingAdapter productPagingAdapter;
+
+    /**
+     * Action mode shown while products are selected, or null
+     */
+    private ActionMode selectionMode;
+
+    /**
+     * Whether the activity was destroyed, e.g. to be created again after a rotation
+     */
+    private boolean destroyed;
+
+    /**
+     * Apply the actions of the action mode to the selected products, all of them at once
+     */
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            // Inflate the menu options from the res/menu/menu_catalog_selection.xml file.
+            mode.getMenuInflater().inflate(R.menu.menu_catalog_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            long[] ids = productPagingAdapter.getSelectedIds();
+            if (item.getItemId() == R.id.action_delete_selected) {
+                deleteProducts(ids);
+                mode.finish();
+                return true;
+            } else if (item.getItemId() == R.id.action_set_quantity) {
+                showSetQuantityDialog(ids);
+                return true;
+            } else if (item.getItemId() == R.id.action_adjust_price) {
+                showAdjustPriceDialog(ids);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            selectionMode = null;
+            productPagingAdapter.clearSelection();
+        }
+    };
+
+    /**
+     * Receives the number typed in a dialog.
+     */
+    private interface OnNumberEnteredListener {
+
+        /**
+         * Called with the number typed, trimmed. Throws a {@link NumberFormatException} if it is
+         * not a valid number.
+         */
+        void onNumberEntered(String number);
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -47,40 +163,479 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        // Find the ListView which will be populated with the data
-        ListView productListView = (ListView) findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with the data
+        RecyclerView productListView = (RecyclerView) findViewById(R.id.list);
+        productListView.setLayoutManager(new LinearLayoutManager(this));
+        productListView.addItemDecoration(
+                new DividerItemDecoration(this, DividerItemDecoration.VERTICAL));
+
+        // instantiate a paging adapter, sorted by ID, which opens the details of clicked products
+        productPagingAdapter = new ProductPagingAdapter(this, null,
+                new ProductPagingAdapter.OnProductClickListener() {
+                    @Override
+                    public void onProductClick(long id) {
+                        // Create new intent to go to {@link DetailsActivity}
+                        Intent detailsIntent = new Intent(CatalogActivity.this, DetailsActivity.class);
+
+                        // Form the content URI that represents the specific poduct that was clicked on
+                        Uri currentProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+
+                        // Set the URI on the data field of the intent
+                        detailsIntent.setData(currentProductUri);
+
+                        // Launch the {@link DetailsActivity} to display the data for the current product.
+                        startActivityForResult(detailsIntent, DETAILS_REQUEST);
+                    }
+
+                    @Override
+                    public void onSelectionChanged(int selectedCount) {
+                        if (selectedCount == 0) {
+                            // Unselecting the last product ends the selection
+                            if (selectionMode != null) {
+                                selectionMode.finish();
+                            } else {
+                                productPagingAdapter.clearSelection();
+                            }
+                            return;
+                        }
+                        if (selectionMode == null) {
+                            selectionMode = startSupportActionMode(selectionCallback);
+                        }
+                        selectionMode.setTitle(getString(R.string.selected_count, selectedCount));
+                    }
+                });
+
+        // Show the empty view only when the list has 0 items
+        final View emptyView = findViewById(R.id.empty_view);
+        productPagingAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                emptyView.setVisibility(productPagingAdapter.isEmpty() ? View.VISIBLE : View.GONE);
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                onChanged();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                onChanged();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                onChanged();
+            }
+        });
+        emptyView.setVisibility(View.GONE);
+
+        // set up this adapter onto the RecyclerView
+        productListView.setAdapter(productPagingAdapter);
+        if (!startupMeasured) {
+            startupMeasured = true;
+            measureStartup(productListView);
+        }
+
+        // start loading the first page
+        productPagingAdapter.open();
+    }
+
+    /**
+     * Log the time from the start of the process to the first frame showing products, from the
+     * snapshot or from the database, and to the first frame showing the products of the database.
+     */
+    private void measureStartup(final RecyclerView productListView) {
+        productListView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    private boolean contentShown;
+
+                    @Override
+                    public boolean onPreDraw() {
+                        long elapsed = SystemClock.uptimeMillis()
+                                - InventoryApplication.getStartUptimeMillis();
+                        boolean live = productPagingAdapter.isLive();
+                        if (!contentShown && productListView.getChildCount() > 0) {
+                            contentShown = true;
+                            Log.i(LOG_TAG, "Time to first content: " + elapsed + " ms, from the "
+                                    + (live ? "database" : "snapshot"));
+                        }
+                        if (live) {
+                            Log.i(LOG_TAG, "Time to live content: " + elapsed + " ms");
+                            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                                reportFullyDrawn();
+                            }
+                            productListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        }
+                        return true;
+                    }
+                });
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // Inflate the menu options from the res/menu/menu_catalog.xml file.
+        getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search as the user types, once the typing pauses
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // Search right away
+                searchHandler.removeCallbacks(searchRunnable);
+                pendingSearchText = query;
+                searchRunnable.run();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // Replace the search still waiting, if any, by the new one
+                searchHandler.removeCallbacks(searchRunnable);
+                pendingSearchText = newText;
+                searchHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MILLIS);
+                return true;
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_import) {
+            // check API version and create intent with the proper action
+            Intent intent;
+            if (Build.VERSION.SDK_INT < 19) {
+                intent = new Intent(Intent.ACTION_GET_CONTENT);
+            } else {
+                intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+            }
+
+            // CSV and JSON files come with all sorts of MIME types
+            intent.setType("*/*");
+            startActivityForResult(Intent.createChooser(intent, getString(R.string.action_import)),
+                    IMPORT_REQUEST);
+            return true;
+        } else if (item.getItemId() == R.id.sort_catalog_order) {
+            sortInMemory(item, null, false);
+            return true;
+        } else if (item.getItemId() == R.id.sort_name) {
+            sortInMemory(item, ProductEntry.COLUMN_PRODUCT_NAME, false);
+            return true;
+        } else if (item.getItemId() == R.id.sort_price_ascending) {
+            sortInMemory(item, ProductEntry.COLUMN_PRODUCT_PRICE, false);
+            return true;
+        } else if (item.getItemId() == R.id.sort_price_descending) {
+            sortInMemory(item, ProductEntry.COLUMN_PRODUCT_PRICE, true);
+            return true;
+        } else if (item.getItemId() == R.id.sort_quantity_ascending) {
+            sortInMemory(item, ProductEntry.COLUMN_PRODUCT_QTY, false);
+            return true;
+        } else if (item.getItemId() == R.id.filter_all) {
+            filterInMemory(item, null, 0, 0);
+            return true;
+        } else if (item.getItemId() == R.id.filter_in_stock) {
+            filterInMemory(item, ProductEntry.COLUMN_PRODUCT_QTY, 1, Integer.MAX_VALUE);
+            return true;
+        } else if (item.getItemId() == R.id.filter_out_of_stock) {
+            filterInMemory(item, ProductEntry.COLUMN_PRODUCT_QTY, 0, 0);
+            return true;
+        } else if (item.getItemId() == R.id.filter_max_price) {
+            showMaxPriceDialog(item);
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Sort the list by the given column, checking the given menu item, or go back to the catalog
+     * order if the column is null.
+     */
+    private void sortInMemory(MenuItem item, String column, boolean descending) {
+        item.setChecked(true);
+        productPagingAdapter.sortInMemory(column, descending);
+    }
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        productListView.setEmptyView(emptyView);
+    /**
+     * Only list the products whose value in the given column lies between the given bounds,
+     * checking the given menu item, or all of them if the column is null.
+     */
+    private void filterInMemory(MenuItem item, String column, double min, double max) {
+        item.setChecked(true);
+        productPagingAdapter.filterInMemory(column, min, max);
+    }
 
-        // instantiate a cursor adapter
-        productCursorAdapter = new ProductCursorAdapter(this, null);
+    /**
+     * Ask for the highest price, and only list the products up to that price.
+     */
+    private void showMaxPriceDialog(final MenuItem item) {
+        showNumberDialog(R.string.max_price_title,
+                InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL,
+                new OnNumberEnteredListener() {
+                    @Override
+                    public void onNumberEntered(String number) {
+                        filterInMemory(item, ProductEntry.COLUMN_PRODUCT_PRICE, 0,
+                                Double.parseDouble(number));
+                    }
+                });
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent resultData) {
+        super.onActivityResult(requestCode, resultCode, resultData);
+        if (requestCode == IMPORT_REQUEST && resultCode == Activity.RESULT_OK
+                && resultData != null && resultData.getData() != null) {
+            importProducts(resultData.getData());
+        } else if (requestCode == DETAILS_REQUEST && resultCode == Activity.RESULT_OK
+                && resultData != null && resultData.getData() != null) {
+            showDeleted(ContentUris.parseId(resultData.getData()));
+        }
+    }
+
+    /**
+     * Tell that the given product was deleted, offering to undo it.
+     */
+    private void showDeleted(final long id) {
+        final Context context = getApplicationContext();
+        Snackbar.make(findViewById(R.id.list), R.string.delete_product_successful, Snackbar.LENGTH_LONG)
+                .setAction(R.string.undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        ProductWriter.getInstance(context).restore(id,
+                                new ProductWriter.Callback<Boolean>() {
+                                    @Override
+                                    public void onSuccess(Boolean restored) {
+                                        if (!restored) {
+                                            Toast.makeText(context, R.string.restore_product_failed,
+                                                    Toast.LENGTH_SHORT).show();
+                                        }
+                                    }
 
-        // set up this adapter onto the ListView
-        productListView.setAdapter(productCursorAdapter);
+                                    @Override
+                                    public void onFailure(Exception error) {
+                                        Log.e(LOG_TAG, "Failed to restore product " + id, error);
+                                        Toast.makeText(context, R.string.restore_product_failed,
+                                                Toast.LENGTH_SHORT).show();
+                                    }
+                                });
+                    }
+                })
+                .show();
+    }
 
-        // kick off the loader
-        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+    /**
+     * Delete the given products, all at once, and tell how many were deleted, offering to undo it.
+     */
+    private void deleteProducts(final long[] ids) {
+        final Context context = getApplicationContext();
+        ProductWriter.getInstance(this).deleteProducts(ids, new ProductWriter.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer rowsDeleted) {
+                if (rowsDeleted != 0 && !isFinishing()) {
+                    showDeleted(ids, rowsDeleted);
+                }
+            }
 
-        // set an OnItemClickListener onto the list items
-        productListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                // Create new intent to go to {@link DetailsActivity}
-                Intent detailsIntent = new Intent(CatalogActivity.this, DetailsActivity.class);
+            public void onFailure(Exception error) {
+                Log.e(LOG_TAG, "Failed to delete " + ids.length + " products", error);
+                Toast.makeText(context, R.string.delete_products_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
 
-                // Form the content URI that represents the specific poduct that was clicked on
-                Uri currentProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+    /**
+     * Tell that the given products were deleted, offering to undo it.
+     */
+    private void showDeleted(final long[] ids, int rowsDeleted) {
+        final Context context = getApplicationContext();
+        Snackbar.make(findViewById(R.id.list), getString(R.string.products_deleted, rowsDeleted),
+                Snackbar.LENGTH_LONG)
+                .setAction(R.string.undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        ProductWriter.getInstance(context).restoreProducts(ids,
+                                new ProductWriter.Callback<Integer>() {
+                                    @Override
+                                    public void onSuccess(Integer rowsRestored) {
+                                        if (rowsRestored == 0) {
+                                            Toast.makeText(context, R.string.restore_products_failed,
+                                                    Toast.LENGTH_SHORT).show();
+                                        }
+                                    }
 
-                // Set the URI on the data field of the intent
-                detailsIntent.setData(currentProductUri);
+                                    @Override
+                                    public void onFailure(Exception error) {
+                                        Log.e(LOG_TAG, "Failed to restore " + ids.length
+                                                + " products", error);
+                                        Toast.makeText(context, R.string.restore_products_failed,
+                                                Toast.LENGTH_SHORT).show();
+                                    }
+                                });
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Ask for the new quantity of the given products, and set it to all of them at once.
+     */
+    private void showSetQuantityDialog(final long[] ids) {
+        showNumberDialog(R.string.set_quantity_title, InputType.TYPE_CLASS_NUMBER,
+                new OnNumberEnteredListener() {
+                    @Override
+                    public void onNumberEntered(String number) {
+                        ProductWriter.getInstance(CatalogActivity.this).setQuantity(ids,
+                                Integer.parseInt(number), newUpdateCallback(ids));
+                    }
+                });
+    }
+
+    /**
+     * Ask for the percentage to add to the prices of the given products, and add it to all of
+     * them at once.
+     */
+    private void showAdjustPriceDialog(final long[] ids) {
+        showNumberDialog(R.string.adjust_price_title, InputType.TYPE_CLASS_NUMBER
+                        | InputType.TYPE_NUMBER_FLAG_SIGNED | InputType.TYPE_NUMBER_FLAG_DECIMAL,
+                new OnNumberEnteredListener() {
+                    @Override
+                    public void onNumberEntered(String number) {
+                        ProductWriter.getInstance(CatalogActivity.this).adjustPrice(ids,
+                                Double.parseDouble(number), newUpdateCallback(ids));
+                    }
+                });
+    }
 
-                // Launch the {@link EditorActivity} to display the data for the current pet.
-                startActivity(detailsIntent);
+    /**
+     * Return the callback telling how many of the given products were updated.
+     */
+    private ProductWriter.Callback<Integer> newUpdateCallback(final long[] ids) {
+        final Context context = getApplicationContext();
+        return new ProductWriter.Callback<Integer>() {
+            @Override
+            public void onSuccess(Integer rowsUpdated) {
+                Toast.makeText(context, context.getString(R.string.products_updated, rowsUpdated),
+                        Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onFailure(Exception error) {
+                // The provider rejects a negative quantity or a price going below zero
+                Log.e(LOG_TAG, "Failed to update " + ids.length + " products", error);
+                Toast.makeText(context, R.string.update_products_failed, Toast.LENGTH_SHORT).show();
+            }
+        };
+    }
+
+    /**
+     * Prompt the user for a number, with the given title and input type, and end the selection
+     * once it is applied.
+     */
+    private void showNumberDialog(int titleId, int inputType,
+                                  final OnNumberEnteredListener listener) {
+        final EditText numberEditText = new EditText(this);
+        numberEditText.setInputType(inputType);
+
+        // Create an AlertDialog.Builder with the number field
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(titleId);
+        builder.setView(numberEditText);
+        builder.setPositiveButton(R.string.apply, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                try {
+                    listener.onNumberEntered(numberEditText.getText().toString().trim());
+                } catch (NumberFormatException e) {
+                    Toast.makeText(CatalogActivity.this, R.string.invalid_input_toast_message,
+                            Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                if (selectionMode != null) {
+                    selectionMode.finish();
+                }
             }
         });
+        builder.setNegativeButton(R.string.cancel, null);
 
+        // Create and show the AlertDialog
+        builder.create().show();
+    }
+
+    /**
+     * Import the products of the given file on a background thread, showing the progress in the
+     * app bar.
+     */
+    private void importProducts(final Uri source) {
+        final Context context = getApplicationContext();
+        final Handler mainHandler = new Handler();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    ProductImporter.Result result = new ProductImporter(context).importProducts(
+                            source, new ProductImporter.Listener() {
+                                @Override
+                                public void onRowRejected(long rowNumber, String message) {
+                                    Log.w(LOG_TAG, "Row " + rowNumber + " rejected: " + message);
+                                }
+
+                                @Override
+                                public void onProgress(long rowsRead, final long rowsImported,
+                                                       long rowsRejected) {
+                                    mainHandler.post(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            showImportProgress(context.getString(
+                                                    R.string.import_progress, rowsImported));
+                                        }
+                                    });
+                                }
+                            });
+                    message = context.getString(R.string.import_done, result.getRowsImported(),
+                            result.getRowsRejected());
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to import " + source, e);
+                    message = context.getString(R.string.import_failed);
+                } catch (RuntimeException e) {
+                    // e.g. a row the database rejects, don't take the app down with the thread
+                    Log.e(LOG_TAG, "Failed to import " + source, e);
+                    message = context.getString(R.string.import_failed);
+                }
+
+                final String resultMessage = message;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        showImportProgress(null);
+                        Toast.makeText(context, resultMessage, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "ProductImport").start();
+    }
+
+    /**
+     * Show the given import progress in the app bar, or nothing if it's null. The import outlives
+     * the activity, e.g. when it's rotated, in which case there is nothing to update anymore.
+     */
+    private void showImportProgress(String progress) {
+        if (isFinishing() || destroyed) {
+            return;
+        }
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setSubtitle(progress);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Don't keep sales waiting in the queue once the catalog is no longer in front
+        SaleQueue.getInstance(this).flushNow();
     }
 
     /**
@@ -94,38 +649,26 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         values.put(ProductEntry.COLUMN_PRODUCT_QTY, 7);
         values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, "mysupplier@gmail.com");
 
-        // Insert a new row for the product into the provider using the ContentResolver.
-        Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
-        Log.v(LOG_TAG, "new URI id: " + newUri);
-    }
-
-    @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_PRODUCT_QTY};
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                ProductEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
-    }
+        // Insert a new row for the product on the writer thread.
+        ProductWriter.getInstance(this).insert(values, new ProductWriter.Callback<Uri>() {
+            @Override
+            public void onSuccess(Uri newUri) {
+                Log.v(LOG_TAG, "new URI id: " + newUri);
+            }
 
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link ProductCursorAdapter} with this new cursor containing updated product data
-        productCursorAdapter.swapCursor(data);
+            @Override
+            public void onFailure(Exception error) {
+                Log.e(LOG_TAG, "Failed to insert the product", error);
+            }
+        });
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        productCursorAdapter.swapCursor(null);
+    protected void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        // Stop loading pages and watching for changes
+        searchHandler.removeCallbacks(searchRunnable);
+        productPagingAdapter.close();
     }
 }
@@ -0,0 +1,128 @@
+package com.example.android.inventoryapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Compact copy on disk of the first page of the catalog, shown while the database opens on a
+ * cold start.
+ * <p>
+ * The page is stored in a small binary file, one per sort order, which is replaced as a whole
+ * each time the first page is loaded from the provider. It is only a hint: the list shows it
+ * right away, then replaces it with the rows read from the database.
+ */
+
+class CatalogSnapshot {
+
+    private static final String LOG_TAG = CatalogSnapshot.class.getSimpleName();
+
+    /**
+     * Version of the file format, written first. Files of another version are ignored.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String FILE_PREFIX = "catalog_snapshot_";
+
+    /**
+     * Prevent to instantiate the class.
+     */
+    private CatalogSnapshot() {
+    }
+
+    /**
+     * Return the file holding the snapshot of the catalog sorted by the given column, or by ID
+     * if the column is null.
+     */
+    static File fileFor(Context context, String sortColumn) {
+        return new File(context.getFilesDir(), FILE_PREFIX + (sortColumn == null ? "id" : sortColumn));
+    }
+
+    /**
+     * Return the page stored in the given file, or null if there is none or it can't be read.
+     */
+    static ProductPagingAdapter.Page read(File file) {
+        DataInputStream input;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (FileNotFoundException e) {
+            // No snapshot yet, e.g. on the first launch
+            return null;
+        }
+
+        try {
+            if (input.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            ProductPagingAdapter.Page page = new ProductPagingAdapter.Page(input.readInt());
+            page.lastSortKey = input.readBoolean() ? input.readUTF() : null;
+            for (int i = 0; i < page.size(); i++) {
+                page.ids[i] = input.readLong();
+                page.names[i] = input.readUTF();
+                page.prices[i] = input.readFloat();
+                page.quantities[i] = input.readInt();
+            }
+            return page;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to read catalog snapshot.", e);
+            return null;
+        } finally {
+            try {
+                input.close();
+            } catch (IOException ioe) {
+                Log.e(LOG_TAG, "Failed to close catalog snapshot.", ioe);
+            }
+        }
+    }
+
+    /**
+     * Store the given page in the given file. The page is written to a temporary file first, so
+     * a reader never sees half a snapshot. Must be called from a background thread.
+     */
+    static void write(File file, ProductPagingAdapter.Page page) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream output = null;
+        boolean written = false;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(page.size());
+            output.writeBoolean(page.lastSortKey != null);
+            if (page.lastSortKey != null) {
+                output.writeUTF(page.lastSortKey);
+            }
+            for (int i = 0; i < page.size(); i++) {
+                output.writeLong(page.ids[i]);
+                output.writeUTF(page.names[i]);
+                output.writeFloat(page.prices[i]);
+                output.writeInt(page.quantities[i]);
+            }
+            written = true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write catalog snapshot.", e);
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException ioe) {
+                    Log.e(LOG_TAG, "Failed to close catalog snapshot.", ioe);
+                    written = false;
+                }
+            }
+        }
+
+        if (!written || !tempFile.renameTo(file)) {
+            tempFile.delete();
+        }
+    }
+}
@@ -2,30 +2,25 @@ package com.example.android.inventoryapp;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
-import android.content.ContentValues;
+import android.content.ContentUris;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.View;
-import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
-
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
+import com.example.android.inventoryapp.data.ProductWriter;
+import com.example.android.inventoryapp.image.ImageLoader;
 
 public class DetailsActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
@@ -92,18 +87,8 @@ public class DetailsActivity extends AppCompatActivity implements LoaderManager.
             @Override
             public void onClick(View v) {
                 if (quantity > 0) {
-                    quantity--;
-                    Log.v(LOG_TAG, "qty: " + quantity);
-
-                    // Create a ContentValues object with the updated value of the quantity
-                    ContentValues values = new ContentValues();
-                    values.put(ProductEntry.COLUMN_PRODUCT_QTY, quantity);
-
-                    int rowUpadated = getContentResolver().update(currentProductUri, values, null, null);
-
-                    Log.v(LOG_TAG, "uri is: " + currentProductUri + "qty: " + quantity + "Row updated: " + rowUpadated);
+                    adjustQuantity(-1);
                 }
-
             }
         });
 
@@ -111,16 +96,7 @@ public class DetailsActivity extends AppCompatActivity implements LoaderManager.
         increaseQtyBtn.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                quantity++;
-                Log.v(LOG_TAG, "qty: " + quantity);
-
-                // Create a ContentValues object with the updated value of the quantity
-                ContentValues values = new ContentValues();
-                values.put(ProductEntry.COLUMN_PRODUCT_QTY, quantity);
-
-                int rowUpadated = getContentResolver().update(currentProductUri, values, null, null);
-
-                Log.v(LOG_TAG, "uri is: " + currentProductUri + "qty: " + quantity + "Row updated: " + rowUpadated);
+                adjustQuantity(1);
             }
         });
 
@@ -148,6 +124,34 @@ public class DetailsActivity extends AppCompatActivity implements LoaderManager.
         });
     }
 
+    /**
+     * Add the given delta to the quantity of the current product. The repository applies it in a
+     * single statement on the writer thread and hands back the new quantity, so there is no need
+     * to requery.
+     */
+    private void adjustQuantity(int delta) {
+        final long productId = ContentUris.parseId(currentProductUri);
+        ProductWriter.getInstance(this).adjustQuantity(productId, delta,
+                new ProductWriter.Callback<Integer>() {
+                    @Override
+                    public void onSuccess(Integer newQuantity) {
+                        // -1 means the quantity would have become negative, keep what is displayed
+                        if (newQuantity >= 0) {
+                            quantity = newQuantity;
+                            quantityTextView.setText(String.valueOf(quantity));
+                        }
+
+                        Log.v(LOG_TAG, "id is: " + productId + " qty: " + newQuantity);
+                    }
+
+                    @Override
+                    public void onFailure(Exception error) {
+                        // The quantity is left as displayed
+                        Log.e(LOG_TAG, "Failed to adjust the quantity of " + productId, error);
+                    }
+                });
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         // Define a projection that specifies the columns.
@@ -197,85 +201,8 @@ public class DetailsActivity extends AppCompatActivity implements LoaderManager.
             quantityTextView.setText(String.valueOf(quantity));
             supplierTextView.setText(supplier);
 
-            ViewTreeObserver viewTreeObserver = pictureView.getViewTreeObserver();
-            viewTreeObserver
-                    .addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
-                        @Override
-                        public void onGlobalLayout() {
-
-                            // convert image uri to bitmap and set it onto the view
-                            pictureView.setImageBitmap(getBitmapFromUri(pictureUri));
-
-                            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.JELLY_BEAN)
-                                pictureView.getViewTreeObserver()
-                                        .removeOnGlobalLayoutListener(this);
-                            else
-                                pictureView.getViewTreeObserver()
-                                        .removeGlobalOnLayoutListener(this);
-                        }
-                    });
-        }
-    }
-
-    /**
-     * Get a bitmap image from the current product Uri
-     * <p>
-     * I used this post as inspiration :
-     * https://discussions.udacity.com/t/unofficial-how-to-pick-an-image-from-the-gallery/314971
-     * It was of a great help, thanks a million ! :)
-     *
-     * @param imageUri uri forom the current product
-     * @return a Bitmap image
-     */
-    public Bitmap getBitmapFromUri(Uri imageUri) {
-
-        // sanity check
-        if (imageUri == null || imageUri.toString().isEmpty())
-            return null;
-
-        // Get the dimensions of the View
-        int destinationWidth = pictureView.getWidth();
-        int destinationHeight = pictureView.getHeight();
-
-        InputStream input = null;
-
-        try {
-            input = this.getContentResolver().openInputStream(imageUri);
-
-            // Get the dimensions of the bitmap
-            BitmapFactory.Options bmOptions = new BitmapFactory.Options();
-            bmOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(input, null, bmOptions);
-            input.close();
-
-            int photoW = bmOptions.outWidth;
-            int photoH = bmOptions.outHeight;
-
-            // Determine how much to scale down the image
-            int scaleFactor = Math.min(photoW / destinationWidth, photoH / destinationHeight);
-
-            // Decode the image file into a Bitmap sized to fill the View
-            bmOptions.inJustDecodeBounds = false;
-            bmOptions.inSampleSize = scaleFactor;
-            bmOptions.inPurgeable = true;
-
-            input = this.getContentResolver().openInputStream(imageUri);
-            Bitmap bitmap = BitmapFactory.decodeStream(input, null, bmOptions);
-            input.close();
-            return bitmap;
-
-        } catch (FileNotFoundException fne) {
-            Log.e(LOG_TAG, "Failed to load image.", fne);
-            return null;
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "Failed to load image.", e);
-            return null;
-        } finally {
-            try {
-                input.close();
-            } catch (IOException ioe) {
-
-            }
+            // decode the picture in the background, or reuse it if it was already decoded
+            ImageLoader.getInstance(this).load(pictureUri, pictureView);
         }
     }
 
@@ -316,23 +243,38 @@ public class DetailsActivity extends AppCompatActivity implements LoaderManager.
      */
     private void deleteProduct() {
         // Only perform the delete if this is an existing product.
-        if (currentProductUri != null) {
-            // Call the ContentResolver to delete the product at the given content URI.
-            int rowsDeleted = getContentResolver().delete(currentProductUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.delete_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.delete_product_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+        if (currentProductUri == null) {
+            finish();
+            return;
         }
 
-        // Close the activity
+        // Delete the product on the writer thread, and close the activity once it's done.
+        ProductWriter.getInstance(this).delete(currentProductUri,
+                new ProductWriter.Callback<Integer>() {
+                    @Override
+                    public void onSuccess(Integer rowsDeleted) {
+                        // Show a toast message depending on whether or not the delete was successful.
+                        showDeleteResult(rowsDeleted > 0);
+                    }
+
+                    @Override
+                    public void onFailure(Exception error) {
+                        Log.e(LOG_TAG, "Failed to delete " + currentProductUri, error);
+                        showDeleteResult(false);
+                    }
+                });
+    }
+
+    /**
+     * Tell whether the product was deleted, and close the activity. A deleted product is handed
+     * back in the result, for the catalog to offer to undo the deletion.
+     */
+    private void showDeleteResult(boolean deleted) {
+        if (deleted) {
+            setResult(RESULT_OK, new Intent().setData(currentProductUri));
+        } else {
+            Toast.makeText(this, getString(R.string.delete_product_failed), Toast.LENGTH_SHORT).show();
+        }
         finish();
     }
 }
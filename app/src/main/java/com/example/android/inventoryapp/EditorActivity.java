@@ -15,6 +15,7 @@ import android.widget.EditText;
 import android.widget.Toast;
 
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductWriter;
 
 import static com.example.android.inventoryapp.data.ProductProvider.LOG_TAG;
 
@@ -41,7 +42,7 @@ public class EditorActivity extends AppCompatActivity {
 
         // find the button
         Button choosePicture = (Button) findViewById(R.id.btn_edit_pic);
-        Button saveProduct = (Button) findViewById(R.id.btn_edit_save);
+        final Button saveProduct = (Button) findViewById(R.id.btn_edit_save);
 
         // set an OnClickListener onto the button and choose a picture
         // I used this post as inspiration :
@@ -91,11 +92,24 @@ public class EditorActivity extends AppCompatActivity {
                         values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER, supplier);
                         values.put(ProductEntry.COLUMN_PRODUCT_PICTURE, pictureUri.toString());
 
-                        // Insert a new row for the product into the provider using the ContentResolver.
-                        getContentResolver().insert(ProductEntry.CONTENT_URI, values);
-
-                        // close activity
-                        finish();
+                        // Insert a new row for the product on the writer thread, and don't let
+                        // the product be saved twice while it's pending.
+                        saveProduct.setEnabled(false);
+                        ProductWriter.getInstance(EditorActivity.this).insert(values,
+                                new ProductWriter.Callback<Uri>() {
+                                    @Override
+                                    public void onSuccess(Uri newUri) {
+                                        // close activity
+                                        finish();
+                                    }
+
+                                    @Override
+                                    public void onFailure(Exception error) {
+                                        Log.e(LOG_TAG, "Failed to insert the product", error);
+                                        saveProduct.setEnabled(true);
+                                        Toast.makeText(EditorActivity.this, R.string.invalid_input_toast_message, Toast.LENGTH_SHORT).show();
+                                    }
+                                });
 
                     } else {
                         Toast.makeText(EditorActivity.this, R.string.invalid_input_toast_message, Toast.LENGTH_SHORT).show();
@@ -0,0 +1,94 @@
+package com.example.android.inventoryapp;
+
+import android.app.Application;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.StrictMode;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductDbHelper;
+import com.example.android.inventoryapp.data.ProductWriter;
+
+/**
+ * Application of the inventory app, which prepares the database as soon as the process starts.
+ * <p>
+ * Opening the database, checking its schema and reading its first pages from storage take a
+ * while on a cold start, and migrating it after an update much longer on a large catalog. They
+ * are done on a background thread here, while the catalog inflates its views and shows its
+ * snapshot, instead of in the first query of the list.
+ */
+
+public class InventoryApplication extends Application {
+
+    private static final String LOG_TAG = InventoryApplication.class.getSimpleName();
+
+    /**
+     * Uptime at which the process started running the code of the app, to measure the startup.
+     */
+    private static long startUptimeMillis;
+
+    public InventoryApplication() {
+        startUptimeMillis = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Return the uptime, in milliseconds, at which the application was created.
+     */
+    public static long getStartUptimeMillis() {
+        return startUptimeMillis;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (BuildConfig.DEBUG) {
+            // Writes belong on the thread of ProductWriter, log any the main thread still does
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .build());
+        }
+        warmUpDatabase();
+
+        // Purge the products the previous runs deleted, once they can't be restored anymore
+        ProductWriter.getInstance(this).schedulePurge();
+    }
+
+    /**
+     * Open the database and read the first page of the catalog on a background thread, so the
+     * first query of the list finds the database open and its pages in memory. The columns read
+     * are in every version of the products table, so this doesn't wait for a migration.
+     */
+    private void warmUpDatabase() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = SystemClock.uptimeMillis();
+                try {
+                    SQLiteDatabase db = ProductDbHelper.getInstance(InventoryApplication.this)
+                            .getOpenDatabase();
+                    Cursor cursor = db.query(ProductEntry.TABLE_NAME,
+                            ProductPagingAdapter.PROJECTION, null, null, null, null,
+                            ProductEntry._ID, String.valueOf(ProductPagingAdapter.PAGE_SIZE));
+                    try {
+                        // Step through the rows so SQLite actually reads their pages
+                        while (cursor.moveToNext()) {
+                            cursor.getLong(0);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                } catch (SQLiteException e) {
+                    // The provider reports the error again when the list queries it
+                    Log.e(LOG_TAG, "Failed to warm up the database.", e);
+                    return;
+                }
+                Log.v(LOG_TAG, "Database warmed up in " + (SystemClock.uptimeMillis() - start)
+                        + " ms");
+            }
+        }, "DatabaseWarmUp").start();
+    }
+}
@@ -0,0 +1,1059 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+
+import com.example.android.inventoryapp.data.CatalogColumns;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.SaleQueue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Adapter for inventory app which loads the catalog page by page.
+ * <p>
+ * Pages are queried with keyset pagination on a background thread as the list scrolls towards
+ * them, and pages far away from the scroll position are dropped, so the time to show the first
+ * rows and the memory used don't depend on the size of the catalog. When the provider reports a
+ * change to a single product, only the row of that product is queried and rebound.
+ * <p>
+ * When a search text is set, the adapter shows a single page holding the best search results
+ * instead.
+ * <p>
+ * When the catalog is sorted or filtered in memory, the adapter copies the whole catalog once
+ * into a {@link CatalogColumns} on its background thread, patches the copy from the changes of
+ * single products, and shows a single page holding its sorted and filtered rows. Sorting or
+ * filtering it again takes no query.
+ * <p>
+ * The first page of the catalog is kept in a {@link CatalogSnapshot}, so that on a cold start
+ * the list shows the last known rows while the database opens, then the live rows.
+ */
+
+public class ProductPagingAdapter extends RecyclerView.Adapter<ProductPagingAdapter.ProductViewHolder> {
+
+    private static final String LOG_TAG = ProductPagingAdapter.class.getSimpleName();
+
+    /**
+     * Number of rows queried at once.
+     */
+    static final int PAGE_SIZE = 50;
+
+    /**
+     * Number of pages loaded ahead of the page being displayed.
+     */
+    private static final int PREFETCH_PAGES = 2;
+
+    /**
+     * Number of pages kept in memory on each side of the page being displayed.
+     */
+    private static final int RETAINED_PAGES = 4;
+
+    /**
+     * Columns displayed in the catalog.
+     */
+    static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QTY};
+
+    /**
+     * Interface for receiving clicks on the products of the list. A long click on a product
+     * starts selecting products, after which clicks select or unselect them instead, until
+     * {@link #clearSelection()}.
+     */
+    public interface OnProductClickListener {
+        void onProductClick(long id);
+
+        void onSelectionChanged(int selectedCount);
+    }
+
+    /**
+     * Rows of a loaded page, stored column by column.
+     */
+    static class Page {
+        final long[] ids;
+        final String[] names;
+        final float[] prices;
+        final int[] quantities;
+
+        /**
+         * Value of the sort column in the last row, when sorting by another column than the ID.
+         */
+        String lastSortKey;
+
+        Page(int size) {
+            ids = new long[size];
+            names = new String[size];
+            prices = new float[size];
+            quantities = new int[size];
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * Return the row of the given product, or -1 if it's not in this page.
+         */
+        int indexOf(long id) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Copy the given row of the other page into the given row of this one.
+         */
+        void set(int row, Page other, int otherRow) {
+            ids[row] = other.ids[otherRow];
+            names[row] = other.names[otherRow];
+            prices[row] = other.prices[otherRow];
+            quantities[row] = other.quantities[otherRow];
+        }
+
+        /**
+         * Return a copy of this page without the given row.
+         */
+        Page without(int row) {
+            Page page = new Page(size() - 1);
+            for (int i = 0, j = 0; i < size(); i++) {
+                if (i != row) {
+                    page.set(j++, this, i);
+                }
+            }
+            page.lastSortKey = lastSortKey;
+            return page;
+        }
+
+        /**
+         * Return a copy of this page with the first row of the other page added at the end.
+         */
+        Page plus(Page other) {
+            Page page = new Page(size() + 1);
+            for (int i = 0; i < size(); i++) {
+                page.set(i, this, i);
+            }
+            page.set(size(), other, 0);
+            page.lastSortKey = other.lastSortKey;
+            return page;
+        }
+    }
+
+    /**
+     * A range of the catalog, between the key (exclusive) ending the previous range and the key
+     * (inclusive) ending this one. The last range is open-ended and limited to {@link #PAGE_SIZE}
+     * rows. The size of a range is remembered when its page is dropped, so the positions of the
+     * following rows stay valid.
+     */
+    private static class PageSlot {
+        boolean hasStart;
+        long startId;
+        String startSortKey;
+
+        boolean hasEnd;
+        long endId;
+        String endSortKey;
+
+        int size;
+        Page page;
+        boolean loading;
+
+        /**
+         * Whether the data changed while the page was loading, so it must be loaded again.
+         */
+        boolean stale;
+    }
+
+    /**
+     * Views of a list item.
+     */
+    class ProductViewHolder extends RecyclerView.ViewHolder {
+        final TextView nameTextView;
+        final TextView priceTextView;
+        final TextView quantityTextView;
+        final Button saleButton;
+
+        ProductViewHolder(View itemView) {
+            super(itemView);
+            // Find individual views that we want to modify in the list item layout
+            nameTextView = (TextView) itemView.findViewById(R.id.name);
+            priceTextView = (TextView) itemView.findViewById(R.id.price);
+            quantityTextView = (TextView) itemView.findViewById(R.id.quantity);
+            saleButton = (Button) itemView.findViewById(R.id.sale_btn);
+
+            // set an OnClickListener onto the list item
+            itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    int position = getAdapterPosition();
+                    if (position == RecyclerView.NO_POSITION) {
+                        return;
+                    }
+
+                    // Ignore rows whose page is still loading
+                    long id = ProductPagingAdapter.this.getItemId(position);
+                    if (id < 0) {
+                        return;
+                    }
+                    if (selecting) {
+                        toggleSelected(id, position);
+                    } else {
+                        clickListener.onProductClick(id);
+                    }
+                }
+            });
+
+            // set an OnLongClickListener onto the list item, which starts selecting products
+            itemView.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    int position = getAdapterPosition();
+                    long id = position == RecyclerView.NO_POSITION ? -1
+                            : ProductPagingAdapter.this.getItemId(position);
+                    if (id < 0 || selecting) {
+                        return false;
+                    }
+                    selecting = true;
+                    toggleSelected(id, position);
+                    return true;
+                }
+            });
+
+            // set an OnClickListener onto the sale button
+            saleButton.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    int position = getAdapterPosition();
+                    if (position != RecyclerView.NO_POSITION) {
+                        sell(position, quantityTextView);
+                    }
+                }
+            });
+        }
+    }
+
+    private final Context context;
+
+    /**
+     * Column the catalog is sorted by, or null to sort by ID.
+     */
+    private final String sortColumn;
+
+    private final OnProductClickListener clickListener;
+
+    /**
+     * File holding the snapshot of the first page of the catalog.
+     */
+    private final File snapshotFile;
+
+    /**
+     * Text searched in the catalog, or null to show the whole catalog.
+     */
+    private String searchText;
+
+    /**
+     * Column the whole catalog is sorted by in memory, and whether in descending order, or null.
+     */
+    private String memorySortColumn;
+    private boolean memorySortDescending;
+
+    /**
+     * Column the whole catalog is filtered by in memory, and the range of the values kept, or
+     * null.
+     */
+    private String filterColumn;
+    private double filterMin;
+    private double filterMax;
+
+    /**
+     * Copy of the whole catalog sorted and filtered in memory, loaded the first time it's needed.
+     * Only used on the page loader thread.
+     */
+    private CatalogColumns columns;
+
+    /**
+     * Incremented each time the rows are reset, so that queries started for the previous rows
+     * are skipped.
+     */
+    private volatile int generation;
+
+    private final List<PageSlot> slots = new ArrayList<>();
+
+    /**
+     * Position of the first row of each slot.
+     */
+    private int[] slotOffsets = new int[0];
+
+    private int count;
+
+    /**
+     * Whether the first page has been loaded, so an empty adapter really means an empty catalog.
+     */
+    private boolean firstPageLoaded;
+
+    private boolean closed;
+
+    /**
+     * Whether clicks select products rather than open them.
+     */
+    private boolean selecting;
+
+    /**
+     * IDs of the selected products, kept while their rows are reloaded or scrolled away.
+     */
+    private final Set<Long> selectedIds = new HashSet<>();
+
+    private final ExecutorService pageLoader = Executors.newSingleThreadExecutor();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Apply the changes of the products to the pages in memory.
+     */
+    private final ContentObserver productObserver = new ContentObserver(mainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            // Before Jelly Bean, there's no way to know which product changed
+            onProductChange(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onProductChange(uri);
+        }
+    };
+
+    /**
+     * Constructs a new {@link ProductPagingAdapter}.
+     *
+     * @param context       The context
+     * @param sortColumn    The column to sort the catalog by, or null to sort by ID.
+     * @param clickListener The listener notified when a product is clicked.
+     */
+    public ProductPagingAdapter(Context context, String sortColumn,
+                                OnProductClickListener clickListener) {
+        this.context = context;
+        this.sortColumn = sortColumn;
+        this.clickListener = clickListener;
+        snapshotFile = CatalogSnapshot.fileFor(context, sortColumn);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Start loading the catalog and watching it for changes. The snapshot of the first page, if
+     * any, is shown until the first page is loaded.
+     */
+    public void open() {
+        context.getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true,
+                productObserver);
+        PageSlot firstSlot = new PageSlot();
+        slots.add(firstSlot);
+
+        // The snapshot is a few kilobytes, much quicker to read than opening the database
+        Page snapshot = CatalogSnapshot.read(snapshotFile);
+        if (snapshot != null && snapshot.size() > 0) {
+            firstSlot.page = snapshot;
+            firstSlot.size = snapshot.size();
+        }
+        updateOffsets();
+        if (count > 0) {
+            notifyDataSetChanged();
+        }
+        loadPage(firstSlot);
+    }
+
+    /**
+     * Show the results of searching the given text, or the whole catalog if the text is empty.
+     * Queries still waiting for the previous text are cancelled.
+     */
+    public void setSearchText(String text) {
+        if (text != null && text.trim().isEmpty()) {
+            text = null;
+        }
+        if (text == null ? searchText == null : text.equals(searchText)) {
+            return;
+        }
+        searchText = text;
+        resetRows();
+    }
+
+    /**
+     * Sort the whole catalog in memory by the given column of {@link #PROJECTION}, or go back to
+     * the catalog order if the column is null. The catalog is copied to memory the first time;
+     * sorting it again takes no query.
+     */
+    public void sortInMemory(String column, boolean descending) {
+        memorySortColumn = column;
+        memorySortDescending = descending;
+        resetRows();
+    }
+
+    /**
+     * Only show the products whose value in the given column of {@link #PROJECTION} lies between
+     * the given bounds, both included, filtering the whole catalog in memory; or all of them if
+     * the column is null.
+     */
+    public void filterInMemory(String column, double min, double max) {
+        filterColumn = column;
+        filterMin = min;
+        filterMax = max;
+        resetRows();
+    }
+
+    /**
+     * Return whether the catalog is sorted or filtered in memory rather than paged.
+     */
+    private boolean isInMemory() {
+        return memorySortColumn != null || filterColumn != null;
+    }
+
+    /**
+     * Start again from a single empty page. Queries started for the previous rows are skipped.
+     */
+    private void resetRows() {
+        generation++;
+        slots.clear();
+        firstPageLoaded = false;
+        PageSlot firstSlot = new PageSlot();
+        slots.add(firstSlot);
+        updateOffsets();
+        notifyDataSetChanged();
+
+        if (!isInMemory()) {
+            // The catalog is paged again, drop its copy
+            pageLoader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    columns = null;
+                }
+            });
+        }
+        loadPage(firstSlot);
+    }
+
+    /**
+     * Stop watching the catalog and release the pages.
+     */
+    public void close() {
+        closed = true;
+        context.getContentResolver().unregisterContentObserver(productObserver);
+        pageLoader.shutdownNow();
+        slots.clear();
+        updateOffsets();
+    }
+
+    /**
+     * Return whether the catalog, or the search, has no product at all.
+     */
+    public boolean isEmpty() {
+        return firstPageLoaded && count == 0;
+    }
+
+    /**
+     * Return whether the rows shown come from the database, rather than from the snapshot or
+     * not at all yet.
+     */
+    public boolean isLive() {
+        return firstPageLoaded;
+    }
+
+    @Override
+    public int getItemCount() {
+        return count;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        int slotIndex = slotIndexAt(position);
+        Page page = slots.get(slotIndex).page;
+        // Rows whose page is not loaded get a negative ID of their own
+        return page == null ? -2 - position : page.ids[position - slotOffsets[slotIndex]];
+    }
+
+    @Override
+    public ProductViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        return new ProductViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(ProductViewHolder holder, int position) {
+        int slotIndex = slotIndexAt(position);
+        loadAround(slotIndex);
+
+        Page page = slots.get(slotIndex).page;
+        if (page == null) {
+            // The page is still loading, show an empty row until it arrives
+            holder.nameTextView.setText(null);
+            holder.priceTextView.setText(null);
+            holder.quantityTextView.setText(null);
+            holder.saleButton.setEnabled(false);
+            holder.itemView.setActivated(false);
+            return;
+        }
+
+        // Update the TextViews with the attributes for the current product
+        int row = position - slotOffsets[slotIndex];
+        holder.nameTextView.setText(page.names[row]);
+        holder.priceTextView.setText(String.valueOf(page.prices[row]));
+        holder.quantityTextView.setText(String.valueOf(page.quantities[row]));
+        holder.saleButton.setEnabled(true);
+        holder.itemView.setActivated(selectedIds.contains(page.ids[row]));
+    }
+
+    /**
+     * Select the given product, at the given position, or unselect it if it was selected.
+     */
+    private void toggleSelected(long id, int position) {
+        if (!selectedIds.remove(id)) {
+            selectedIds.add(id);
+        }
+        notifyItemChanged(position);
+        clickListener.onSelectionChanged(selectedIds.size());
+    }
+
+    /**
+     * Return the IDs of the selected products.
+     */
+    public long[] getSelectedIds() {
+        long[] ids = new long[selectedIds.size()];
+        int i = 0;
+        for (long id : selectedIds) {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Unselect all the products, and stop selecting them: clicks open the products again.
+     */
+    public void clearSelection() {
+        selecting = false;
+        if (!selectedIds.isEmpty()) {
+            selectedIds.clear();
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Sell one unit of the product at the given position.
+     */
+    private void sell(int position, TextView quantityTextView) {
+        int slotIndex = slotIndexAt(position);
+        Page page = slots.get(slotIndex).page;
+        int row = position - slotOffsets[slotIndex];
+
+        // make sure qty cannot be negative
+        if (page != null && page.quantities[row] > 0) {
+            // keep the page in step with the sales not yet written
+            page.quantities[row]--;
+
+            // queue the sale: taps in a burst are written together in one transaction
+            SaleQueue.getInstance(context).recordSale(page.ids[row]);
+
+            // show the new quantity right away, the row is read again once the queue flushes
+            quantityTextView.setText(String.valueOf(page.quantities[row]));
+
+            Log.v(LOG_TAG, "new quantity is: " + page.quantities[row] + " id is: " + page.ids[row]);
+        }
+    }
+
+    /**
+     * Return the index of the slot holding the row at the given position.
+     */
+    private int slotIndexAt(int position) {
+        // Find the last slot starting at or before the position, skipping the empty ones
+        int low = 0;
+        int high = slots.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (slotOffsets[middle] <= position) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the index of the slot whose page in memory holds the given product, or -1.
+     */
+    private int slotIndexOf(long id) {
+        for (int i = 0; i < slots.size(); i++) {
+            Page page = slots.get(i).page;
+            if (page != null && page.indexOf(id) != -1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Make sure the pages around the displayed one are loaded, and drop the ones far away.
+     */
+    private void loadAround(int slotIndex) {
+        // Open a new page after the last one when the scroll position gets close to the end.
+        // Search results and the catalog sorted in memory all fit in the first page. A page still
+        // loading, such as the snapshot, may not end where the loaded one will.
+        PageSlot lastSlot = slots.get(slots.size() - 1);
+        if (searchText == null && !isInMemory() && slots.size() - 1 <= slotIndex + PREFETCH_PAGES
+                && lastSlot.page != null && !lastSlot.loading
+                && lastSlot.page.size() == PAGE_SIZE) {
+            appendSlot(lastSlot);
+        }
+
+        for (int i = 0; i < slots.size(); i++) {
+            PageSlot slot = slots.get(i);
+            if (i >= slotIndex - 1 && i <= slotIndex + PREFETCH_PAGES) {
+                if (slot.page == null && !slot.loading) {
+                    loadPage(slot);
+                }
+            } else if (Math.abs(i - slotIndex) > RETAINED_PAGES) {
+                slot.page = null;
+            }
+        }
+    }
+
+    /**
+     * Close the range of the given last slot at its last row, and open a new range after it.
+     */
+    private PageSlot appendSlot(PageSlot lastSlot) {
+        int lastRow = lastSlot.page.size() - 1;
+        lastSlot.hasEnd = true;
+        lastSlot.endId = lastSlot.page.ids[lastRow];
+        lastSlot.endSortKey = lastSlot.page.lastSortKey;
+
+        PageSlot slot = new PageSlot();
+        slot.hasStart = true;
+        slot.startId = lastSlot.endId;
+        slot.startSortKey = lastSlot.endSortKey;
+        slots.add(slot);
+        updateOffsets();
+        return slot;
+    }
+
+    /**
+     * Apply a change of the products to the pages in memory. A change of a single product only
+     * touches the row of that product; any other change loads the pages in memory again.
+     */
+    private void onProductChange(Uri uri) {
+        if (!closed && isInMemory()) {
+            // The copy of the catalog is kept current while searching, too
+            patchColumns(uri);
+            return;
+        }
+
+        String change = uri == null ? null : uri.getQueryParameter(ProductEntry.QUERY_CHANGE);
+        if (closed || change == null || searchText != null) {
+            reloadPages();
+            return;
+        }
+
+        long id = ContentUris.parseId(uri);
+        switch (change) {
+            case ProductEntry.CHANGE_UPDATE:
+                // Rows not in memory are read when they are displayed
+                if (slotIndexOf(id) != -1) {
+                    loadRow(id);
+                }
+                break;
+            case ProductEntry.CHANGE_DELETE:
+                removeRow(id);
+                break;
+            case ProductEntry.CHANGE_INSERT:
+                insertRow(id);
+                break;
+            default:
+                reloadPages();
+        }
+    }
+
+    /**
+     * Remove the row of the given product, if it is in memory.
+     */
+    private void removeRow(long id) {
+        int slotIndex = slotIndexOf(id);
+        if (slotIndex == -1) {
+            return;
+        }
+
+        PageSlot slot = slots.get(slotIndex);
+        int row = slot.page.indexOf(id);
+        slot.page = slot.page.without(row);
+        slot.size--;
+        updateOffsets();
+        notifyItemRemoved(slotOffsets[slotIndex] + row);
+    }
+
+    /**
+     * Add the row of a new product. New products come last when sorting by ID, so the row goes
+     * at the end of the last page; with other sort orders, the pages in memory are loaded again.
+     */
+    private void insertRow(long id) {
+        if (sortColumn != null) {
+            reloadPages();
+            return;
+        }
+
+        // A last page not in memory is read with the new row when it's displayed
+        PageSlot lastSlot = slots.get(slots.size() - 1);
+        if (lastSlot.page == null || lastSlot.loading) {
+            return;
+        }
+
+        if (lastSlot.page.size() < PAGE_SIZE) {
+            loadRow(id);
+        } else {
+            // The last page is full, so the row starts a new page
+            loadPage(appendSlot(lastSlot));
+        }
+    }
+
+    /**
+     * Query the row of the given product on the background thread, and put it in memory.
+     */
+    private void loadRow(final long id) {
+        final int loadGeneration = generation;
+        final Uri productUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        pageLoader.execute(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = context.getContentResolver().query(productUri, PROJECTION,
+                        null, null, null);
+                if (cursor == null) {
+                    return;
+                }
+
+                final Page rowPage;
+                try {
+                    rowPage = readPage(cursor);
+                } finally {
+                    cursor.close();
+                }
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Ignore rows arriving after the adapter was closed or reset
+                        if (!closed && loadGeneration == generation) {
+                            onRowLoaded(id, rowPage);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Put the freshly read row of a product in memory, and refresh that row only.
+     */
+    private void onRowLoaded(long id, Page rowPage) {
+        // The product was deleted meanwhile
+        if (rowPage.size() == 0) {
+            removeRow(id);
+            return;
+        }
+
+        int slotIndex = slotIndexOf(id);
+        if (slotIndex == -1) {
+            // A new product, which goes at the end of the last page if it's still open
+            PageSlot lastSlot = slots.get(slots.size() - 1);
+            Page lastPage = lastSlot.page;
+            if (sortColumn == null && lastPage != null && lastPage.size() < PAGE_SIZE
+                    && (lastPage.size() == 0 || lastPage.ids[lastPage.size() - 1] < id)) {
+                lastSlot.page = lastPage.plus(rowPage);
+                lastSlot.size++;
+                updateOffsets();
+                notifyItemInserted(count - 1);
+            }
+            return;
+        }
+
+        PageSlot slot = slots.get(slotIndex);
+        int row = slot.page.indexOf(id);
+        if (sortKeyChanged(slot.page, row, rowPage)) {
+            // The product moves somewhere else in the list
+            reloadPages();
+            return;
+        }
+
+        slot.page.set(row, rowPage, 0);
+        notifyItemChanged(slotOffsets[slotIndex] + row);
+    }
+
+    /**
+     * Return whether the value of the sort column differs between the given row and the row
+     * read again.
+     */
+    private boolean sortKeyChanged(Page page, int row, Page rowPage) {
+        if (sortColumn == null || sortColumn.equals(ProductEntry._ID)) {
+            return false;
+        } else if (sortColumn.equals(ProductEntry.COLUMN_PRODUCT_NAME)) {
+            return !page.names[row].equals(rowPage.names[0]);
+        } else if (sortColumn.equals(ProductEntry.COLUMN_PRODUCT_PRICE)) {
+            return page.prices[row] != rowPage.prices[0];
+        } else {
+            return page.quantities[row] != rowPage.quantities[0];
+        }
+    }
+
+    /**
+     * Apply a change of the products to the copy of the catalog on the background thread, then
+     * load the pages in memory again, which sorts and filters the copy again unless searching. A
+     * change that doesn't name a single product loads the whole copy again.
+     */
+    private void patchColumns(final Uri uri) {
+        pageLoader.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (columns != null && !columns.applyChange(context.getContentResolver(), uri)) {
+                    columns = null;
+                }
+            }
+        });
+        // Runs after the patch, on the same thread
+        reloadPages();
+    }
+
+    /**
+     * Load the pages in memory again, after the products changed.
+     */
+    private void reloadPages() {
+        for (PageSlot slot : slots) {
+            if (slot.loading) {
+                slot.stale = true;
+            } else if (slot.page != null) {
+                loadPage(slot);
+            }
+        }
+    }
+
+    /**
+     * Query the rows of the given slot on the background thread.
+     */
+    private void loadPage(final PageSlot slot) {
+        slot.loading = true;
+        slot.stale = false;
+
+        // Build the query on this thread, as the slot may change while it runs
+        final int loadGeneration = generation;
+        if (searchText != null) {
+            Uri searchUri = ProductEntry.buildSearchUri(searchText).buildUpon()
+                    .appendQueryParameter(ProductEntry.QUERY_LIMIT, String.valueOf(PAGE_SIZE))
+                    .build();
+            executePageQuery(slot, loadGeneration, searchUri, null, null, false);
+            return;
+        }
+        if (isInMemory()) {
+            loadMemoryPage(slot, loadGeneration);
+            return;
+        }
+
+        Uri.Builder uriBuilder = ProductEntry.CONTENT_URI.buildUpon();
+        if (slot.hasStart) {
+            uriBuilder.appendQueryParameter(ProductEntry.QUERY_AFTER_ID, String.valueOf(slot.startId));
+            if (sortColumn != null) {
+                uriBuilder.appendQueryParameter(ProductEntry.QUERY_AFTER_SORT_KEY, slot.startSortKey);
+            }
+        }
+
+        String selection;
+        String[] selectionArgs;
+        if (!slot.hasEnd) {
+            uriBuilder.appendQueryParameter(ProductEntry.QUERY_LIMIT, String.valueOf(PAGE_SIZE));
+            selection = null;
+            selectionArgs = null;
+        } else if (sortColumn == null) {
+            selection = ProductEntry._ID + " <= ?";
+            selectionArgs = new String[]{String.valueOf(slot.endId)};
+        } else {
+            selection = "(" + sortColumn + " < ? OR (" + sortColumn + " = ? AND "
+                    + ProductEntry._ID + " <= ?))";
+            selectionArgs = new String[]{slot.endSortKey, slot.endSortKey, String.valueOf(slot.endId)};
+        }
+        executePageQuery(slot, loadGeneration, uriBuilder.build(), selection, selectionArgs,
+                !slot.hasStart);
+    }
+
+    /**
+     * Run the query of a page on the background thread and hand the page to the given slot.
+     * When it's the first page of the catalog, the page is also stored as the new snapshot.
+     */
+    private void executePageQuery(final PageSlot slot, final int loadGeneration, final Uri pageUri,
+                                  final String selection, final String[] selectionArgs,
+                                  final boolean firstPage) {
+        pageLoader.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Skip the query if the rows were reset since it was started
+                if (loadGeneration != generation) {
+                    return;
+                }
+
+                Cursor cursor = context.getContentResolver().query(pageUri, PROJECTION,
+                        selection, selectionArgs, sortColumn);
+                if (cursor == null) {
+                    return;
+                }
+
+                final Page page;
+                try {
+                    page = readPage(cursor);
+                } finally {
+                    cursor.close();
+                }
+
+                if (firstPage) {
+                    CatalogSnapshot.write(snapshotFile, page);
+                }
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(slot, page);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Sort and filter the copy of the catalog on the background thread, copying the catalog
+     * first if needed, and hand all the rows to the given slot as a single page.
+     */
+    private void loadMemoryPage(final PageSlot slot, final int loadGeneration) {
+        // Read the order on this thread, as it may change while the sort runs
+        final String column = memorySortColumn == null ? ProductEntry._ID : memorySortColumn;
+        final boolean descending = memorySortDescending;
+        final String rangeColumn = filterColumn;
+        final double min = filterMin;
+        final double max = filterMax;
+        pageLoader.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Skip the sort if the rows were reset since it was started
+                if (loadGeneration != generation) {
+                    return;
+                }
+
+                if (columns == null) {
+                    columns = CatalogColumns.load(context.getContentResolver());
+                }
+                int[] rows = columns.sort(column, descending);
+                if (rangeColumn != null) {
+                    rows = columns.filter(rows, rangeColumn, min, max);
+                }
+
+                final Page page = new Page(rows.length);
+                for (int i = 0; i < rows.length; i++) {
+                    page.ids[i] = columns.getId(rows[i]);
+                    page.names[i] = columns.getName(rows[i]);
+                    page.prices[i] = columns.getPrice(rows[i]);
+                    page.quantities[i] = columns.getQuantity(rows[i]);
+                }
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(slot, page);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Read all the rows of the cursor into a page.
+     */
+    private Page readPage(Cursor cursor) {
+        // Find the columns of product attributes that we're interested in
+        int idColumnIndex = cursor.getColumnIndex(ProductEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
+        int priceColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_PRICE);
+        int quantityColumnIndex = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_QTY);
+
+        Page page = new Page(cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            page.ids[i] = cursor.getLong(idColumnIndex);
+            page.names[i] = cursor.getString(nameColumnIndex);
+            page.prices[i] = cursor.getFloat(priceColumnIndex);
+            page.quantities[i] = cursor.getInt(quantityColumnIndex);
+        }
+
+        if (sortColumn != null && cursor.moveToLast()) {
+            int sortColumnIndex = cursor.getColumnIndex(sortColumn);
+            // Keep every digit of prices, so the next page starts exactly after this row
+            page.lastSortKey = sortColumn.equals(ProductEntry.COLUMN_PRODUCT_PRICE)
+                    ? String.valueOf(cursor.getDouble(sortColumnIndex))
+                    : cursor.getString(sortColumnIndex);
+        }
+        return page;
+    }
+
+    /**
+     * Put a freshly loaded page in its slot and refresh its rows.
+     */
+    private void onPageLoaded(PageSlot slot, Page page) {
+        // Ignore pages arriving after the adapter was closed
+        if (closed || !slots.contains(slot)) {
+            return;
+        }
+
+        int previousSize = slot.size;
+        slot.loading = false;
+        slot.page = page;
+        slot.size = page.size();
+        if (slot == slots.get(0)) {
+            firstPageLoaded = true;
+        }
+        if (slot.stale) {
+            loadPage(slot);
+        }
+
+        updateOffsets();
+        if (slot.size == previousSize) {
+            // The other rows didn't move, only this page needs to be bound again
+            notifyItemRangeChanged(slotOffsets[slots.indexOf(slot)], slot.size);
+        } else {
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Compute the position of the first row of each slot, and the total number of rows.
+     */
+    private void updateOffsets() {
+        int[] offsets = new int[slots.size()];
+        int position = 0;
+        for (int i = 0; i < slots.size(); i++) {
+            offsets[i] = position;
+            position += slots.get(i).size;
+        }
+        slotOffsets = offsets;
+        count = position;
+    }
+}
@@ -0,0 +1,477 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Columnar copy in memory of the catalog, to sort and filter it without going back to the
+ * provider. {@link com.example.android.inventoryapp.ProductPagingAdapter} shows the catalog from
+ * it when the list is sorted or filtered from the menu.
+ * <p>
+ * Each field of the list is held in a primitive array, rows in ID order, and the names in a
+ * dictionary, so a name shared by many products is stored once. The copy is loaded once, then
+ * patched product by product from the change URIs notified by the provider, see
+ * {@link #applyChange}. A sort packs the key and the position of every row into a long and sorts
+ * those, split between threads beyond {@link #PARALLEL_SORT_THRESHOLD} rows.
+ * <p>
+ * The positions returned by {@link #sort} and {@link #filter} stay valid until a product is
+ * inserted or deleted; sorting again is cheap.
+ */
+
+public class CatalogColumns {
+
+    /**
+     * Columns read from the provider, in the order they are read.
+     */
+    public static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QTY};
+
+    /**
+     * Number of rows from which a sort is split between threads.
+     */
+    static final int PARALLEL_SORT_THRESHOLD = 16 * 1024;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Threads sorting the parts of large sorts, started when needed.
+     */
+    private static ExecutorService sSortExecutor;
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+
+    /**
+     * Position of the name of each row in {@link #names}.
+     */
+    private int[] nameCodes = new int[INITIAL_CAPACITY];
+
+    private float[] prices = new float[INITIAL_CAPACITY];
+
+    private int[] quantities = new int[INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * Every name seen, each one once, and the position of each name.
+     */
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nameCodesByName = new HashMap<>();
+
+    /**
+     * Rank of each name of {@link #names} in name order, or null until the next sort by name.
+     */
+    private int[] nameRanks;
+
+    private final int parallelThreshold;
+
+    private final int sortThreads;
+
+    public CatalogColumns() {
+        this(PARALLEL_SORT_THRESHOLD, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs an empty copy splitting sorts of the given number of rows or more between the
+     * given number of threads.
+     */
+    CatalogColumns(int parallelThreshold, int sortThreads) {
+        this.parallelThreshold = parallelThreshold;
+        this.sortThreads = sortThreads;
+    }
+
+    /**
+     * Load the whole catalog from the provider. Must be called on a background thread.
+     */
+    public static CatalogColumns load(ContentResolver resolver) {
+        Cursor cursor = resolver.query(ProductEntry.CONTENT_URI, PROJECTION, null, null,
+                ProductEntry._ID);
+        CatalogColumns columns = new CatalogColumns();
+        if (cursor != null) {
+            try {
+                columns.readRows(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Add the rows of the given cursor, which holds the columns of {@link #PROJECTION} in ID
+     * order.
+     */
+    synchronized void readRows(Cursor cursor) {
+        ensureCapacity(size + cursor.getCount());
+        int idIndex = cursor.getColumnIndexOrThrow(ProductEntry._ID);
+        int nameIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_NAME);
+        int priceIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_PRICE);
+        int quantityIndex = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_QTY);
+        while (cursor.moveToNext()) {
+            put(cursor.getLong(idIndex), cursor.getString(nameIndex), cursor.getFloat(priceIndex),
+                    cursor.getInt(quantityIndex));
+        }
+    }
+
+    /**
+     * Apply a change notified by the provider, reading the changed product again if needed.
+     * Return false if the change doesn't name a single product, in which case the whole catalog
+     * must be loaded again. Must be called on a background thread.
+     */
+    public boolean applyChange(ContentResolver resolver, Uri uri) {
+        String change = uri == null ? null : uri.getQueryParameter(ProductEntry.QUERY_CHANGE);
+        if (change == null) {
+            return false;
+        }
+
+        long id = ContentUris.parseId(uri);
+        switch (change) {
+            case ProductEntry.CHANGE_DELETE:
+                remove(id);
+                return true;
+            case ProductEntry.CHANGE_INSERT:
+            case ProductEntry.CHANGE_UPDATE:
+                Cursor cursor = resolver.query(ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id),
+                        PROJECTION, null, null, null);
+                if (cursor == null) {
+                    return false;
+                }
+                try {
+                    if (cursor.getCount() == 0) {
+                        // Deleted meanwhile, its own change follows
+                        remove(id);
+                    } else {
+                        readRows(cursor);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Set the fields of the given product, adding it if it's not there yet.
+     */
+    public synchronized void put(long id, String name, float price, int quantity) {
+        int row = Arrays.binarySearch(ids, 0, size, id);
+        if (row < 0) {
+            // New products usually have the highest ID, so this rarely moves anything
+            row = -row - 1;
+            ensureCapacity(size + 1);
+            int moved = size - row;
+            System.arraycopy(ids, row, ids, row + 1, moved);
+            System.arraycopy(nameCodes, row, nameCodes, row + 1, moved);
+            System.arraycopy(prices, row, prices, row + 1, moved);
+            System.arraycopy(quantities, row, quantities, row + 1, moved);
+            size++;
+        }
+        ids[row] = id;
+        nameCodes[row] = codeOf(name);
+        prices[row] = price;
+        quantities[row] = quantity;
+    }
+
+    /**
+     * Remove the given product. Return whether it was there.
+     */
+    public synchronized boolean remove(long id) {
+        int row = Arrays.binarySearch(ids, 0, size, id);
+        if (row < 0) {
+            return false;
+        }
+        int moved = size - row - 1;
+        System.arraycopy(ids, row + 1, ids, row, moved);
+        System.arraycopy(nameCodes, row + 1, nameCodes, row, moved);
+        System.arraycopy(prices, row + 1, prices, row, moved);
+        System.arraycopy(quantities, row + 1, quantities, row, moved);
+        size--;
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Return the position of the given product, or -1 if it's not there.
+     */
+    public synchronized int indexOf(long id) {
+        int row = Arrays.binarySearch(ids, 0, size, id);
+        return row < 0 ? -1 : row;
+    }
+
+    public synchronized long getId(int row) {
+        return ids[checkRow(row)];
+    }
+
+    public synchronized String getName(int row) {
+        return names.get(nameCodes[checkRow(row)]);
+    }
+
+    public synchronized float getPrice(int row) {
+        return prices[checkRow(row)];
+    }
+
+    public synchronized int getQuantity(int row) {
+        return quantities[checkRow(row)];
+    }
+
+    /**
+     * Return the positions of all the rows, sorted by the given column of {@link #PROJECTION}.
+     * Rows with the same value keep their ID order, as in the provider's pages.
+     */
+    public int[] sort(String column, boolean descending) {
+        long[] keys;
+        synchronized (this) {
+            if (column.equals(ProductEntry._ID)) {
+                // Rows are kept in ID order
+                int[] rows = new int[size];
+                for (int row = 0; row < size; row++) {
+                    rows[row] = descending ? size - 1 - row : row;
+                }
+                return rows;
+            }
+
+            // The key in the high half, the position in the low half
+            keys = new long[size];
+            int flip = descending ? -1 : 0;
+            if (column.equals(ProductEntry.COLUMN_PRODUCT_NAME)) {
+                int[] ranks = nameRanks();
+                for (int row = 0; row < size; row++) {
+                    keys[row] = ((long) (ranks[nameCodes[row]] ^ flip) << 32) | row;
+                }
+            } else if (column.equals(ProductEntry.COLUMN_PRODUCT_QTY)) {
+                for (int row = 0; row < size; row++) {
+                    keys[row] = ((long) (quantities[row] ^ flip) << 32) | row;
+                }
+            } else if (column.equals(ProductEntry.COLUMN_PRODUCT_PRICE)) {
+                for (int row = 0; row < size; row++) {
+                    keys[row] = ((long) (sortableBits(prices[row]) ^ flip) << 32) | row;
+                }
+            } else {
+                throw new IllegalArgumentException("Cannot sort products by " + column);
+            }
+        }
+
+        sortKeys(keys);
+        int[] rows = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            rows[i] = (int) keys[i];
+        }
+        return rows;
+    }
+
+    /**
+     * Return the given positions whose value in the given column of {@link #PROJECTION} lies
+     * between the given bounds, both included, in the same order.
+     */
+    public synchronized int[] filter(int[] rows, String column, double min, double max) {
+        for (int row : rows) {
+            checkRow(row);
+        }
+
+        int[] matches = new int[rows.length];
+        int count = 0;
+        if (column.equals(ProductEntry._ID)) {
+            for (int row : rows) {
+                if (ids[row] >= min && ids[row] <= max) {
+                    matches[count++] = row;
+                }
+            }
+        } else if (column.equals(ProductEntry.COLUMN_PRODUCT_QTY)) {
+            for (int row : rows) {
+                if (quantities[row] >= min && quantities[row] <= max) {
+                    matches[count++] = row;
+                }
+            }
+        } else if (column.equals(ProductEntry.COLUMN_PRODUCT_PRICE)) {
+            for (int row : rows) {
+                if (prices[row] >= min && prices[row] <= max) {
+                    matches[count++] = row;
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("Cannot filter products by " + column);
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * Return the code of the given name, adding it to the dictionary if it's new.
+     */
+    private int codeOf(String name) {
+        Integer code = nameCodesByName.get(name);
+        if (code == null) {
+            code = names.size();
+            names.add(name);
+            nameCodesByName.put(name, code);
+            nameRanks = null;
+        }
+        return code;
+    }
+
+    /**
+     * Return the rank of each name of the dictionary in name order, ranking them if a name was
+     * added since the last time.
+     */
+    private int[] nameRanks() {
+        if (nameRanks == null) {
+            String[] sortedNames = names.toArray(new String[names.size()]);
+            Arrays.sort(sortedNames);
+            nameRanks = new int[sortedNames.length];
+            for (int code = 0; code < nameRanks.length; code++) {
+                nameRanks[code] = Arrays.binarySearch(sortedNames, names.get(code));
+            }
+        }
+        return nameRanks;
+    }
+
+    /**
+     * Return the bits of the given float as an int ordered the same way.
+     */
+    private static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    /**
+     * Sort the given keys, splitting large arrays into parts sorted on their own threads and then
+     * merged.
+     */
+    private void sortKeys(long[] keys) {
+        if (keys.length < parallelThreshold || sortThreads < 2) {
+            Arrays.sort(keys);
+            return;
+        }
+
+        // Sort a part on this thread and the others on the sort threads
+        int partSize = (keys.length + sortThreads - 1) / sortThreads;
+        List<Future<?>> parts = new ArrayList<>();
+        for (int from = partSize; from < keys.length; from += partSize) {
+            parts.add(getSortExecutor().submit(
+                    new PartSort(keys, from, Math.min(keys.length, from + partSize))));
+        }
+        Arrays.sort(keys, 0, Math.min(keys.length, partSize));
+
+        // The parts take milliseconds and write to the keys, so wait for them even if interrupted
+        boolean interrupted = false;
+        for (Future<?> part : parts) {
+            while (true) {
+                try {
+                    part.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Failed to sort the catalog", e.getCause());
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Merge the sorted parts two by two
+        long[] source = keys;
+        long[] target = new long[keys.length];
+        for (int width = partSize; width < keys.length; width *= 2) {
+            for (int from = 0; from < keys.length; from += 2 * width) {
+                merge(source, target, from, Math.min(keys.length, from + width),
+                        Math.min(keys.length, from + 2 * width));
+            }
+            long[] merged = target;
+            target = source;
+            source = merged;
+        }
+        if (source != keys) {
+            System.arraycopy(source, 0, keys, 0, keys.length);
+        }
+    }
+
+    /**
+     * Merge the sorted ranges [from, middle) and [middle, to) of the source into the target.
+     */
+    private static void merge(long[] source, long[] target, int from, int middle, int to) {
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && source[left] <= source[right])) {
+                target[i] = source[left++];
+            } else {
+                target[i] = source[right++];
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getSortExecutor() {
+        if (sSortExecutor == null) {
+            // Idle threads stop after a minute, so the pool costs nothing between sorts
+            sSortExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "CatalogSort");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sSortExecutor;
+    }
+
+    /**
+     * Sort of a range of the keys.
+     */
+    private static class PartSort implements Runnable {
+        private final long[] keys;
+        private final int from;
+        private final int to;
+
+        PartSort(long[] keys, int from, int to) {
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void run() {
+            Arrays.sort(keys, from, to);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            int newCapacity = Math.max(capacity, ids.length * 2);
+            ids = Arrays.copyOf(ids, newCapacity);
+            nameCodes = Arrays.copyOf(nameCodes, newCapacity);
+            prices = Arrays.copyOf(prices, newCapacity);
+            quantities = Arrays.copyOf(quantities, newCapacity);
+        }
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        return row;
+    }
+}
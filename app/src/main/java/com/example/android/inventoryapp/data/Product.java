@@ -0,0 +1,81 @@
+package com.example.android.inventoryapp.data;
+
+/**
+ * A product of the inventory, with its attributes in primitive form.
+ */
+
+public final class Product {
+
+    private final long id;
+    private final String name;
+    private final float price;
+    private final int quantity;
+    private final String supplier;
+    private final String picture;
+    private final String sku;
+
+    /**
+     * Constructs a new {@link Product} without SKU.
+     *
+     * @param id       The ID of the product, ignored when inserting it.
+     * @param name     The name of the product.
+     * @param price    The price of the product.
+     * @param quantity The quantity in stock.
+     * @param supplier The email of the supplier.
+     * @param picture  The URI of the picture of the product.
+     */
+    public Product(long id, String name, float price, int quantity, String supplier,
+                   String picture) {
+        this(id, name, price, quantity, supplier, picture, null);
+    }
+
+    /**
+     * Constructs a new {@link Product}.
+     *
+     * @param id       The ID of the product, ignored when inserting it.
+     * @param name     The name of the product.
+     * @param price    The price of the product.
+     * @param quantity The quantity in stock.
+     * @param supplier The email of the supplier.
+     * @param picture  The URI of the picture of the product.
+     * @param sku      The SKU of the product, as read from its barcode, or null.
+     */
+    public Product(long id, String name, float price, int quantity, String supplier,
+                   String picture, String sku) {
+        this.id = id;
+        this.name = name;
+        this.price = price;
+        this.quantity = quantity;
+        this.supplier = supplier;
+        this.picture = picture;
+        this.sku = sku;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public float getPrice() {
+        return price;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public String getSupplier() {
+        return supplier;
+    }
+
+    public String getPicture() {
+        return picture;
+    }
+
+    public String getSku() {
+        return sku;
+    }
+}
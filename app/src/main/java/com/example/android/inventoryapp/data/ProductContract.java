@@ -1,6 +1,7 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -31,9 +32,117 @@ public class ProductContract {
      */
     public static final String PATH_PRODUCTS = "products";
 
+    /**
+     * Declare path, appended to a single product URI, to adjust the quantity of that product.
+     */
+    public static final String PATH_ADJUST = "adjust";
+
+    /**
+     * Declare path, appended to a single product URI, to restore that product after its deletion.
+     */
+    public static final String PATH_RESTORE = "restore";
+
+    /**
+     * Declare path, appended to the products path, to search products.
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Declare path, appended to the products path, to export all the products as a file.
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Declare path, appended to the products path, to find a product by its SKU.
+     */
+    public static final String PATH_SKU = "sku";
+
+    /**
+     * Declare path to the statistics of the provider.
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Declare path to the summary of the inventory.
+     */
+    public static final String PATH_SUMMARY = "summary";
+
+    /**
+     * Provider method applying a batch of quantity deltas in one transaction.
+     * Expects {@link #EXTRA_PRODUCT_IDS} and {@link #EXTRA_QUANTITY_DELTAS} in the extras.
+     */
+    public static final String METHOD_APPLY_SALES = "apply_sales";
+
+    /**
+     * Extras keys used by {@link #METHOD_APPLY_SALES}.
+     */
+    public static final String EXTRA_PRODUCT_IDS = "product_ids";
+    public static final String EXTRA_QUANTITY_DELTAS = "quantity_deltas";
+    public static final String EXTRA_ROWS_UPDATED = "rows_updated";
+
+    /**
+     * Provider method adding a delta to the quantity of a single product, as the adjust URI does.
+     * Expects {@link #EXTRA_PRODUCT_ID} and {@link #EXTRA_QUANTITY_DELTA} in the extras. The
+     * result holds the new quantity in {@link #EXTRA_QUANTITY}, or -1 if the product does not
+     * exist or the quantity would become negative.
+     */
+    public static final String METHOD_ADJUST_QUANTITY = "adjust_quantity";
+
+    /**
+     * Extras keys used by {@link #METHOD_ADJUST_QUANTITY}.
+     */
+    public static final String EXTRA_PRODUCT_ID = "product_id";
+    public static final String EXTRA_QUANTITY_DELTA = "quantity_delta";
+
+    /**
+     * Provider method recomputing the summary of the inventory from the products, and comparing
+     * it with the maintained one. A summary found out of step is rebuilt. The result holds
+     * {@link #EXTRA_SUMMARY_CONSISTENT}.
+     */
+    public static final String METHOD_CHECK_SUMMARY = "check_summary";
+
+    /**
+     * Extras key used by {@link #METHOD_CHECK_SUMMARY}: whether the maintained summary matched
+     * the recomputed one.
+     */
+    public static final String EXTRA_SUMMARY_CONSISTENT = "summary_consistent";
+
+    /**
+     * Provider methods changing a set of products at once: each runs as a single statement over
+     * all the products, in one transaction with one change notification. They expect
+     * {@link #EXTRA_PRODUCT_IDS} in the extras, and return {@link #EXTRA_ROWS_UPDATED}.
+     * <p>
+     * Deleting or updating {@link ProductEntry#CONTENT_URI} with a selection changes the matching
+     * products the same way.
+     */
+    public static final String METHOD_DELETE_PRODUCTS = "delete_products";
+    public static final String METHOD_RESTORE_PRODUCTS = "restore_products";
+
+    /**
+     * Also expects {@link #EXTRA_QUANTITY}, the new quantity of the products.
+     */
+    public static final String METHOD_SET_QUANTITY = "set_quantity";
+
+    /**
+     * Also expects {@link #EXTRA_PRICE_PERCENT}, the percentage added to the prices, negative to
+     * lower them. Prices are rounded to the cent.
+     */
+    public static final String METHOD_ADJUST_PRICE = "adjust_price";
+
+    /**
+     * Extras keys used by {@link #METHOD_SET_QUANTITY} and {@link #METHOD_ADJUST_PRICE}. The
+     * result of {@link #METHOD_ADJUST_QUANTITY} also holds the new quantity in
+     * {@link #EXTRA_QUANTITY}.
+     */
+    public static final String EXTRA_QUANTITY = "quantity";
+    public static final String EXTRA_PRICE_PERCENT = "price_percent";
+
     /**
      * Inner class that defines constant values for the products database table.
      * Each entry in the table represents a single product.
+     * <p>
+     * Deleting a product only hides it, so the deletion can be undone with
+     * {@link #buildRestoreUri(long)}. Deleted products are removed for good a while later.
      */
     public static final class ProductEntry implements BaseColumns {
 
@@ -68,6 +177,238 @@ public class ProductContract {
         public final static String COLUMN_PRODUCT_QTY = "quantity";
         public final static String COLUMN_PRODUCT_SUPPLIER = "supplier"; // Supplier's email
         public final static String COLUMN_PRODUCT_PICTURE = "picture";
+        public final static String COLUMN_PRODUCT_SKU = "sku"; // barcode, optional but unique
 
+        /**
+         * Query parameters of {@link #CONTENT_URI} for keyset pagination.
+         * <p>
+         * {@link #QUERY_LIMIT} caps the number of rows returned. {@link #QUERY_AFTER_ID} only
+         * returns the rows that come after the given product in the sort order; when sorting by
+         * another column than {@link #_ID}, {@link #QUERY_AFTER_SORT_KEY} must hold that product's
+         * value in the sort column. When any of them is present, the sort order must be null or the
+         * name of a single column out of {@link #_ID}, {@link #COLUMN_PRODUCT_NAME},
+         * {@link #COLUMN_PRODUCT_PRICE} and {@link #COLUMN_PRODUCT_QTY}. Rows are then sorted by
+         * that column in ascending order, ties being broken by {@link #_ID}.
+         */
+        public final static String QUERY_LIMIT = "limit";
+        public final static String QUERY_AFTER_ID = "after_id";
+        public final static String QUERY_AFTER_SORT_KEY = "after_sort_key";
+
+        /**
+         * Build the URI searching products whose name or supplier contains words starting with
+         * the words of the given text, best matches first. Accepts {@link #QUERY_LIMIT}.
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(text)
+                    .build();
+        }
+
+        /**
+         * Build the URI of the product with the given SKU, as read from its barcode. Querying it
+         * returns that product, or no row if no product has this SKU.
+         */
+        public static Uri buildSkuUri(String sku) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SKU)
+                    .appendPath(sku)
+                    .build();
+        }
+
+        /**
+         * Query parameter of the export URI choosing the format of the file: {@link #FORMAT_CSV}
+         * (the default) or {@link #FORMAT_BINARY}.
+         */
+        public final static String QUERY_FORMAT = "format";
+
+        /**
+         * CSV with a header row naming the columns: _id, name, price, quantity, supplier, picture
+         * and sku. Fields holding commas, quotes or line breaks are quoted as in RFC 4180. The
+         * file can be imported back.
+         */
+        public final static String FORMAT_CSV = "csv";
+
+        /**
+         * Compact binary format: a 4 bytes {@link #BINARY_EXPORT_MAGIC} and a version byte, then
+         * one record per product until the end of the file. A record holds the ID (8 bytes), the
+         * price (4 bytes float) and the quantity (4 bytes), then the name, the supplier, the
+         * picture and the SKU (empty when there is none), each as its length in bytes (unsigned
+         * LEB128 varint) followed by its UTF-8 bytes. Numbers are big-endian.
+         */
+        public final static String FORMAT_BINARY = "binary";
+
+        /**
+         * First bytes of a binary export ("INVX"), and version of the format that follows.
+         */
+        public final static int BINARY_EXPORT_MAGIC = 0x494E5658;
+        public final static int BINARY_EXPORT_VERSION = 2;
+
+        /**
+         * The MIME types of the exports.
+         */
+        public static final String CSV_EXPORT_TYPE = "text/csv";
+        public static final String BINARY_EXPORT_TYPE =
+                "application/vnd." + CONTENT_AUTHORITY + "." + PATH_PRODUCTS;
+
+        /**
+         * Build the URI exporting all the products in the given format. Open it for reading with
+         * {@code ContentResolver.openInputStream}: the rows are written to a pipe as the reader
+         * reads them, so the export is never held in memory as a whole.
+         */
+        public static Uri buildExportUri(String format) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_EXPORT)
+                    .appendQueryParameter(QUERY_FORMAT, format)
+                    .build();
+        }
+
+        /**
+         * Query parameter of the URIs passed to content observers when a single product changed,
+         * telling how it changed: {@link #CHANGE_INSERT}, {@link #CHANGE_UPDATE} or
+         * {@link #CHANGE_DELETE}. Changes to rows the provider can't name are notified on
+         * {@link #CONTENT_URI} itself.
+         */
+        public final static String QUERY_CHANGE = "change";
+        public final static String CHANGE_INSERT = "insert";
+        public final static String CHANGE_UPDATE = "update";
+        public final static String CHANGE_DELETE = "delete";
+
+        /**
+         * Build the URI notified when the given product changed in the given way.
+         */
+        public static Uri buildChangeUri(long id, String change) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_CHANGE, change)
+                    .build();
+        }
+
+        /**
+         * Key of the quantity delta in the values passed to an adjust URI.
+         * See {@link #buildAdjustUri(long)}.
+         */
+        public final static String ADJUST_DELTA = "delta";
+
+        /**
+         * Build the URI that atomically adds a delta to the quantity of the given product.
+         * <p>
+         * Update it with a {@link #ADJUST_DELTA} value: the delta is applied in a single SQL
+         * statement, and the update returns 1, or 0 if the product does not exist or the quantity
+         * would become negative. {@link ProductContract#METHOD_ADJUST_QUANTITY} does the same and
+         * returns the new quantity.
+         */
+        public static Uri buildAdjustUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_ADJUST)
+                    .build();
+        }
+
+        /**
+         * Build the URI that restores the given deleted product.
+         * <p>
+         * Update it with empty values: the update returns 1 if the product was restored, which
+         * is then notified as an insertion, or 0 if it is not deleted or was already removed for
+         * good.
+         */
+        public static Uri buildRestoreUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_RESTORE)
+                    .build();
+        }
+
+    }
+
+    /**
+     * Inner class that defines constant values for the summary of the inventory.
+     * <p>
+     * The summary table holds a single row of aggregates over all the products that are not
+     * deleted, kept up to date by triggers as products are inserted, updated and deleted, so
+     * reading it costs the same whatever the size of the catalog.
+     */
+    public static final class SummaryEntry {
+
+        /**
+         * The content URI to access the summary in the provider.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUMMARY);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUMMARY;
+
+        /**
+         * Name of database table for the summary
+         */
+        public final static String TABLE_NAME = "products_summary";
+
+        /**
+         * Quantity at or under which a product counts as low on stock.
+         */
+        public final static int LOW_STOCK_THRESHOLD = 5;
+
+        /**
+         * Columns of the summary.
+         */
+        public final static String COLUMN_PRODUCT_COUNT = "product_count";
+        public final static String COLUMN_TOTAL_UNITS = "total_units";
+        public final static String COLUMN_STOCK_VALUE = "stock_value"; // sum of price * quantity
+        public final static String COLUMN_OUT_OF_STOCK_COUNT = "out_of_stock_count";
+        public final static String COLUMN_LOW_STOCK_COUNT = "low_stock_count";
+    }
+
+    /**
+     * Inner class that defines constant values for the statistics of the provider.
+     * <p>
+     * Querying {@link #CONTENT_URI} returns one row per operation and URI that was called since
+     * the statistics were last reset, plus one {@link #OPERATION_NOTIFY} row counting the change
+     * notifications sent. Deleting {@link #CONTENT_URI} resets them. Latencies are in microseconds;
+     * percentiles are the upper bounds of power of two buckets.
+     */
+    public static final class StatsEntry {
+
+        /**
+         * The content URI to access the statistics in the provider.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * Columns of the statistics.
+         */
+        public final static String COLUMN_OPERATION = "operation";
+        public final static String COLUMN_URI = "uri"; // URI pattern, e.g. products/#
+        public final static String COLUMN_CALLS = "calls";
+        public final static String COLUMN_ROWS = "rows"; // rows returned or affected
+        public final static String COLUMN_TOTAL_MICROS = "total_micros";
+        public final static String COLUMN_P50_MICROS = "p50_micros";
+        public final static String COLUMN_P90_MICROS = "p90_micros";
+        public final static String COLUMN_P99_MICROS = "p99_micros";
+        public final static String COLUMN_MAX_MICROS = "max_micros";
+        public final static String COLUMN_HIT_RATIO = "hit_ratio"; // queries only, from 0 to 1
+
+        /**
+         * Values of {@link #COLUMN_OPERATION}.
+         */
+        public final static String OPERATION_QUERY = "query";
+        public final static String OPERATION_INSERT = "insert";
+        public final static String OPERATION_BULK_INSERT = "bulk_insert";
+        public final static String OPERATION_UPDATE = "update";
+        public final static String OPERATION_DELETE = "delete";
+        public final static String OPERATION_CALL = "call";
+        public final static String OPERATION_NOTIFY = "notify";
+
+        /**
+         * Queries answered from the result cache of the provider, without reaching the database.
+         * The {@link #COLUMN_HIT_RATIO} of both rows of a URI is its cached query calls over its
+         * query and cached query calls.
+         */
+        public final static String OPERATION_CACHED_QUERY = "cached_query";
     }
 }
@@ -1,17 +1,47 @@
 package com.example.android.inventoryapp.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SummaryEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Database helper for inventory app.
+ * <p>
+ * The database uses write-ahead logging, so the catalog queries keep reading while sales are
+ * written, and the reverse. Readers get their own connections from the framework pool, whose size
+ * is bounded by the platform.
+ * <p>
+ * Deleted products are only marked with the time of their deletion and hidden from the products
+ * view, so a deletion is a single row update that can be undone. {@link ProductRepository} purges
+ * them a while later in batches, and gives the freed pages back to the file system, as the
+ * database uses incremental auto-vacuum.
+ * <p>
+ * The migrations left by an upgrade run on a background thread once the database is open, so
+ * opening it doesn't hold the lock of the helper for their whole length. The schema is only
+ * partly migrated meanwhile: {@link #getReadableDatabase} and {@link #getWritableDatabase} wait
+ * for the migrations to complete, and only {@link #getOpenDatabase} doesn't.
  */
 
 public class ProductDbHelper extends SQLiteOpenHelper {
 
+    /**
+     * Tag for the log messages.
+     */
+    private static final String LOG_TAG = ProductDbHelper.class.getSimpleName();
+
     /**
      * Name of the database file
      */
@@ -20,10 +50,549 @@ public class ProductDbHelper extends SQLiteOpenHelper {
     /**
      * Database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 11;
+
+    /**
+     * Number of pages in the write-ahead log after which a commit copies the log back into the
+     * database. Small sale transactions add a page or two each, so this keeps checkpoints rare
+     * without letting reads scan a long log.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 500;
+
+    /**
+     * Size (in bytes) the write-ahead log file is truncated to after a checkpoint, so a bulk
+     * import doesn't leave a large file behind.
+     */
+    private static final long WAL_SIZE_LIMIT_BYTES = 1024 * 1024;
+
+    /**
+     * Value of the auto_vacuum pragma keeping the pages freed by deletions in the file until an
+     * incremental vacuum gives them back, see {@link #vacuumFreePages}.
+     */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Number of free pages given back to the file system per incremental vacuum statement, so a
+     * large purge doesn't hold the write lock for long.
+     */
+    private static final int VACUUM_BATCH_PAGES = 256;
+
+    /**
+     * Name of the full-text index over the product name and supplier. Each of its rows has the
+     * ID of the product it indexes as docid.
+     */
+    static final String SEARCH_TABLE_NAME = "products_fts";
+
+    /**
+     * Index on the product name, so that the catalog can be paged in name order without sorting
+     * the whole table. SQLite appends the row ID to every index entry, which gives the
+     * (name, _id) order used by keyset pagination for free.
+     */
+    private static final String SQL_CREATE_NAME_INDEX =
+            "CREATE INDEX products_name_index ON " + ProductEntry.TABLE_NAME
+                    + " (" + ProductEntry.COLUMN_PRODUCT_NAME + ");";
+
+    /**
+     * Unique index on the SKU, so that a scanned barcode finds its product without a table scan
+     * and no two products share a SKU. Products without SKU hold NULL, which the index allows
+     * any number of times.
+     */
+    private static final String SQL_CREATE_SKU_INDEX =
+            "CREATE UNIQUE INDEX products_sku_index ON " + ProductEntry.TABLE_NAME
+                    + " (" + ProductEntry.COLUMN_PRODUCT_SKU + ");";
+
+    /**
+     * Name of the table holding each supplier once, referenced by the products.
+     */
+    static final String SUPPLIERS_TABLE_NAME = "suppliers";
+
+    /**
+     * Columns of the suppliers table.
+     */
+    static final String COLUMN_SUPPLIER_EMAIL = "email";
+
+    /**
+     * Column of the products table holding the ID of the supplier.
+     */
+    static final String COLUMN_SUPPLIER_ID = "supplier_id";
+
+    /**
+     * Column of the products table holding the time (in milliseconds since the epoch) the product
+     * was deleted, or NULL while it is not. Deleted products keep their row, and their SKU, until
+     * they are purged.
+     */
+    static final String COLUMN_DELETED_AT = "deleted_at";
+
+    /**
+     * Condition selecting the products that are not deleted.
+     */
+    static final String NOT_DELETED = COLUMN_DELETED_AT + " IS NULL";
+
+    /**
+     * Index on the deletion time of the products, so a purge finds the deleted products without
+     * a table scan.
+     */
+    private static final String SQL_CREATE_DELETED_AT_INDEX =
+            "CREATE INDEX products_deleted_at_index ON " + ProductEntry.TABLE_NAME
+                    + " (" + COLUMN_DELETED_AT + ");";
+
+    /**
+     * Name of the view joining each product that is not deleted with the email of its supplier as
+     * {@link ProductEntry#COLUMN_PRODUCT_SUPPLIER}, which products are read from.
+     */
+    static final String PRODUCTS_VIEW_NAME = "products_with_supplier";
+
+    /**
+     * Statement adding a supplier, unless it already exists. Bind the email.
+     */
+    static final String SQL_INSERT_SUPPLIER = "INSERT OR IGNORE INTO " + SUPPLIERS_TABLE_NAME
+            + " (" + COLUMN_SUPPLIER_EMAIL + ") VALUES (?)";
+
+    /**
+     * Expression of the ID of a supplier, to be written to {@link #COLUMN_SUPPLIER_ID}. Bind the
+     * email.
+     */
+    static final String SUPPLIER_ID_OF_EMAIL = "(SELECT _id FROM " + SUPPLIERS_TABLE_NAME
+            + " WHERE " + COLUMN_SUPPLIER_EMAIL + " = ?)";
+
+    /**
+     * Expression of the email of the supplier of the product written by a trigger.
+     */
+    private static final String EMAIL_OF_NEW_SUPPLIER = "(SELECT " + COLUMN_SUPPLIER_EMAIL
+            + " FROM " + SUPPLIERS_TABLE_NAME + " WHERE _id = new." + COLUMN_SUPPLIER_ID + ")";
+
+    /**
+     * SQL statements creating the suppliers table. Emails are unique, so a supplier shared by
+     * many products is stored once, and its unique index finds the ID of an email.
+     */
+    private static final String SQL_CREATE_SUPPLIERS_TABLE =
+            "CREATE TABLE " + SUPPLIERS_TABLE_NAME + " ("
+                    + "_id INTEGER PRIMARY KEY, "
+                    + COLUMN_SUPPLIER_EMAIL + " TEXT NOT NULL UNIQUE);";
+
+    /**
+     * Index on the supplier of the products, so the products of a supplier are found, and
+     * grouped, without a table scan.
+     */
+    private static final String SQL_CREATE_SUPPLIER_INDEX =
+            "CREATE INDEX products_supplier_index ON " + ProductEntry.TABLE_NAME
+                    + " (" + COLUMN_SUPPLIER_ID + ");";
+
+    /**
+     * SQL statement creating the view products are read from. The join is flattened by SQLite,
+     * so queries of the view still use the indexes of the products.
+     */
+    private static final String SQL_CREATE_PRODUCTS_VIEW =
+            "CREATE VIEW " + PRODUCTS_VIEW_NAME + " AS SELECT " + ProductEntry.TABLE_NAME + ".*, "
+                    + SUPPLIERS_TABLE_NAME + "." + COLUMN_SUPPLIER_EMAIL
+                    + " AS " + ProductEntry.COLUMN_PRODUCT_SUPPLIER
+                    + " FROM " + ProductEntry.TABLE_NAME + " JOIN " + SUPPLIERS_TABLE_NAME
+                    + " ON " + SUPPLIERS_TABLE_NAME + "._id = " + ProductEntry.TABLE_NAME + "."
+                    + COLUMN_SUPPLIER_ID
+                    + " WHERE " + ProductEntry.TABLE_NAME + "." + NOT_DELETED + ";";
+
+    /**
+     * SQL statement creating the full-text index. It keeps its own copy of the supplier email.
+     */
+    private static final String SQL_CREATE_SEARCH_TABLE =
+            "CREATE VIRTUAL TABLE " + SEARCH_TABLE_NAME + " USING fts4("
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER + ");";
+
+    /**
+     * SQL statements creating the triggers keeping the full-text index in sync with the products
+     * table. Quantity and price changes don't touch the index.
+     */
+    private static final String[] SQL_CREATE_SEARCH_TRIGGERS = {
+            "CREATE TRIGGER products_fts_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME
+                    + " BEGIN INSERT INTO " + SEARCH_TABLE_NAME + " (docid, "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER
+                    + ") VALUES (new." + ProductEntry._ID + ", new." + ProductEntry.COLUMN_PRODUCT_NAME
+                    + ", " + EMAIL_OF_NEW_SUPPLIER + "); END;",
+            "CREATE TRIGGER products_fts_update AFTER UPDATE OF "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", " + COLUMN_SUPPLIER_ID
+                    + " ON " + ProductEntry.TABLE_NAME
+                    + " BEGIN UPDATE " + SEARCH_TABLE_NAME + " SET "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + " = new." + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_PRODUCT_SUPPLIER + " = " + EMAIL_OF_NEW_SUPPLIER
+                    + " WHERE docid = old." + ProductEntry._ID + "; END;",
+            "CREATE TRIGGER products_fts_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME
+                    + " BEGIN DELETE FROM " + SEARCH_TABLE_NAME
+                    + " WHERE docid = old." + ProductEntry._ID + "; END;"};
+
+    /**
+     * SQL statements creating the triggers giving up the SKU of a deleted product, which it keeps
+     * until it is purged, when another product takes that SKU. The deleted product is purged
+     * right away, and can't be restored anymore.
+     */
+    private static final String[] SQL_CREATE_SKU_TRIGGERS = {
+            "CREATE TRIGGER products_sku_insert BEFORE INSERT ON " + ProductEntry.TABLE_NAME
+                    + " WHEN new." + ProductEntry.COLUMN_PRODUCT_SKU + " IS NOT NULL"
+                    + " BEGIN DELETE FROM " + ProductEntry.TABLE_NAME
+                    + " WHERE " + ProductEntry.COLUMN_PRODUCT_SKU + " = new." + ProductEntry.COLUMN_PRODUCT_SKU
+                    + " AND " + COLUMN_DELETED_AT + " IS NOT NULL; END;",
+            "CREATE TRIGGER products_sku_update BEFORE UPDATE OF " + ProductEntry.COLUMN_PRODUCT_SKU
+                    + " ON " + ProductEntry.TABLE_NAME
+                    + " WHEN new." + ProductEntry.COLUMN_PRODUCT_SKU + " IS NOT NULL"
+                    + " BEGIN DELETE FROM " + ProductEntry.TABLE_NAME
+                    + " WHERE " + ProductEntry.COLUMN_PRODUCT_SKU + " = new." + ProductEntry.COLUMN_PRODUCT_SKU
+                    + " AND " + COLUMN_DELETED_AT + " IS NOT NULL"
+                    + " AND " + ProductEntry._ID + " != old." + ProductEntry._ID + "; END;"};
+
+    /**
+     * Name of the table holding the progress of the imports, so an interrupted import resumes
+     * after the last rows it committed. See {@link ProductImporter}.
+     */
+    static final String IMPORTS_TABLE_NAME = "imports";
+
+    /**
+     * Columns of the imports table.
+     */
+    static final String COLUMN_IMPORT_SOURCE = "source"; // URI of the imported file
+    static final String COLUMN_IMPORT_ROWS_READ = "rows_read";
+    static final String COLUMN_IMPORT_ROWS_IMPORTED = "rows_imported";
+    static final String COLUMN_IMPORT_ROWS_REJECTED = "rows_rejected";
+
+    private static final String SQL_CREATE_IMPORTS_TABLE =
+            "CREATE TABLE " + IMPORTS_TABLE_NAME + " ("
+                    + COLUMN_IMPORT_SOURCE + " TEXT PRIMARY KEY, "
+                    + COLUMN_IMPORT_ROWS_READ + " INTEGER NOT NULL, "
+                    + COLUMN_IMPORT_ROWS_IMPORTED + " INTEGER NOT NULL, "
+                    + COLUMN_IMPORT_ROWS_REJECTED + " INTEGER NOT NULL);";
+
+    /**
+     * Name of the table holding the migrations left to run after an upgrade, and the progress of
+     * the current one. See {@link SchemaMigrator}.
+     */
+    static final String MIGRATIONS_TABLE_NAME = "migrations";
+
+    /**
+     * Columns of the migrations table.
+     */
+    static final String COLUMN_MIGRATION_VERSION = "version"; // version the migration moves to
+    static final String COLUMN_MIGRATION_STEP = "step"; // index of the next step to run
+    static final String COLUMN_MIGRATION_LAST_ID = "last_id"; // last row migrated by the step
+
+    private static final String SQL_CREATE_MIGRATIONS_TABLE =
+            "CREATE TABLE " + MIGRATIONS_TABLE_NAME + " ("
+                    + COLUMN_MIGRATION_VERSION + " INTEGER PRIMARY KEY, "
+                    + COLUMN_MIGRATION_STEP + " INTEGER NOT NULL, "
+                    + COLUMN_MIGRATION_LAST_ID + " INTEGER NOT NULL);";
+
+    /**
+     * Number of rows migrated per transaction. A chunk of the largest migration takes a few
+     * milliseconds on a desktop.
+     */
+    private static final int MIGRATION_CHUNK_ROWS = 2000;
+
+    /**
+     * Condition of the statements of a {@link SchemaMigrator.RowStep} on the products of a chunk.
+     */
+    private static final String ROW_RANGE =
+            ProductEntry._ID + " > ? AND " + ProductEntry._ID + " <= ?";
+
+    /**
+     * Columns of the products table tracking the changes not yet pushed by {@link SyncEngine}.
+     */
+    static final String COLUMN_SYNC_ID = "sync_id"; // ID of the product on every device
+    static final String COLUMN_CHANGE_SEQ = "change_seq"; // sequence number of the last local change
+    static final String COLUMN_QUANTITY_DELTA = "quantity_delta"; // quantity change not yet pushed
+    static final String COLUMN_FIELDS_CHANGED = "fields_changed"; // whether other columns changed
+
+    /**
+     * Name of the table holding the single row of sync state.
+     */
+    static final String SYNC_STATE_TABLE_NAME = "sync_state";
+
+    /**
+     * Columns of the sync state table.
+     */
+    static final String COLUMN_SYNC_DEVICE_ID = "device_id";
+    static final String COLUMN_SYNC_LAST_SEQ = "last_seq"; // last local change sequence number
+    static final String COLUMN_SYNC_PUSHED_SEQ = "pushed_seq"; // last sequence number pushed
+    static final String COLUMN_SYNC_CURSOR = "server_cursor"; // last server change pulled
+    static final String COLUMN_SYNC_APPLYING = "applying"; // set while pulled changes are written
+    static final String COLUMN_SYNC_PUSH_BATCH = "push_batch"; // batch sent but not answered, or 0
+
+    /**
+     * Name of the table holding the products deleted locally and not yet pushed.
+     */
+    static final String TOMBSTONES_TABLE_NAME = "sync_tombstones";
+
+    /**
+     * Name of the table holding the changes of the push batch in flight, as they were sent.
+     */
+    static final String PUSH_TABLE_NAME = "sync_push";
+
+    /**
+     * Column of the push table telling whether a change is a deletion. The others are those of
+     * the products view, and {@link #COLUMN_QUANTITY_DELTA} holds the delta sent.
+     */
+    static final String COLUMN_PUSH_DELETED = "deleted";
+
+    /**
+     * Expression of a new random sync ID.
+     */
+    private static final String NEW_SYNC_ID = "lower(hex(randomblob(8)))";
+
+    /**
+     * Condition of the sync triggers: changes written by the sync itself are not local changes.
+     */
+    private static final String WHEN_NOT_APPLYING = " WHEN (SELECT " + COLUMN_SYNC_APPLYING
+            + " FROM " + SYNC_STATE_TABLE_NAME + ") = 0";
+
+    /**
+     * Condition of the sync delete trigger: a device that never synced has nothing to delete on
+     * the server, and keeps no tombstone.
+     */
+    private static final String AND_EVER_SYNCED = " AND (SELECT " + COLUMN_SYNC_PUSHED_SEQ + " + "
+            + COLUMN_SYNC_CURSOR + " FROM " + SYNC_STATE_TABLE_NAME + ") > 0";
+
+    /**
+     * Statement taking the next local change sequence number, read back as {@link #CURRENT_SEQ}.
+     */
+    private static final String NEXT_SEQ = "UPDATE " + SYNC_STATE_TABLE_NAME + " SET "
+            + COLUMN_SYNC_LAST_SEQ + " = " + COLUMN_SYNC_LAST_SEQ + " + 1;";
+    private static final String CURRENT_SEQ = "(SELECT " + COLUMN_SYNC_LAST_SEQ + " FROM "
+            + SYNC_STATE_TABLE_NAME + ")";
+
+    /**
+     * Indexes of the sync: a sync only reads the rows changed since the last one through the
+     * index on {@link #COLUMN_CHANGE_SEQ}, and finds pulled products by sync ID.
+     */
+    private static final String[] SQL_CREATE_SYNC_INDEXES = {
+            "CREATE INDEX products_change_seq_index ON " + ProductEntry.TABLE_NAME
+                    + " (" + COLUMN_CHANGE_SEQ + ");",
+            "CREATE UNIQUE INDEX products_sync_id_index ON " + ProductEntry.TABLE_NAME
+                    + " (" + COLUMN_SYNC_ID + ");"};
+
+    /**
+     * SQL statement creating the push table, with the columns in the order {@link SyncEngine}
+     * reads the changes to push.
+     */
+    private static final String SQL_CREATE_PUSH_TABLE = "CREATE TABLE " + PUSH_TABLE_NAME + " ("
+            + COLUMN_CHANGE_SEQ + " INTEGER NOT NULL, "
+            + COLUMN_SYNC_ID + " TEXT NOT NULL, "
+            + COLUMN_PUSH_DELETED + " INTEGER NOT NULL, "
+            + COLUMN_QUANTITY_DELTA + " INTEGER NOT NULL, "
+            + COLUMN_FIELDS_CHANGED + " INTEGER NOT NULL, "
+            + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT, "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + " REAL, "
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER + " TEXT, "
+            + ProductEntry.COLUMN_PRODUCT_PICTURE + " TEXT, "
+            + ProductEntry.COLUMN_PRODUCT_SKU + " TEXT);";
+
+    /**
+     * SQL statements creating the sync state, the table of tombstones and the push table.
+     */
+    private static final String[] SQL_CREATE_SYNC_TABLES = {
+            "CREATE TABLE " + SYNC_STATE_TABLE_NAME + " ("
+                    + "_id INTEGER PRIMARY KEY CHECK (_id = 1), "
+                    + COLUMN_SYNC_DEVICE_ID + " TEXT NOT NULL, "
+                    + COLUMN_SYNC_LAST_SEQ + " INTEGER NOT NULL, "
+                    + COLUMN_SYNC_PUSHED_SEQ + " INTEGER NOT NULL, "
+                    + COLUMN_SYNC_CURSOR + " INTEGER NOT NULL, "
+                    + COLUMN_SYNC_APPLYING + " INTEGER NOT NULL, "
+                    + COLUMN_SYNC_PUSH_BATCH + " INTEGER NOT NULL DEFAULT 0);",
+            "INSERT INTO " + SYNC_STATE_TABLE_NAME + " VALUES (1, " + NEW_SYNC_ID
+                    + ", 0, 0, 0, 0, 0);",
+            "CREATE TABLE " + TOMBSTONES_TABLE_NAME + " ("
+                    + COLUMN_SYNC_ID + " TEXT PRIMARY KEY NOT NULL, "
+                    + COLUMN_CHANGE_SEQ + " INTEGER NOT NULL);",
+            SQL_CREATE_PUSH_TABLE};
+
+    /**
+     * SQL statements creating the indexes of the products table.
+     */
+    private static final String[] SQL_CREATE_PRODUCT_INDEXES = {
+            SQL_CREATE_NAME_INDEX,
+            SQL_CREATE_SKU_INDEX,
+            SQL_CREATE_SUPPLIER_INDEX,
+            SQL_CREATE_SYNC_INDEXES[0],
+            SQL_CREATE_SYNC_INDEXES[1],
+            SQL_CREATE_DELETED_AT_INDEX};
+
+    /**
+     * SQL statements creating the triggers stamping each local change with a sequence number.
+     * Quantity changes add up in {@link #COLUMN_QUANTITY_DELTA}, which is pushed as a delta
+     * rather than a value, so concurrent sales on two devices both count. Once the device synced,
+     * purged products leave a tombstone until the deletion is pushed. Deleting or restoring a
+     * product stamps it too: a deleted product isn't pushed, so a restored one pushes the changes
+     * it still holds.
+     */
+    private static final String[] SQL_CREATE_SYNC_TRIGGERS = {
+            "CREATE TRIGGER products_sync_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME
+                    + WHEN_NOT_APPLYING + " BEGIN " + NEXT_SEQ
+                    + " UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                    + COLUMN_SYNC_ID + " = IFNULL(new." + COLUMN_SYNC_ID + ", " + NEW_SYNC_ID + "), "
+                    + COLUMN_CHANGE_SEQ + " = " + CURRENT_SEQ + ", "
+                    + COLUMN_QUANTITY_DELTA + " = new." + ProductEntry.COLUMN_PRODUCT_QTY + ", "
+                    + COLUMN_FIELDS_CHANGED + " = 1"
+                    + " WHERE " + ProductEntry._ID + " = new." + ProductEntry._ID + "; END;",
+            "CREATE TRIGGER products_sync_update AFTER UPDATE OF "
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                    + ProductEntry.COLUMN_PRODUCT_QTY + ", " + COLUMN_SUPPLIER_ID + ", "
+                    + ProductEntry.COLUMN_PRODUCT_PICTURE + ", " + ProductEntry.COLUMN_PRODUCT_SKU + ", "
+                    + COLUMN_DELETED_AT + " ON " + ProductEntry.TABLE_NAME + WHEN_NOT_APPLYING + " BEGIN " + NEXT_SEQ
+                    + " UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                    + COLUMN_CHANGE_SEQ + " = " + CURRENT_SEQ + ", "
+                    + COLUMN_QUANTITY_DELTA + " = " + COLUMN_QUANTITY_DELTA
+                    + " + new." + ProductEntry.COLUMN_PRODUCT_QTY
+                    + " - old." + ProductEntry.COLUMN_PRODUCT_QTY + ", "
+                    + COLUMN_FIELDS_CHANGED + " = " + COLUMN_FIELDS_CHANGED
+                    + buildChangedTest(ProductEntry.COLUMN_PRODUCT_NAME)
+                    + buildChangedTest(ProductEntry.COLUMN_PRODUCT_PRICE)
+                    + buildChangedTest(COLUMN_SUPPLIER_ID)
+                    + buildChangedTest(ProductEntry.COLUMN_PRODUCT_PICTURE)
+                    + buildChangedTest(ProductEntry.COLUMN_PRODUCT_SKU)
+                    + " WHERE " + ProductEntry._ID + " = new." + ProductEntry._ID + "; END;",
+            "CREATE TRIGGER products_sync_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME
+                    + WHEN_NOT_APPLYING + AND_EVER_SYNCED
+                    + " AND old." + COLUMN_SYNC_ID + " IS NOT NULL BEGIN " + NEXT_SEQ
+                    + " INSERT OR REPLACE INTO " + TOMBSTONES_TABLE_NAME + " ("
+                    + COLUMN_SYNC_ID + ", " + COLUMN_CHANGE_SEQ + ") VALUES (old." + COLUMN_SYNC_ID
+                    + ", " + CURRENT_SEQ + "); END;"};
+
+    /**
+     * Columns of the summary table, each with the term a product that is not deleted adds to it.
+     * "row." stands for the product, and is replaced by new. or old. in the triggers.
+     */
+    private static final String[][] SUMMARY_TERMS = {
+            {SummaryEntry.COLUMN_PRODUCT_COUNT, "1"},
+            {SummaryEntry.COLUMN_TOTAL_UNITS, "row." + ProductEntry.COLUMN_PRODUCT_QTY},
+            {SummaryEntry.COLUMN_STOCK_VALUE, "row." + ProductEntry.COLUMN_PRODUCT_PRICE
+                    + " * row." + ProductEntry.COLUMN_PRODUCT_QTY},
+            {SummaryEntry.COLUMN_OUT_OF_STOCK_COUNT, "(row." + ProductEntry.COLUMN_PRODUCT_QTY + " = 0)"},
+            {SummaryEntry.COLUMN_LOW_STOCK_COUNT, "(row." + ProductEntry.COLUMN_PRODUCT_QTY
+                    + " <= " + SummaryEntry.LOW_STOCK_THRESHOLD + ")"}};
+
+    /**
+     * Largest difference between the maintained and the recomputed stock value still considered
+     * consistent. The maintained value adds up rounding errors of floating point additions.
+     */
+    private static final double STOCK_VALUE_TOLERANCE = 0.01;
+
+    /**
+     * SQL statement creating the summary table.
+     */
+    private static final String SQL_CREATE_SUMMARY_TABLE =
+            "CREATE TABLE " + SummaryEntry.TABLE_NAME + " ("
+                    + "_id INTEGER PRIMARY KEY CHECK (_id = 1), "
+                    + SummaryEntry.COLUMN_PRODUCT_COUNT + " INTEGER NOT NULL, "
+                    + SummaryEntry.COLUMN_TOTAL_UNITS + " INTEGER NOT NULL, "
+                    + SummaryEntry.COLUMN_STOCK_VALUE + " REAL NOT NULL, "
+                    + SummaryEntry.COLUMN_OUT_OF_STOCK_COUNT + " INTEGER NOT NULL, "
+                    + SummaryEntry.COLUMN_LOW_STOCK_COUNT + " INTEGER NOT NULL);";
+
+    /**
+     * SQL statements creating the triggers keeping the single row of the summary up to date.
+     * Name and supplier changes don't touch the summary, deleting or restoring a product removes
+     * or adds its terms.
+     */
+    private static final String[] SQL_CREATE_SUMMARY_TRIGGERS = {
+            "CREATE TRIGGER products_summary_insert AFTER INSERT ON " + ProductEntry.TABLE_NAME
+                    + " BEGIN " + buildSummaryUpdate("new", null) + " END;",
+            "CREATE TRIGGER products_summary_update AFTER UPDATE OF "
+                    + ProductEntry.COLUMN_PRODUCT_PRICE + ", " + ProductEntry.COLUMN_PRODUCT_QTY + ", "
+                    + COLUMN_DELETED_AT + " ON " + ProductEntry.TABLE_NAME
+                    + " BEGIN " + buildSummaryUpdate("new", "old") + " END;",
+            "CREATE TRIGGER products_summary_delete AFTER DELETE ON " + ProductEntry.TABLE_NAME
+                    + " BEGIN " + buildSummaryUpdate(null, "old") + " END;"};
+
+    /**
+     * Migrations from the previous versions of the database, see {@link #onUpgrade}.
+     */
+    static final SchemaMigrator.Migration[] MIGRATIONS = buildMigrations();
+
+    /**
+     * Helper shared by the provider and the repository, so they work on the same database.
+     */
+    private static ProductDbHelper sInstance;
+
+    /**
+     * Whether the database uses write-ahead logging instead of a rollback journal.
+     */
+    private final boolean writeAheadLogging;
+
+    /**
+     * Whether the database was created by the latest open, and still holds no product.
+     */
+    private boolean created;
+
+    private final SchemaMigrator migrator;
+
+    /**
+     * Guards {@link #migrating} and {@link #migrationFailure}, and is notified when a migration
+     * ends.
+     */
+    private final Object migrationLock = new Object();
+
+    /**
+     * Whether the migrations left by an upgrade are running.
+     */
+    private boolean migrating;
+
+    /**
+     * Error that stopped the last migration, or null.
+     */
+    private RuntimeException migrationFailure;
+
+    /**
+     * Incremented once a write to the products or the summary is committed.
+     */
+    private final AtomicLong writeGeneration = new AtomicLong();
 
     public ProductDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true);
+    }
+
+    /**
+     * Return the helper shared by the whole app.
+     */
+    public static synchronized ProductDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ProductDbHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return the write generation of the database. A result read at this generation stays
+     * current until the generation changes.
+     */
+    long getWriteGeneration() {
+        return writeGeneration.get();
+    }
+
+    /**
+     * Move the database to a new write generation, once a write is committed. Doing it before
+     * the commit would let a reader cache the previous rows at the new generation.
+     */
+    void bumpWriteGeneration() {
+        writeGeneration.incrementAndGet();
+    }
+
+    /**
+     * Constructs a helper for the database with the given name, which can use a rollback
+     * journal instead of write-ahead logging to compare both.
+     */
+    ProductDbHelper(Context context, String name, boolean writeAheadLogging) {
+        this(context, name, writeAheadLogging,
+                new SchemaMigrator(MIGRATIONS, MIGRATION_CHUNK_ROWS));
+    }
+
+    /**
+     * Constructs a helper for the database with the given name, upgrading it with the given
+     * migrations.
+     */
+    ProductDbHelper(Context context, String name, boolean writeAheadLogging,
+                    SchemaMigrator migrator) {
+        super(context, name, null, DATABASE_VERSION);
+        this.writeAheadLogging = writeAheadLogging;
+        this.migrator = migrator;
+        if (writeAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
     }
 
     /**
@@ -31,25 +600,596 @@ public class ProductDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Create a String that contains the SQL statement to create the products table
-        String SQL_CREATE_PRODUCTS_TABLE =
-                "CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
-                        + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                        + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
-                        + ProductEntry.COLUMN_PRODUCT_PRICE + " REAL NOT NULL, "
-                        + ProductEntry.COLUMN_PRODUCT_QTY + " INTEGER NOT NULL, "
-                        + ProductEntry.COLUMN_PRODUCT_SUPPLIER + " TEXT NOT NULL, "
-                        + ProductEntry.COLUMN_PRODUCT_PICTURE + " TEXT NOT NULL);"; // picture URI
+        created = true;
+
+        // Execute the SQL statements, creating the triggers of the products table once the
+        // tables they write to exist
+        db.execSQL(SQL_CREATE_SUPPLIERS_TABLE);
+        db.execSQL(buildCreateProductsTable(ProductEntry.TABLE_NAME));
+        db.execSQL(SQL_CREATE_SEARCH_TABLE);
+        createSummary(db);
+        db.execSQL(SQL_CREATE_IMPORTS_TABLE);
+        for (String statement : SQL_CREATE_SYNC_TABLES) {
+            db.execSQL(statement);
+        }
+        db.execSQL(SQL_CREATE_MIGRATIONS_TABLE);
+        for (String statement : SQL_CREATE_PRODUCT_INDEXES) {
+            db.execSQL(statement);
+        }
+        createProductTriggers(db);
+    }
+
+    /**
+     * Return the SQL statement creating the products table under the given name.
+     */
+    private static String buildCreateProductsTable(String tableName) {
+        return "CREATE TABLE " + tableName + " ("
+                + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + " REAL NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_QTY + " INTEGER NOT NULL, "
+                + COLUMN_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                + SUPPLIERS_TABLE_NAME + " (_id), "
+                + ProductEntry.COLUMN_PRODUCT_PICTURE + " TEXT NOT NULL, " // picture URI
+                + ProductEntry.COLUMN_PRODUCT_SKU + " TEXT, "
+                + COLUMN_SYNC_ID + " TEXT, "
+                + COLUMN_CHANGE_SEQ + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_QUANTITY_DELTA + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_FIELDS_CHANGED + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_DELETED_AT + " INTEGER);";
+    }
+
+    /**
+     * Create the triggers of the products table, and the view products are read from.
+     */
+    private static void createProductTriggers(SQLiteDatabase db) {
+        for (String statement : SQL_CREATE_SEARCH_TRIGGERS) {
+            db.execSQL(statement);
+        }
+        for (String statement : SQL_CREATE_SUMMARY_TRIGGERS) {
+            db.execSQL(statement);
+        }
+        for (String statement : SQL_CREATE_SYNC_TRIGGERS) {
+            db.execSQL(statement);
+        }
+        for (String statement : SQL_CREATE_SKU_TRIGGERS) {
+            db.execSQL(statement);
+        }
+        db.execSQL(SQL_CREATE_PRODUCTS_VIEW);
+    }
+
+    /**
+     * Open the database and wait for the migrations left by an upgrade to complete.
+     *
+     * @throws SQLiteException if the database can't be opened, or the migrations failed.
+     */
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        SQLiteDatabase db = super.getWritableDatabase();
+        awaitMigration();
+        return db;
+    }
+
+    /**
+     * Open the database and wait for the migrations left by an upgrade to complete.
+     *
+     * @throws SQLiteException if the database can't be opened, or the migrations failed.
+     */
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        SQLiteDatabase db = super.getReadableDatabase();
+        awaitMigration();
+        return db;
+    }
+
+    /**
+     * Return the database as soon as it is open, even while the migrations left by an upgrade
+     * run. Only for reads that hold at every step of them, e.g. of the columns of the products
+     * table every version has, which may be partly filled.
+     */
+    public SQLiteDatabase getOpenDatabase() {
+        return super.getReadableDatabase();
+    }
+
+    /**
+     * Wait for the migration running in the background, if any, before closing the database it
+     * works on.
+     */
+    @Override
+    public void close() {
+        waitForMigration();
+        super.close();
+    }
+
+    /**
+     * Wait for the migration running in the background, if any.
+     *
+     * @throws SQLiteException if it failed.
+     */
+    private void awaitMigration() {
+        RuntimeException failure = waitForMigration();
+        if (failure != null) {
+            throw new SQLiteException("The database could not be migrated", failure);
+        }
+    }
+
+    /**
+     * Wait for the migration running in the background, if any, and return the error that
+     * stopped it, or null.
+     */
+    private RuntimeException waitForMigration() {
+        boolean interrupted = false;
+        synchronized (migrationLock) {
+            while (migrating) {
+                try {
+                    migrationLock.wait();
+                } catch (InterruptedException e) {
+                    // The database can't be handed out half migrated, keep waiting
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (migrationLock) {
+            return migrationFailure;
+        }
+    }
+
+    /**
+     * Run the pending migrations on a background thread, each transaction of them committed on
+     * its own. A migration that fails is resumed by the next open.
+     */
+    private void startMigration(final SQLiteDatabase db) {
+        synchronized (migrationLock) {
+            migrating = true;
+            migrationFailure = null;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RuntimeException failure = null;
+                try {
+                    migrator.runPending(db);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to migrate the database.", e);
+                    failure = e;
+                }
+                synchronized (migrationLock) {
+                    migrating = false;
+                    migrationFailure = failure;
+                    migrationLock.notifyAll();
+                }
+            }
+        }, "SchemaMigration").start();
+    }
+
+    /**
+     * Set up write-ahead logging and its checkpoint policy each time the database is opened,
+     * start the migrations left by an upgrade, and turn on incremental auto-vacuum if the
+     * database was just created.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+
+        if (writeAheadLogging) {
+            // Before Jelly Bean, write-ahead logging can only be turned on once the database is open
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                db.enableWriteAheadLogging();
+            }
+
+            // These pragmas return the new value, so they must run as queries
+            DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES, null);
+            DatabaseUtils.longForQuery(db, "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES, null);
+        }
+
+        if (migrator.hasPending(db)) {
+            startMigration(db);
+        }
+
+        // Auto-vacuum can only be turned on before the first table is created, and the framework
+        // creates its locale table before onConfigure, so it takes a VACUUM even for a new
+        // database. That one only holds empty tables and takes a few pages to rebuild; an
+        // existing database is converted by its next purge instead, off the open path.
+        if (created) {
+            created = false;
+            enableIncrementalVacuum(db);
+        }
+    }
 
-        // Execute the SQL statement
-        db.execSQL(SQL_CREATE_PRODUCTS_TABLE);
+    /**
+     * Turn on incremental auto-vacuum unless it is already, by rebuilding the database, which
+     * gives every free page back. Can't run inside a transaction. Return whether the database
+     * was rebuilt.
+     */
+    private static boolean enableIncrementalVacuum(SQLiteDatabase db) {
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+            return false;
+        }
+        db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+        db.execSQL("VACUUM");
+        return true;
     }
 
     /**
-     * This is called when the database needs to be upgraded.
+     * This is called when the database needs to be upgraded. It only records the migrations to
+     * run, which {@link #onOpen} starts in short transactions once the upgrade is committed.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        // Version 9 added the table of the migrations left to run
+        if (oldVersion < 9) {
+            db.execSQL(SQL_CREATE_MIGRATIONS_TABLE);
+        }
+        migrator.addPending(db, oldVersion);
+    }
+
+    /**
+     * Return the migrations from the previous versions of the database, in version order.
+     * Versions 2 and 6 added the indexes on the product name and SKU, and versions 3 to 7 added
+     * triggers: they are all created with the products table of version 8, whose migration would
+     * drop them. That table also has the deletion time of version 10, and the sync tables
+     * of version 7 have the push batch of version 11.
+     */
+    private static SchemaMigrator.Migration[] buildMigrations() {
+        return new SchemaMigrator.Migration[]{
+                // Version 3 added the full-text index, fill it with the existing products
+                new SchemaMigrator.Migration(3,
+                        new SchemaMigrator.Step(SQL_CREATE_SEARCH_TABLE),
+                        new SchemaMigrator.RowStep(ProductEntry.TABLE_NAME,
+                                "INSERT INTO " + SEARCH_TABLE_NAME + " (docid, "
+                                        + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                                        + ProductEntry.COLUMN_PRODUCT_SUPPLIER + ") SELECT "
+                                        + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                                        + ProductEntry.COLUMN_PRODUCT_SUPPLIER + " FROM "
+                                        + ProductEntry.TABLE_NAME + " WHERE " + ROW_RANGE)),
+
+                // Version 4 added the summary table. The migration of version 10 fills it, once
+                // the products tell which of them are deleted.
+                new SchemaMigrator.Migration(4, new SchemaMigrator.Step(SQL_CREATE_SUMMARY_TABLE)),
+
+                // Version 5 added the progress of the imports
+                new SchemaMigrator.Migration(5, new SchemaMigrator.Step(SQL_CREATE_IMPORTS_TABLE)),
+
+                // Version 6 added the SKU of the products, unknown for the existing ones
+                new SchemaMigrator.Migration(6, new SchemaMigrator.Step(
+                        "ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                                + ProductEntry.COLUMN_PRODUCT_SKU + " TEXT")),
+
+                // Version 7 added the sync state, the existing products are all changes to push
+                new SchemaMigrator.Migration(7,
+                        new SchemaMigrator.Step(
+                                "ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                                        + COLUMN_SYNC_ID + " TEXT",
+                                "ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                                        + COLUMN_CHANGE_SEQ + " INTEGER NOT NULL DEFAULT 0",
+                                "ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                                        + COLUMN_QUANTITY_DELTA + " INTEGER NOT NULL DEFAULT 0",
+                                "ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                                        + COLUMN_FIELDS_CHANGED + " INTEGER NOT NULL DEFAULT 0"),
+                        new SchemaMigrator.Step(SQL_CREATE_SYNC_TABLES),
+                        new SchemaMigrator.RowStep(ProductEntry.TABLE_NAME,
+                                "UPDATE " + ProductEntry.TABLE_NAME + " SET "
+                                        + COLUMN_SYNC_ID + " = " + NEW_SYNC_ID + ", "
+                                        + COLUMN_CHANGE_SEQ + " = " + ProductEntry._ID + ", "
+                                        + COLUMN_QUANTITY_DELTA + " = " + ProductEntry.COLUMN_PRODUCT_QTY + ", "
+                                        + COLUMN_FIELDS_CHANGED + " = 1 WHERE " + ROW_RANGE),
+                        new SchemaMigrator.Step(
+                                "UPDATE " + SYNC_STATE_TABLE_NAME + " SET " + COLUMN_SYNC_LAST_SEQ
+                                        + " = (SELECT IFNULL(MAX(" + ProductEntry._ID + "), 0) FROM "
+                                        + ProductEntry.TABLE_NAME + ")")),
+
+                // Version 8 moved the suppliers to their own table, each email once
+                buildSuppliersTableMigration(),
+
+                // Version 10 kept the deleted products until they are purged, out of the view and
+                // the summary
+                new SchemaMigrator.Migration(10, new SchemaMigrator.Step() {
+                    @Override
+                    void run(SQLiteDatabase db) {
+                        if (!hasColumn(db, ProductEntry.TABLE_NAME, COLUMN_DELETED_AT)) {
+                            db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " ADD COLUMN "
+                                    + COLUMN_DELETED_AT + " INTEGER");
+                            db.execSQL(SQL_CREATE_DELETED_AT_INDEX);
+                        }
+                        db.execSQL("DROP VIEW " + PRODUCTS_VIEW_NAME);
+                        dropTableObjects(db, ProductEntry.TABLE_NAME, "trigger");
+                        createProductTriggers(db);
+                        rebuildSummary(db);
+                    }
+                }),
+
+                // Version 11 kept the push batch in flight, to resend it as it was
+                new SchemaMigrator.Migration(11, new SchemaMigrator.Step() {
+                    @Override
+                    void run(SQLiteDatabase db) {
+                        if (!hasColumn(db, SYNC_STATE_TABLE_NAME, COLUMN_SYNC_PUSH_BATCH)) {
+                            db.execSQL("ALTER TABLE " + SYNC_STATE_TABLE_NAME + " ADD COLUMN "
+                                    + COLUMN_SYNC_PUSH_BATCH + " INTEGER NOT NULL DEFAULT 0");
+                            db.execSQL(SQL_CREATE_PUSH_TABLE);
+                        }
+                    }
+                })};
+    }
+
+    /**
+     * Return the migration moving the supplier emails of the products to the suppliers table,
+     * keeping one row per distinct email. SQLite can't drop a column, so the products table is
+     * renamed and its products are moved to a new one with their supplier ID, keeping their IDs.
+     * <p>
+     * The indexes of the new table are built once it is full, which is several times faster than
+     * updating them row by row, each in a transaction of its own. The triggers of the old table
+     * are dropped first, so moving the products out of it doesn't touch the full-text index, the
+     * summary or the sync.
+     */
+    private static SchemaMigrator.Migration buildSuppliersTableMigration() {
+        final String oldTable = ProductEntry.TABLE_NAME + "_old";
+        String[] columns = {ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductEntry.COLUMN_PRODUCT_PRICE, ProductEntry.COLUMN_PRODUCT_QTY,
+                ProductEntry.COLUMN_PRODUCT_PICTURE, ProductEntry.COLUMN_PRODUCT_SKU, COLUMN_SYNC_ID,
+                COLUMN_CHANGE_SEQ, COLUMN_QUANTITY_DELTA, COLUMN_FIELDS_CHANGED};
+        StringBuilder insert = new StringBuilder("INSERT INTO ").append(ProductEntry.TABLE_NAME)
+                .append(" (");
+        StringBuilder select = new StringBuilder(" SELECT ");
+        for (String column : columns) {
+            insert.append(column).append(", ");
+            select.append(oldTable).append('.').append(column).append(", ");
+        }
+        insert.append(COLUMN_SUPPLIER_ID).append(")");
+        select.append(SUPPLIERS_TABLE_NAME).append("._id FROM ").append(oldTable)
+                .append(" JOIN ").append(SUPPLIERS_TABLE_NAME).append(" ON ")
+                .append(SUPPLIERS_TABLE_NAME).append('.').append(COLUMN_SUPPLIER_EMAIL).append(" = ")
+                .append(oldTable).append('.').append(ProductEntry.COLUMN_PRODUCT_SUPPLIER)
+                .append(" WHERE ").append(oldTable).append("._id > ? AND ")
+                .append(oldTable).append("._id <= ?");
+
+        List<SchemaMigrator.Step> steps = new ArrayList<>();
+        steps.add(new SchemaMigrator.Step() {
+            @Override
+            void run(SQLiteDatabase db) {
+                dropTableObjects(db, ProductEntry.TABLE_NAME, "index", "trigger");
+                db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " RENAME TO " + oldTable);
+                db.execSQL(SQL_CREATE_SUPPLIERS_TABLE);
+                db.execSQL(buildCreateProductsTable(ProductEntry.TABLE_NAME));
+            }
+        });
+        steps.add(new SchemaMigrator.RowStep(oldTable,
+                "INSERT OR IGNORE INTO " + SUPPLIERS_TABLE_NAME + " (" + COLUMN_SUPPLIER_EMAIL
+                        + ") SELECT " + ProductEntry.COLUMN_PRODUCT_SUPPLIER + " FROM " + oldTable
+                        + " WHERE " + ROW_RANGE,
+                insert.append(select).toString(),
+                "DELETE FROM " + oldTable + " WHERE " + ROW_RANGE));
+        // Deleted products may have taken higher IDs than the remaining ones, never reuse them.
+        // Renaming the old table renamed its sequence.
+        steps.add(new SchemaMigrator.Step(
+                "DELETE FROM sqlite_sequence WHERE name = '" + ProductEntry.TABLE_NAME + "'",
+                "INSERT INTO sqlite_sequence (name, seq) SELECT '" + ProductEntry.TABLE_NAME
+                        + "', seq FROM sqlite_sequence WHERE name = '" + oldTable + "'",
+                "DROP TABLE " + oldTable));
+        for (String statement : SQL_CREATE_PRODUCT_INDEXES) {
+            steps.add(new SchemaMigrator.Step(statement));
+        }
+        steps.add(new SchemaMigrator.Step() {
+            @Override
+            void run(SQLiteDatabase db) {
+                createProductTriggers(db);
+            }
+        });
+        return new SchemaMigrator.Migration(8, steps.toArray(new SchemaMigrator.Step[steps.size()]));
+    }
+
+    /**
+     * Drop the objects of the given types, e.g. "index" and "trigger", of the given table,
+     * whichever versions created them.
+     */
+    private static void dropTableObjects(SQLiteDatabase db, String tableName, String... types) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT type, name FROM sqlite_master WHERE tbl_name = ? AND type IN (");
+        String[] args = new String[types.length + 1];
+        args[0] = tableName;
+        for (int i = 0; i < types.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+            args[i + 1] = types[i];
+        }
+        // Indexes SQLite creates for constraints have no SQL and can't be dropped
+        sql.append(") AND sql IS NOT NULL");
+
+        Cursor cursor = db.rawQuery(sql.toString(), args);
+        try {
+            while (cursor.moveToNext()) {
+                db.execSQL("DROP " + cursor.getString(0) + " " + cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return whether the given table has the given column.
+     */
+    private static boolean hasColumn(SQLiteDatabase db, String tableName, String column) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + tableName + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameIndex))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Give the free pages of the database file back to the file system, a batch of pages per
+     * statement. Return the number of pages that were free.
+     * <p>
+     * A database created before incremental auto-vacuum is rebuilt with it instead, once, which
+     * gives all the free pages back at a time.
+     */
+    static long vacuumFreePages(SQLiteDatabase db) {
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        if (enableIncrementalVacuum(db)) {
+            return freePages;
+        }
+        for (long pagesLeft = freePages; pagesLeft > 0; pagesLeft -= VACUUM_BATCH_PAGES) {
+            // The pragma frees one page each time it is stepped, so every row must be read
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_BATCH_PAGES + ")",
+                    null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Each row is a page given back
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return freePages;
+    }
+
+    /**
+     * Add the supplier with the given email, unless it already exists.
+     */
+    static void insertSupplier(SQLiteDatabase db, String email) {
+        db.execSQL(SQL_INSERT_SUPPLIER, new Object[]{email});
+    }
+
+    /**
+     * Return the given product values with the supplier email, if any, replaced by the ID of
+     * that supplier, added if it is new, as the products table stores them. The given values are
+     * not changed.
+     */
+    static ContentValues toTableValues(SQLiteDatabase db, ContentValues values) {
+        if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER)) {
+            return values;
+        }
+        String email = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
+        ContentValues tableValues = new ContentValues(values);
+        tableValues.remove(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
+        if (email == null) {
+            // Let the table reject the missing supplier
+            tableValues.putNull(COLUMN_SUPPLIER_ID);
+        } else {
+            insertSupplier(db, email);
+            tableValues.put(COLUMN_SUPPLIER_ID, DatabaseUtils.longForQuery(db,
+                    "SELECT " + SUPPLIER_ID_OF_EMAIL, new String[]{email}));
+        }
+        return tableValues;
+    }
+
+    /**
+     * Return the part of the sync update trigger flagging a change of the given column.
+     */
+    private static String buildChangedTest(String column) {
+        return " OR new." + column + " IS NOT old." + column;
+    }
+
+    /**
+     * Create the summary table and compute its row from the products.
+     */
+    private static void createSummary(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_SUMMARY_TABLE);
+        rebuildSummary(db);
+    }
+
+    /**
+     * Build the statement of a summary trigger, adding the terms of the added product and
+     * subtracting those of the removed one, each counting only if that product is not deleted.
+     * Either product may be null.
+     */
+    private static String buildSummaryUpdate(String added, String removed) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(SummaryEntry.TABLE_NAME).append(" SET ");
+        for (int i = 0; i < SUMMARY_TERMS.length; i++) {
+            String[] term = SUMMARY_TERMS[i];
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(term[0]).append(" = ").append(term[0]);
+            if (added != null) {
+                sql.append(" + ").append(buildNotDeletedTerm(term[1], added));
+            }
+            if (removed != null) {
+                sql.append(" - ").append(buildNotDeletedTerm(term[1], removed));
+            }
+        }
+        return sql.append(";").toString();
+    }
+
+    /**
+     * Return the given summary term of the given product, or 0 if the product is deleted.
+     */
+    private static String buildNotDeletedTerm(String term, String product) {
+        return "(" + term.replace("row.", product + ".") + ") * (" + product + "."
+                + NOT_DELETED + ")";
+    }
+
+    /**
+     * Return the query computing the summary columns from scratch, in the order of
+     * {@link #SUMMARY_TERMS}.
+     */
+    private static String buildSummaryQuery() {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < SUMMARY_TERMS.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            // SUM gives NULL over no row at all
+            sql.append("IFNULL(SUM(").append(SUMMARY_TERMS[i][1].replace("row.", "")).append("), 0)");
+        }
+        return sql.append(" FROM ").append(ProductEntry.TABLE_NAME)
+                .append(" WHERE ").append(NOT_DELETED).toString();
+    }
+
+    /**
+     * Replace the summary row with the summary computed from scratch.
+     */
+    static void rebuildSummary(SQLiteDatabase db) {
+        StringBuilder columns = new StringBuilder("_id");
+        for (String[] term : SUMMARY_TERMS) {
+            columns.append(", ").append(term[0]);
+        }
+        db.execSQL("INSERT OR REPLACE INTO " + SummaryEntry.TABLE_NAME + " (" + columns + ") "
+                + buildSummaryQuery().replaceFirst("SELECT ", "SELECT 1, "));
+    }
+
+    /**
+     * Return whether the summary row matches the summary computed from scratch. A single
+     * statement reads both, so they see the products in the same state.
+     */
+    static boolean isSummaryConsistent(SQLiteDatabase db) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (String[] term : SUMMARY_TERMS) {
+            sql.append(SummaryEntry.TABLE_NAME).append('.').append(term[0]).append(", ");
+        }
+        sql.append("computed.* FROM ").append(SummaryEntry.TABLE_NAME)
+                .append(", (").append(buildSummaryQuery()).append(") AS computed");
+
+        Cursor cursor = db.rawQuery(sql.toString(), null);
+        try {
+            if (!cursor.moveToFirst()) {
+                // The summary row is missing
+                return false;
+            }
+            for (int i = 0; i < SUMMARY_TERMS.length; i++) {
+                int computedIndex = SUMMARY_TERMS.length + i;
+                boolean consistent = SUMMARY_TERMS[i][0].equals(SummaryEntry.COLUMN_STOCK_VALUE)
+                        ? Math.abs(cursor.getDouble(i) - cursor.getDouble(computedIndex))
+                        <= STOCK_VALUE_TOLERANCE
+                        : cursor.getLong(i) == cursor.getLong(computedIndex);
+                if (!consistent) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            cursor.close();
+        }
     }
 }
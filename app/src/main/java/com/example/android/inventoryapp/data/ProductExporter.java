@@ -0,0 +1,196 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes all the products to a stream, in one of the export formats of {@link ProductEntry}.
+ * <p>
+ * The products are read by keyset pages of {@link #PAGE_SIZE} rows in ID order, each page going
+ * straight from its cursor to the stream, so neither the rows nor the file are ever held in
+ * memory as a whole. The export doesn't run in a transaction, which would hold back the writers
+ * for its whole duration: products changed while it runs may show in their old or new state.
+ */
+
+class ProductExporter {
+
+    /**
+     * Number of rows read per query. A page fits in a single cursor window.
+     */
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * Size (in bytes) of the buffer in front of the stream.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Columns exported, in the order they are written.
+     */
+    private static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QTY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER,
+            ProductEntry.COLUMN_PRODUCT_PICTURE,
+            ProductEntry.COLUMN_PRODUCT_SKU};
+
+    private static final int ID = 0;
+    private static final int NAME = 1;
+    private static final int PRICE = 2;
+    private static final int QUANTITY = 3;
+    private static final int SUPPLIER = 4;
+    private static final int PICTURE = 5;
+    private static final int SKU = 6;
+
+    private final ProductDbHelper dbHelper;
+
+    ProductExporter(ProductDbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    /**
+     * Write all the products to the given stream in the given format, and flush it. Return the
+     * number of products written.
+     */
+    int export(String format, OutputStream output) throws IOException {
+        if (ProductEntry.FORMAT_BINARY.equals(format)) {
+            return exportBinary(new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE)));
+        }
+        return exportCsv(new BufferedWriter(new OutputStreamWriter(output, "UTF-8"), BUFFER_SIZE));
+    }
+
+    private int exportCsv(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write("\r\n");
+
+        int rowCount = 0;
+        long lastId = -1;
+        Cursor cursor;
+        while ((cursor = queryPage(lastId)) != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(ID);
+                    writer.write(String.valueOf(lastId));
+                    writer.write(',');
+                    writeCsvField(writer, cursor.getString(NAME));
+                    writer.write(',');
+                    writer.write(String.valueOf(cursor.getFloat(PRICE)));
+                    writer.write(',');
+                    writer.write(String.valueOf(cursor.getInt(QUANTITY)));
+                    writer.write(',');
+                    writeCsvField(writer, cursor.getString(SUPPLIER));
+                    writer.write(',');
+                    writeCsvField(writer, cursor.getString(PICTURE));
+                    writer.write(',');
+                    writeCsvField(writer, getSku(cursor));
+                    writer.write("\r\n");
+                    rowCount++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        writer.flush();
+        return rowCount;
+    }
+
+    /**
+     * Write a text field, quoted if it holds a comma, a quote or a line break.
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quoted) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private int exportBinary(DataOutputStream output) throws IOException {
+        output.writeInt(ProductEntry.BINARY_EXPORT_MAGIC);
+        output.writeByte(ProductEntry.BINARY_EXPORT_VERSION);
+
+        int rowCount = 0;
+        long lastId = -1;
+        Cursor cursor;
+        while ((cursor = queryPage(lastId)) != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(ID);
+                    output.writeLong(lastId);
+                    output.writeFloat(cursor.getFloat(PRICE));
+                    output.writeInt(cursor.getInt(QUANTITY));
+                    writeBinaryString(output, cursor.getString(NAME));
+                    writeBinaryString(output, cursor.getString(SUPPLIER));
+                    writeBinaryString(output, cursor.getString(PICTURE));
+                    writeBinaryString(output, getSku(cursor));
+                    rowCount++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        output.flush();
+        return rowCount;
+    }
+
+    /**
+     * Write a text as its length in bytes, in unsigned LEB128, followed by its UTF-8 bytes.
+     */
+    private static void writeBinaryString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        int length = bytes.length;
+        while (length >= 0x80) {
+            output.writeByte((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        output.writeByte(length);
+        output.write(bytes);
+    }
+
+    /**
+     * Return the SKU of the current product, or an empty string when it has none.
+     */
+    private static String getSku(Cursor cursor) {
+        return cursor.isNull(SKU) ? "" : cursor.getString(SKU);
+    }
+
+    /**
+     * Query the page of products following the given ID, or return null when there are none.
+     */
+    private Cursor queryPage(long afterId) {
+        SQLiteDatabase database = dbHelper.getReadableDatabase();
+        Cursor cursor = database.query(ProductDbHelper.PRODUCTS_VIEW_NAME, COLUMNS,
+                ProductEntry._ID + " > ?", new String[]{String.valueOf(afterId)}, null, null,
+                ProductEntry._ID, String.valueOf(PAGE_SIZE));
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return null;
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,533 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Imports products in bulk from a CSV or JSON file.
+ * <p>
+ * The file is streamed row by row, so the memory used doesn't depend on its size. Rows are
+ * validated with the same rules as {@link ProductProvider} and inserted through the compiled
+ * statement of {@link ProductRepository}, {@link #CHUNK_SIZE} rows per transaction. Invalid rows
+ * are reported and skipped. The progress is stored in the same transaction as each chunk, so
+ * importing the same URI again after a crash resumes after the last committed chunk.
+ * <p>
+ * A CSV file starts with a header naming its columns: name, price, quantity, supplier and
+ * optionally picture and sku, in any order. A JSON file holds an array of objects with the same keys.
+ * Must be used from a background thread.
+ */
+
+public class ProductImporter {
+
+    /**
+     * Number of rows inserted per transaction.
+     */
+    public static final int CHUNK_SIZE = 500;
+
+    /**
+     * Size (in characters) of the buffer the file is read through.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Names of the columns of a CSV file, or keys of a JSON object, in the order of
+     * {@link ImportRow#values}.
+     */
+    private static final String[] COLUMNS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QTY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER,
+            ProductEntry.COLUMN_PRODUCT_PICTURE,
+            ProductEntry.COLUMN_PRODUCT_SKU};
+
+    private static final int NAME = 0;
+    private static final int PRICE = 1;
+    private static final int QUANTITY = 2;
+    private static final int SUPPLIER = 3;
+    private static final int PICTURE = 4;
+    private static final int SKU = 5;
+
+    /**
+     * Interface for following an import.
+     */
+    public interface Listener {
+
+        /**
+         * Called for each row that is skipped, with its number in the file, from 1 and not
+         * counting the CSV header, and the reason.
+         */
+        void onRowRejected(long rowNumber, String message);
+
+        /**
+         * Called each time a chunk of rows is committed, with the totals since the import began,
+         * including the runs before a resume.
+         */
+        void onProgress(long rowsRead, long rowsImported, long rowsRejected);
+    }
+
+    /**
+     * Totals of a finished import, including the runs before a resume.
+     */
+    public static final class Result {
+        private final long rowsRead;
+        private final long rowsImported;
+        private final long rowsRejected;
+
+        Result(long rowsRead, long rowsImported, long rowsRejected) {
+            this.rowsRead = rowsRead;
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+        }
+
+        public long getRowsRead() {
+            return rowsRead;
+        }
+
+        public long getRowsImported() {
+            return rowsImported;
+        }
+
+        public long getRowsRejected() {
+            return rowsRejected;
+        }
+    }
+
+    /**
+     * Text values of a row read from the file, in the order of {@link #COLUMNS}. Null when the
+     * row has no such value. Reused from row to row.
+     */
+    static final class ImportRow {
+        final String[] values = new String[COLUMNS.length];
+
+        void clear() {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Source of the rows of a file.
+     */
+    interface RowReader {
+
+        /**
+         * Read the next row into the given one. Return false at the end of the file.
+         */
+        boolean next(ImportRow row) throws IOException;
+    }
+
+    private final ContentResolver contentResolver;
+
+    private final ProductDbHelper dbHelper;
+
+    private final ProductRepository repository;
+
+    public ProductImporter(Context context) {
+        contentResolver = context.getContentResolver();
+        dbHelper = ProductDbHelper.getInstance(context);
+        repository = ProductRepository.getInstance(context);
+    }
+
+    /**
+     * Import the products of the CSV or JSON file at the given URI, resuming a previous import
+     * of the same URI if it was interrupted. The format is told by the MIME type of the URI or
+     * by its extension. Interrupting the calling thread stops the import after the current
+     * chunk, which can be resumed later.
+     *
+     * @throws IOException if the file can't be read or is not a CSV or JSON file.
+     */
+    public Result importProducts(Uri source, Listener listener) throws IOException {
+        InputStream input = contentResolver.openInputStream(source);
+        if (input == null) {
+            throw new FileNotFoundException("Cannot open " + source);
+        }
+
+        try {
+            Reader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"), BUFFER_SIZE);
+            RowReader rows = isJson(source) ? new JsonRowReader(reader) : new CsvRowReader(reader);
+            return importRows(source.toString(), rows, listener);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Return whether the file at the given URI is a JSON file rather than a CSV file.
+     */
+    private boolean isJson(Uri source) {
+        String type = contentResolver.getType(source);
+        if (type != null) {
+            return type.contains("json");
+        }
+        String path = source.getPath();
+        return path != null && path.toLowerCase(Locale.US).endsWith(".json");
+    }
+
+    /**
+     * Insert the rows chunk by chunk, skipping those already read by a previous import of the
+     * same source.
+     */
+    private Result importRows(String source, RowReader rows, Listener listener) throws IOException {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        // Start after the rows committed by a previous run, if any
+        long[] progress = loadProgress(database, source);
+        long rowsRead = progress[0];
+        long rowsImported = progress[1];
+        long rowsRejected = progress[2];
+
+        ImportRow row = new ImportRow();
+        for (long skipped = 0; skipped < rowsRead; skipped++) {
+            if (!rows.next(row)) {
+                break;
+            }
+        }
+
+        boolean endOfFile = false;
+        while (!endOfFile) {
+            // Stop between chunks when asked to, the import resumes from here
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Import of " + source + " interrupted");
+            }
+
+            long chunkRead = 0;
+            long chunkImported = 0;
+            long chunkRejected = 0;
+            database.beginTransaction();
+            try {
+                while (chunkRead < CHUNK_SIZE) {
+                    if (!rows.next(row)) {
+                        endOfFile = true;
+                        break;
+                    }
+                    chunkRead++;
+
+                    String error;
+                    try {
+                        error = insert(row) == -1 ? "Failed to insert product" : null;
+                    } catch (IllegalArgumentException e) {
+                        error = e.getMessage();
+                    } catch (SQLiteConstraintException e) {
+                        error = "Product SKU already in use";
+                    }
+                    if (error == null) {
+                        chunkImported++;
+                    } else {
+                        chunkRejected++;
+                        listener.onRowRejected(rowsRead + chunkRead, error);
+                    }
+                }
+
+                saveProgress(database, source, rowsRead + chunkRead, rowsImported + chunkImported,
+                        rowsRejected + chunkRejected);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+
+            rowsRead += chunkRead;
+            rowsImported += chunkImported;
+            rowsRejected += chunkRejected;
+            if (chunkImported > 0) {
+                dbHelper.bumpWriteGeneration();
+                contentResolver.notifyChange(ProductEntry.CONTENT_URI, null);
+            }
+            listener.onProgress(rowsRead, rowsImported, rowsRejected);
+        }
+
+        // The import is complete, importing the source again starts over
+        database.delete(ProductDbHelper.IMPORTS_TABLE_NAME,
+                ProductDbHelper.COLUMN_IMPORT_SOURCE + " = ?", new String[]{source});
+        return new Result(rowsRead, rowsImported, rowsRejected);
+    }
+
+    /**
+     * Validate and insert the product of the given row. Return the ID of the new product, or -1
+     * if the insertion failed.
+     *
+     * @throws IllegalArgumentException if a value of the row is not valid.
+     */
+    private long insert(ImportRow row) {
+        String[] values = row.values;
+        float price = parsePrice(values[PRICE]);
+        int quantity = parseQuantity(values[QUANTITY]);
+        // A product without picture gets an empty one, as the editor can't import them
+        String picture = values[PICTURE] == null ? "" : values[PICTURE];
+        String sku = values[SKU] == null || values[SKU].isEmpty() ? null : values[SKU];
+        return repository.insertRow(values[NAME], price, quantity, values[SUPPLIER], picture, sku);
+    }
+
+    private static float parsePrice(String value) {
+        if (value != null) {
+            try {
+                float price = Float.parseFloat(value);
+                if (!Float.isNaN(price) && !Float.isInfinite(price)) {
+                    return price;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+        }
+        throw new IllegalArgumentException("Product requires a valid price");
+    }
+
+    private static int parseQuantity(String value) {
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+        }
+        throw new IllegalArgumentException("Product requires a valid quantity");
+    }
+
+    /**
+     * Return the rows read, imported and rejected by the previous runs of the import of the
+     * given source, or zeros if there is none.
+     */
+    private static long[] loadProgress(SQLiteDatabase database, String source) {
+        Cursor cursor = database.query(ProductDbHelper.IMPORTS_TABLE_NAME, new String[]{
+                        ProductDbHelper.COLUMN_IMPORT_ROWS_READ,
+                        ProductDbHelper.COLUMN_IMPORT_ROWS_IMPORTED,
+                        ProductDbHelper.COLUMN_IMPORT_ROWS_REJECTED},
+                ProductDbHelper.COLUMN_IMPORT_SOURCE + " = ?", new String[]{source},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return new long[3];
+            }
+            return new long[]{cursor.getLong(0), cursor.getLong(1), cursor.getLong(2)};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void saveProgress(SQLiteDatabase database, String source, long rowsRead,
+                                     long rowsImported, long rowsRejected) {
+        ContentValues values = new ContentValues();
+        values.put(ProductDbHelper.COLUMN_IMPORT_SOURCE, source);
+        values.put(ProductDbHelper.COLUMN_IMPORT_ROWS_READ, rowsRead);
+        values.put(ProductDbHelper.COLUMN_IMPORT_ROWS_IMPORTED, rowsImported);
+        values.put(ProductDbHelper.COLUMN_IMPORT_ROWS_REJECTED, rowsRejected);
+        database.insertWithOnConflict(ProductDbHelper.IMPORTS_TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Return whether an import of the given source was interrupted and will resume.
+     */
+    public boolean hasProgress(Uri source) {
+        return DatabaseUtils.queryNumEntries(dbHelper.getReadableDatabase(),
+                ProductDbHelper.IMPORTS_TABLE_NAME, ProductDbHelper.COLUMN_IMPORT_SOURCE + " = ?",
+                new String[]{source.toString()}) > 0;
+    }
+
+    /**
+     * Reads the rows of a CSV file, as described by RFC 4180: fields are separated by commas, and
+     * quoted fields may hold commas, line breaks and doubled quotes.
+     */
+    static class CsvRowReader implements RowReader {
+
+        private final Reader reader;
+
+        /**
+         * Index of each of {@link #COLUMNS} among the fields of a record, or -1 if absent.
+         */
+        private final int[] columnIndexes = new int[COLUMNS.length];
+
+        /**
+         * Fields of the record being read, reused from record to record.
+         */
+        private final List<String> fields = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+
+        /**
+         * Character read ahead of the current one, or -2 if there is none.
+         */
+        private int pending = -2;
+
+        /**
+         * Read the header of the CSV file from the given reader.
+         *
+         * @throws IOException if the header lacks a required column.
+         */
+        CsvRowReader(Reader reader) throws IOException {
+            this.reader = reader;
+            if (!readRecord()) {
+                throw new IOException("The CSV file is empty");
+            }
+
+            for (int i = 0; i < COLUMNS.length; i++) {
+                columnIndexes[i] = -1;
+                for (int j = 0; j < fields.size(); j++) {
+                    // Ignore the byte order mark some editors write first
+                    String name = fields.get(j).replace("\uFEFF", "").trim();
+                    if (name.equalsIgnoreCase(COLUMNS[i])) {
+                        columnIndexes[i] = j;
+                    }
+                }
+                if (columnIndexes[i] == -1 && i != PICTURE && i != SKU) {
+                    throw new IOException("The CSV header lacks the " + COLUMNS[i] + " column");
+                }
+            }
+        }
+
+        @Override
+        public boolean next(ImportRow row) throws IOException {
+            if (!readRecord()) {
+                return false;
+            }
+
+            row.clear();
+            for (int i = 0; i < COLUMNS.length; i++) {
+                int index = columnIndexes[i];
+                if (index != -1 && index < fields.size()) {
+                    row.values[i] = fields.get(index);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Read the fields of the next record, skipping blank lines. Return false at the end of
+         * the file.
+         */
+        private boolean readRecord() throws IOException {
+            fields.clear();
+            field.setLength(0);
+            boolean quoted = false;
+            boolean started = false;
+            while (true) {
+                int c = read();
+                if (c == -1) {
+                    if (quoted) {
+                        throw new IOException("The CSV file ends inside a quoted field");
+                    }
+                    if (started) {
+                        fields.add(field.toString());
+                    }
+                    return started;
+                }
+
+                if (quoted) {
+                    if (c != '"') {
+                        field.append((char) c);
+                    } else if ((pending = reader.read()) == '"') {
+                        // A doubled quote stands for one quote
+                        pending = -2;
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '\n') {
+                    if (started) {
+                        fields.add(field.toString());
+                        return true;
+                    }
+                } else if (c != '\r') {
+                    started = true;
+                    if (c == ',') {
+                        fields.add(field.toString());
+                        field.setLength(0);
+                    } else if (c == '"' && field.length() == 0) {
+                        quoted = true;
+                    } else {
+                        field.append((char) c);
+                    }
+                }
+            }
+        }
+
+        private int read() throws IOException {
+            if (pending != -2) {
+                int c = pending;
+                pending = -2;
+                return c;
+            }
+            return reader.read();
+        }
+    }
+
+    /**
+     * Reads the rows of a JSON file holding an array of product objects. Unknown keys are
+     * ignored, and values that are neither strings nor numbers are read as missing. A file of
+     * any other shape fails with an {@link IOException}, as a malformed file does.
+     */
+    static class JsonRowReader implements RowReader {
+
+        private final JsonReader reader;
+
+        JsonRowReader(Reader reader) throws IOException {
+            this.reader = new JsonReader(reader);
+            try {
+                this.reader.beginArray();
+            } catch (IllegalStateException e) {
+                // JsonReader tells an unexpected token apart from a syntax error
+                throw new IOException("The JSON file doesn't hold an array of products", e);
+            }
+        }
+
+        @Override
+        public boolean next(ImportRow row) throws IOException {
+            try {
+                return readObject(row);
+            } catch (IllegalStateException e) {
+                throw new IOException("The JSON file holds something else than a product", e);
+            }
+        }
+
+        private boolean readObject(ImportRow row) throws IOException {
+            if (!reader.hasNext()) {
+                reader.endArray();
+                return false;
+            }
+
+            row.clear();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                int column = indexOf(reader.nextName());
+                JsonToken token = reader.peek();
+                if (column != -1 && (token == JsonToken.STRING || token == JsonToken.NUMBER)) {
+                    row.values[column] = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return true;
+        }
+
+        private static int indexOf(String name) {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (COLUMNS[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
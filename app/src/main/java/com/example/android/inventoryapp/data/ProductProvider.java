@@ -1,15 +1,42 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SummaryEntry;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
 
 /**
  * {@link ContentProvider} for Inventory app.
@@ -32,6 +59,76 @@ public class ProductProvider extends ContentProvider {
      */
     private static final int PRODUCTS_ID = 101;
 
+    /**
+     * URI matcher code for the content URI adjusting the quantity of a single product.
+     */
+    private static final int PRODUCTS_ID_ADJUST = 102;
+
+    /**
+     * URI matcher code for the content URI searching products.
+     */
+    private static final int PRODUCTS_SEARCH = 103;
+
+    /**
+     * URI matcher code for the content URI of the provider statistics.
+     */
+    private static final int STATS = 104;
+
+    /**
+     * URI matcher code for the content URI of the inventory summary.
+     */
+    private static final int SUMMARY = 105;
+
+    /**
+     * URI matcher code for the content URI exporting all the products.
+     */
+    private static final int PRODUCTS_EXPORT = 106;
+
+    /**
+     * URI matcher code for the content URI looking up a product by SKU.
+     */
+    private static final int PRODUCTS_SKU = 107;
+
+    /**
+     * URI matcher code for the content URI restoring a single deleted product.
+     */
+    private static final int PRODUCTS_ID_RESTORE = 108;
+
+    /**
+     * URI pattern of each URI matcher code, from {@link #PRODUCTS} on, as shown in the statistics.
+     */
+    private static final String[] MATCH_NAMES = {
+            ProductContract.PATH_PRODUCTS,
+            ProductContract.PATH_PRODUCTS + "/#",
+            ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_ADJUST,
+            ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SEARCH + "/*",
+            ProductContract.PATH_STATS,
+            ProductContract.PATH_SUMMARY,
+            ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_EXPORT,
+            ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SKU + "/*",
+            ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_RESTORE};
+
+    /**
+     * Number of search results returned when the search URI doesn't give a limit.
+     */
+    private static final int DEFAULT_SEARCH_LIMIT = 50;
+
+    /**
+     * Weight of a hit in the name and in the supplier when ranking search results.
+     */
+    private static final double[] SEARCH_COLUMN_WEIGHTS = {2.0, 1.0};
+
+    /**
+     * Estimated memory, in bytes, kept at most by the results of the query cache.
+     */
+    private static final long QUERY_CACHE_MAX_BYTES = 1024 * 1024;
+
+    /**
+     * Maximum number of product IDs written into a single statement, which keeps it well under
+     * the 1 MB length limit of SQL statements.
+     */
+    private static final int MAX_STATEMENT_IDS = 20000;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -45,6 +142,32 @@ public class ProductProvider extends ContentProvider {
 
         // content URL of form content://com.example.android.inventoryapp/products/# will map here.
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS + "/#", PRODUCTS_ID);
+
+        // content URL of form content://com.example.android.inventoryapp/products/#/adjust will map here.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_ADJUST, PRODUCTS_ID_ADJUST);
+
+        // content URL of form content://com.example.android.inventoryapp/products/search/* will map here.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SEARCH + "/*", PRODUCTS_SEARCH);
+
+        // content URL of form content://com.example.android.inventoryapp/stats will map here.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_STATS, STATS);
+
+        // content URL of form content://com.example.android.inventoryapp/summary will map here.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_SUMMARY, SUMMARY);
+
+        // content URL of form content://com.example.android.inventoryapp/products/export will map here.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_EXPORT, PRODUCTS_EXPORT);
+
+        // content URL of form content://com.example.android.inventoryapp/products/sku/* will map here.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SKU + "/*", PRODUCTS_SKU);
+
+        // content URL of form content://com.example.android.inventoryapp/products/#/restore will map here.
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_RESTORE, PRODUCTS_ID_RESTORE);
     }
 
     /**
@@ -52,53 +175,449 @@ public class ProductProvider extends ContentProvider {
      */
     private ProductDbHelper productDbHelper;
 
+    /**
+     * Repository running the typed writes, shared with the callers inside the app.
+     */
+    private ProductRepository productRepository;
+
+    /**
+     * Set while the calling thread runs a batch: holds whether the batch changed any data.
+     * Null when no batch is running, in which case changes are notified right away.
+     */
+    private final ThreadLocal<Boolean> batchChanged = new ThreadLocal<>();
+
+    /**
+     * Call counters and latencies of the operations, readable through the stats URI.
+     */
+    private final ProviderStats stats = new ProviderStats(PRODUCTS, MATCH_NAMES);
+
+    /**
+     * Results of the latest queries, answered again until the next write.
+     */
+    private final QueryCache queryCache = new QueryCache(QUERY_CACHE_MAX_BYTES);
+
     @Override
     public boolean onCreate() {
-        productDbHelper = new ProductDbHelper(getContext());
+        productDbHelper = ProductDbHelper.getInstance(getContext());
+        productRepository = ProductRepository.getInstance(getContext());
         return true;
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long startNanos = System.nanoTime();
+
+        // Figure out if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match(uri);
+
+        // A query repeated with nothing written in between is answered from memory
+        QueryCache.Key cacheKey = null;
+        long writeGeneration = productDbHelper.getWriteGeneration();
+        if (isCacheable(match)) {
+            cacheKey = new QueryCache.Key(match, uri.toString(), projection, selection,
+                    selectionArgs, sortOrder);
+            QueryCache.Result cached = queryCache.get(cacheKey, writeGeneration);
+            if (cached != null) {
+                Cursor cursor = cached.toCursor();
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        getNotificationUri(uri, match));
+                stats.record(ProviderStats.CACHED_QUERY, match, startNanos, cursor.getCount());
+                return cursor;
+            }
+        }
+
         // Get readable database
         SQLiteDatabase database = productDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
+                if (uri.getQueryParameter(ProductEntry.QUERY_LIMIT) != null
+                        || uri.getQueryParameter(ProductEntry.QUERY_AFTER_ID) != null) {
+                    // A page was requested, seek straight to it
+                    cursor = queryProductPage(database, uri, projection, selection, selectionArgs,
+                            sortOrder);
+                    break;
+                }
                 // For the PRODUCTS code, query the products table directly with the given
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                cursor = database.query(ProductDbHelper.PRODUCTS_VIEW_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
             case PRODUCTS_ID:
                 // For the PRODUCTS_ID code, extract out the ID from the URI.
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
+                cursor = database.query(ProductDbHelper.PRODUCTS_VIEW_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                break;
+            case PRODUCTS_SKU:
+                // For the PRODUCTS_SKU code, the SKU is the last segment of the URI. Its ID is
+                // usually cached, leaving a primary key lookup; an unknown SKU matches no row.
+                selection = ProductEntry._ID + "=?";
+                selectionArgs = new String[]{String.valueOf(
+                        productRepository.findProductIdBySku(uri.getLastPathSegment()))};
+                cursor = database.query(ProductDbHelper.PRODUCTS_VIEW_NAME, projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                break;
+            case PRODUCTS_SEARCH:
+                // For the PRODUCTS_SEARCH code, the searched text is the last segment of the URI
+                cursor = searchProducts(database, uri.getLastPathSegment(), projection,
+                        uri.getQueryParameter(ProductEntry.QUERY_LIMIT));
+                break;
+            case STATS:
+                // Reading the statistics is not recorded in them
+                return stats.toCursor();
+            case SUMMARY:
+                // For the SUMMARY code, read the single row maintained by the triggers
+                cursor = database.query(SummaryEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
+        // Keep a copy of the rows for the next time, unless they take too much memory
+        if (cacheKey != null) {
+            QueryCache.Result result = queryCache.copy(cursor);
+            if (result != null) {
+                queryCache.put(cacheKey, result, writeGeneration);
+                cursor.close();
+                cursor = result.toCursor();
+            }
+        }
+
         // Set notification URI on the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        cursor.setNotificationUri(getContext().getContentResolver(), getNotificationUri(uri, match));
+
+        // Counting the rows runs the query, so the latency covers reading them
+        stats.record(ProviderStats.QUERY, match, startNanos, cursor.getCount());
 
         // Return the cursor
         return cursor;
     }
 
+    /**
+     * Return whether the results of the queries of the given URI match are cached.
+     */
+    private static boolean isCacheable(int match) {
+        switch (match) {
+            case PRODUCTS:
+            case PRODUCTS_ID:
+            case PRODUCTS_SKU:
+            case PRODUCTS_SEARCH:
+            case SUMMARY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Return the URI whose changes make the result of a query of the given URI out of date.
+     */
+    private static Uri getNotificationUri(Uri uri, int match) {
+        switch (match) {
+            case PRODUCTS_SKU:
+                // Any product change may give or take the SKU
+                return ProductEntry.CONTENT_URI;
+            case PRODUCTS_SEARCH:
+                // Any product change may change the results
+                return ProductEntry.CONTENT_URI;
+            case SUMMARY:
+                // Any product change may change the summary, and so does rebuilding it
+                return ProductContract.BASE_CONTENT_URI;
+            default:
+                return uri;
+        }
+    }
+
+    /**
+     * Query one page of products using keyset pagination: rather than skipping an offset, seek
+     * directly after the (sort key, ID) of the last row of the previous page, so that every page
+     * costs the same whatever its position in the catalog.
+     */
+    private Cursor queryProductPage(SQLiteDatabase database, Uri uri, String[] projection,
+                                    String selection, String[] selectionArgs, String sortColumn) {
+        // Check that the sort order is a single column we know how to page through
+        if (sortColumn == null) {
+            sortColumn = ProductEntry._ID;
+        } else if (!sortColumn.equals(ProductEntry._ID)
+                && !sortColumn.equals(ProductEntry.COLUMN_PRODUCT_NAME)
+                && !sortColumn.equals(ProductEntry.COLUMN_PRODUCT_PRICE)
+                && !sortColumn.equals(ProductEntry.COLUMN_PRODUCT_QTY)) {
+            throw new IllegalArgumentException("Cannot page products by " + sortColumn);
+        }
+
+        // Check that the limit is a number
+        String limit = uri.getQueryParameter(ProductEntry.QUERY_LIMIT);
+        if (limit != null && !TextUtils.isDigitsOnly(limit)) {
+            throw new IllegalArgumentException("Invalid page limit " + limit);
+        }
+
+        // Only keep the rows after the given key
+        String afterId = uri.getQueryParameter(ProductEntry.QUERY_AFTER_ID);
+        if (afterId != null) {
+            String keyset;
+            String[] keysetArgs;
+            if (sortColumn.equals(ProductEntry._ID)) {
+                keyset = ProductEntry._ID + " > ?";
+                keysetArgs = new String[]{afterId};
+            } else {
+                String afterSortKey = uri.getQueryParameter(ProductEntry.QUERY_AFTER_SORT_KEY);
+                if (afterSortKey == null) {
+                    throw new IllegalArgumentException("Paging by " + sortColumn + " requires a sort key");
+                }
+                keyset = "(" + sortColumn + " > ? OR (" + sortColumn + " = ? AND "
+                        + ProductEntry._ID + " > ?))";
+                keysetArgs = new String[]{afterSortKey, afterSortKey, afterId};
+            }
+
+            if (selection == null) {
+                selection = keyset;
+                selectionArgs = keysetArgs;
+            } else {
+                selection = "(" + selection + ") AND " + keyset;
+                selectionArgs = concat(selectionArgs, keysetArgs);
+            }
+        }
+
+        String orderBy = sortColumn.equals(ProductEntry._ID)
+                ? ProductEntry._ID
+                : sortColumn + ", " + ProductEntry._ID;
+        return database.query(ProductDbHelper.PRODUCTS_VIEW_NAME, projection, selection,
+                selectionArgs, null, null, orderBy, limit);
+    }
+
+    /**
+     * Search the products through the full-text index, matching the words of the text as
+     * prefixes of the words of the name and the supplier. Results are ranked by how specific the
+     * hits are, hits in the name weighing more than hits in the supplier.
+     * <p>
+     * Every match is ranked from its hit counts alone, and only the columns of the best ones are
+     * read afterwards, so the limit applies to the ranked matches without reading all of them.
+     */
+    private Cursor searchProducts(SQLiteDatabase database, String text, String[] projection,
+                                  String limitParameter) {
+        if (projection == null) {
+            projection = new String[]{
+                    ProductEntry._ID,
+                    ProductEntry.COLUMN_PRODUCT_NAME,
+                    ProductEntry.COLUMN_PRODUCT_PRICE,
+                    ProductEntry.COLUMN_PRODUCT_QTY,
+                    ProductEntry.COLUMN_PRODUCT_SUPPLIER,
+                    ProductEntry.COLUMN_PRODUCT_PICTURE};
+        }
+
+        // Check that the limit is a number
+        int limit = DEFAULT_SEARCH_LIMIT;
+        if (limitParameter != null) {
+            if (!TextUtils.isDigitsOnly(limitParameter)) {
+                throw new IllegalArgumentException("Invalid search limit " + limitParameter);
+            }
+            limit = Integer.parseInt(limitParameter);
+        }
+
+        MatrixCursor results = new MatrixCursor(projection);
+        String matchExpression = buildMatchExpression(text);
+        if (matchExpression == null || limit == 0) {
+            return results;
+        }
+
+        // Select the ID and the hit counts of every product matching, unless it is deleted
+        String sql = "SELECT " + ProductDbHelper.SEARCH_TABLE_NAME + ".docid, "
+                + "matchinfo(" + ProductDbHelper.SEARCH_TABLE_NAME + ", 'pcx')"
+                + " FROM " + ProductDbHelper.SEARCH_TABLE_NAME
+                + " JOIN " + ProductEntry.TABLE_NAME
+                + " ON " + ProductEntry.TABLE_NAME + "." + ProductEntry._ID
+                + " = " + ProductDbHelper.SEARCH_TABLE_NAME + ".docid"
+                + " WHERE " + ProductDbHelper.SEARCH_TABLE_NAME + " MATCH ?"
+                + " AND " + ProductEntry.TABLE_NAME + "." + ProductDbHelper.NOT_DELETED;
+
+        // Keep the best matches seen so far, the worst of them at the head of the queue
+        PriorityQueue<SearchResult> best = new PriorityQueue<>(Math.min(limit, 1024) + 1,
+                Collections.<SearchResult>reverseOrder());
+        Cursor cursor = database.rawQuery(sql, new String[]{matchExpression});
+        try {
+            for (int sequence = 0; cursor.moveToNext(); sequence++) {
+                SearchResult result = new SearchResult(cursor.getLong(0),
+                        rank(cursor.getBlob(1)), sequence);
+                if (best.size() < limit) {
+                    best.add(result);
+                } else if (result.compareTo(best.peek()) < 0) {
+                    best.poll();
+                    best.add(result);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Best matches first, keeping the index order between equal ranks
+        List<SearchResult> ranked = new ArrayList<>(best);
+        Collections.sort(ranked);
+        long[] productIds = new long[ranked.size()];
+        for (int i = 0; i < productIds.length; i++) {
+            productIds[i] = ranked.get(i).productId;
+        }
+
+        // Read the requested columns of the best matches, followed by their ID
+        String[] columns = Arrays.copyOf(projection, projection.length + 1);
+        columns[projection.length] = ProductEntry._ID;
+        Map<Long, Object[]> rows = new HashMap<>();
+        for (int start = 0; start < productIds.length; start += MAX_STATEMENT_IDS) {
+            int end = Math.min(start + MAX_STATEMENT_IDS, productIds.length);
+            cursor = database.query(ProductDbHelper.PRODUCTS_VIEW_NAME, columns,
+                    buildIdList(productIds, start, end), null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    Object[] row = new Object[projection.length];
+                    for (int i = 0; i < projection.length; i++) {
+                        row[i] = getValue(cursor, i);
+                    }
+                    rows.put(cursor.getLong(projection.length), row);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        for (long productId : productIds) {
+            // A product deleted in between is left out
+            Object[] row = rows.get(productId);
+            if (row != null) {
+                results.addRow(row);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Turn the searched text into an FTS match expression requiring every word as a prefix, or
+     * return null if the text has no word to search for.
+     */
+    private static String buildMatchExpression(String text) {
+        if (text == null) {
+            return null;
+        }
+
+        // Only keep letters and digits, the same way the index splits words
+        StringBuilder expression = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                // Upper case AND, OR, NOT and NEAR would be read as operators
+                if (word.matches("AND|OR|NOT|NEAR")) {
+                    word = word.toLowerCase(Locale.US);
+                }
+                if (expression.length() > 0) {
+                    expression.append(' ');
+                }
+                expression.append(word).append('*');
+            }
+        }
+        return expression.length() == 0 ? null : expression.toString();
+    }
+
+    /**
+     * Compute the rank of a search result from its FTS matchinfo 'pcx' blob: for every searched
+     * word and every column, the hits in this row relative to the hits in all rows.
+     */
+    private static double rank(byte[] matchInfo) {
+        IntBuffer values = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phraseCount = values.get(0);
+        int columnCount = values.get(1);
+
+        double rank = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                int offset = 2 + 3 * (phrase * columnCount + column);
+                int rowHits = values.get(offset);
+                int allHits = values.get(offset + 1);
+                if (rowHits > 0) {
+                    rank += SEARCH_COLUMN_WEIGHTS[column] * rowHits / allHits;
+                }
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Read the value of the given column of the cursor with its own type.
+     */
+    static Object getValue(Cursor cursor, int columnIndex) {
+        switch (cursor.getType(columnIndex)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(columnIndex);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(columnIndex);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(columnIndex);
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            default:
+                return cursor.getString(columnIndex);
+        }
+    }
+
+    /**
+     * A search result waiting to be ranked, ordered best first, then by its position in the
+     * index.
+     */
+    private static class SearchResult implements Comparable<SearchResult> {
+        final long productId;
+        final double rank;
+        final int sequence;
+
+        SearchResult(long productId, double rank, int sequence) {
+            this.productId = productId;
+            this.rank = rank;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(SearchResult other) {
+            int byRank = Double.compare(other.rank, rank);
+            return byRank != 0 ? byRank : sequence - other.sequence;
+        }
+    }
+
+    /**
+     * Turn a selection of the caller, which may name any column of the products as read, e.g.
+     * {@link ProductEntry#COLUMN_PRODUCT_SUPPLIER}, into a selection of the products table. Like
+     * the products read, the selected ones are never deleted products, even without selection.
+     */
+    private static String buildTableSelection(String selection) {
+        if (selection == null) {
+            return ProductDbHelper.NOT_DELETED;
+        }
+        return ProductEntry._ID + " IN (SELECT " + ProductEntry._ID + " FROM "
+                + ProductDbHelper.PRODUCTS_VIEW_NAME + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Return the selection arguments of the caller followed by the given extra arguments.
+     */
+    private static String[] concat(String[] selectionArgs, String[] extraArgs) {
+        if (selectionArgs == null) {
+            return extraArgs;
+        }
+        String[] args = new String[selectionArgs.length + extraArgs.length];
+        System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+        System.arraycopy(extraArgs, 0, args, selectionArgs.length, extraArgs.length);
+        return args;
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long startNanos = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
-                return insertProduct(uri, contentValues);
+                Uri newUri = insertProduct(uri, contentValues);
+                stats.record(ProviderStats.INSERT, match, startNanos, newUri == null ? 0 : 1);
+                return newUri;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -111,54 +630,179 @@ public class ProductProvider extends ContentProvider {
     private Uri insertProduct(Uri uri, ContentValues values) {
         // Check that the name is not null
         String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-        if (name == null) {
-            throw new IllegalArgumentException("Product requires a name");
-        }
+        ProductRepository.validateName(name);
 
         // Check that the price is not null and not negative
         Float price = values.getAsFloat(ProductEntry.COLUMN_PRODUCT_PRICE);
-        if (price == null || price < 0) {
+        if (price == null) {
             throw new IllegalArgumentException("Product requires a valid price");
         }
+        ProductRepository.validatePrice(price);
 
         // Check that the quantity is not null and not negative
         Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QTY);
-        if (quantity == null || quantity < 0) {
+        if (quantity == null) {
             throw new IllegalArgumentException("Product requires a valid quantity");
         }
+        ProductRepository.validateQuantity(quantity);
 
         // Check that the email supplier is not null
         String supplier = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
-        if (supplier == null) {
-            throw new IllegalArgumentException("Product requires a supplier's email");
-        }
+        ProductRepository.validateSupplier(supplier);
 
         // Check that the picture value is not null
         String picture = values.getAsString(ProductEntry.COLUMN_PRODUCT_PICTURE);
-        if (picture == null) {
-            throw new IllegalArgumentException("Product requires a picture");
-        }
+        ProductRepository.validatePicture(picture);
 
-        // Get writable database
-        SQLiteDatabase database = productDbHelper.getWritableDatabase();
+        // Check that the SKU, if any, is not blank
+        String sku = values.getAsString(ProductEntry.COLUMN_PRODUCT_SKU);
+        ProductRepository.validateSku(sku);
+
+        // Insert the new product with the given values. When they are exactly the product
+        // columns, the repository binds them to its compiled insert.
+        long id;
+        if (values.size() == (values.containsKey(ProductEntry.COLUMN_PRODUCT_SKU) ? 6 : 5)) {
+            try {
+                id = productRepository.insertRow(name, price, quantity, supplier, picture, sku);
+            } catch (SQLiteConstraintException e) {
+                // The SKU is already used by another product
+                id = -1;
+            }
+        } else {
+            SQLiteDatabase database = productDbHelper.getWritableDatabase();
+            id = database.insert(ProductEntry.TABLE_NAME, null,
+                    ProductDbHelper.toTableValues(database, values));
+        }
 
-        // Insert the new product with the given values
-        long id = database.insert(ProductEntry.TABLE_NAME, null, values);
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
 
-        // Notify all listeners that the data has changed for the product content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify all listeners that the product was inserted
+        notifyChange(ProductEntry.buildChangeUri(id, ProductEntry.CHANGE_INSERT));
 
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId(uri, id);
     }
 
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long startNanos = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        if (match != PRODUCTS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        // Get writable database
+        SQLiteDatabase database = productDbHelper.getWritableDatabase();
+
+        // Track the number of rows that were inserted
+        int rowsInserted = 0;
+
+        // Insert every row inside a single transaction, so that the whole batch costs one commit.
+        // A row failing validation, or rejected by the database (e.g. for a SKU already used),
+        // rolls back the whole batch rather than leaving it out of the count.
+        boolean successful = false;
+        batchChanged.set(false);
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < values.length; i++) {
+                if (insertProduct(uri, values[i]) == null) {
+                    throw new IllegalArgumentException("Failed to insert row " + i
+                            + " of the batch for " + uri + ", nothing was inserted");
+                }
+                rowsInserted++;
+            }
+            database.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            database.endTransaction();
+            finishBatch(successful);
+        }
+
+        stats.record(ProviderStats.BULK_INSERT, match, startNanos, rowsInserted);
+
+        // Return the number of rows inserted
+        return rowsInserted;
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Get writable database
+        SQLiteDatabase database = productDbHelper.getWritableDatabase();
+
+        // Apply every operation inside a single transaction, each one going through the
+        // regular insert/update/delete validation. Any failure rolls back the whole batch,
+        // including an insert rejected by the database, for which the operation throws.
+        ContentProviderResult[] results;
+        boolean successful = false;
+        batchChanged.set(false);
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            database.endTransaction();
+            finishBatch(successful);
+        }
+
+        return results;
+    }
+
+    /**
+     * End the batch running on the calling thread and, if it was committed and changed any data,
+     * send one change notification for the whole batch.
+     */
+    private void finishBatch(boolean successful) {
+        boolean changed = Boolean.TRUE.equals(batchChanged.get());
+        batchChanged.remove();
+        if (changed) {
+            // Reads inside the batch saw its writes, whether they were committed or not
+            productDbHelper.bumpWriteGeneration();
+        }
+        if (successful && changed) {
+            // A reader may have cached a SKU the batch changed before it was committed
+            productRepository.invalidateSkus();
+
+            getContext().getContentResolver().notifyChange(ProductEntry.CONTENT_URI, null);
+            stats.recordNotification();
+        }
+    }
+
+    /**
+     * Return the URI to notify for a change made through the given URI: the change URI of the
+     * product for a single product URI, or the given URI itself when the changed rows are not
+     * known.
+     */
+    private static Uri buildChangeUri(Uri uri, int match, String change) {
+        if (match == PRODUCTS_ID) {
+            return ProductEntry.buildChangeUri(ContentUris.parseId(uri), change);
+        }
+        return uri;
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. Inside a batch, the
+     * notification is deferred until the batch is committed.
+     */
+    private void notifyChange(Uri uri) {
+        if (batchChanged.get() != null) {
+            batchChanged.set(true);
+        } else {
+            productDbHelper.bumpWriteGeneration();
+            getContext().getContentResolver().notifyChange(uri, null);
+            stats.recordNotification();
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+
         // Get writable database
         SQLiteDatabase database = productDbHelper.getWritableDatabase();
 
@@ -168,15 +812,24 @@ public class ProductProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                // Mark all rows that match the selection and selection args as deleted. The view
+                // behind the table selection only has the rows that are not deleted yet.
+                ContentValues values = new ContentValues();
+                values.put(ProductDbHelper.COLUMN_DELETED_AT, System.currentTimeMillis());
+                rowsDeleted = database.update(ProductEntry.TABLE_NAME, values,
+                        buildTableSelection(selection), selectionArgs);
+                if (rowsDeleted != 0) {
+                    productRepository.invalidateSkus();
+                }
                 break;
             case PRODUCTS_ID:
-                // Delete a single row given by the ID in the URI
-                selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+                // Mark a single row given by the ID in the URI as deleted
+                rowsDeleted = productRepository.deleteRow(ContentUris.parseId(uri));
                 break;
+            case STATS:
+                // Deleting the statistics resets them
+                stats.reset();
+                return 0;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
@@ -184,9 +837,11 @@ public class ProductProvider extends ContentProvider {
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(buildChangeUri(uri, match, ProductEntry.CHANGE_DELETE));
         }
 
+        stats.record(ProviderStats.DELETE, match, startNanos, rowsDeleted);
+
         // Return the number of rows deleted
         return rowsDeleted;
     }
@@ -194,69 +849,109 @@ public class ProductProvider extends ContentProvider {
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        long startNanos = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
-                return updateProduct(uri, contentValues, selection, selectionArgs);
             case PRODUCTS_ID:
-                // For the PRODUCT_ID code, extract out the ID from the URI
-                selection = ProductEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                return updateProduct(uri, contentValues, selection, selectionArgs);
+                int rowsUpdated = updateProduct(uri, match, contentValues, selection, selectionArgs);
+                stats.record(ProviderStats.UPDATE, match, startNanos, rowsUpdated);
+                return rowsUpdated;
+            case PRODUCTS_ID_ADJUST:
+                // For the PRODUCTS_ID_ADJUST code, the ID is the segment before "adjust"
+                long id = Long.parseLong(uri.getPathSegments().get(1));
+                Integer delta = contentValues.getAsInteger(ProductEntry.ADJUST_DELTA);
+                if (delta == null) {
+                    throw new IllegalArgumentException("Adjustment requires a delta");
+                }
+                int rowsAdjusted = adjustQuantity(id, delta) == -1 ? 0 : 1;
+                stats.record(ProviderStats.UPDATE, match, startNanos, rowsAdjusted);
+                return rowsAdjusted;
+            case PRODUCTS_ID_RESTORE:
+                // For the PRODUCTS_ID_RESTORE code, the ID is the segment before "restore"
+                long restoredId = Long.parseLong(uri.getPathSegments().get(1));
+                int rowsRestored = productRepository.restoreRow(restoredId);
+                if (rowsRestored != 0) {
+                    // The product is back in the list, as if it was inserted again
+                    notifyChange(ProductEntry.buildChangeUri(restoredId, ProductEntry.CHANGE_INSERT));
+                }
+                stats.record(ProviderStats.UPDATE, match, startNanos, rowsRestored);
+                return rowsRestored;
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
     }
 
+    /**
+     * Add the {@link ProductEntry#ADJUST_DELTA} value to the quantity of the given product, as a
+     * single statement so that concurrent adjustments can't overwrite each other. Return the new
+     * quantity, or -1 if the product does not exist or the quantity would become negative.
+     */
+    private int adjustQuantity(long id, int delta) {
+        // Apply the delta and read back the new quantity
+        int newQuantity = productRepository.adjustQuantityRow(id, delta);
+
+        // If the quantity changed, notify all listeners of that product
+        if (newQuantity != -1) {
+            notifyChange(ProductEntry.buildChangeUri(id, ProductEntry.CHANGE_UPDATE));
+        }
+
+        // Return the new quantity
+        return newQuantity;
+    }
+
     /**
      * Update products in the database with the given content values. Apply the changes to the rows
-     * specified in the selection and selection arguments (which could be 0 or 1 or more pets).
+     * specified in the selection and selection arguments (which could be 0 or 1 or more pets), or
+     * to the single product of a {@link #PRODUCTS_ID} URI.
      * Return the number of rows that were successfully updated.
      */
-    private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private int updateProduct(Uri uri, int match, ContentValues values, String selection,
+                              String[] selectionArgs) {
         // If the {@link ProductEntry#COLUMN_PRODUCT_NAME} key is present,
         // check that the name value is not null.
         if (values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)) {
-            String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Product requires a name");
-            }
+            ProductRepository.validateName(values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
         }
 
         // If the {@link ProductEntry#COLUMN_PRODUCT_PRICE} key is present,
         // check that the price value is valid.
         if (values.containsKey(ProductEntry.COLUMN_PRODUCT_PRICE)) {
             Float price = values.getAsFloat(ProductEntry.COLUMN_PRODUCT_PRICE);
-            if (price == null || price < 0) {
+            if (price == null) {
                 throw new IllegalArgumentException("Product requires a valid price");
             }
+            ProductRepository.validatePrice(price);
         }
 
         // If the {@link ProductEntry#COLUMN_PRODUCT_QTY} key is present,
         // check that the quantity value is valid.
+        Integer quantity = null;
         if (values.containsKey(ProductEntry.COLUMN_PRODUCT_QTY)) {
-            Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QTY);
-            if (quantity == null || quantity < 0) {
+            quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QTY);
+            if (quantity == null) {
                 throw new IllegalArgumentException("Product requires a valid quantity");
             }
+            ProductRepository.validateQuantity(quantity);
         }
 
         // If the {@link ProductEntry#COLUMN_PRODUCT_SUPPLIER} key is present,
         // check that the supplier value is not null.
         if (values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER)) {
-            String supplier = values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER);
-            if (supplier == null) {
-                throw new IllegalArgumentException("Product requires a supplier email");
-            }
+            ProductRepository.validateSupplier(values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER));
         }
 
         // If the {@link ProductEntry#COLUMN_PRODUCT_PICTURE} key is present,
         // check that the picture value is not null.
         if (values.containsKey(ProductEntry.COLUMN_PRODUCT_PICTURE)) {
-            String picture = values.getAsString(ProductEntry.COLUMN_PRODUCT_PICTURE);
-            if (picture == null) {
-                throw new IllegalArgumentException("Product requires a picture");
-            }
+            ProductRepository.validatePicture(values.getAsString(ProductEntry.COLUMN_PRODUCT_PICTURE));
+        }
+
+        // If the {@link ProductEntry#COLUMN_PRODUCT_SKU} key is present,
+        // check that the SKU value is null or not blank.
+        boolean skuChanged = values.containsKey(ProductEntry.COLUMN_PRODUCT_SKU);
+        if (skuChanged) {
+            ProductRepository.validateSku(values.getAsString(ProductEntry.COLUMN_PRODUCT_SKU));
         }
 
         // If there are no values to update, then don't try to update the database
@@ -264,30 +959,293 @@ public class ProductProvider extends ContentProvider {
             return 0;
         }
 
-        // Otherwise, get writeable database to update the data
-        SQLiteDatabase database = productDbHelper.getWritableDatabase();
-
         // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(ProductEntry.TABLE_NAME, values, selection, selectionArgs);
+        int rowsUpdated;
+        if (match == PRODUCTS_ID && values.size() == 1 && quantity != null) {
+            // A quantity change from the buttons, bound to the repository's compiled update
+            rowsUpdated = productRepository.updateQuantityRow(ContentUris.parseId(uri), quantity);
+        } else {
+            // For the PRODUCT_ID code, extract out the ID from the URI
+            if (match == PRODUCTS_ID) {
+                selection = ProductEntry._ID + "=? AND " + ProductDbHelper.NOT_DELETED;
+                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+            } else {
+                selection = buildTableSelection(selection);
+            }
+
+            // Otherwise, get writeable database to update the data
+            SQLiteDatabase database = productDbHelper.getWritableDatabase();
+            rowsUpdated = database.update(ProductEntry.TABLE_NAME,
+                    ProductDbHelper.toTableValues(database, values), selection, selectionArgs);
+            if (skuChanged && rowsUpdated != 0) {
+                productRepository.invalidateSkus();
+            }
+        }
 
         // If 1 or more rows were updated, then notify all listeners that the data at the
         // given URI has changed
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(buildChangeUri(uri, match, ProductEntry.CHANGE_UPDATE));
         }
 
         // Return the number of rows updated
         return rowsUpdated;
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (ProductContract.METHOD_APPLY_SALES.equals(method)) {
+            long[] productIds = extras.getLongArray(ProductContract.EXTRA_PRODUCT_IDS);
+            int[] quantityDeltas = extras.getIntArray(ProductContract.EXTRA_QUANTITY_DELTAS);
+            if (productIds == null || quantityDeltas == null
+                    || productIds.length != quantityDeltas.length) {
+                throw new IllegalArgumentException("Sales require matching product IDs and deltas");
+            }
+
+            long startNanos = System.nanoTime();
+            int rowsUpdated = applyQuantityDeltas(productIds, quantityDeltas);
+            stats.record(ProviderStats.CALL, PRODUCTS, startNanos, rowsUpdated);
+
+            Bundle result = new Bundle();
+            result.putInt(ProductContract.EXTRA_ROWS_UPDATED, rowsUpdated);
+            return result;
+        }
+        if (ProductContract.METHOD_ADJUST_QUANTITY.equals(method)) {
+            if (extras == null || !extras.containsKey(ProductContract.EXTRA_PRODUCT_ID)
+                    || !extras.containsKey(ProductContract.EXTRA_QUANTITY_DELTA)) {
+                throw new IllegalArgumentException("Adjustment requires a product ID and a delta");
+            }
+
+            long startNanos = System.nanoTime();
+            int newQuantity = adjustQuantity(extras.getLong(ProductContract.EXTRA_PRODUCT_ID),
+                    extras.getInt(ProductContract.EXTRA_QUANTITY_DELTA));
+            stats.record(ProviderStats.CALL, PRODUCTS_ID_ADJUST, startNanos,
+                    newQuantity == -1 ? 0 : 1);
+
+            Bundle result = new Bundle();
+            result.putInt(ProductContract.EXTRA_QUANTITY, newQuantity);
+            return result;
+        }
+        if (ProductContract.METHOD_DELETE_PRODUCTS.equals(method)
+                || ProductContract.METHOD_RESTORE_PRODUCTS.equals(method)
+                || ProductContract.METHOD_SET_QUANTITY.equals(method)
+                || ProductContract.METHOD_ADJUST_PRICE.equals(method)) {
+            long[] productIds = extras == null ? null
+                    : extras.getLongArray(ProductContract.EXTRA_PRODUCT_IDS);
+            if (productIds == null) {
+                throw new IllegalArgumentException("Bulk changes require product IDs");
+            }
+
+            long startNanos = System.nanoTime();
+            int rowsUpdated = updateProductSet(method, productIds, extras);
+            stats.record(ProviderStats.CALL, PRODUCTS, startNanos, rowsUpdated);
+
+            Bundle result = new Bundle();
+            result.putInt(ProductContract.EXTRA_ROWS_UPDATED, rowsUpdated);
+            return result;
+        }
+        if (ProductContract.METHOD_CHECK_SUMMARY.equals(method)) {
+            long startNanos = System.nanoTime();
+            boolean consistent = checkSummary();
+            stats.record(ProviderStats.CALL, SUMMARY, startNanos, 1);
+
+            Bundle result = new Bundle();
+            result.putBoolean(ProductContract.EXTRA_SUMMARY_CONSISTENT, consistent);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Apply the change of the given bulk method to all the given products, as one
+     * {@code UPDATE ... WHERE _id IN (...)} statement inside a single transaction, and send one
+     * change notification once it is committed. Return the number of rows that were updated.
+     */
+    private int updateProductSet(String method, long[] productIds, Bundle extras) {
+        String assignment;
+        Object value;
+        String condition = ProductDbHelper.NOT_DELETED;
+        boolean skusChanged = false;
+        switch (method) {
+            case ProductContract.METHOD_DELETE_PRODUCTS:
+                assignment = ProductDbHelper.COLUMN_DELETED_AT + " = ?";
+                value = System.currentTimeMillis();
+                skusChanged = true;
+                break;
+            case ProductContract.METHOD_RESTORE_PRODUCTS:
+                assignment = ProductDbHelper.COLUMN_DELETED_AT + " = ?";
+                value = null;
+                condition = ProductDbHelper.COLUMN_DELETED_AT + " IS NOT NULL";
+                skusChanged = true;
+                break;
+            case ProductContract.METHOD_SET_QUANTITY:
+                // Check that the quantity is given and not negative
+                int quantity = extras.getInt(ProductContract.EXTRA_QUANTITY, -1);
+                ProductRepository.validateQuantity(quantity);
+                assignment = ProductEntry.COLUMN_PRODUCT_QTY + " = ?";
+                value = quantity;
+                break;
+            default:
+                // Check that the percentage is given and leaves the prices not negative
+                double percent = extras.getDouble(ProductContract.EXTRA_PRICE_PERCENT, Double.NaN);
+                if (Double.isNaN(percent) || Double.isInfinite(percent) || percent < -100) {
+                    throw new IllegalArgumentException("Price change requires a valid percentage");
+                }
+                assignment = ProductEntry.COLUMN_PRODUCT_PRICE + " = ROUND("
+                        + ProductEntry.COLUMN_PRODUCT_PRICE + " * ?, 2)";
+                value = 1 + percent / 100;
+        }
+        if (productIds.length == 0) {
+            return 0;
+        }
+
+        // One statement for up to MAX_STATEMENT_IDS products, rather than one per product
+        int rowsUpdated = 0;
+        SQLiteDatabase database = productDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (int start = 0; start < productIds.length; start += MAX_STATEMENT_IDS) {
+                int end = Math.min(start + MAX_STATEMENT_IDS, productIds.length);
+                SQLiteStatement statement = database.compileStatement("UPDATE "
+                        + ProductEntry.TABLE_NAME + " SET " + assignment + " WHERE "
+                        + buildIdList(productIds, start, end) + " AND " + condition);
+                try {
+                    DatabaseUtils.bindObjectToProgram(statement, 1, value);
+                    rowsUpdated += statement.executeUpdateDelete();
+                } finally {
+                    statement.close();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsUpdated != 0) {
+            if (skusChanged) {
+                productRepository.invalidateSkus();
+            }
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Return the {@code _id IN (...)} term of the given range of IDs. The IDs are written as
+     * literals: SQLite binds at most 999 arguments to a statement.
+     */
+    private static String buildIdList(long[] productIds, int start, int end) {
+        StringBuilder idList = new StringBuilder(ProductEntry._ID).append(" IN (");
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                idList.append(", ");
+            }
+            idList.append(productIds[i]);
+        }
+        return idList.append(')').toString();
+    }
+
+    /**
+     * Compare the summary maintained by the triggers with the summary recomputed from all the
+     * products, and rebuild it if they differ. Return whether they matched.
+     */
+    private boolean checkSummary() {
+        if (ProductDbHelper.isSummaryConsistent(productDbHelper.getReadableDatabase())) {
+            return true;
+        }
+
+        Log.w(LOG_TAG, "Summary out of step with the products, rebuilding it");
+        ProductDbHelper.rebuildSummary(productDbHelper.getWritableDatabase());
+        notifyChange(SummaryEntry.CONTENT_URI);
+        return false;
+    }
+
+    /**
+     * Add each delta to the quantity of its product, all inside a single transaction, and send
+     * one change notification per product once the batch is committed, however many sales it
+     * holds. A delta that would make a quantity negative is rejected, as with the adjust URI,
+     * and its product is notified all the same. Return the number of rows that were updated.
+     */
+    private int applyQuantityDeltas(long[] productIds, int[] quantityDeltas) {
+        int rowsUpdated = productRepository.applyQuantityDeltaRows(productIds, quantityDeltas);
+
+        // One notification per product once committed, so the catalog only refreshes the rows
+        // that were sold. Rejected sales are notified too, as the catalog already showed them.
+        for (long productId : productIds) {
+            notifyChange(ProductEntry.buildChangeUri(productId, ProductEntry.CHANGE_UPDATE));
+        }
+
+        return rowsUpdated;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != PRODUCTS_EXPORT) {
+            throw new FileNotFoundException("Cannot open unknown URI " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Exports can only be read, not opened in mode " + mode);
+        }
+
+        // The rows are written on a background thread as the caller reads the other end
+        return openPipeHelper(uri, getType(uri), null, getExportFormat(uri), exportWriter);
+    }
+
+    /**
+     * Return the format requested by an export URI.
+     */
+    private static String getExportFormat(Uri uri) {
+        String format = uri.getQueryParameter(ProductEntry.QUERY_FORMAT);
+        if (format == null) {
+            return ProductEntry.FORMAT_CSV;
+        }
+        if (!format.equals(ProductEntry.FORMAT_CSV) && !format.equals(ProductEntry.FORMAT_BINARY)) {
+            throw new IllegalArgumentException("Unknown export format " + format);
+        }
+        return format;
+    }
+
+    /**
+     * Write an export, in the format given as argument, to the pipe read by the caller.
+     */
+    private final PipeDataWriter<String> exportWriter = new PipeDataWriter<String>() {
+        @Override
+        public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                    Bundle opts, String format) {
+            long startNanos = System.nanoTime();
+            // The stream is flushed but not closed: openPipeHelper closes the pipe afterwards
+            OutputStream stream = new FileOutputStream(output.getFileDescriptor());
+            try {
+                int rowCount = new ProductExporter(productDbHelper).export(format, stream);
+                stats.record(ProviderStats.QUERY, PRODUCTS_EXPORT, startNanos, rowCount);
+            } catch (IOException e) {
+                // Usually the reader closed its end before the end of the export
+                Log.w(LOG_TAG, "Export to " + uri + " stopped", e);
+            }
+        }
+    };
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
+            case PRODUCTS_SEARCH:
                 return ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCTS_ID:
+            case PRODUCTS_ID_ADJUST:
+            case PRODUCTS_ID_RESTORE:
+                return ProductEntry.CONTENT_ITEM_TYPE;
+            case STATS:
+                return ProductContract.StatsEntry.CONTENT_LIST_TYPE;
+            case SUMMARY:
+                return SummaryEntry.CONTENT_ITEM_TYPE;
+            case PRODUCTS_SKU:
                 return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCTS_EXPORT:
+                return ProductEntry.FORMAT_BINARY.equals(getExportFormat(uri))
+                        ? ProductEntry.BINARY_EXPORT_TYPE
+                        : ProductEntry.CSV_EXPORT_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -0,0 +1,456 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * Typed access to the products for callers inside the app.
+ * <p>
+ * The repository works on the same database as {@link ProductProvider} and applies the same
+ * validation, but takes and returns primitives and {@link Product}s, so in-process callers skip
+ * the {@code ContentValues} boxing and the cursor column lookups. Changes are notified on the
+ * same URIs as the provider's. {@link ProductProvider} stays the interface for other apps and
+ * for loaders, and runs its writes through the package-private methods of this class.
+ */
+
+public class ProductRepository {
+
+    /**
+     * Columns of a {@link Product}, in the order they are read.
+     */
+    private static final String SQL_SELECT_PRODUCT = "SELECT "
+            + ProductEntry._ID + ", "
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+            + ProductEntry.COLUMN_PRODUCT_QTY + ", "
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER + ", "
+            + ProductEntry.COLUMN_PRODUCT_PICTURE + ", "
+            + ProductEntry.COLUMN_PRODUCT_SKU
+            + " FROM " + ProductDbHelper.PRODUCTS_VIEW_NAME
+            + " WHERE " + ProductEntry._ID + " = ?";
+
+    /**
+     * Number of SKUs whose product ID is kept in memory.
+     */
+    private static final int SKU_CACHE_SIZE = 512;
+
+    /**
+     * Maximum number of deleted products removed per statement of a purge, so a purge never holds
+     * the write lock for long.
+     */
+    private static final int PURGE_BATCH_ROWS = 200;
+
+    private static ProductRepository sInstance;
+
+    private final ProductDbHelper dbHelper;
+
+    private final ContentResolver contentResolver;
+
+    /**
+     * Compiled statements of the hot operations, one set per calling thread.
+     */
+    private final ThreadLocal<ProductStatements> statements = new ThreadLocal<ProductStatements>() {
+        @Override
+        protected ProductStatements initialValue() {
+            return new ProductStatements(dbHelper);
+        }
+    };
+
+    /**
+     * IDs of the SKUs looked up lately.
+     */
+    private final SkuCache skuCache = new SkuCache(SKU_CACHE_SIZE);
+
+    private ProductRepository(Context context) {
+        dbHelper = ProductDbHelper.getInstance(context);
+        contentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Return the repository shared by the whole app.
+     */
+    public static synchronized ProductRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ProductRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return the product with the given ID, or null if there is none.
+     */
+    public Product getProduct(long id) {
+        SQLiteDatabase database = dbHelper.getReadableDatabase();
+        Cursor cursor = database.rawQuery(SQL_SELECT_PRODUCT, new String[]{String.valueOf(id)});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Product(cursor.getLong(0), cursor.getString(1), cursor.getFloat(2),
+                    cursor.getInt(3), cursor.getString(4), cursor.getString(5), cursor.getString(6));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the ID of the product with the given SKU, or -1 if there is none. SKUs found lately
+     * are answered from memory.
+     */
+    public long findProductIdBySku(String sku) {
+        long id = skuCache.get(sku);
+        if (id != -1) {
+            return id;
+        }
+
+        long generation = skuCache.generation();
+        SQLiteStatement statement = statements.get().selectIdBySku();
+        statement.bindString(1, sku);
+        try {
+            id = statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+        skuCache.put(sku, id, generation);
+        return id;
+    }
+
+    /**
+     * Return the quantity of the given product, or -1 if there is no such product.
+     */
+    public int getQuantity(long id) {
+        SQLiteStatement statement = statements.get().selectQuantity();
+        statement.bindLong(1, id);
+        try {
+            return (int) statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Insert the given product, ignoring its ID. Return the ID of the new product, or -1 if the
+     * insertion failed, e.g. because its SKU is already used by another product.
+     *
+     * @throws IllegalArgumentException if a value of the product is not valid.
+     */
+    public long insertProduct(Product product) {
+        long id;
+        try {
+            id = insertRow(product.getName(), product.getPrice(), product.getQuantity(),
+                    product.getSupplier(), product.getPicture(), product.getSku());
+        } catch (SQLiteConstraintException e) {
+            // The SKU is already used by another product
+            return -1;
+        }
+        if (id != -1) {
+            notifyChange(id, ProductEntry.CHANGE_INSERT);
+        }
+        return id;
+    }
+
+    /**
+     * Set the quantity of the given product. Return whether the product exists.
+     */
+    public boolean updateQuantity(long id, int quantity) {
+        boolean updated = updateQuantityRow(id, quantity) != 0;
+        if (updated) {
+            notifyChange(id, ProductEntry.CHANGE_UPDATE);
+        }
+        return updated;
+    }
+
+    /**
+     * Add the given delta to the quantity of the given product. Return the new quantity, or -1 if
+     * the product does not exist or the quantity would become negative.
+     */
+    public int adjustQuantity(long id, int delta) {
+        int newQuantity = adjustQuantityRow(id, delta);
+        if (newQuantity != -1) {
+            notifyChange(id, ProductEntry.CHANGE_UPDATE);
+        }
+        return newQuantity;
+    }
+
+    /**
+     * Add each delta to the quantity of its product, all inside a single transaction. As with
+     * {@link #adjustQuantity}, a delta that would make a quantity negative is rejected and leaves
+     * the product as it is. Return the number of products that were updated.
+     * <p>
+     * Every given product is notified, rejected ones included: the catalog shows a sale before
+     * it is written, and must read the real quantity again.
+     */
+    public int applySales(long[] productIds, int[] quantityDeltas) {
+        int rowsUpdated = applyQuantityDeltaRows(productIds, quantityDeltas);
+        for (long productId : productIds) {
+            notifyChange(productId, ProductEntry.CHANGE_UPDATE);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Delete the given product. It is hidden right away, and can be restored with
+     * {@link #restoreProduct} until it is purged. Return whether it existed.
+     */
+    public boolean deleteProduct(long id) {
+        boolean deleted = deleteRow(id) != 0;
+        if (deleted) {
+            notifyChange(id, ProductEntry.CHANGE_DELETE);
+        }
+        return deleted;
+    }
+
+    /**
+     * Restore the given deleted product. Return whether it was restored, i.e. whether it was
+     * deleted and not purged yet.
+     */
+    public boolean restoreProduct(long id) {
+        boolean restored = restoreRow(id) != 0;
+        if (restored) {
+            notifyChange(id, ProductEntry.CHANGE_INSERT);
+        }
+        return restored;
+    }
+
+    /**
+     * Validate and insert a product without notifying the change. Return the ID of the new
+     * product, or -1 if the insertion failed.
+     *
+     * @throws IllegalArgumentException if a value of the product is not valid.
+     * @throws SQLiteConstraintException if the SKU is already used by another product. Inside the
+     *                                   transaction of a caller, that transaction can go on.
+     */
+    long insertRow(String name, float price, int quantity, String supplier, String picture,
+                   String sku) {
+        validateName(name);
+        validatePrice(price);
+        validateQuantity(quantity);
+        validateSupplier(supplier);
+        validatePicture(picture);
+        validateSku(sku);
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        SQLiteStatement supplierStatement = statements.get().insertSupplier();
+        SQLiteStatement statement = statements.get().insert();
+
+        // Add the supplier if it is new, then the product, in a single commit. Inside the
+        // transaction of a caller, a rejected product must not roll back the whole transaction,
+        // so no transaction is nested there.
+        boolean ownTransaction = !database.inTransaction();
+        if (ownTransaction) {
+            database.beginTransaction();
+        }
+        try {
+            supplierStatement.bindString(1, supplier);
+            supplierStatement.execute();
+
+            statement.bindString(1, name);
+            statement.bindDouble(2, price);
+            statement.bindLong(3, quantity);
+            statement.bindString(4, supplier);
+            statement.bindString(5, picture);
+            if (sku == null) {
+                statement.bindNull(6);
+            } else {
+                statement.bindString(6, sku);
+            }
+            long id = statement.executeInsert();
+            if (ownTransaction) {
+                database.setTransactionSuccessful();
+            }
+            return id;
+        } finally {
+            if (ownTransaction) {
+                database.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Validate and set the quantity of a product without notifying the change. Return the number
+     * of rows updated.
+     */
+    int updateQuantityRow(long id, int quantity) {
+        validateQuantity(quantity);
+
+        SQLiteStatement statement = statements.get().updateQuantity();
+        statement.bindLong(1, quantity);
+        statement.bindLong(2, id);
+        return statement.executeUpdateDelete();
+    }
+
+    /**
+     * Add a delta to the quantity of a product as a single statement, so that concurrent
+     * adjustments can't overwrite each other, without notifying the change. Return the new
+     * quantity, or -1 if the product does not exist or the quantity would become negative.
+     */
+    int adjustQuantityRow(long id, int delta) {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        SQLiteStatement adjustStatement = statements.get().adjustQuantity();
+        SQLiteStatement quantityStatement = statements.get().selectQuantity();
+
+        // Apply the delta and read back the new quantity in the same transaction
+        int newQuantity = -1;
+        database.beginTransaction();
+        try {
+            adjustStatement.bindLong(1, delta);
+            adjustStatement.bindLong(2, id);
+            adjustStatement.bindLong(3, delta);
+            if (adjustStatement.executeUpdateDelete() != 0) {
+                quantityStatement.bindLong(1, id);
+                newQuantity = (int) quantityStatement.simpleQueryForLong();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return newQuantity;
+    }
+
+    /**
+     * Add each delta to the quantity of its product inside a single transaction, without
+     * notifying the changes. Return the number of products that were updated.
+     */
+    int applyQuantityDeltaRows(long[] productIds, int[] quantityDeltas) {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        SQLiteStatement statement = statements.get().adjustQuantity();
+
+        int rowsUpdated = 0;
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < productIds.length; i++) {
+                statement.bindLong(1, quantityDeltas[i]);
+                statement.bindLong(2, productIds[i]);
+                statement.bindLong(3, quantityDeltas[i]);
+                rowsUpdated += statement.executeUpdateDelete();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Mark a product as deleted without notifying the change. Return the number of rows deleted.
+     */
+    int deleteRow(long id) {
+        SQLiteStatement statement = statements.get().delete();
+        statement.bindLong(1, System.currentTimeMillis());
+        statement.bindLong(2, id);
+        int rowsDeleted = statement.executeUpdateDelete();
+        if (rowsDeleted != 0) {
+            skuCache.invalidate();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Restore a deleted product without notifying the change. Return the number of rows
+     * restored.
+     */
+    int restoreRow(long id) {
+        SQLiteStatement statement = statements.get().restore();
+        statement.bindLong(1, id);
+        return statement.executeUpdateDelete();
+    }
+
+    /**
+     * Remove for good the products deleted at or before the given time (in milliseconds since
+     * the epoch), a batch per transaction, then give the pages they held back to the file
+     * system. Return the number of products removed.
+     * <p>
+     * Deleted products are already hidden, so nothing is notified.
+     */
+    int purgeDeletedRows(long deletedBefore) {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        SQLiteStatement statement = statements.get().purge();
+
+        int rowsPurged = 0;
+        int batchRows;
+        do {
+            statement.bindLong(1, deletedBefore);
+            statement.bindLong(2, PURGE_BATCH_ROWS);
+            batchRows = statement.executeUpdateDelete();
+            rowsPurged += batchRows;
+        } while (batchRows == PURGE_BATCH_ROWS);
+
+        if (rowsPurged != 0) {
+            ProductDbHelper.vacuumFreePages(database);
+        }
+        return rowsPurged;
+    }
+
+    /**
+     * Forget the SKUs found lately, after a write that may have removed or reassigned some.
+     */
+    void invalidateSkus() {
+        skuCache.invalidate();
+    }
+
+    /**
+     * Check that the name of a product is given.
+     */
+    static void validateName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Product requires a name");
+        }
+    }
+
+    /**
+     * Check that the price of a product is not negative.
+     */
+    static void validatePrice(float price) {
+        if (price < 0) {
+            throw new IllegalArgumentException("Product requires a valid price");
+        }
+    }
+
+    /**
+     * Check that the quantity of a product is not negative.
+     */
+    static void validateQuantity(int quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Product requires a valid quantity");
+        }
+    }
+
+    /**
+     * Check that the email of the supplier of a product is given.
+     */
+    static void validateSupplier(String supplier) {
+        if (supplier == null) {
+            throw new IllegalArgumentException("Product requires a supplier's email");
+        }
+    }
+
+    /**
+     * Check that the picture of a product is given.
+     */
+    static void validatePicture(String picture) {
+        if (picture == null) {
+            throw new IllegalArgumentException("Product requires a picture");
+        }
+    }
+
+    /**
+     * Check that the SKU of a product, when given, is not blank.
+     */
+    static void validateSku(String sku) {
+        if (sku != null && sku.trim().isEmpty()) {
+            throw new IllegalArgumentException("Product requires a valid SKU");
+        }
+    }
+
+    private void notifyChange(long id, String change) {
+        dbHelper.bumpWriteGeneration();
+        contentResolver.notifyChange(ProductEntry.buildChangeUri(id, change), null);
+    }
+}
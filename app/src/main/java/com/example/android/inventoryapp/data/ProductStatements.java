@@ -0,0 +1,164 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * Compiled statements for the fixed-shape operations run on every tap, so they are parsed and
+ * compiled once and then only bound with primitives.
+ * <p>
+ * A statement keeps its bindings between executions, so it must not be shared between threads:
+ * {@link ProductRepository}, which runs these operations for itself and for
+ * {@link ProductProvider}, keeps one instance per thread. Each statement is compiled the first
+ * time it is used.
+ */
+
+class ProductStatements {
+
+    private final SQLiteOpenHelper dbHelper;
+
+    private SQLiteStatement insertSupplier;
+    private SQLiteStatement insert;
+    private SQLiteStatement updateQuantity;
+    private SQLiteStatement adjustQuantity;
+    private SQLiteStatement selectQuantity;
+    private SQLiteStatement delete;
+    private SQLiteStatement restore;
+    private SQLiteStatement purge;
+    private SQLiteStatement selectIdBySku;
+
+    ProductStatements(SQLiteOpenHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    /**
+     * Add a supplier unless it already exists. Bind the email.
+     */
+    SQLiteStatement insertSupplier() {
+        if (insertSupplier == null) {
+            insertSupplier = compile(ProductDbHelper.SQL_INSERT_SUPPLIER);
+        }
+        return insertSupplier;
+    }
+
+    /**
+     * Insert a product of an existing supplier. Bind name, price, quantity, supplier email,
+     * picture and SKU.
+     */
+    SQLiteStatement insert() {
+        if (insert == null) {
+            insert = compile("INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+                    + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                    + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                    + ProductEntry.COLUMN_PRODUCT_QTY + ", "
+                    + ProductDbHelper.COLUMN_SUPPLIER_ID + ", "
+                    + ProductEntry.COLUMN_PRODUCT_PICTURE + ", "
+                    + ProductEntry.COLUMN_PRODUCT_SKU + ") VALUES (?, ?, ?, "
+                    + ProductDbHelper.SUPPLIER_ID_OF_EMAIL + ", ?, ?)");
+        }
+        return insert;
+    }
+
+    /**
+     * Set the quantity of a product that is not deleted. Bind the quantity, then the ID.
+     */
+    SQLiteStatement updateQuantity() {
+        if (updateQuantity == null) {
+            updateQuantity = compile("UPDATE " + ProductEntry.TABLE_NAME
+                    + " SET " + ProductEntry.COLUMN_PRODUCT_QTY + " = ?"
+                    + " WHERE " + ProductEntry._ID + " = ?"
+                    + " AND " + ProductDbHelper.NOT_DELETED);
+        }
+        return updateQuantity;
+    }
+
+    /**
+     * Add a delta to the quantity of a product that is not deleted, unless the quantity would
+     * become negative. Bind the delta, the ID, then the delta again.
+     */
+    SQLiteStatement adjustQuantity() {
+        if (adjustQuantity == null) {
+            adjustQuantity = compile("UPDATE " + ProductEntry.TABLE_NAME
+                    + " SET " + ProductEntry.COLUMN_PRODUCT_QTY
+                    + " = " + ProductEntry.COLUMN_PRODUCT_QTY + " + ?"
+                    + " WHERE " + ProductEntry._ID + " = ?"
+                    + " AND " + ProductDbHelper.NOT_DELETED
+                    + " AND " + ProductEntry.COLUMN_PRODUCT_QTY + " + ? >= 0");
+        }
+        return adjustQuantity;
+    }
+
+    /**
+     * Read the quantity of a product. Bind the ID.
+     */
+    SQLiteStatement selectQuantity() {
+        if (selectQuantity == null) {
+            selectQuantity = compile("SELECT " + ProductEntry.COLUMN_PRODUCT_QTY
+                    + " FROM " + ProductEntry.TABLE_NAME
+                    + " WHERE " + ProductEntry._ID + " = ?");
+        }
+        return selectQuantity;
+    }
+
+    /**
+     * Mark a product as deleted, unless it already is. Bind the time of the deletion, then the
+     * ID.
+     */
+    SQLiteStatement delete() {
+        if (delete == null) {
+            delete = compile("UPDATE " + ProductEntry.TABLE_NAME
+                    + " SET " + ProductDbHelper.COLUMN_DELETED_AT + " = ?"
+                    + " WHERE " + ProductEntry._ID + " = ?"
+                    + " AND " + ProductDbHelper.NOT_DELETED);
+        }
+        return delete;
+    }
+
+    /**
+     * Restore a deleted product that was not purged yet. Bind the ID.
+     */
+    SQLiteStatement restore() {
+        if (restore == null) {
+            restore = compile("UPDATE " + ProductEntry.TABLE_NAME
+                    + " SET " + ProductDbHelper.COLUMN_DELETED_AT + " = NULL"
+                    + " WHERE " + ProductEntry._ID + " = ?"
+                    + " AND " + ProductDbHelper.COLUMN_DELETED_AT + " IS NOT NULL");
+        }
+        return restore;
+    }
+
+    /**
+     * Remove a batch of the products deleted at or before a time. Bind the time, then the
+     * maximum number of products to remove.
+     */
+    SQLiteStatement purge() {
+        if (purge == null) {
+            purge = compile("DELETE FROM " + ProductEntry.TABLE_NAME
+                    + " WHERE " + ProductEntry._ID + " IN (SELECT " + ProductEntry._ID
+                    + " FROM " + ProductEntry.TABLE_NAME
+                    + " WHERE " + ProductDbHelper.COLUMN_DELETED_AT + " <= ? LIMIT ?)");
+        }
+        return purge;
+    }
+
+    /**
+     * Read the ID of the product with a SKU, unless it is deleted. Bind the SKU.
+     */
+    SQLiteStatement selectIdBySku() {
+        if (selectIdBySku == null) {
+            selectIdBySku = compile("SELECT " + ProductEntry._ID
+                    + " FROM " + ProductEntry.TABLE_NAME
+                    + " WHERE " + ProductEntry.COLUMN_PRODUCT_SKU + " = ?"
+                    + " AND " + ProductDbHelper.NOT_DELETED);
+        }
+        return selectIdBySku;
+    }
+
+    private SQLiteStatement compile(String sql) {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        return database.compileStatement(sql);
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the writes of the screens one after the other on a single background thread.
+ * <p>
+ * A commit waits for the storage to sync, which takes long enough on slow flash to drop frames
+ * or trigger an ANR when done on the main thread. Writes submitted here return right away with a
+ * {@link Future}, and their {@link Callback} is called back on the main thread once they are
+ * done, in the order they were submitted. {@link SaleQueue} flushes on the same thread, so the
+ * app never has two of its own writes waiting on each other for the database lock.
+ * <p>
+ * Deleted products stay restorable for {@link #PURGE_DELAY_MILLIS}, after which the writer
+ * purges them on the same thread.
+ */
+
+public class ProductWriter {
+
+    private static final String LOG_TAG = ProductWriter.class.getSimpleName();
+
+    /**
+     * Time (in milliseconds) a deleted product can still be restored, well beyond the time the
+     * screens offer to undo a deletion. The purge runs once no product was deleted for as long.
+     */
+    static final long PURGE_DELAY_MILLIS = 60 * 1000;
+
+    /**
+     * Receives the result of a write on the main thread.
+     */
+    public interface Callback<T> {
+
+        /**
+         * Called with the result of the write.
+         */
+        void onSuccess(T result);
+
+        /**
+         * Called if the write failed, e.g. because a value was rejected.
+         */
+        void onFailure(Exception error);
+    }
+
+    /**
+     * Writer shared by the whole app, created on first use.
+     */
+    private static ProductWriter sInstance;
+
+    private final ProductRepository repository;
+
+    private final ContentResolver contentResolver;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Runs the callbacks, on the main thread for the app-wide writer.
+     */
+    private final Executor callbackExecutor;
+
+    /**
+     * Next purge of the deleted products, if one is scheduled. Guarded by this writer.
+     */
+    private ScheduledFuture<?> pendingPurge;
+
+    ProductWriter(ProductRepository repository, ContentResolver contentResolver,
+                  ScheduledExecutorService executor, Executor callbackExecutor) {
+        this.repository = repository;
+        this.contentResolver = contentResolver;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Return the app-wide writer, calling back on the main thread.
+     */
+    public static synchronized ProductWriter getInstance(Context context) {
+        if (sInstance == null) {
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            Executor mainExecutor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    mainHandler.post(command);
+                }
+            };
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            return new Thread(runnable, "ProductWriter");
+                        }
+                    });
+            sInstance = new ProductWriter(ProductRepository.getInstance(context),
+                    context.getContentResolver(), executor, mainExecutor);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return the executor of the writer thread, for writes scheduled by other classes.
+     */
+    ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Run the given write on the writer thread, after the writes submitted before it. The
+     * callback, which may be null, gets its result or its failure.
+     */
+    public <T> Future<T> submit(final Callable<T> write, final Callback<T> callback) {
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final T result;
+                try {
+                    result = write.call();
+                } catch (final Exception e) {
+                    if (callback != null) {
+                        callbackExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onFailure(e);
+                            }
+                        });
+                    }
+                    throw e;
+                }
+
+                if (callback != null) {
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onSuccess(result);
+                        }
+                    });
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Insert a product through the provider, with its validation. The result is the URI of the
+     * new product, or null if it couldn't be inserted.
+     */
+    public Future<Uri> insert(final ContentValues values, Callback<Uri> callback) {
+        return submit(new Callable<Uri>() {
+            @Override
+            public Uri call() {
+                return contentResolver.insert(ProductEntry.CONTENT_URI, values);
+            }
+        }, callback);
+    }
+
+    /**
+     * Add the given delta to the quantity of a product. The result is the new quantity, or -1 if
+     * the quantity would become negative or the product doesn't exist.
+     */
+    public Future<Integer> adjustQuantity(final long id, final int delta,
+                                          Callback<Integer> callback) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return repository.adjustQuantity(id, delta);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete the products at the given URI through the provider, and schedule their purge. The
+     * result is the number of products deleted.
+     */
+    public Future<Integer> delete(final Uri uri, Callback<Integer> callback) {
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                int rowsDeleted = contentResolver.delete(uri, null, null);
+                if (rowsDeleted != 0) {
+                    schedulePurge();
+                }
+                return rowsDeleted;
+            }
+        }, callback);
+    }
+
+    /**
+     * Restore the given deleted product. The result is whether it was restored, i.e. whether it
+     * was deleted and not purged yet.
+     */
+    public Future<Boolean> restore(final long id, Callback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return repository.restoreProduct(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete the given products in one statement, and schedule their purge. The result is the
+     * number of products deleted.
+     */
+    public Future<Integer> deleteProducts(long[] ids, Callback<Integer> callback) {
+        return callBulk(ProductContract.METHOD_DELETE_PRODUCTS, ids, new Bundle(), callback);
+    }
+
+    /**
+     * Restore the given deleted products in one statement. The result is the number of products
+     * restored, leaving out those already purged.
+     */
+    public Future<Integer> restoreProducts(long[] ids, Callback<Integer> callback) {
+        return callBulk(ProductContract.METHOD_RESTORE_PRODUCTS, ids, new Bundle(), callback);
+    }
+
+    /**
+     * Set the quantity of the given products in one statement. The result is the number of
+     * products updated.
+     */
+    public Future<Integer> setQuantity(long[] ids, int quantity, Callback<Integer> callback) {
+        Bundle extras = new Bundle();
+        extras.putInt(ProductContract.EXTRA_QUANTITY, quantity);
+        return callBulk(ProductContract.METHOD_SET_QUANTITY, ids, extras, callback);
+    }
+
+    /**
+     * Add the given percentage to the price of the given products in one statement. The result
+     * is the number of products updated.
+     */
+    public Future<Integer> adjustPrice(long[] ids, double percent, Callback<Integer> callback) {
+        Bundle extras = new Bundle();
+        extras.putDouble(ProductContract.EXTRA_PRICE_PERCENT, percent);
+        return callBulk(ProductContract.METHOD_ADJUST_PRICE, ids, extras, callback);
+    }
+
+    /**
+     * Run the given bulk method of the provider over the given products.
+     */
+    private Future<Integer> callBulk(final String method, long[] ids, final Bundle extras,
+                                     Callback<Integer> callback) {
+        extras.putLongArray(ProductContract.EXTRA_PRODUCT_IDS, ids);
+        return submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                Bundle result = contentResolver.call(ProductEntry.CONTENT_URI, method, null, extras);
+                int rowsUpdated = result == null ? 0
+                        : result.getInt(ProductContract.EXTRA_ROWS_UPDATED);
+                if (rowsUpdated != 0 && ProductContract.METHOD_DELETE_PRODUCTS.equals(method)) {
+                    schedulePurge();
+                }
+                return rowsUpdated;
+            }
+        }, callback);
+    }
+
+    /**
+     * Purge the products deleted more than {@link #PURGE_DELAY_MILLIS} ago, once no product was
+     * deleted for that long. A purge already scheduled is pushed back, so a series of deletions
+     * is purged once.
+     */
+    public synchronized void schedulePurge() {
+        if (pendingPurge != null) {
+            pendingPurge.cancel(false);
+        }
+        pendingPurge = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int rowsPurged = repository.purgeDeletedRows(
+                            System.currentTimeMillis() - PURGE_DELAY_MILLIS);
+                    Log.v(LOG_TAG, "Purged " + rowsPurged + " deleted products");
+                } catch (SQLiteException e) {
+                    // The products stay hidden, and the next purge tries again
+                    Log.e(LOG_TAG, "Failed to purge the deleted products.", e);
+                }
+            }
+        }, PURGE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+}
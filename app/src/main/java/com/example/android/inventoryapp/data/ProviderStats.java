@@ -0,0 +1,212 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.MatrixCursor;
+
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call counters and latency histograms of {@link ProductProvider}, per operation and URI match.
+ * <p>
+ * All the counters are preallocated atomic arrays, so recording a call allocates nothing and
+ * takes no lock. Latencies go in power of two buckets of microseconds, from which percentiles
+ * are estimated, and the hit ratio of the query cache is worked out from the query and cached
+ * query calls of each URI. Reading while calls are recorded gives a slightly torn but close
+ * snapshot.
+ */
+
+class ProviderStats {
+
+    /**
+     * Operations recorded, in the order of {@link #OPERATION_NAMES}.
+     */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int CALL = 5;
+    static final int CACHED_QUERY = 6;
+
+    private static final String[] OPERATION_NAMES = {
+            StatsEntry.OPERATION_QUERY,
+            StatsEntry.OPERATION_INSERT,
+            StatsEntry.OPERATION_BULK_INSERT,
+            StatsEntry.OPERATION_UPDATE,
+            StatsEntry.OPERATION_DELETE,
+            StatsEntry.OPERATION_CALL,
+            StatsEntry.OPERATION_CACHED_QUERY};
+
+    /**
+     * Number of latency buckets. Bucket 0 holds calls under 1 microsecond, bucket i the calls
+     * under 2^i microseconds, and the last bucket everything longer.
+     */
+    private static final int BUCKET_COUNT = 32;
+
+    static final String[] COLUMNS = {
+            StatsEntry.COLUMN_OPERATION,
+            StatsEntry.COLUMN_URI,
+            StatsEntry.COLUMN_CALLS,
+            StatsEntry.COLUMN_ROWS,
+            StatsEntry.COLUMN_TOTAL_MICROS,
+            StatsEntry.COLUMN_P50_MICROS,
+            StatsEntry.COLUMN_P90_MICROS,
+            StatsEntry.COLUMN_P99_MICROS,
+            StatsEntry.COLUMN_MAX_MICROS,
+            StatsEntry.COLUMN_HIT_RATIO};
+
+    /**
+     * Lowest URI matcher code, and names of the URIs matched from that code on.
+     */
+    private final int firstMatch;
+    private final String[] matchNames;
+
+    /**
+     * Counters of each (operation, match) slot.
+     */
+    private final AtomicLongArray calls;
+    private final AtomicLongArray rows;
+    private final AtomicLongArray totalNanos;
+    private final AtomicLongArray maxNanos;
+
+    /**
+     * Latency buckets of each slot, {@link #BUCKET_COUNT} per slot.
+     */
+    private final AtomicLongArray buckets;
+
+    private final AtomicLong notifications = new AtomicLong();
+
+    /**
+     * Constructs statistics for the URI matcher codes starting at the given one.
+     *
+     * @param firstMatch The lowest URI matcher code.
+     * @param matchNames The URI pattern of each code, from the lowest on.
+     */
+    ProviderStats(int firstMatch, String[] matchNames) {
+        this.firstMatch = firstMatch;
+        this.matchNames = matchNames;
+        int slotCount = OPERATION_NAMES.length * matchNames.length;
+        calls = new AtomicLongArray(slotCount);
+        rows = new AtomicLongArray(slotCount);
+        totalNanos = new AtomicLongArray(slotCount);
+        maxNanos = new AtomicLongArray(slotCount);
+        buckets = new AtomicLongArray(slotCount * BUCKET_COUNT);
+    }
+
+    /**
+     * Record a call of the given operation on the given URI match, started at the given
+     * {@link System#nanoTime()}, which returned or affected the given number of rows.
+     */
+    void record(int operation, int match, long startNanos, int rowCount) {
+        int matchIndex = match - firstMatch;
+        if (matchIndex < 0 || matchIndex >= matchNames.length) {
+            return;
+        }
+
+        int slot = operation * matchNames.length + matchIndex;
+        long elapsedNanos = System.nanoTime() - startNanos;
+        calls.incrementAndGet(slot);
+        rows.addAndGet(slot, rowCount);
+        totalNanos.addAndGet(slot, elapsedNanos);
+        buckets.incrementAndGet(slot * BUCKET_COUNT + bucketOf(elapsedNanos));
+
+        long max = maxNanos.get(slot);
+        while (elapsedNanos > max && !maxNanos.compareAndSet(slot, max, elapsedNanos)) {
+            max = maxNanos.get(slot);
+        }
+    }
+
+    /**
+     * Record a change notification sent to the content observers.
+     */
+    void recordNotification() {
+        notifications.incrementAndGet();
+    }
+
+    /**
+     * Set every counter back to zero.
+     */
+    void reset() {
+        for (int slot = 0; slot < calls.length(); slot++) {
+            calls.set(slot, 0);
+            rows.set(slot, 0);
+            totalNanos.set(slot, 0);
+            maxNanos.set(slot, 0);
+        }
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        notifications.set(0);
+    }
+
+    /**
+     * Return the statistics as a cursor of {@link #COLUMNS}, with a row for each slot that was
+     * called and a last row for the notifications.
+     */
+    MatrixCursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int matchIndex = 0; matchIndex < matchNames.length; matchIndex++) {
+                int slot = operation * matchNames.length + matchIndex;
+                long callCount = calls.get(slot);
+                if (callCount == 0) {
+                    continue;
+                }
+                cursor.addRow(new Object[]{
+                        OPERATION_NAMES[operation],
+                        matchNames[matchIndex],
+                        callCount,
+                        rows.get(slot),
+                        TimeUnit.NANOSECONDS.toMicros(totalNanos.get(slot)),
+                        percentileMicros(slot, callCount, 50),
+                        percentileMicros(slot, callCount, 90),
+                        percentileMicros(slot, callCount, 99),
+                        TimeUnit.NANOSECONDS.toMicros(maxNanos.get(slot)),
+                        hitRatio(operation, matchIndex)});
+            }
+        }
+        cursor.addRow(new Object[]{StatsEntry.OPERATION_NOTIFY, null, notifications.get(),
+                0, 0, 0, 0, 0, 0, null});
+        return cursor;
+    }
+
+    /**
+     * Return the share of the queries of the given URI answered from the cache, or null for an
+     * operation other than a query.
+     */
+    private Double hitRatio(int operation, int matchIndex) {
+        if (operation != QUERY && operation != CACHED_QUERY) {
+            return null;
+        }
+        long hits = calls.get(CACHED_QUERY * matchNames.length + matchIndex);
+        long misses = calls.get(QUERY * matchNames.length + matchIndex);
+        return (double) hits / (hits + misses);
+    }
+
+    /**
+     * Return the upper bound, in microseconds, of the bucket holding the given percentile of the
+     * calls of the slot.
+     */
+    private long percentileMicros(int slot, long callCount, int percentile) {
+        long rank = (callCount * percentile + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += buckets.get(slot * BUCKET_COUNT + bucket);
+            if (seen >= rank) {
+                return 1L << bucket;
+            }
+        }
+        return 1L << (BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Return the bucket of the given latency: the number of bits of its value in microseconds.
+     */
+    static int bucketOf(long elapsedNanos) {
+        long micros = elapsedNanos / 1000;
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+}
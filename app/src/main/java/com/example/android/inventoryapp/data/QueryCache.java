@@ -0,0 +1,220 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of the latest queries of {@link ProductProvider}, answered again from memory as long as
+ * nothing is written in between.
+ * <p>
+ * A result is copied out of its cursor once, and every hit gets a new {@link MatrixCursor} over
+ * the copy. Writes move the database to a new write generation once committed, see
+ * {@link ProductDbHelper#getWriteGeneration()}: the first lookup at a new generation drops every
+ * result, and a result read at an older generation is not kept, as it may miss the write. The
+ * least recently used results are dropped beyond the maximum size, and results larger than a
+ * quarter of it are not cached at all: those whose row count alone rules them out are not even
+ * copied.
+ */
+
+class QueryCache {
+
+    /**
+     * Estimated sizes, in bytes, of a row and of its values.
+     */
+    private static final int ROW_BYTES = 16;
+    private static final int VALUE_BYTES = 16;
+    private static final int STRING_BYTES = 40;
+
+    private final Map<Key, Result> results = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final long maxBytes;
+
+    private final long maxResultBytes;
+
+    /**
+     * Estimated size of the results kept.
+     */
+    private long bytes;
+
+    /**
+     * Write generation at which the results were read.
+     */
+    private long generation;
+
+    QueryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.maxResultBytes = maxBytes / 4;
+    }
+
+    /**
+     * Return the result cached for the given query, or null if there is none at the given write
+     * generation.
+     */
+    synchronized Result get(Key key, long writeGeneration) {
+        if (writeGeneration != generation) {
+            // Something was written since, every result may be out of date
+            results.clear();
+            bytes = 0;
+            generation = writeGeneration;
+            return null;
+        }
+        return results.get(key);
+    }
+
+    /**
+     * Cache the result of the given query, read at the given write generation. The result is
+     * dropped if the generation moved on meanwhile.
+     */
+    synchronized void put(Key key, Result result, long readGeneration) {
+        if (readGeneration != generation) {
+            return;
+        }
+
+        Result previous = results.put(key, result);
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += result.bytes;
+
+        Iterator<Result> eldest = results.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Return the estimated size, in bytes, of the results kept.
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * Copy the rows of the given cursor into a result, or return null if they are too large to
+     * be cached. The cursor is left before its first row either way.
+     */
+    Result copy(Cursor cursor) {
+        String[] columns = cursor.getColumnNames();
+        int count = cursor.getCount();
+
+        // Rows hold at least their references, whatever their values
+        if ((long) count * (ROW_BYTES + VALUE_BYTES * columns.length) > maxResultBytes) {
+            return null;
+        }
+
+        Object[][] rows = new Object[count][];
+        long resultBytes = 0;
+
+        cursor.moveToPosition(-1);
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columns.length];
+                resultBytes += ROW_BYTES + VALUE_BYTES * columns.length;
+                for (int column = 0; column < columns.length; column++) {
+                    row[column] = ProductProvider.getValue(cursor, column);
+                    resultBytes += sizeOf(row[column]);
+                }
+                if (resultBytes > maxResultBytes) {
+                    return null;
+                }
+                rows[i] = row;
+            }
+        } finally {
+            cursor.moveToPosition(-1);
+        }
+        return new Result(columns, rows, resultBytes);
+    }
+
+    /**
+     * Return the estimated size, in bytes, of a value beyond its reference.
+     */
+    private static long sizeOf(Object value) {
+        if (value instanceof String) {
+            return STRING_BYTES + 2 * ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return VALUE_BYTES + ((byte[]) value).length;
+        }
+        return value == null ? 0 : VALUE_BYTES;
+    }
+
+    /**
+     * A query, by URI match code and by everything that can change its result.
+     */
+    static final class Key {
+        private final int match;
+        private final String uri;
+        private final String[] projection;
+        private final String selection;
+        private final String[] selectionArgs;
+        private final String sortOrder;
+        private final int hashCode;
+
+        Key(int match, String uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+            this.match = match;
+            this.uri = uri;
+            this.projection = projection == null ? null : projection.clone();
+            this.selection = selection;
+            this.selectionArgs = selectionArgs == null ? null : selectionArgs.clone();
+            this.sortOrder = sortOrder;
+            hashCode = Arrays.hashCode(new Object[]{match, uri, Arrays.hashCode(projection),
+                    selection, Arrays.hashCode(selectionArgs), sortOrder});
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object;
+            return match == other.match
+                    && uri.equals(other.uri)
+                    && Arrays.equals(projection, other.projection)
+                    && (selection == null ? other.selection == null : selection.equals(other.selection))
+                    && Arrays.equals(selectionArgs, other.selectionArgs)
+                    && (sortOrder == null ? other.sortOrder == null : sortOrder.equals(other.sortOrder));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * The rows of a query result, never changed once cached.
+     */
+    static final class Result {
+        private final String[] columns;
+        private final Object[][] rows;
+        private final long bytes;
+
+        Result(String[] columns, Object[][] rows, long bytes) {
+            this.columns = columns;
+            this.rows = rows;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Return a new cursor over the rows.
+         */
+        Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(columns, rows.length);
+            for (Object[] row : rows) {
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-coalescing queue for sale taps.
+ * <p>
+ * Quantity deltas are gathered per product over a short window and then flushed together, so a
+ * burst of taps at the counter ends up as one database transaction and one change notification
+ * instead of one write and one catalog requery per tap. Deltas whose flush fails are kept and
+ * flushed again after a delay, doubled after each failure in a row, together with the deltas
+ * recorded meanwhile. They only live in memory until then.
+ */
+
+public class SaleQueue {
+
+    private static final String LOG_TAG = SaleQueue.class.getSimpleName();
+
+    /**
+     * Default time (in milliseconds) during which sale taps are gathered before being flushed.
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 300;
+
+    /**
+     * Longest delay (in milliseconds) before flushing again the deltas of failed flushes.
+     */
+    private static final long MAX_RETRY_MILLIS = 30 * 1000;
+
+    /**
+     * Receives the coalesced deltas when the queue is flushed.
+     */
+    public interface Flusher {
+
+        /**
+         * Apply the given quantity deltas. Both arrays have the same length and the delta at
+         * index i belongs to the product at index i.
+         */
+        void flush(long[] productIds, int[] quantityDeltas);
+    }
+
+    /**
+     * Queue shared by the whole app, created on first use.
+     */
+    private static SaleQueue sInstance;
+
+    private final Flusher flusher;
+
+    private final ScheduledExecutorService executor;
+
+    private final long windowMillis;
+
+    /**
+     * Pending quantity delta for each product ID, in the order products were first tapped.
+     */
+    private final Map<Long, Integer> pendingDeltas = new LinkedHashMap<>();
+
+    /**
+     * Whether a flush has already been scheduled for the pending deltas.
+     */
+    private boolean flushScheduled;
+
+    /**
+     * Delay (in milliseconds) before flushing again after a failed flush, reset by a successful
+     * one.
+     */
+    private long retryMillis;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public SaleQueue(Flusher flusher, ScheduledExecutorService executor, long windowMillis) {
+        this.flusher = flusher;
+        this.executor = executor;
+        this.windowMillis = windowMillis;
+        this.retryMillis = windowMillis;
+    }
+
+    /**
+     * Return the app-wide queue, which flushes into {@link ProductRepository} on the thread of
+     * {@link ProductWriter}.
+     */
+    public static synchronized SaleQueue getInstance(Context context) {
+        if (sInstance == null) {
+            final ProductRepository repository = ProductRepository.getInstance(context);
+            Flusher repositoryFlusher = new Flusher() {
+                @Override
+                public void flush(long[] productIds, int[] quantityDeltas) {
+                    repository.applySales(productIds, quantityDeltas);
+                }
+            };
+            sInstance = new SaleQueue(repositoryFlusher,
+                    ProductWriter.getInstance(context).getExecutor(), DEFAULT_WINDOW_MILLIS);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Record the sale of one unit of the given product.
+     */
+    public void recordSale(long productId) {
+        adjust(productId, -1);
+    }
+
+    /**
+     * Add a quantity delta for the given product. The first delta after a flush opens a new
+     * window; every delta recorded until the window closes is written in the same flush.
+     */
+    public synchronized void adjust(long productId, int delta) {
+        Integer pending = pendingDeltas.get(productId);
+        pendingDeltas.put(productId, pending == null ? delta : pending + delta);
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            executor.schedule(flushTask, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Flush the pending deltas right away on the queue's thread, e.g. when the screen goes away.
+     */
+    public void flushNow() {
+        executor.execute(flushTask);
+    }
+
+    /**
+     * Hand all the pending deltas to the {@link Flusher} in one call.
+     */
+    void flush() {
+        long[] productIds;
+        int[] quantityDeltas;
+
+        synchronized (this) {
+            flushScheduled = false;
+            productIds = new long[pendingDeltas.size()];
+            quantityDeltas = new int[pendingDeltas.size()];
+            int i = 0;
+            for (Map.Entry<Long, Integer> entry : pendingDeltas.entrySet()) {
+                // Deltas that cancelled each other out have nothing to write
+                if (entry.getValue() != 0) {
+                    productIds[i] = entry.getKey();
+                    quantityDeltas[i] = entry.getValue();
+                    i++;
+                }
+            }
+            pendingDeltas.clear();
+
+            productIds = Arrays.copyOf(productIds, i);
+            quantityDeltas = Arrays.copyOf(quantityDeltas, i);
+        }
+
+        if (productIds.length > 0) {
+            try {
+                flusher.flush(productIds, quantityDeltas);
+            } catch (RuntimeException e) {
+                // The executor would swallow the exception along with the sales
+                long delayMillis = requeue(productIds, quantityDeltas);
+                Log.e(LOG_TAG, "Failed to flush the sales of " + productIds.length
+                        + " products, flushing them again within " + delayMillis + " ms", e);
+                return;
+            }
+            synchronized (this) {
+                retryMillis = windowMillis;
+            }
+        }
+    }
+
+    /**
+     * Put back the given deltas, whose flush failed, adding them to the ones recorded since, and
+     * schedule a flush after the retry delay, which is then doubled. A window opened meanwhile
+     * flushes them sooner. Return the delay of the flush.
+     */
+    private synchronized long requeue(long[] productIds, int[] quantityDeltas) {
+        for (int i = 0; i < productIds.length; i++) {
+            Integer pending = pendingDeltas.get(productIds[i]);
+            pendingDeltas.put(productIds[i],
+                    pending == null ? quantityDeltas[i] : pending + quantityDeltas[i]);
+        }
+
+        long delayMillis = retryMillis;
+        retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            executor.schedule(flushTask, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        return delayMillis;
+    }
+}
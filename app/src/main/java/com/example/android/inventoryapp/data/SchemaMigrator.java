@@ -0,0 +1,210 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Runs the migrations of the database schema in short transactions, and resumes them after the
+ * process died.
+ * <p>
+ * {@link android.database.sqlite.SQLiteOpenHelper} upgrades the database in a single transaction,
+ * on whichever thread opens it first. {@link ProductDbHelper} only records the migrations to run
+ * there, see {@link #addPending}, and runs them on a background thread once the database is open,
+ * each transaction taking the database lock only for its own length. Each migration is an
+ * ordered list of steps, each committed on its own. A {@link RowStep} migrates the rows of a table
+ * in chunks of rows in ID order, one transaction per chunk. The migrations table records the step
+ * and the last row migrated in the same transaction as the work, so a migration interrupted by
+ * the death of the process resumes after its last committed chunk.
+ */
+
+class SchemaMigrator {
+
+    private static final String SQL_SELECT_PENDING = "SELECT "
+            + ProductDbHelper.COLUMN_MIGRATION_VERSION + ", "
+            + ProductDbHelper.COLUMN_MIGRATION_STEP + ", "
+            + ProductDbHelper.COLUMN_MIGRATION_LAST_ID
+            + " FROM " + ProductDbHelper.MIGRATIONS_TABLE_NAME
+            + " ORDER BY " + ProductDbHelper.COLUMN_MIGRATION_VERSION + " LIMIT 1";
+
+    private final Migration[] migrations;
+
+    /**
+     * Maximum number of rows migrated per transaction.
+     */
+    private final int chunkRows;
+
+    /**
+     * Constructs a runner of the given migrations, in increasing version order.
+     */
+    SchemaMigrator(Migration[] migrations, int chunkRows) {
+        if (chunkRows < 1) {
+            throw new IllegalArgumentException("Chunks require at least one row");
+        }
+        this.migrations = migrations;
+        this.chunkRows = chunkRows;
+    }
+
+    /**
+     * Record the migrations moving the database from the given version, to be run by
+     * {@link #runPending}. Cheap enough for {@code onUpgrade}.
+     */
+    void addPending(SQLiteDatabase db, int oldVersion) {
+        for (Migration migration : migrations) {
+            if (migration.version > oldVersion) {
+                saveProgress(db, migration.version, 0, 0);
+            }
+        }
+    }
+
+    /**
+     * Return whether migrations are left to run.
+     */
+    boolean hasPending(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, ProductDbHelper.MIGRATIONS_TABLE_NAME) > 0;
+    }
+
+    /**
+     * Run the pending migrations to completion.
+     */
+    void runPending(SQLiteDatabase db) {
+        while (runNextTransaction(db)) {
+            // Each transaction commits its progress
+        }
+    }
+
+    /**
+     * Run the next transaction of the first pending migration: one of its steps, or a chunk of
+     * the rows of a {@link RowStep}. Return false if no migration is pending.
+     */
+    boolean runNextTransaction(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            int version;
+            int stepIndex;
+            long lastId;
+            Cursor cursor = db.rawQuery(SQL_SELECT_PENDING, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return false;
+                }
+                version = cursor.getInt(0);
+                stepIndex = cursor.getInt(1);
+                lastId = cursor.getLong(2);
+            } finally {
+                cursor.close();
+            }
+
+            Step[] steps = getMigration(version).steps;
+            if (stepIndex == steps.length) {
+                // Every step is committed, the migration is complete
+                db.delete(ProductDbHelper.MIGRATIONS_TABLE_NAME,
+                        ProductDbHelper.COLUMN_MIGRATION_VERSION + " = ?",
+                        new String[]{String.valueOf(version)});
+            } else if (steps[stepIndex] instanceof RowStep) {
+                RowStep step = (RowStep) steps[stepIndex];
+                Long chunkLastId = findChunkLastId(db, step.tableName, lastId);
+                if (chunkLastId == null) {
+                    saveProgress(db, version, stepIndex + 1, 0);
+                } else {
+                    step.run(db, lastId, chunkLastId);
+                    saveProgress(db, version, stepIndex, chunkLastId);
+                }
+            } else {
+                steps[stepIndex].run(db);
+                saveProgress(db, version, stepIndex + 1, 0);
+            }
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private Migration getMigration(int version) {
+        for (Migration migration : migrations) {
+            if (migration.version == version) {
+                return migration;
+            }
+        }
+        throw new IllegalStateException("No migration to version " + version);
+    }
+
+    /**
+     * Return the ID of the last row of the chunk following the given ID in the given table, or
+     * null if no row follows it.
+     */
+    private Long findChunkLastId(SQLiteDatabase db, String tableName, long lastId) {
+        Cursor cursor = db.rawQuery("SELECT MAX(_id) FROM (SELECT _id FROM " + tableName
+                        + " WHERE _id > ? ORDER BY _id LIMIT " + chunkRows + ")",
+                new String[]{String.valueOf(lastId)});
+        try {
+            // MAX gives NULL over no row at all
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void saveProgress(SQLiteDatabase db, int version, int stepIndex, long lastId) {
+        ContentValues values = new ContentValues();
+        values.put(ProductDbHelper.COLUMN_MIGRATION_VERSION, version);
+        values.put(ProductDbHelper.COLUMN_MIGRATION_STEP, stepIndex);
+        values.put(ProductDbHelper.COLUMN_MIGRATION_LAST_ID, lastId);
+        db.insertWithOnConflict(ProductDbHelper.MIGRATIONS_TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * The steps moving the database to a version.
+     */
+    static final class Migration {
+        final int version;
+        private final Step[] steps;
+
+        Migration(int version, Step... steps) {
+            this.version = version;
+            this.steps = steps;
+        }
+    }
+
+    /**
+     * A step of a migration, run in a transaction of its own. Runs its SQL statements unless
+     * overridden.
+     */
+    static class Step {
+        final String[] statements;
+
+        Step(String... statements) {
+            this.statements = statements;
+        }
+
+        void run(SQLiteDatabase db) {
+            for (String statement : statements) {
+                db.execSQL(statement);
+            }
+        }
+    }
+
+    /**
+     * A step migrating the rows of a table in chunks. Its statements are run on each chunk, with
+     * the ID the chunk starts after and the ID of its last row bound as their two arguments, as in
+     * {@code _id > ? AND _id <= ?}. Row IDs are positive, so the first chunk starts after 0.
+     */
+    static final class RowStep extends Step {
+        private final String tableName;
+
+        RowStep(String tableName, String... statements) {
+            super(statements);
+            this.tableName = tableName;
+        }
+
+        void run(SQLiteDatabase db, long afterId, long lastId) {
+            Object[] bindArgs = {afterId, lastId};
+            for (String statement : statements) {
+                db.execSQL(statement, bindArgs);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.inventoryapp.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the product IDs of the SKUs looked up lately, so a burst of barcode scans at
+ * the counter is answered from memory.
+ * <p>
+ * The least recently used SKUs are dropped beyond the maximum size. Writes that may remove or
+ * reassign a SKU {@link #invalidate() invalidate} the whole cache; quantity changes, which make
+ * the bulk of the writes, leave it alone. Unknown SKUs are not cached, so inserting a product
+ * never needs to touch it. An ID read from the database is only cached if no invalidation
+ * happened since the read started, see {@link #generation()}.
+ */
+
+class SkuCache {
+
+    private final Map<String, Long> ids;
+
+    /**
+     * Incremented by each invalidation.
+     */
+    private long generation;
+
+    SkuCache(final int maxSize) {
+        ids = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Return the ID cached for the given SKU, or -1 if there is none.
+     */
+    synchronized long get(String sku) {
+        Long id = ids.get(sku);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Return the current generation, to pass to {@link #put} once the ID is read.
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Cache the ID of the given SKU, read from the database while the cache was at the given
+     * generation. The ID is dropped if the cache was invalidated meanwhile, as it may be stale.
+     */
+    synchronized void put(String sku, long id, long readGeneration) {
+        if (readGeneration == generation) {
+            ids.put(sku, id);
+        }
+    }
+
+    /**
+     * Forget every cached SKU.
+     */
+    synchronized void invalidate() {
+        ids.clear();
+        generation++;
+    }
+
+    synchronized int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,810 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synchronizes the products of this device with a server shared by several devices, exchanging
+ * only the changes made since the last sync.
+ * <p>
+ * Every local change is stamped with a sequence number by the triggers of
+ * {@link ProductDbHelper}, and every product has a random sync ID shared by all the devices. A
+ * sync first pulls the server changes after its cursor, then pushes the local changes after the
+ * last pushed sequence number, each by bounded batches. The name, price, supplier, picture and
+ * SKU are resolved by the last push reaching the server, except that a pulled change doesn't
+ * overwrite local changes still to push. Quantities are pushed as the sum of the local changes
+ * since the last push, which the server adds to its own quantity, so sales made on two devices
+ * at the same time both count. A deletion wins over concurrent changes.
+ * <p>
+ * The server exposes {@code GET <url>/changes?since=<cursor>&limit=<n>}, answering
+ * {@code {"cursor": c, "more": b, "changes": [product...], "deleted": [id...]}}, and
+ * {@code POST <url>/changes} taking {@code {"device": d, "batch": b, "cursor": c,
+ * "changes": [change...], "deleted": [id...]}} and answering {@code {"cursor": c}}. A pushed
+ * change holds the ID, the quantity delta if any and the other columns if they changed. The
+ * server ignores a batch number it already applied for the device. A batch is kept in the
+ * database as it was sent until its answer is received, and the next sync resends it before
+ * anything else, so a push whose answer was lost doesn't count its deltas twice, even when more
+ * sales were made in the meantime. The server answers with the cursor after the push if the
+ * given cursor was its latest, or the given cursor otherwise, and the sync then pulls again.
+ * <p>
+ * Failed requests are retried with an exponential backoff. A pulled change this device can't
+ * store, e.g. whose SKU is taken by another local product, fails the sync without moving past
+ * it, so no change is lost; the sync goes on once the conflict is solved. Must be used from a
+ * background thread.
+ */
+
+public class SyncEngine {
+
+    /**
+     * Tag for the log messages.
+     */
+    private static final String LOG_TAG = SyncEngine.class.getSimpleName();
+
+    /**
+     * Number of local changes pushed per request.
+     */
+    static final int PUSH_BATCH_SIZE = 200;
+
+    /**
+     * Number of server changes pulled per request.
+     */
+    static final int PULL_PAGE_SIZE = 500;
+
+    /**
+     * Number of attempts of a request before the sync gives up.
+     */
+    static final int MAX_ATTEMPTS = 5;
+
+    /**
+     * Delay (in milliseconds) before retrying a failed request, doubled after each failure.
+     */
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60 * 1000;
+
+    /**
+     * Connect and read timeout (in milliseconds) of a request.
+     */
+    private static final int TIMEOUT_MILLIS = 15 * 1000;
+
+    /**
+     * Keys of the JSON messages.
+     */
+    private static final String KEY_CURSOR = "cursor";
+    private static final String KEY_MORE = "more";
+    private static final String KEY_CHANGES = "changes";
+    private static final String KEY_DELETED = "deleted";
+    private static final String KEY_DEVICE = "device";
+    private static final String KEY_BATCH = "batch";
+    private static final String KEY_ID = "id";
+    private static final String KEY_DELTA = "delta";
+
+    /**
+     * Product columns exchanged with the server besides the quantity, in the order they are read
+     * from the database.
+     */
+    private static final String[] FIELDS = {
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER,
+            ProductEntry.COLUMN_PRODUCT_PICTURE,
+            ProductEntry.COLUMN_PRODUCT_SKU};
+
+    private static final int PRICE_FIELD = 1;
+    private static final int SUPPLIER_FIELD = 2;
+
+    /**
+     * Query of the next local changes to push, deletions included, in sequence order. The columns
+     * are the sequence number, the sync ID, whether it is a deletion, the quantity delta, whether
+     * the {@link #FIELDS} changed, then the fields.
+     */
+    private static final String SQL_SELECT_CHANGES = "SELECT "
+            + ProductDbHelper.COLUMN_CHANGE_SEQ + ", " + ProductDbHelper.COLUMN_SYNC_ID + ", 0, "
+            + ProductDbHelper.COLUMN_QUANTITY_DELTA + ", " + ProductDbHelper.COLUMN_FIELDS_CHANGED
+            + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE
+            + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER + ", " + ProductEntry.COLUMN_PRODUCT_PICTURE
+            + ", " + ProductEntry.COLUMN_PRODUCT_SKU
+            + " FROM " + ProductDbHelper.PRODUCTS_VIEW_NAME
+            + " WHERE " + ProductDbHelper.COLUMN_CHANGE_SEQ + " > ?"
+            + " UNION ALL SELECT " + ProductDbHelper.COLUMN_CHANGE_SEQ + ", "
+            + ProductDbHelper.COLUMN_SYNC_ID + ", 1, 0, 0, NULL, NULL, NULL, NULL, NULL"
+            + " FROM " + ProductDbHelper.TOMBSTONES_TABLE_NAME
+            + " WHERE " + ProductDbHelper.COLUMN_CHANGE_SEQ + " > ?"
+            + " ORDER BY 1 LIMIT " + PUSH_BATCH_SIZE;
+
+    /**
+     * Statement keeping the next local changes to push as the batch in flight.
+     */
+    private static final String SQL_STAGE_CHANGES = "INSERT INTO "
+            + ProductDbHelper.PUSH_TABLE_NAME + " " + SQL_SELECT_CHANGES;
+
+    /**
+     * Query of the batch in flight, with the columns of {@link #SQL_SELECT_CHANGES}.
+     */
+    private static final String SQL_SELECT_STAGED_CHANGES = "SELECT "
+            + ProductDbHelper.COLUMN_CHANGE_SEQ + ", " + ProductDbHelper.COLUMN_SYNC_ID + ", "
+            + ProductDbHelper.COLUMN_PUSH_DELETED + ", " + ProductDbHelper.COLUMN_QUANTITY_DELTA
+            + ", " + ProductDbHelper.COLUMN_FIELDS_CHANGED
+            + ", " + ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_PRICE
+            + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER + ", " + ProductEntry.COLUMN_PRODUCT_PICTURE
+            + ", " + ProductEntry.COLUMN_PRODUCT_SKU
+            + " FROM " + ProductDbHelper.PUSH_TABLE_NAME
+            + " ORDER BY " + ProductDbHelper.COLUMN_CHANGE_SEQ;
+
+    /**
+     * Statement applying a pulled product to the local one. The quantity becomes the server
+     * quantity plus the local changes not pushed yet, and the other columns are only taken when
+     * they have no local change to push. The supplier is bound as its email, and must exist.
+     */
+    private static final String SQL_APPLY_PRODUCT = "UPDATE " + ProductEntry.TABLE_NAME + " SET "
+            + ProductEntry.COLUMN_PRODUCT_QTY + " = ? + " + ProductDbHelper.COLUMN_QUANTITY_DELTA
+            + buildKeepLocalChange(ProductEntry.COLUMN_PRODUCT_NAME)
+            + buildKeepLocalChange(ProductEntry.COLUMN_PRODUCT_PRICE)
+            + buildKeepLocalChange(ProductDbHelper.COLUMN_SUPPLIER_ID,
+                    ProductDbHelper.SUPPLIER_ID_OF_EMAIL)
+            + buildKeepLocalChange(ProductEntry.COLUMN_PRODUCT_PICTURE)
+            + buildKeepLocalChange(ProductEntry.COLUMN_PRODUCT_SKU)
+            + " WHERE " + ProductDbHelper.COLUMN_SYNC_ID + " = ?";
+
+    /**
+     * Statement acknowledging a pushed product: the pushed delta is no longer pending, and nor are
+     * the other columns unless they changed again since they were read.
+     */
+    private static final String SQL_ACKNOWLEDGE_PRODUCT = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductDbHelper.COLUMN_QUANTITY_DELTA + " = "
+            + ProductDbHelper.COLUMN_QUANTITY_DELTA + " - ?, "
+            + ProductDbHelper.COLUMN_FIELDS_CHANGED + " = " + ProductDbHelper.COLUMN_FIELDS_CHANGED
+            + " AND " + ProductDbHelper.COLUMN_CHANGE_SEQ + " != ?"
+            + " WHERE " + ProductDbHelper.COLUMN_SYNC_ID + " = ?";
+
+    /**
+     * Totals of a sync.
+     */
+    public static final class Result {
+        private final long rowsPushed;
+        private final long rowsPulled;
+        private final long bytesSent;
+        private final long bytesReceived;
+
+        Result(long rowsPushed, long rowsPulled, long bytesSent, long bytesReceived) {
+            this.rowsPushed = rowsPushed;
+            this.rowsPulled = rowsPulled;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+        }
+
+        /**
+         * Return the number of local changes and deletions pushed.
+         */
+        public long getRowsPushed() {
+            return rowsPushed;
+        }
+
+        /**
+         * Return the number of server changes and deletions pulled.
+         */
+        public long getRowsPulled() {
+            return rowsPulled;
+        }
+
+        /**
+         * Return the number of bytes of the request bodies, headers not included.
+         */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        /**
+         * Return the number of bytes of the response bodies, headers not included.
+         */
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+    }
+
+    /**
+     * A product change pulled from the server.
+     */
+    private static final class PulledProduct {
+        String syncId;
+        int quantity;
+        final String[] fields = new String[FIELDS.length];
+    }
+
+    /**
+     * A batch of local changes read for a push, with what is needed to acknowledge it.
+     */
+    private static final class PushBatch {
+        long lastSeq;
+        byte[] body;
+        final List<String> syncIds = new ArrayList<>();
+        final List<Long> seqs = new ArrayList<>();
+        final List<Integer> deltas = new ArrayList<>();
+        final List<String> deletedSyncIds = new ArrayList<>();
+
+        int size() {
+            return syncIds.size() + deletedSyncIds.size();
+        }
+    }
+
+    /**
+     * Error status answered by the server.
+     */
+    static final class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpStatusException(int status, String url) {
+            super("Server answered " + status + " to " + url);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Pulled change rejected by the constraints of the local database.
+     */
+    static final class RejectedChangeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final String syncId;
+
+        RejectedChangeException(String syncId, Throwable cause) {
+            super("Pulled product " + syncId + " was rejected", cause);
+            this.syncId = syncId;
+        }
+    }
+
+    private final Context context;
+
+    private final ProductDbHelper dbHelper;
+
+    /**
+     * URL of the sync resource of the server, without trailing slash.
+     */
+    private final String serverUrl;
+
+    private final long initialBackoffMillis;
+
+    private final Random random = new Random();
+
+    /**
+     * Sizes of the request and response bodies of the running sync.
+     */
+    private long bytesSent;
+    private long bytesReceived;
+
+    public SyncEngine(Context context, String serverUrl) {
+        this(context, ProductDbHelper.getInstance(context), serverUrl, INITIAL_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Constructs an engine syncing the database of the given helper, retrying after the given
+     * delay at first.
+     */
+    SyncEngine(Context context, ProductDbHelper dbHelper, String serverUrl,
+               long initialBackoffMillis) {
+        this.context = context.getApplicationContext();
+        this.dbHelper = dbHelper;
+        this.serverUrl = serverUrl;
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Pull the server changes and push the local ones. Whatever was committed before a failure
+     * is kept, and the next sync goes on from there.
+     *
+     * @throws IOException if a request still fails after {@link #MAX_ATTEMPTS} attempts, or
+     *                     a {@link RejectedChangeException} if a pulled change can't be stored.
+     */
+    public synchronized Result sync() throws IOException {
+        bytesSent = 0;
+        bytesReceived = 0;
+        long rowsPulled = 0;
+        long rowsPushed = 0;
+        try {
+            // A batch left without an answer goes first: the server may have applied it, and the
+            // pulled quantities would then count its deltas twice
+            PushBatch inFlight = readState()[2] != 0 ? readPushBatch() : null;
+            if (inFlight != null) {
+                rowsPushed += inFlight.size();
+                push(inFlight);
+            }
+
+            rowsPulled += pull();
+
+            // Push the local changes, pulling again if other devices pushed in the meantime
+            boolean behind = false;
+            PushBatch batch;
+            while ((batch = readPushBatch()) != null) {
+                rowsPushed += batch.size();
+                behind |= !push(batch);
+            }
+            if (behind) {
+                rowsPulled += pull();
+            }
+        } finally {
+            if (rowsPulled > 0) {
+                // Pulled changes may have given or taken SKUs, and the lists must be refreshed
+                ProductRepository.getInstance(context).invalidateSkus();
+                context.getContentResolver().notifyChange(ProductEntry.CONTENT_URI, null);
+            }
+        }
+        return new Result(rowsPushed, rowsPulled, bytesSent, bytesReceived);
+    }
+
+    /**
+     * Pull the server changes page by page, each page committed with the cursor following it.
+     * Return the number of changes applied.
+     */
+    private long pull() throws IOException {
+        long rowsPulled = 0;
+        boolean more = true;
+        while (more) {
+            // A page without "more" is the last one
+            more = false;
+            long cursor = readState()[1];
+            byte[] response = request("GET", serverUrl + "/" + KEY_CHANGES + "?since=" + cursor
+                    + "&limit=" + PULL_PAGE_SIZE, null);
+
+            List<PulledProduct> products = new ArrayList<>();
+            List<String> deletedSyncIds = new ArrayList<>();
+            JsonReader reader = new JsonReader(
+                    new InputStreamReader(new ByteArrayInputStream(response), "UTF-8"));
+            try {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals(KEY_CURSOR)) {
+                        cursor = reader.nextLong();
+                    } else if (name.equals(KEY_MORE)) {
+                        more = reader.nextBoolean();
+                    } else if (name.equals(KEY_CHANGES)) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            products.add(readProduct(reader));
+                        }
+                        reader.endArray();
+                    } else if (name.equals(KEY_DELETED)) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            deletedSyncIds.add(reader.nextString());
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } finally {
+                reader.close();
+            }
+
+            applyPage(products, deletedSyncIds, cursor);
+            rowsPulled += products.size() + deletedSyncIds.size();
+        }
+        return rowsPulled;
+    }
+
+    private static PulledProduct readProduct(JsonReader reader) throws IOException {
+        PulledProduct product = new PulledProduct();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (name.equals(KEY_ID)) {
+                product.syncId = reader.nextString();
+            } else if (name.equals(ProductEntry.COLUMN_PRODUCT_QTY)) {
+                product.quantity = reader.nextInt();
+            } else {
+                int field = indexOfField(name);
+                if (field == -1) {
+                    reader.skipValue();
+                } else {
+                    product.fields[field] = reader.nextString();
+                }
+            }
+        }
+        reader.endObject();
+        return product;
+    }
+
+    private static int indexOfField(String name) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Write a page of pulled changes and the cursor following it, in one transaction. The sync
+     * triggers are turned off meanwhile, as these are not local changes.
+     *
+     * @throws RejectedChangeException if a change can't be stored, in which case nothing of the
+     *                                 page is, and the cursor stays before it.
+     */
+    private void applyPage(List<PulledProduct> products, List<String> deletedSyncIds,
+                           long cursor) throws RejectedChangeException {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            setApplying(database, true);
+
+            SQLiteStatement update = database.compileStatement(SQL_APPLY_PRODUCT);
+            try {
+                for (PulledProduct product : products) {
+                    applyProduct(database, update, product);
+                }
+            } finally {
+                update.close();
+            }
+
+            for (String syncId : deletedSyncIds) {
+                database.delete(ProductEntry.TABLE_NAME, ProductDbHelper.COLUMN_SYNC_ID + " = ?",
+                        new String[]{syncId});
+            }
+
+            ContentValues state = new ContentValues();
+            state.put(ProductDbHelper.COLUMN_SYNC_CURSOR, cursor);
+            database.update(ProductDbHelper.SYNC_STATE_TABLE_NAME, state, null, null);
+
+            setApplying(database, false);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        dbHelper.bumpWriteGeneration();
+    }
+
+    /**
+     * Update the local product with the pulled one, or insert it if it is new to this device.
+     */
+    private static void applyProduct(SQLiteDatabase database, SQLiteStatement update,
+                                     PulledProduct product) throws RejectedChangeException {
+        // The pulled supplier may be new to this device
+        if (product.fields[SUPPLIER_FIELD] != null) {
+            ProductDbHelper.insertSupplier(database, product.fields[SUPPLIER_FIELD]);
+        }
+
+        update.clearBindings();
+        update.bindLong(1, product.quantity);
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (product.fields[i] != null) {
+                update.bindString(2 + i, product.fields[i]);
+            }
+        }
+        update.bindString(2 + FIELDS.length, product.syncId);
+
+        try {
+            if (update.executeUpdateDelete() > 0) {
+                return;
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(ProductDbHelper.COLUMN_SYNC_ID, product.syncId);
+            values.put(ProductEntry.COLUMN_PRODUCT_QTY, product.quantity);
+            for (int i = 0; i < FIELDS.length; i++) {
+                values.put(FIELDS[i], product.fields[i]);
+            }
+            database.insertOrThrow(ProductEntry.TABLE_NAME, null,
+                    ProductDbHelper.toTableValues(database, values));
+        } catch (SQLiteConstraintException e) {
+            // Missing columns, or a SKU already used by another product of this device. Skipping
+            // the change would lose it for good, as the cursor moves past it with the page.
+            throw new RejectedChangeException(product.syncId, e);
+        }
+    }
+
+    private static void setApplying(SQLiteDatabase database, boolean applying) {
+        ContentValues state = new ContentValues();
+        state.put(ProductDbHelper.COLUMN_SYNC_APPLYING, applying ? 1 : 0);
+        database.update(ProductDbHelper.SYNC_STATE_TABLE_NAME, state, null, null);
+    }
+
+    /**
+     * Read the batch in flight, or else keep the next local changes as the batch in flight, and
+     * build its request. Return null if every change was pushed.
+     */
+    private PushBatch readPushBatch() throws IOException {
+        long[] state = readState();
+        if (state[2] == 0 && stagePushBatch(state[0]) == 0) {
+            return null;
+        }
+
+        PushBatch batch = new PushBatch();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(body, "UTF-8"));
+        writer.beginObject();
+        writer.name(KEY_CHANGES).beginArray();
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery(SQL_SELECT_STAGED_CHANGES, null);
+        try {
+            while (cursor.moveToNext()) {
+                batch.lastSeq = cursor.getLong(0);
+                String syncId = cursor.getString(1);
+                if (cursor.getInt(2) != 0) {
+                    batch.deletedSyncIds.add(syncId);
+                    continue;
+                }
+
+                int delta = cursor.getInt(3);
+                batch.syncIds.add(syncId);
+                batch.seqs.add(batch.lastSeq);
+                batch.deltas.add(delta);
+
+                writer.beginObject();
+                writer.name(KEY_ID).value(syncId);
+                if (delta != 0) {
+                    writer.name(KEY_DELTA).value(delta);
+                }
+                if (cursor.getInt(4) != 0) {
+                    for (int i = 0; i < FIELDS.length; i++) {
+                        int column = 5 + i;
+                        writer.name(FIELDS[i]);
+                        if (cursor.isNull(column)) {
+                            writer.nullValue();
+                        } else if (i == PRICE_FIELD) {
+                            // Written as a float, the precision prices are entered with
+                            writer.value(Float.valueOf(cursor.getFloat(column)));
+                        } else {
+                            writer.value(cursor.getString(column));
+                        }
+                    }
+                }
+                writer.endObject();
+            }
+        } finally {
+            cursor.close();
+        }
+        writer.endArray();
+
+        if (batch.size() == 0) {
+            return null;
+        }
+
+        writer.name(KEY_DELETED).beginArray();
+        for (String syncId : batch.deletedSyncIds) {
+            writer.value(syncId);
+        }
+        writer.endArray();
+        writer.name(KEY_DEVICE).value(readDeviceId());
+        writer.name(KEY_BATCH).value(batch.lastSeq);
+        writer.name(KEY_CURSOR).value(state[1]);
+        writer.endObject();
+        writer.close();
+        batch.body = body.toByteArray();
+        return batch;
+    }
+
+    /**
+     * Copy the local changes after the given sequence number to the push table, at most a batch
+     * of them, and record the batch in flight. Return its number, the last sequence number it
+     * holds, or 0 if there is no change to push.
+     */
+    private long stagePushBatch(long pushedSeq) {
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            database.execSQL(SQL_STAGE_CHANGES, new Object[]{pushedSeq, pushedSeq});
+            long lastSeq = DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX("
+                    + ProductDbHelper.COLUMN_CHANGE_SEQ + "), 0) FROM "
+                    + ProductDbHelper.PUSH_TABLE_NAME, null);
+
+            ContentValues state = new ContentValues();
+            state.put(ProductDbHelper.COLUMN_SYNC_PUSH_BATCH, lastSeq);
+            database.update(ProductDbHelper.SYNC_STATE_TABLE_NAME, state, null, null);
+
+            database.setTransactionSuccessful();
+            return lastSeq;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Push a batch of local changes and acknowledge them, in one transaction with the cursor
+     * answered by the server. Return whether the server was caught up with, that is whether no
+     * other device pushed changes this device hasn't pulled.
+     */
+    private boolean push(PushBatch batch) throws IOException {
+        long cursor = readState()[1];
+        byte[] response = request("POST", serverUrl + "/" + KEY_CHANGES, batch.body);
+
+        long newCursor = cursor;
+        JsonReader reader = new JsonReader(
+                new InputStreamReader(new ByteArrayInputStream(response), "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals(KEY_CURSOR)) {
+                    newCursor = reader.nextLong();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            SQLiteStatement acknowledge = database.compileStatement(SQL_ACKNOWLEDGE_PRODUCT);
+            try {
+                for (int i = 0; i < batch.syncIds.size(); i++) {
+                    acknowledge.bindLong(1, batch.deltas.get(i));
+                    acknowledge.bindLong(2, batch.seqs.get(i));
+                    acknowledge.bindString(3, batch.syncIds.get(i));
+                    acknowledge.executeUpdateDelete();
+                }
+            } finally {
+                acknowledge.close();
+            }
+
+            database.delete(ProductDbHelper.TOMBSTONES_TABLE_NAME,
+                    ProductDbHelper.COLUMN_CHANGE_SEQ + " <= ?",
+                    new String[]{String.valueOf(batch.lastSeq)});
+            database.delete(ProductDbHelper.PUSH_TABLE_NAME, null, null);
+
+            ContentValues state = new ContentValues();
+            state.put(ProductDbHelper.COLUMN_SYNC_PUSHED_SEQ, batch.lastSeq);
+            state.put(ProductDbHelper.COLUMN_SYNC_PUSH_BATCH, 0);
+            state.put(ProductDbHelper.COLUMN_SYNC_CURSOR, newCursor);
+            database.update(ProductDbHelper.SYNC_STATE_TABLE_NAME, state, null, null);
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        // The acknowledged rows changed their pending deltas
+        dbHelper.bumpWriteGeneration();
+        return newCursor != cursor;
+    }
+
+    /**
+     * Return the last pushed sequence number, the server cursor and the number of the batch in
+     * flight, or 0 if there is none.
+     */
+    private long[] readState() {
+        Cursor cursor = dbHelper.getReadableDatabase().query(ProductDbHelper.SYNC_STATE_TABLE_NAME,
+                new String[]{ProductDbHelper.COLUMN_SYNC_PUSHED_SEQ, ProductDbHelper.COLUMN_SYNC_CURSOR,
+                        ProductDbHelper.COLUMN_SYNC_PUSH_BATCH},
+                null, null, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return new long[]{cursor.getLong(0), cursor.getLong(1), cursor.getLong(2)};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String readDeviceId() {
+        Cursor cursor = dbHelper.getReadableDatabase().query(ProductDbHelper.SYNC_STATE_TABLE_NAME,
+                new String[]{ProductDbHelper.COLUMN_SYNC_DEVICE_ID}, null, null, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Send a request and return the body of the response, retrying with an exponential backoff
+     * after network errors and server errors. Client errors are not retried.
+     */
+    private byte[] request(String method, String url, byte[] body) throws IOException {
+        long backoffMillis = initialBackoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Sync interrupted");
+            }
+            try {
+                return execute(method, url, body);
+            } catch (IOException e) {
+                boolean retryable = !(e instanceof HttpStatusException)
+                        || ((HttpStatusException) e).status >= 500
+                        || ((HttpStatusException) e).status == 429;
+                if (attempt == MAX_ATTEMPTS || !retryable) {
+                    throw e;
+                }
+                Log.w(LOG_TAG, "Sync request failed, attempt " + attempt, e);
+            }
+
+            // Random jitter keeps the devices from retrying all at once
+            try {
+                Thread.sleep(backoffMillis + (long) (random.nextDouble() * backoffMillis / 2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Sync interrupted");
+            }
+            backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private byte[] execute(String method, String url, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            if (body != null) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                connection.setRequestProperty("Content-Type", "application/json");
+                OutputStream output = connection.getOutputStream();
+                try {
+                    output.write(body);
+                } finally {
+                    output.close();
+                }
+                bytesSent += body.length;
+            }
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException(status, url);
+            }
+
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream input = connection.getInputStream();
+            try {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    response.write(buffer, 0, count);
+                }
+            } finally {
+                input.close();
+            }
+            bytesReceived += response.size();
+            return response.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Return the part of {@link #SQL_APPLY_PRODUCT} taking the pulled value of the given column
+     * unless the local one changed.
+     */
+    private static String buildKeepLocalChange(String column) {
+        return buildKeepLocalChange(column, "?");
+    }
+
+    /**
+     * Return the part of {@link #SQL_APPLY_PRODUCT} taking the given expression of the pulled
+     * value for the given column unless the local one changed.
+     */
+    private static String buildKeepLocalChange(String column, String pulledValue) {
+        return ", " + column + " = CASE WHEN " + ProductDbHelper.COLUMN_FIELDS_CHANGED
+                + " THEN " + column + " ELSE " + pulledValue + " END";
+    }
+}
@@ -0,0 +1,427 @@
+package com.example.android.inventoryapp.image;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.ImageView;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads product pictures into image views.
+ * <p>
+ * Pictures are decoded on a small background pool, downscaled to the size of the view. Decoded
+ * bitmaps are kept in a memory cache keyed by picture URI and size, and their downscaled version is
+ * written to a disk cache, so showing a picture again costs no decoding, or at worst the decoding of
+ * a small thumbnail. A request is cancelled when its view is detached or reused for another
+ * picture. Must be called from the main thread.
+ * <p>
+ * Bitmaps evicted from the memory cache are decoded into again, but only once no attached view
+ * shows them, see {@link ReusePool}. A view attached again after its bitmap was reused loads its
+ * picture again.
+ */
+
+public class ImageLoader {
+
+    private static final String LOG_TAG = ImageLoader.class.getSimpleName();
+
+    /**
+     * Number of threads decoding pictures.
+     */
+    private static final int DECODER_THREADS = 2;
+
+    /**
+     * Maximum size of the thumbnails kept on disk.
+     */
+    private static final long DISK_CACHE_BYTES = 20 * 1024 * 1024;
+
+    /**
+     * Bytes read ahead when decoding the bounds of a picture, so the same stream can be used to
+     * decode the picture itself.
+     */
+    private static final int BOUNDS_READ_LIMIT = 64 * 1024;
+
+    private static ImageLoader sInstance;
+
+    private final ContentResolver contentResolver;
+
+    private final ExecutorService decoder = Executors.newFixedThreadPool(DECODER_THREADS);
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final LruCache<String, Bitmap> memoryCache;
+
+    private final ThumbnailDiskCache diskCache;
+
+    /**
+     * Bitmaps evicted from the memory cache, which can be decoded into again once no view shows
+     * them.
+     */
+    private final ReusePool<Bitmap> reusableBitmaps = new ReusePool<Bitmap>() {
+        @Override
+        boolean isReusable(Bitmap bitmap) {
+            return bitmap.isMutable() && !bitmap.isRecycled();
+        }
+
+        @TargetApi(Build.VERSION_CODES.KITKAT)
+        @Override
+        int getByteCount(Bitmap bitmap) {
+            return bitmap.getAllocationByteCount();
+        }
+    };
+
+    /**
+     * Request currently running for each view.
+     */
+    private final Map<ImageView, Request> requests = new WeakHashMap<>();
+
+    /**
+     * Bitmap shown by each view.
+     */
+    private final Map<ImageView, Shown> shown = new WeakHashMap<>();
+
+    private ImageLoader(Context context) {
+        contentResolver = context.getContentResolver();
+        diskCache = new ThumbnailDiskCache(new File(context.getCacheDir(), "thumbnails"),
+                DISK_CACHE_BYTES);
+
+        // Use an eighth of the memory available to the app for the memory cache
+        int memoryCacheBytes = (int) (Runtime.getRuntime().maxMemory() / 8);
+        memoryCache = new LruCache<String, Bitmap>(memoryCacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                                        Bitmap newValue) {
+                if (evicted && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    reusableBitmaps.evict(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Return the loader shared by the whole app.
+     */
+    public static synchronized ImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Show the picture at the given URI in the view, downscaled to the size of the view. If the
+     * view hasn't been laid out yet, the picture is loaded once it has.
+     */
+    public void load(final Uri uri, final ImageView view) {
+        cancel(view);
+
+        // sanity check
+        if (uri == null || uri.toString().isEmpty()) {
+            return;
+        }
+
+        // Wait for the view to know its size, unless another picture is requested meanwhile
+        if (view.getWidth() == 0 || view.getHeight() == 0) {
+            final Request waiting = new Request();
+            requests.put(view, waiting);
+            view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    view.getViewTreeObserver().removeOnPreDrawListener(this);
+                    if (requests.get(view) == waiting && view.getWidth() > 0 && view.getHeight() > 0) {
+                        load(uri, view);
+                    }
+                    return true;
+                }
+            });
+            return;
+        }
+
+        // A picture already decoded at this size is shown right away
+        final String key = uri + "@" + view.getWidth() + "x" + view.getHeight();
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null && show(view, uri, cached)) {
+            return;
+        }
+
+        final Request request = new Request();
+        final int width = view.getWidth();
+        final int height = view.getHeight();
+        request.future = decoder.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (request.cancelled) {
+                    return;
+                }
+                final Bitmap bitmap = loadBitmap(key, uri, width, height);
+                if (bitmap == null) {
+                    return;
+                }
+                // Keep the bitmap from reuse until it's shown, even if it's evicted meanwhile
+                reusableBitmaps.retain(bitmap);
+                memoryCache.put(key, bitmap);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!request.cancelled && requests.get(view) == request) {
+                            requests.remove(view);
+                            view.removeOnAttachStateChangeListener(request);
+                            show(view, uri, bitmap);
+                        }
+                        reusableBitmaps.release(bitmap);
+                    }
+                });
+            }
+        });
+        requests.put(view, request);
+        view.addOnAttachStateChangeListener(request);
+    }
+
+    /**
+     * Cancel the request running for the given view, if any.
+     */
+    public void cancel(ImageView view) {
+        Request request = requests.remove(view);
+        if (request != null) {
+            request.cancelled = true;
+            if (request.future != null) {
+                request.future.cancel(false);
+            }
+            view.removeOnAttachStateChangeListener(request);
+        }
+    }
+
+    /**
+     * Show the given bitmap of the picture at the given URI in the view, keeping it from reuse
+     * while the view is attached. Return false if the bitmap was already handed out for reuse.
+     */
+    private boolean show(ImageView view, Uri uri, Bitmap bitmap) {
+        Shown bitmapShown = new Shown(uri, bitmap);
+        if (isAttached(view)) {
+            if (!reusableBitmaps.retain(bitmap)) {
+                return false;
+            }
+            bitmapShown.retained = true;
+        }
+        clear(view);
+        shown.put(view, bitmapShown);
+        view.addOnAttachStateChangeListener(bitmapShown);
+        view.setImageBitmap(bitmap);
+        return true;
+    }
+
+    /**
+     * Stop tracking the bitmap shown by the given view, if any, releasing it for reuse.
+     */
+    private void clear(ImageView view) {
+        Shown bitmapShown = shown.remove(view);
+        if (bitmapShown != null) {
+            view.removeOnAttachStateChangeListener(bitmapShown);
+            bitmapShown.release();
+        }
+    }
+
+    private static boolean isAttached(View view) {
+        return view.getWindowToken() != null;
+    }
+
+    /**
+     * Return the picture downscaled to the given size, from the disk cache if it's there or
+     * decoded from the picture itself otherwise. Runs on the decoder threads.
+     */
+    private Bitmap loadBitmap(String key, Uri uri, int width, int height) {
+        BitmapFactory.Options thumbnailOptions = new BitmapFactory.Options();
+        thumbnailOptions.inMutable = true;
+        Bitmap bitmap = diskCache.get(key, thumbnailOptions);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        bitmap = decodeSampledBitmap(uri, width, height);
+        if (bitmap != null) {
+            diskCache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decode the picture at the given URI with the largest power of two sample size which keeps
+     * it at least as large as the given size.
+     */
+    private Bitmap decodeSampledBitmap(Uri uri, int width, int height) {
+        InputStream input = null;
+        try {
+            // Read the bounds from a buffered stream, so it can be rewound to decode the picture
+            input = new BufferedInputStream(contentResolver.openInputStream(uri), BOUNDS_READ_LIMIT);
+            input.mark(BOUNDS_READ_LIMIT);
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(input, null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                Log.e(LOG_TAG, "Failed to read image bounds for " + uri);
+                return null;
+            }
+
+            try {
+                input.reset();
+            } catch (IOException e) {
+                // The header was larger than the buffer, open the picture again
+                input.close();
+                input = contentResolver.openInputStream(uri);
+            }
+
+            // Decode the image file into a Bitmap sized to fill the View
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight,
+                    width, height);
+            options.inMutable = true;
+            addReusableBitmap(options);
+            try {
+                return BitmapFactory.decodeStream(input, null, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+                // The reused bitmap didn't fit after all, decode into a new one
+                options.inBitmap = null;
+                input.close();
+                input = contentResolver.openInputStream(uri);
+                return BitmapFactory.decodeStream(input, null, options);
+            }
+
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Failed to load image.", e);
+            return null;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ioe) {
+                    Log.e(LOG_TAG, "Failed to close image.", ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the largest power of two that keeps both dimensions of the picture at least as large
+     * as the requested ones.
+     */
+    static int calculateSampleSize(int pictureWidth, int pictureHeight, int width, int height) {
+        int sampleSize = 1;
+        while (pictureWidth / (sampleSize * 2) >= width && pictureHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Let the decoder reuse an evicted bitmap large enough for the picture being decoded.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void addReusableBitmap(BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+
+        int sampledWidth = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int sampledHeight = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        // ARGB_8888 uses 4 bytes per pixel
+        int byteCount = sampledWidth * sampledHeight * 4;
+
+        options.inBitmap = reusableBitmaps.take(byteCount);
+    }
+
+    /**
+     * A bitmap shown by a view, kept from reuse while the view is attached.
+     */
+    private class Shown implements View.OnAttachStateChangeListener {
+
+        final Uri uri;
+
+        final Bitmap bitmap;
+
+        /**
+         * Whether the view's use of the bitmap is counted. Only accessed on the main thread.
+         */
+        boolean retained;
+
+        Shown(Uri uri, Bitmap bitmap) {
+            this.uri = uri;
+            this.bitmap = bitmap;
+        }
+
+        void release() {
+            if (retained) {
+                retained = false;
+                reusableBitmaps.release(bitmap);
+            }
+        }
+
+        @Override
+        public void onViewAttachedToWindow(View v) {
+            if (!retained) {
+                if (reusableBitmaps.retain(bitmap)) {
+                    retained = true;
+                } else {
+                    // The bitmap was decoded into while the view was detached
+                    ImageView view = (ImageView) v;
+                    view.setImageDrawable(null);
+                    load(uri, view);
+                }
+            }
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View v) {
+            release();
+        }
+    }
+
+    /**
+     * A picture being loaded into a view, cancelled if the view is detached before it's ready.
+     */
+    private class Request implements View.OnAttachStateChangeListener {
+
+        /**
+         * Decoding task, or null while waiting for the view to be laid out.
+         */
+        Future<?> future;
+
+        volatile boolean cancelled;
+
+        @Override
+        public void onViewAttachedToWindow(View v) {
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View v) {
+            cancel((ImageView) v);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.android.inventoryapp.image;
+
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Hands out bitmaps evicted from the memory cache to be decoded into again, once no view shows
+ * them anymore.
+ * <p>
+ * A bitmap evicted from the cache may still be drawn by a view, and decoding into it would change
+ * the picture on screen. Each view showing a bitmap counts as a use, from {@link #retain} to
+ * {@link #release}, and an evicted bitmap only becomes reusable once its last use is released.
+ * A bitmap handed out by {@link #take} can't be retained again: the view must load its picture
+ * again. Thread safe.
+ */
+
+abstract class ReusePool<T> {
+
+    /**
+     * Number of uses of each bitmap in use.
+     */
+    private final Map<T, Integer> useCounts = new IdentityHashMap<>();
+
+    /**
+     * Bitmaps in use which were evicted from the cache, reusable once released.
+     */
+    private final Set<T> evictedInUse = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+
+    /**
+     * Evicted bitmaps no view shows, which can be decoded into again.
+     */
+    private final LinkedList<SoftReference<T>> reusable = new LinkedList<>();
+
+    /**
+     * Bitmaps handed out by {@link #take}, whose pixels may have changed since.
+     */
+    private final Map<T, Boolean> handedOut = new WeakHashMap<>();
+
+    /**
+     * Return whether the given bitmap can still be decoded into.
+     */
+    abstract boolean isReusable(T bitmap);
+
+    /**
+     * Return the number of bytes the given bitmap can hold.
+     */
+    abstract int getByteCount(T bitmap);
+
+    /**
+     * Count a use of the given bitmap, which is kept from reuse until it's released. Return false
+     * if the bitmap was already handed out for reuse, in which case it must not be shown.
+     */
+    synchronized boolean retain(T bitmap) {
+        if (handedOut.containsKey(bitmap)) {
+            return false;
+        }
+        if (removeReusable(bitmap)) {
+            evictedInUse.add(bitmap);
+        }
+        Integer count = useCounts.get(bitmap);
+        useCounts.put(bitmap, count == null ? 1 : count + 1);
+        return true;
+    }
+
+    /**
+     * Release a use of the given bitmap. The last use of an evicted bitmap makes it reusable.
+     */
+    synchronized void release(T bitmap) {
+        Integer count = useCounts.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            useCounts.put(bitmap, count - 1);
+            return;
+        }
+        useCounts.remove(bitmap);
+        if (evictedInUse.remove(bitmap)) {
+            reusable.add(new SoftReference<>(bitmap));
+        }
+    }
+
+    /**
+     * Record that the given bitmap was evicted from the cache. It's reusable right away if no
+     * view shows it, or once the last one releases it.
+     */
+    synchronized void evict(T bitmap) {
+        if (!isReusable(bitmap)) {
+            return;
+        }
+        if (useCounts.containsKey(bitmap)) {
+            evictedInUse.add(bitmap);
+        } else {
+            reusable.add(new SoftReference<>(bitmap));
+        }
+    }
+
+    /**
+     * Return a reusable bitmap holding at least the given number of bytes, or null if there is
+     * none.
+     */
+    synchronized T take(int byteCount) {
+        Iterator<SoftReference<T>> iterator = reusable.iterator();
+        while (iterator.hasNext()) {
+            T candidate = iterator.next().get();
+            if (candidate == null || !isReusable(candidate)) {
+                iterator.remove();
+            } else if (getByteCount(candidate) >= byteCount) {
+                iterator.remove();
+                handedOut.put(candidate, Boolean.TRUE);
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private boolean removeReusable(T bitmap) {
+        Iterator<SoftReference<T>> iterator = reusable.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get() == bitmap) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.android.inventoryapp.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-disk cache of downscaled pictures, so that a picture is only decoded at full size once.
+ * <p>
+ * Each thumbnail is stored in its own file named after the hash of its key. When the cache grows
+ * over its maximum size, the least recently used files are deleted. Must be used from a background
+ * thread.
+ */
+
+class ThumbnailDiskCache {
+
+    private static final String LOG_TAG = ThumbnailDiskCache.class.getSimpleName();
+
+    /**
+     * Quality used when compressing thumbnails without transparency.
+     */
+    private static final int JPEG_QUALITY = 85;
+
+    private final File directory;
+
+    private final long maxBytes;
+
+    /**
+     * Total size of the files in the cache, or -1 until it has been computed.
+     */
+    private long sizeBytes = -1;
+
+    ThumbnailDiskCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Return the thumbnail stored for the given key, or null if there is none.
+     */
+    synchronized Bitmap get(String key, BitmapFactory.Options options) {
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        // Mark the file as recently used
+        file.setLastModified(System.currentTimeMillis());
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    /**
+     * Store the thumbnail for the given key, then trim the cache to its maximum size.
+     */
+    synchronized void put(String key, Bitmap bitmap) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Failed to create thumbnail directory " + directory);
+            return;
+        }
+        ensureSize();
+
+        File file = fileFor(key);
+        long previousLength = file.length();
+        OutputStream output = null;
+        try {
+            output = new FileOutputStream(file);
+            // Keep transparency when there is some, otherwise JPEG is much smaller
+            if (bitmap.hasAlpha()) {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+            } else {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write thumbnail.", e);
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException ioe) {
+                    Log.e(LOG_TAG, "Failed to close thumbnail.", ioe);
+                }
+            }
+        }
+
+        sizeBytes += file.length() - previousLength;
+        trim();
+    }
+
+    /**
+     * Compute the size of the cache the first time it is needed.
+     */
+    private void ensureSize() {
+        if (sizeBytes >= 0) {
+            return;
+        }
+        sizeBytes = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                sizeBytes += file.length();
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used files until the cache fits in its maximum size.
+     */
+    private void trim() {
+        if (sizeBytes <= maxBytes) {
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long firstModified = first.lastModified();
+                long secondModified = second.lastModified();
+                return firstModified < secondModified ? -1 : (firstModified == secondModified ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < files.length && sizeBytes > maxBytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                sizeBytes -= length;
+            }
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, hash(key));
+    }
+
+    /**
+     * Turn the key into a name that can safely be used as a file name.
+     */
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every Java platform provides MD5 and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+}
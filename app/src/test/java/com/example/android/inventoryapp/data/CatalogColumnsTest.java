@@ -0,0 +1,110 @@
+package com.example.android.inventoryapp.data;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link CatalogColumns}.
+ */
+public class CatalogColumnsTest {
+
+    @Test
+    public void sortsByEveryColumn_keepingIdOrderBetweenEqualValues() {
+        CatalogColumns columns = new CatalogColumns();
+        columns.put(1, "Pen", 1.5f, 10);
+        columns.put(2, "Ink", 4f, 0);
+        columns.put(3, "Pen", 0.5f, 10);
+        columns.put(4, "Eraser", 1.5f, 3);
+
+        assertArrayEquals(new long[]{1, 2, 3, 4}, ids(columns, columns.sort(ProductEntry._ID, false)));
+        assertArrayEquals(new long[]{4, 3, 2, 1}, ids(columns, columns.sort(ProductEntry._ID, true)));
+        assertArrayEquals(new long[]{4, 2, 1, 3},
+                ids(columns, columns.sort(ProductEntry.COLUMN_PRODUCT_NAME, false)));
+        assertArrayEquals(new long[]{3, 1, 4, 2},
+                ids(columns, columns.sort(ProductEntry.COLUMN_PRODUCT_PRICE, false)));
+        assertArrayEquals(new long[]{1, 3, 4, 2},
+                ids(columns, columns.sort(ProductEntry.COLUMN_PRODUCT_QTY, true)));
+    }
+
+    @Test
+    public void changesArePatchedInPlace() {
+        CatalogColumns columns = new CatalogColumns();
+        columns.put(5, "Pen", 1.5f, 10);
+        columns.put(2, "Ink", 4f, 1);
+        columns.put(9, "Pad", 2f, 7);
+
+        columns.put(2, "Blue ink", 4f, 0);
+        assertTrue(columns.remove(9));
+        assertFalse(columns.remove(9));
+
+        assertEquals(2, columns.size());
+        assertEquals(0, columns.indexOf(2));
+        assertEquals("Blue ink", columns.getName(0));
+        assertEquals(0, columns.getQuantity(0));
+        assertEquals(-1, columns.indexOf(9));
+        // The new name is ranked on the next sort by name
+        assertArrayEquals(new long[]{2, 5},
+                ids(columns, columns.sort(ProductEntry.COLUMN_PRODUCT_NAME, false)));
+    }
+
+    @Test
+    public void filtersByRange_keepingTheSortOrder() {
+        CatalogColumns columns = new CatalogColumns();
+        columns.put(1, "Pen", 1.5f, 10);
+        columns.put(2, "Ink", 4f, 0);
+        columns.put(3, "Pad", 2f, 3);
+        columns.put(4, "Eraser", 0.5f, 5);
+
+        int[] byPrice = columns.sort(ProductEntry.COLUMN_PRODUCT_PRICE, true);
+        int[] lowStock = columns.filter(byPrice, ProductEntry.COLUMN_PRODUCT_QTY, 1, 5);
+
+        assertArrayEquals(new long[]{3, 4}, ids(columns, lowStock));
+    }
+
+    @Test
+    public void parallelSort_matchesSerialSort() {
+        CatalogColumns parallel = new CatalogColumns(1000, 4);
+        CatalogColumns serial = new CatalogColumns(Integer.MAX_VALUE, 1);
+        Random random = new Random(42);
+        for (int id = 1; id <= 10007; id++) {
+            String name = "Product " + random.nextInt(500);
+            float price = random.nextInt(10000) / 100f;
+            int quantity = random.nextInt(50);
+            parallel.put(id, name, price, quantity);
+            serial.put(id, name, price, quantity);
+        }
+
+        for (String column : CatalogColumns.PROJECTION) {
+            for (boolean descending : new boolean[]{false, true}) {
+                int[] rows = parallel.sort(column, descending);
+                assertArrayEquals(column, serial.sort(column, descending), rows);
+                assertEquals(10007, rows.length);
+            }
+        }
+        int[] rows = parallel.sort(ProductEntry.COLUMN_PRODUCT_PRICE, false);
+        float[] prices = new float[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            prices[i] = parallel.getPrice(rows[i]);
+        }
+        float[] sortedPrices = prices.clone();
+        Arrays.sort(sortedPrices);
+        assertArrayEquals(sortedPrices, prices, 0f);
+    }
+
+    private static long[] ids(CatalogColumns columns, int[] rows) {
+        long[] ids = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            ids[i] = columns.getId(rows[i]);
+        }
+        return ids;
+    }
+}
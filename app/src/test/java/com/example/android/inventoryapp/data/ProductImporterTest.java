@@ -0,0 +1,75 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the row readers of {@link ProductImporter}.
+ */
+public class ProductImporterTest {
+
+    private final ProductImporter.ImportRow row = new ProductImporter.ImportRow();
+
+    @Test
+    public void csv_mapsColumnsByHeaderName() throws IOException {
+        ProductImporter.RowReader rows = new ProductImporter.CsvRowReader(new StringReader(
+                "quantity,name,supplier,price\r\n3,Pen,a@example.com,1.5\r\n"));
+
+        assertTrue(rows.next(row));
+        assertArrayEquals(new String[]{"Pen", "1.5", "3", "a@example.com", null, null}, row.values);
+        assertFalse(rows.next(row));
+    }
+
+    @Test
+    public void csv_readsQuotedFieldsAndSkipsBlankLines() throws IOException {
+        ProductImporter.RowReader rows = new ProductImporter.CsvRowReader(new StringReader(
+                "name,price,quantity,supplier,picture\n"
+                        + "\n"
+                        + "\"Pen, \"\"blue\"\"\nlarge\",2,5,b@example.com,\"\"\n"
+                        + "Ink,3,7,c@example.com"));
+
+        assertTrue(rows.next(row));
+        assertArrayEquals(new String[]{"Pen, \"blue\"\nlarge", "2", "5", "b@example.com", "", null},
+                row.values);
+        assertTrue(rows.next(row));
+        assertArrayEquals(new String[]{"Ink", "3", "7", "c@example.com", null, null}, row.values);
+        assertFalse(rows.next(row));
+    }
+
+    @Test(expected = IOException.class)
+    public void csv_rejectsHeaderWithoutRequiredColumn() throws IOException {
+        new ProductImporter.CsvRowReader(new StringReader("name,price,supplier\n"));
+    }
+
+    @Test
+    public void json_readsKnownKeysAndSkipsTheOthers() throws IOException {
+        ProductImporter.RowReader rows = new ProductImporter.JsonRowReader(new StringReader(
+                "[{\"name\": \"Pen\", \"price\": 1.5, \"quantity\": 3, \"supplier\": \"a@example.com\","
+                        + " \"tags\": [\"office\"]},"
+                        + " {\"name\": {\"nested\": true}, \"quantity\": null}]"));
+
+        assertTrue(rows.next(row));
+        assertArrayEquals(new String[]{"Pen", "1.5", "3", "a@example.com", null, null}, row.values);
+        assertTrue(rows.next(row));
+        assertArrayEquals(new String[]{null, null, null, null, null, null}, row.values);
+        assertFalse(rows.next(row));
+    }
+
+    @Test(expected = IOException.class)
+    public void json_rejectsTopLevelObject() throws IOException {
+        new ProductImporter.JsonRowReader(new StringReader("{\"name\": \"Pen\"}"));
+    }
+
+    @Test(expected = IOException.class)
+    public void json_rejectsElementThatIsNotAnObject() throws IOException {
+        ProductImporter.RowReader rows = new ProductImporter.JsonRowReader(new StringReader(
+                "[\"Pen\"]"));
+        rows.next(row);
+    }
+}
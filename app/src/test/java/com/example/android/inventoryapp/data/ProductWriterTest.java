@@ -0,0 +1,162 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit tests for {@link ProductWriter}.
+ */
+public class ProductWriterTest {
+
+    private ScheduledExecutorService executor;
+
+    private ScheduledExecutorService callbackExecutor;
+
+    private ProductWriter writer;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        callbackExecutor = Executors.newSingleThreadScheduledExecutor();
+        writer = new ProductWriter(null, null, executor, callbackExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        callbackExecutor.shutdownNow();
+    }
+
+    @Test
+    public void writes_runOneAfterTheOtherInOrder() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final int[] running = new int[1];
+        final boolean[] overlapped = new boolean[1];
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final int index = i;
+            futures.add(writer.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws InterruptedException {
+                    synchronized (running) {
+                        overlapped[0] |= ++running[0] > 1;
+                    }
+                    Thread.sleep(1);
+                    order.add(index);
+                    synchronized (running) {
+                        running[0]--;
+                    }
+                    return index;
+                }
+            }, null));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i, (int) futures.get(i).get(1, TimeUnit.SECONDS));
+            assertEquals(i, (int) order.get(i));
+        }
+        assertFalse(overlapped[0]);
+    }
+
+    @Test
+    public void callbacks_getTheResultsOnTheirExecutorInOrder() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        for (int i = 0; i < 5; i++) {
+            final int result = i;
+            writer.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return result;
+                }
+            }, callback);
+        }
+        drain();
+
+        assertEquals(5, callback.results.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, (int) callback.results.get(i));
+        }
+        assertSame(callback.threads.get(0), callback.threads.get(4));
+    }
+
+    @Test
+    public void failedWrite_isReportedAndDoesNotStopTheWriter() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        final IllegalArgumentException rejected =
+                new IllegalArgumentException("Product requires a name");
+        Future<Integer> failed = writer.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                throw rejected;
+            }
+        }, callback);
+        writer.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 3;
+            }
+        }, callback);
+        drain();
+
+        try {
+            failed.get();
+            fail("The write should have failed");
+        } catch (ExecutionException e) {
+            assertSame(rejected, e.getCause());
+        }
+        assertEquals(1, callback.failures.size());
+        assertSame(rejected, callback.failures.get(0));
+        assertEquals(1, callback.results.size());
+        assertEquals(3, (int) callback.results.get(0));
+    }
+
+    /**
+     * Wait for the writes submitted so far, then for their callbacks.
+     */
+    private void drain() throws Exception {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(1, TimeUnit.SECONDS);
+        callbackExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(1, TimeUnit.SECONDS);
+    }
+
+    private static class RecordingCallback implements ProductWriter.Callback<Integer> {
+        final List<Integer> results = new ArrayList<>();
+        final List<Exception> failures = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+
+        @Override
+        public void onSuccess(Integer result) {
+            results.add(result);
+            threads.add(Thread.currentThread());
+        }
+
+        @Override
+        public void onFailure(Exception error) {
+            failures.add(error);
+            threads.add(Thread.currentThread());
+        }
+    }
+}
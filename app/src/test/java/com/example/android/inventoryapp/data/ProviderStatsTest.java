@@ -0,0 +1,105 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.data.ProductContract.StatsEntry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ProviderStats}.
+ */
+public class ProviderStatsTest {
+
+    private static final int FIRST_MATCH = 100;
+
+    private final ProviderStats stats = new ProviderStats(FIRST_MATCH,
+            new String[]{"products", "products/#"});
+
+    @Test
+    public void bucketOf_countsTheBitsOfTheMicroseconds() {
+        assertEquals(0, ProviderStats.bucketOf(999));
+        assertEquals(1, ProviderStats.bucketOf(1000));
+        assertEquals(2, ProviderStats.bucketOf(2000));
+        assertEquals(10, ProviderStats.bucketOf(1000 * 1000));
+        assertEquals(31, ProviderStats.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void record_isReportedPerOperationAndUri() {
+        long now = System.nanoTime();
+        stats.record(ProviderStats.UPDATE, FIRST_MATCH + 1, now, 1);
+        stats.record(ProviderStats.UPDATE, FIRST_MATCH + 1, now, 1);
+        stats.record(ProviderStats.QUERY, FIRST_MATCH, now, 50);
+        stats.recordNotification();
+
+        Cursor cursor = stats.toCursor();
+        assertEquals(3, cursor.getCount());
+
+        cursor.moveToFirst();
+        assertEquals(StatsEntry.OPERATION_QUERY, getString(cursor, StatsEntry.COLUMN_OPERATION));
+        assertEquals("products", getString(cursor, StatsEntry.COLUMN_URI));
+        assertEquals(1, getLong(cursor, StatsEntry.COLUMN_CALLS));
+        assertEquals(50, getLong(cursor, StatsEntry.COLUMN_ROWS));
+
+        cursor.moveToNext();
+        assertEquals(StatsEntry.OPERATION_UPDATE, getString(cursor, StatsEntry.COLUMN_OPERATION));
+        assertEquals("products/#", getString(cursor, StatsEntry.COLUMN_URI));
+        assertEquals(2, getLong(cursor, StatsEntry.COLUMN_CALLS));
+        assertEquals(2, getLong(cursor, StatsEntry.COLUMN_ROWS));
+        assertTrue(getLong(cursor, StatsEntry.COLUMN_P50_MICROS)
+                <= getLong(cursor, StatsEntry.COLUMN_P99_MICROS));
+
+        cursor.moveToNext();
+        assertEquals(StatsEntry.OPERATION_NOTIFY, getString(cursor, StatsEntry.COLUMN_OPERATION));
+        assertEquals(1, getLong(cursor, StatsEntry.COLUMN_CALLS));
+    }
+
+    @Test
+    public void queries_reportTheCacheHitRatio() {
+        long now = System.nanoTime();
+        stats.record(ProviderStats.QUERY, FIRST_MATCH, now, 10);
+        stats.record(ProviderStats.CACHED_QUERY, FIRST_MATCH, now, 10);
+        stats.record(ProviderStats.CACHED_QUERY, FIRST_MATCH, now, 10);
+        stats.record(ProviderStats.CACHED_QUERY, FIRST_MATCH, now, 10);
+        stats.record(ProviderStats.UPDATE, FIRST_MATCH, now, 1);
+
+        Cursor cursor = stats.toCursor();
+        int hitRatio = cursor.getColumnIndex(StatsEntry.COLUMN_HIT_RATIO);
+
+        cursor.moveToFirst();
+        assertEquals(StatsEntry.OPERATION_QUERY, getString(cursor, StatsEntry.COLUMN_OPERATION));
+        assertEquals(0.75, cursor.getDouble(hitRatio), 0);
+        cursor.moveToNext();
+        assertEquals(StatsEntry.OPERATION_UPDATE, getString(cursor, StatsEntry.COLUMN_OPERATION));
+        assertTrue(cursor.isNull(hitRatio));
+        cursor.moveToNext();
+        assertEquals(StatsEntry.OPERATION_CACHED_QUERY,
+                getString(cursor, StatsEntry.COLUMN_OPERATION));
+        assertEquals(0.75, cursor.getDouble(hitRatio), 0);
+    }
+
+    @Test
+    public void reset_clearsEveryCounter() {
+        stats.record(ProviderStats.DELETE, FIRST_MATCH, System.nanoTime(), 3);
+        stats.recordNotification();
+
+        stats.reset();
+
+        Cursor cursor = stats.toCursor();
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(0, getLong(cursor, StatsEntry.COLUMN_CALLS));
+    }
+
+    private static String getString(Cursor cursor, String column) {
+        return cursor.getString(cursor.getColumnIndex(column));
+    }
+
+    private static long getLong(Cursor cursor, String column) {
+        return cursor.getLong(cursor.getColumnIndex(column));
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link QueryCache}.
+ */
+public class QueryCacheTest {
+
+    @Test
+    public void dropsTheLeastRecentlyUsedResults() {
+        QueryCache cache = new QueryCache(400);
+        QueryCache.Key a = key("a");
+        QueryCache.Key b = key("b");
+        QueryCache.Key c = key("c");
+        QueryCache.Result resultA = result(100);
+        cache.get(a, 0);
+        cache.put(a, resultA, 0);
+        cache.put(b, result(100), 0);
+        // Reading "a" makes "b" the eldest
+        assertSame(resultA, cache.get(a, 0));
+        cache.put(c, result(250), 0);
+
+        assertEquals(2, cache.size());
+        assertEquals(350, cache.getBytes());
+        assertSame(resultA, cache.get(a, 0));
+        assertNull(cache.get(b, 0));
+    }
+
+    @Test
+    public void matchesQueriesByValue() {
+        QueryCache cache = new QueryCache(1000);
+        QueryCache.Result result = result(10);
+        cache.put(new QueryCache.Key(101, "products/1", new String[]{"quantity"}, null, null,
+                null), result, 0);
+
+        assertSame(result, cache.get(new QueryCache.Key(101, "products/1",
+                new String[]{"quantity"}, null, null, null), 0));
+        assertNull(cache.get(new QueryCache.Key(101, "products/1", new String[]{"name"}, null,
+                null, null), 0));
+    }
+
+    @Test
+    public void dropsResultsOnceWritten() {
+        QueryCache cache = new QueryCache(1000);
+        cache.put(key("a"), result(10), 0);
+
+        // A result read before the write reaches the cache after it
+        assertNull(cache.get(key("a"), 1));
+        cache.put(key("b"), result(10), 0);
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void copy_keepsTheRowsOfASmallResult() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "name"});
+        cursor.addRow(new Object[]{1L, "Pen"});
+        cursor.addRow(new Object[]{2L, "Ink"});
+
+        QueryCache.Result result = new QueryCache(4000).copy(cursor);
+
+        Cursor copy = result.toCursor();
+        assertEquals(2, copy.getCount());
+        copy.moveToLast();
+        assertEquals("Ink", copy.getString(1));
+        assertEquals(-1, cursor.getPosition());
+    }
+
+    @Test
+    public void copy_skipsAResultTooLargeForItsRowCount_withoutReadingIt() {
+        final int[] moves = new int[1];
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "name"}) {
+            @Override
+            public boolean onMove(int oldPosition, int newPosition) {
+                moves[0]++;
+                return super.onMove(oldPosition, newPosition);
+            }
+        };
+        for (int i = 0; i < 100; i++) {
+            cursor.addRow(new Object[]{(long) i, null});
+        }
+
+        assertNull(new QueryCache(4000).copy(cursor));
+        assertEquals(0, moves[0]);
+    }
+
+    private static QueryCache.Key key(String selection) {
+        return new QueryCache.Key(100, "products", null, selection, null, null);
+    }
+
+    private static QueryCache.Result result(long bytes) {
+        return new QueryCache.Result(new String[]{"_id"}, new Object[0][], bytes);
+    }
+}
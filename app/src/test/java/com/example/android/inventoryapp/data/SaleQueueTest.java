@@ -0,0 +1,202 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link SaleQueue}.
+ */
+public class SaleQueueTest {
+
+    private static final long WINDOW_MILLIS = 200;
+
+    private ScheduledExecutorService executor;
+
+    private RecordingFlusher flusher;
+
+    private SaleQueue saleQueue;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        flusher = new RecordingFlusher();
+        saleQueue = new SaleQueue(flusher, executor, WINDOW_MILLIS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void burstOfTaps_isFlushedOnce() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            saleQueue.recordSale(7);
+        }
+        drain();
+
+        assertEquals(1, flusher.flushes.size());
+        assertArrayEquals(new long[]{7}, flusher.flushes.get(0).productIds);
+        assertArrayEquals(new int[]{-25}, flusher.flushes.get(0).quantityDeltas);
+    }
+
+    @Test
+    public void tapsOnSeveralProducts_areCoalescedPerProduct() throws Exception {
+        saleQueue.recordSale(1);
+        saleQueue.recordSale(2);
+        saleQueue.recordSale(1);
+        saleQueue.adjust(3, 4);
+        drain();
+
+        assertEquals(1, flusher.flushes.size());
+        assertArrayEquals(new long[]{1, 2, 3}, flusher.flushes.get(0).productIds);
+        assertArrayEquals(new int[]{-2, -1, 4}, flusher.flushes.get(0).quantityDeltas);
+    }
+
+    @Test
+    public void deltasCancellingOut_areNotFlushed() throws Exception {
+        saleQueue.recordSale(1);
+        saleQueue.adjust(1, 1);
+        drain();
+
+        assertEquals(0, flusher.flushes.size());
+    }
+
+    @Test
+    public void tapsAfterAFlush_openANewWindow() throws Exception {
+        saleQueue.recordSale(1);
+        drain();
+        saleQueue.recordSale(1);
+        drain();
+
+        assertEquals(2, flusher.flushes.size());
+    }
+
+    @Test
+    public void flushNow_doesNotWaitForTheWindow() throws Exception {
+        saleQueue = new SaleQueue(flusher, executor, TimeUnit.HOURS.toMillis(1));
+        saleQueue.recordSale(1);
+        saleQueue.flushNow();
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+
+        assertEquals(1, flusher.flushes.size());
+    }
+
+    @Test
+    public void failedFlush_keepsTheDeltasForTheNextFlush() throws Exception {
+        final List<Flush> failed = new ArrayList<>();
+        saleQueue = new SaleQueue(new SaleQueue.Flusher() {
+            @Override
+            public void flush(long[] productIds, int[] quantityDeltas) {
+                if (failed.isEmpty()) {
+                    failed.add(new Flush(productIds, quantityDeltas));
+                    throw new IllegalStateException("database is locked");
+                }
+                flusher.flush(productIds, quantityDeltas);
+            }
+        }, executor, WINDOW_MILLIS);
+        saleQueue.recordSale(1);
+        saleQueue.recordSale(2);
+        drain();
+        saleQueue.recordSale(1);
+        drain();
+        drain();
+
+        // The new sale went with the retry, or in a window of its own, but nothing was lost
+        assertEquals(1, failed.size());
+        assertEquals(-2, sumOfDeltas(1));
+        assertEquals(-1, sumOfDeltas(2));
+    }
+
+    @Test
+    public void failedFlush_isRetriedWithoutAnotherTap_laterEachTime() throws Exception {
+        final List<Long> attemptMillis = new ArrayList<>();
+        saleQueue = new SaleQueue(new SaleQueue.Flusher() {
+            @Override
+            public void flush(long[] productIds, int[] quantityDeltas) {
+                attemptMillis.add(System.nanoTime() / 1000000);
+                if (attemptMillis.size() < 3) {
+                    throw new IllegalStateException("database is locked");
+                }
+                flusher.flush(productIds, quantityDeltas);
+            }
+        }, executor, WINDOW_MILLIS);
+        saleQueue.recordSale(1);
+
+        // Tried after the window, then a window later, then two windows later
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, WINDOW_MILLIS * 6, TimeUnit.MILLISECONDS).get();
+
+        assertEquals(3, attemptMillis.size());
+        assertTrue(attemptMillis.get(1) - attemptMillis.get(0) >= WINDOW_MILLIS);
+        assertTrue(attemptMillis.get(2) - attemptMillis.get(1) >= WINDOW_MILLIS * 2);
+        assertEquals(1, flusher.flushes.size());
+        assertArrayEquals(new int[]{-1}, flusher.flushes.get(0).quantityDeltas);
+    }
+
+    /**
+     * Return the sum of the deltas flushed for the given product.
+     */
+    private int sumOfDeltas(long productId) {
+        int sum = 0;
+        for (Flush flush : flusher.flushes) {
+            for (int i = 0; i < flush.productIds.length; i++) {
+                if (flush.productIds[i] == productId) {
+                    sum += flush.quantityDeltas[i];
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Wait until the current window has closed and its flush has run.
+     */
+    private void drain() throws Exception {
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, WINDOW_MILLIS * 2, TimeUnit.MILLISECONDS).get();
+    }
+
+    private static class RecordingFlusher implements SaleQueue.Flusher {
+
+        final List<Flush> flushes = new ArrayList<>();
+
+        @Override
+        public synchronized void flush(long[] productIds, int[] quantityDeltas) {
+            flushes.add(new Flush(productIds, quantityDeltas));
+        }
+    }
+
+    private static class Flush {
+
+        final long[] productIds;
+
+        final int[] quantityDeltas;
+
+        Flush(long[] productIds, int[] quantityDeltas) {
+            this.productIds = productIds;
+            this.quantityDeltas = quantityDeltas;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link SkuCache}.
+ */
+public class SkuCacheTest {
+
+    @Test
+    public void dropsTheLeastRecentlyUsedSku() {
+        SkuCache cache = new SkuCache(2);
+        cache.put("a", 1, cache.generation());
+        cache.put("b", 2, cache.generation());
+        // Reading "a" makes "b" the eldest
+        assertEquals(1, cache.get("a"));
+        cache.put("c", 3, cache.generation());
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.get("a"));
+        assertEquals(-1, cache.get("b"));
+        assertEquals(3, cache.get("c"));
+    }
+
+    @Test
+    public void dropsIdsReadBeforeAnInvalidation() {
+        SkuCache cache = new SkuCache(10);
+        cache.put("a", 1, cache.generation());
+        long generation = cache.generation();
+
+        cache.invalidate();
+        cache.put("b", 2, generation);
+
+        assertEquals(-1, cache.get("a"));
+        assertEquals(-1, cache.get("b"));
+        assertEquals(0, cache.size());
+    }
+}
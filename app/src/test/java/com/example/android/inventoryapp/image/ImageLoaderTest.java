@@ -0,0 +1,28 @@
+package com.example.android.inventoryapp.image;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local unit tests for {@link ImageLoader}.
+ */
+public class ImageLoaderTest {
+
+    @Test
+    public void sampleSize_isAPowerOfTwo() {
+        // 4000 / 350 would give 11 with an integer division
+        assertEquals(8, ImageLoader.calculateSampleSize(4000, 3000, 350, 200));
+    }
+
+    @Test
+    public void sampleSize_keepsThePictureAtLeastAsLargeAsTheView() {
+        assertEquals(2, ImageLoader.calculateSampleSize(1000, 1000, 400, 300));
+        assertEquals(1, ImageLoader.calculateSampleSize(700, 400, 350, 201));
+    }
+
+    @Test
+    public void sampleSize_isOneForSmallPictures() {
+        assertEquals(1, ImageLoader.calculateSampleSize(100, 100, 350, 200));
+    }
+}
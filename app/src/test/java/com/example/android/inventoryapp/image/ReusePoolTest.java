@@ -0,0 +1,80 @@
+package com.example.android.inventoryapp.image;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests for {@link ReusePool}, with byte arrays standing for bitmaps.
+ */
+public class ReusePoolTest {
+
+    private final ReusePool<byte[]> pool = new ReusePool<byte[]>() {
+        @Override
+        boolean isReusable(byte[] bitmap) {
+            return true;
+        }
+
+        @Override
+        int getByteCount(byte[] bitmap) {
+            return bitmap.length;
+        }
+    };
+
+    @Test
+    public void evictedBitmap_isReusedWhenNoViewShowsIt() {
+        byte[] bitmap = new byte[100];
+        pool.evict(bitmap);
+
+        assertNull(pool.take(200));
+        assertSame(bitmap, pool.take(100));
+        assertNull(pool.take(100));
+    }
+
+    @Test
+    public void evictedBitmap_isNotReusedUntilTheLastViewReleasesIt() {
+        byte[] bitmap = new byte[100];
+        assertTrue(pool.retain(bitmap));
+        assertTrue(pool.retain(bitmap));
+        pool.evict(bitmap);
+        assertNull(pool.take(100));
+
+        pool.release(bitmap);
+        assertNull(pool.take(100));
+        pool.release(bitmap);
+        assertSame(bitmap, pool.take(100));
+    }
+
+    @Test
+    public void releasedBitmap_stillCached_isNotReused() {
+        byte[] bitmap = new byte[100];
+        assertTrue(pool.retain(bitmap));
+        pool.release(bitmap);
+
+        assertNull(pool.take(100));
+    }
+
+    @Test
+    public void reusableBitmap_shownAgain_isTakenBackFromThePool() {
+        byte[] bitmap = new byte[100];
+        pool.evict(bitmap);
+        assertTrue(pool.retain(bitmap));
+
+        assertNull(pool.take(100));
+        pool.release(bitmap);
+        assertSame(bitmap, pool.take(100));
+    }
+
+    @Test
+    public void reusedBitmap_cannotBeShownAgain() {
+        byte[] bitmap = new byte[100];
+        pool.evict(bitmap);
+        assertSame(bitmap, pool.take(100));
+
+        // A view attached again must load its picture again
+        assertFalse(pool.retain(bitmap));
+    }
+}
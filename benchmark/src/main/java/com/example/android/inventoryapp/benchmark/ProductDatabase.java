@@ -0,0 +1,406 @@
+package com.example.android.inventoryapp.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Stand-in for the app's product database on a plain JVM.
+ * <p>
+ * The schema, the pragmas and the statements mirror {@code ProductDbHelper},
+ * {@code ProductStatements} and the queries of {@code ProductProvider}, run through the SQLite
+ * JDBC driver instead of the Android framework. Keep them in step when the app's SQL changes.
+ */
+
+class ProductDatabase {
+
+    /**
+     * Columns read by the catalog list.
+     */
+    static final String CATALOG_PROJECTION = "_id, name, price, quantity";
+
+    /**
+     * Columns read by the details screen.
+     */
+    static final String DETAILS_PROJECTION = "_id, name, price, quantity, supplier, picture";
+
+    /**
+     * Columns of the summary table, each with the term a product that is not deleted adds to it.
+     */
+    private static final String[][] SUMMARY_TERMS = {
+            {"product_count", "1"},
+            {"total_units", "row.quantity"},
+            {"stock_value", "row.price * row.quantity"},
+            {"out_of_stock_count", "(row.quantity = 0)"},
+            {"low_stock_count", "(row.quantity <= 5)"}};
+
+    /**
+     * Products table and the statements depending on how it stores the supplier: in its own
+     * table, as the app does since version 8 of its database. Products are read from a view
+     * hiding the deleted ones, as in version 10.
+     */
+    private static final String[] SQL_CREATE_SUPPLIER_TABLE = {
+            "CREATE TABLE suppliers (_id INTEGER PRIMARY KEY, email TEXT NOT NULL UNIQUE)",
+            "CREATE TABLE products (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, "
+                    + "price REAL NOT NULL, quantity INTEGER NOT NULL, "
+                    + "supplier_id INTEGER NOT NULL REFERENCES suppliers (_id), "
+                    + "picture TEXT NOT NULL, sku TEXT, sync_id TEXT, "
+                    + "change_seq INTEGER NOT NULL DEFAULT 0, quantity_delta INTEGER NOT NULL DEFAULT 0, "
+                    + "fields_changed INTEGER NOT NULL DEFAULT 0, deleted_at INTEGER)",
+            "CREATE INDEX products_supplier_index ON products (supplier_id)",
+            "CREATE VIEW products_with_supplier AS SELECT products.*, suppliers.email AS supplier "
+                    + "FROM products JOIN suppliers ON suppliers._id = products.supplier_id "
+                    + "WHERE products.deleted_at IS NULL",
+            "CREATE TRIGGER products_fts_insert AFTER INSERT ON products BEGIN "
+                    + "INSERT INTO products_fts (docid, name, supplier) VALUES (new._id, new.name, "
+                    + "(SELECT email FROM suppliers WHERE _id = new.supplier_id)); END",
+            "CREATE TRIGGER products_fts_update AFTER UPDATE OF name, supplier_id ON products "
+                    + "BEGIN UPDATE products_fts SET name = new.name, "
+                    + "supplier = (SELECT email FROM suppliers WHERE _id = new.supplier_id) "
+                    + "WHERE docid = old._id; END",
+            buildSyncUpdateTrigger("supplier_id")};
+
+    /**
+     * The same, with the supplier email stored in every product, as the app did up to version 7
+     * of its database.
+     */
+    private static final String[] SQL_CREATE_INLINE_SUPPLIER = {
+            "CREATE TABLE products (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, "
+                    + "price REAL NOT NULL, quantity INTEGER NOT NULL, supplier TEXT NOT NULL, "
+                    + "picture TEXT NOT NULL, sku TEXT, sync_id TEXT, "
+                    + "change_seq INTEGER NOT NULL DEFAULT 0, quantity_delta INTEGER NOT NULL DEFAULT 0, "
+                    + "fields_changed INTEGER NOT NULL DEFAULT 0, deleted_at INTEGER)",
+            "CREATE VIEW products_with_supplier AS SELECT * FROM products "
+                    + "WHERE deleted_at IS NULL",
+            "CREATE TRIGGER products_fts_insert AFTER INSERT ON products BEGIN "
+                    + "INSERT INTO products_fts (docid, name, supplier) "
+                    + "VALUES (new._id, new.name, new.supplier); END",
+            "CREATE TRIGGER products_fts_update AFTER UPDATE OF name, supplier ON products BEGIN "
+                    + "UPDATE products_fts SET name = new.name, supplier = new.supplier "
+                    + "WHERE docid = old._id; END",
+            buildSyncUpdateTrigger("supplier")};
+
+    /**
+     * The rest of the schema, the same for both.
+     */
+    private static final String[] SQL_CREATE_SCHEMA = {
+            "CREATE INDEX products_name_index ON products (name)",
+            "CREATE UNIQUE INDEX products_sku_index ON products (sku)",
+            "CREATE INDEX products_deleted_at_index ON products (deleted_at)",
+            "CREATE VIRTUAL TABLE products_fts USING fts4(name, supplier)",
+            "CREATE TRIGGER products_fts_delete AFTER DELETE ON products BEGIN "
+                    + "DELETE FROM products_fts WHERE docid = old._id; END",
+            "CREATE TABLE products_summary (_id INTEGER PRIMARY KEY CHECK (_id = 1), "
+                    + "product_count INTEGER NOT NULL, total_units INTEGER NOT NULL, "
+                    + "stock_value REAL NOT NULL, out_of_stock_count INTEGER NOT NULL, "
+                    + "low_stock_count INTEGER NOT NULL)",
+            "INSERT INTO products_summary VALUES (1, 0, 0, 0, 0, 0)",
+            "CREATE TRIGGER products_summary_insert AFTER INSERT ON products BEGIN "
+                    + buildSummaryUpdate("new", null) + " END",
+            "CREATE TRIGGER products_summary_update AFTER UPDATE OF price, quantity, deleted_at "
+                    + "ON products BEGIN " + buildSummaryUpdate("new", "old") + " END",
+            "CREATE TRIGGER products_summary_delete AFTER DELETE ON products BEGIN "
+                    + buildSummaryUpdate(null, "old") + " END",
+            "CREATE INDEX products_change_seq_index ON products (change_seq)",
+            "CREATE UNIQUE INDEX products_sync_id_index ON products (sync_id)",
+            "CREATE TABLE sync_state (_id INTEGER PRIMARY KEY CHECK (_id = 1), "
+                    + "device_id TEXT NOT NULL, last_seq INTEGER NOT NULL, "
+                    + "pushed_seq INTEGER NOT NULL, server_cursor INTEGER NOT NULL, "
+                    + "applying INTEGER NOT NULL)",
+            "INSERT INTO sync_state VALUES (1, lower(hex(randomblob(8))), 0, 0, 0, 0)",
+            "CREATE TABLE sync_tombstones (sync_id TEXT PRIMARY KEY NOT NULL, "
+                    + "change_seq INTEGER NOT NULL)",
+            "CREATE TRIGGER products_sync_insert AFTER INSERT ON products "
+                    + "WHEN (SELECT applying FROM sync_state) = 0 BEGIN "
+                    + "UPDATE sync_state SET last_seq = last_seq + 1; "
+                    + "UPDATE products SET sync_id = IFNULL(new.sync_id, lower(hex(randomblob(8)))), "
+                    + "change_seq = (SELECT last_seq FROM sync_state), "
+                    + "quantity_delta = new.quantity, fields_changed = 1 WHERE _id = new._id; END",
+            "CREATE TRIGGER products_sync_delete AFTER DELETE ON products "
+                    + "WHEN (SELECT applying FROM sync_state) = 0 "
+                    + "AND (SELECT pushed_seq + server_cursor FROM sync_state) > 0 "
+                    + "AND old.sync_id IS NOT NULL BEGIN "
+                    + "UPDATE sync_state SET last_seq = last_seq + 1; "
+                    + "INSERT OR REPLACE INTO sync_tombstones (sync_id, change_seq) "
+                    + "VALUES (old.sync_id, (SELECT last_seq FROM sync_state)); END",
+            "CREATE TRIGGER products_sku_insert BEFORE INSERT ON products "
+                    + "WHEN new.sku IS NOT NULL BEGIN "
+                    + "DELETE FROM products WHERE sku = new.sku AND deleted_at IS NOT NULL; END",
+            "CREATE TRIGGER products_sku_update BEFORE UPDATE OF sku ON products "
+                    + "WHEN new.sku IS NOT NULL BEGIN DELETE FROM products "
+                    + "WHERE sku = new.sku AND deleted_at IS NOT NULL AND _id != old._id; END"};
+
+    /**
+     * Whether the suppliers are stored in their own table.
+     */
+    private final boolean supplierTable;
+
+    private final File file;
+
+    private final Connection connection;
+
+    final PreparedStatement insertSupplier;
+    final PreparedStatement insert;
+    final PreparedStatement insertWithId;
+    final PreparedStatement updateQuantity;
+    final PreparedStatement queryCatalog;
+    final PreparedStatement queryCatalogPage;
+    final PreparedStatement queryDetails;
+    final PreparedStatement queryIdBySku;
+    final PreparedStatement delete;
+    final PreparedStatement restore;
+    final PreparedStatement querySummary;
+    final PreparedStatement computeSummary;
+    final PreparedStatement groupBySupplier;
+
+    /**
+     * Create a new database in a temporary file, with the given number of products, storing the
+     * suppliers in their own table or in the products.
+     */
+    ProductDatabase(int rowCount, boolean supplierTable) throws IOException, SQLException {
+        this.supplierTable = supplierTable;
+        file = File.createTempFile("inventory", ".db");
+        connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+
+        Statement statement = connection.createStatement();
+        try {
+            // Same journal, checkpoint and vacuum policy as the app. Auto-vacuum is only set
+            // before the first table is created.
+            statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("PRAGMA synchronous = NORMAL");
+            statement.execute("PRAGMA wal_autocheckpoint = 500");
+            statement.execute("PRAGMA journal_size_limit = 1048576");
+            String[] productsSchema = supplierTable
+                    ? SQL_CREATE_SUPPLIER_TABLE
+                    : SQL_CREATE_INLINE_SUPPLIER;
+            for (String sql : productsSchema) {
+                statement.execute(sql);
+            }
+            for (String sql : SQL_CREATE_SCHEMA) {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+
+        // Products are read from the view joining their supplier and hiding the deleted ones, and
+        // written with the ID of the supplier of the bound email
+        String products = "products_with_supplier";
+        String supplierColumn = supplierTable ? "supplier_id" : "supplier";
+        String supplierValue = supplierTable ? "(SELECT _id FROM suppliers WHERE email = ?)" : "?";
+
+        insertSupplier = supplierTable ? connection.prepareStatement(
+                "INSERT OR IGNORE INTO suppliers (email) VALUES (?)") : null;
+        insert = connection.prepareStatement("INSERT INTO products "
+                + "(name, price, quantity, " + supplierColumn + ", picture) "
+                + "VALUES (?, ?, ?, " + supplierValue + ", ?)");
+        insertWithId = connection.prepareStatement("INSERT INTO products "
+                + "(_id, name, price, quantity, " + supplierColumn + ", picture, sku) "
+                + "VALUES (?, ?, ?, ?, " + supplierValue + ", ?, ?)");
+        updateQuantity = connection.prepareStatement(
+                "UPDATE products SET quantity = ? WHERE _id = ? AND deleted_at IS NULL");
+        queryCatalog = connection.prepareStatement(
+                "SELECT " + CATALOG_PROJECTION + " FROM " + products + " ORDER BY _id");
+        queryCatalogPage = connection.prepareStatement("SELECT " + CATALOG_PROJECTION + " FROM "
+                + products + " WHERE _id > ? ORDER BY _id LIMIT ?");
+        queryDetails = connection.prepareStatement(
+                "SELECT " + DETAILS_PROJECTION + " FROM " + products + " WHERE _id = ?");
+        queryIdBySku = connection.prepareStatement(
+                "SELECT _id FROM products WHERE sku = ? AND deleted_at IS NULL");
+        // Deleting only marks the product, which the app purges later
+        delete = connection.prepareStatement(
+                "UPDATE products SET deleted_at = ? WHERE _id = ? AND deleted_at IS NULL");
+        restore = connection.prepareStatement(
+                "UPDATE products SET deleted_at = NULL WHERE _id = ? AND deleted_at IS NOT NULL");
+        querySummary = connection.prepareStatement("SELECT product_count, total_units, "
+                + "stock_value, out_of_stock_count, low_stock_count FROM products_summary");
+        computeSummary = connection.prepareStatement("SELECT COUNT(*), IFNULL(SUM(quantity), 0), "
+                + "IFNULL(SUM(price * quantity), 0), IFNULL(SUM(quantity = 0), 0), "
+                + "IFNULL(SUM(quantity <= 5), 0) FROM products WHERE deleted_at IS NULL");
+        // The products are grouped by supplier ID before the emails are joined. Walking the
+        // supplier index instead would read the products in random order.
+        groupBySupplier = connection.prepareStatement(supplierTable
+                ? "SELECT email, product_count, total_units FROM (SELECT supplier_id, "
+                + "COUNT(*) AS product_count, SUM(quantity) AS total_units "
+                + "FROM products NOT INDEXED WHERE deleted_at IS NULL GROUP BY supplier_id) "
+                + "AS groups JOIN suppliers ON suppliers._id = groups.supplier_id"
+                : "SELECT supplier, COUNT(*), SUM(quantity) FROM products "
+                + "WHERE deleted_at IS NULL GROUP BY supplier");
+
+        fill(rowCount);
+    }
+
+    /**
+     * Return the statement of the sync trigger flagging changes of the products, whose supplier
+     * is in the given column.
+     */
+    private static String buildSyncUpdateTrigger(String supplierColumn) {
+        return "CREATE TRIGGER products_sync_update AFTER UPDATE OF name, price, quantity, "
+                + supplierColumn + ", picture, sku, deleted_at ON products "
+                + "WHEN (SELECT applying FROM sync_state) = 0 BEGIN "
+                + "UPDATE sync_state SET last_seq = last_seq + 1; "
+                + "UPDATE products SET change_seq = (SELECT last_seq FROM sync_state), "
+                + "quantity_delta = quantity_delta + new.quantity - old.quantity, "
+                + "fields_changed = fields_changed OR new.name IS NOT old.name "
+                + "OR new.price IS NOT old.price "
+                + "OR new." + supplierColumn + " IS NOT old." + supplierColumn + " "
+                + "OR new.picture IS NOT old.picture OR new.sku IS NOT old.sku "
+                + "WHERE _id = new._id; END";
+    }
+
+    /**
+     * Return the statement of a summary trigger, adding the terms of the given product and
+     * taking away those of the other, either of which may be null. A deleted product counts
+     * for nothing.
+     */
+    private static String buildSummaryUpdate(String added, String removed) {
+        StringBuilder sql = new StringBuilder("UPDATE products_summary SET ");
+        for (int i = 0; i < SUMMARY_TERMS.length; i++) {
+            String column = SUMMARY_TERMS[i][0];
+            String term = SUMMARY_TERMS[i][1];
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(column).append(" = ").append(column);
+            if (added != null) {
+                sql.append(" + (").append(term.replace("row.", added + ".")).append(") * (")
+                        .append(added).append(".deleted_at IS NULL)");
+            }
+            if (removed != null) {
+                sql.append(" - (").append(term.replace("row.", removed + ".")).append(") * (")
+                        .append(removed).append(".deleted_at IS NULL)");
+            }
+        }
+        return sql.append(";").toString();
+    }
+
+    /**
+     * Insert the given number of products in one transaction, the way bulkInsert does.
+     */
+    private void fill(int rowCount) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            for (int i = 1; i <= rowCount; i++) {
+                insertWithId(i);
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Bind the attributes of the i-th test product, starting at the given parameter index.
+     */
+    static void bindProduct(PreparedStatement statement, int firstIndex, long i)
+            throws SQLException {
+        statement.setString(firstIndex, "Product " + i);
+        statement.setDouble(firstIndex + 1, 1 + i % 100);
+        statement.setInt(firstIndex + 2, (int) (i % 50));
+        statement.setString(firstIndex + 3, supplier(i));
+        statement.setString(firstIndex + 4, "content://media/external/images/media/" + i);
+    }
+
+    /**
+     * Return the supplier email of the i-th test product. Products share 20 suppliers.
+     */
+    static String supplier(long i) {
+        return "supplier" + i % 20 + "@example.com";
+    }
+
+    /**
+     * Add the supplier of the i-th test product unless it exists, as the app does before
+     * inserting a product. Does nothing when suppliers are stored in the products.
+     */
+    void insertSupplier(long i) throws SQLException {
+        if (supplierTable) {
+            insertSupplier.setString(1, supplier(i));
+            insertSupplier.executeUpdate();
+        }
+    }
+
+    /**
+     * Insert the i-th test product with its own ID and SKU. The products inserted without ID by
+     * the benchmarks have no SKU, so they never clash with these.
+     */
+    void insertWithId(long i) throws SQLException {
+        insertSupplier(i);
+        insertWithId.setLong(1, i);
+        bindProduct(insertWithId, 2, i);
+        insertWithId.setString(7, sku(i));
+        insertWithId.executeUpdate();
+    }
+
+    /**
+     * Return the SKU of the i-th test product.
+     */
+    static String sku(long i) {
+        return String.format("%013d", i);
+    }
+
+    /**
+     * Delete the products added after the initial ones, so the table keeps its size.
+     */
+    void trim(int rowCount) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.executeUpdate("DELETE FROM products WHERE _id > " + rowCount);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Return the size of the database file, once the write-ahead log is copied back into it.
+     */
+    long fileSize() throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        } finally {
+            statement.close();
+        }
+        return file.length();
+    }
+
+    /**
+     * Read every column of every row of the result, the way a cursor window is filled.
+     */
+    static long consume(ResultSet resultSet, int columnCount) throws SQLException {
+        long checksum = 0;
+        try {
+            while (resultSet.next()) {
+                for (int i = 1; i <= columnCount; i++) {
+                    Object value = resultSet.getObject(i);
+                    checksum += value == null ? 0 : value.hashCode();
+                }
+            }
+        } finally {
+            resultSet.close();
+        }
+        return checksum;
+    }
+
+    void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Nothing left to do with the database
+        }
+        delete(file);
+        delete(new File(file.getPath() + "-wal"));
+        delete(new File(file.getPath() + "-shm"));
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
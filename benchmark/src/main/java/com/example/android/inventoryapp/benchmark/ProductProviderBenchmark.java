@@ -0,0 +1,206 @@
+package com.example.android.inventoryapp.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the operations behind {@code ProductProvider} as the catalog grows, measured on
+ * {@link ProductDatabase}.
+ * <p>
+ * Every benchmark runs against a catalog of {@link #rowCount} products. Writes are undone
+ * between iterations, or row by row for deletes, so the catalog keeps its size. The size of the
+ * database file is reported as a secondary result of {@link #queryCatalog}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductProviderBenchmark {
+
+    /**
+     * Rows queried at once by the catalog list.
+     */
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rowCount;
+
+    /**
+     * Whether the suppliers are stored in their own table, as in the app, or in every product,
+     * as before. Compare both with -p supplierTable=true,false.
+     */
+    @Param({"true"})
+    public boolean supplierTable;
+
+    private ProductDatabase database;
+
+    private final Random random = new Random(42);
+
+    /**
+     * Product deleted by the last call of {@link #delete}, restored before the next one. Kept in
+     * its own state, so the other benchmarks don't pay for a setup on every call.
+     */
+    @State(Scope.Benchmark)
+    public static class DeletedRow {
+        long id;
+
+        @Setup(Level.Invocation)
+        public void restore(ProductProviderBenchmark benchmark) throws SQLException {
+            if (id != 0) {
+                benchmark.database.restore.setLong(1, id);
+                benchmark.database.restore.executeUpdate();
+            }
+            id = benchmark.randomId();
+        }
+    }
+
+    /**
+     * Size of the database file, in bytes, reported by JMH along with the scores. Events are
+     * summed over the iterations, so only the first measurement iteration counts the size,
+     * taken once the warmup writes were undone.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class DatabaseSize {
+        public long databaseBytes;
+
+        private boolean measured;
+
+        @Setup(Level.Iteration)
+        public void measure(ProductProviderBenchmark benchmark, IterationParams iteration)
+                throws SQLException {
+            databaseBytes = 0;
+            if (!measured && iteration.getType() == IterationType.MEASUREMENT) {
+                measured = true;
+                databaseBytes = benchmark.database.fileSize();
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createDatabase() throws IOException, SQLException {
+        database = new ProductDatabase(rowCount, supplierTable);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() throws SQLException {
+        database.close();
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeInsertedRows() throws SQLException {
+        database.trim(rowCount);
+    }
+
+    @Benchmark
+    public long insert() throws SQLException {
+        int i = random.nextInt(rowCount);
+        database.insertSupplier(i);
+        ProductDatabase.bindProduct(database.insert, 1, i);
+        return database.insert.executeUpdate();
+    }
+
+    @Benchmark
+    public int updateById() throws SQLException {
+        database.updateQuantity.setInt(1, random.nextInt(100));
+        database.updateQuantity.setLong(2, randomId());
+        return database.updateQuantity.executeUpdate();
+    }
+
+    /**
+     * The whole catalog with the columns of the list, along with the size of the database.
+     */
+    @Benchmark
+    public long queryCatalog(DatabaseSize databaseSize) throws SQLException {
+        return ProductDatabase.consume(database.queryCatalog.executeQuery(), 4);
+    }
+
+    /**
+     * One page of the catalog with the columns of the list, the way the list actually reads it.
+     */
+    @Benchmark
+    public long queryCatalogPage() throws SQLException {
+        database.queryCatalogPage.setLong(1, Math.max(0, randomId() - PAGE_SIZE));
+        database.queryCatalogPage.setInt(2, PAGE_SIZE);
+        return ProductDatabase.consume(database.queryCatalogPage.executeQuery(), 4);
+    }
+
+    /**
+     * A single product with the columns of the details screen.
+     */
+    @Benchmark
+    public long queryDetails() throws SQLException {
+        database.queryDetails.setLong(1, randomId());
+        return ProductDatabase.consume(database.queryDetails.executeQuery(), 6);
+    }
+
+    /**
+     * The ID of a product found by its SKU through the unique index, the lookup a barcode scan
+     * runs when the SKU is not cached.
+     */
+    @Benchmark
+    public long queryIdBySku() throws SQLException {
+        database.queryIdBySku.setString(1, ProductDatabase.sku(randomId()));
+        return ProductDatabase.consume(database.queryIdBySku.executeQuery(), 1);
+    }
+
+    /**
+     * The inventory totals, read from the row maintained by the triggers.
+     */
+    @Benchmark
+    public long querySummary() throws SQLException {
+        return ProductDatabase.consume(database.querySummary.executeQuery(), 5);
+    }
+
+    /**
+     * The same totals computed from scratch, the way the consistency check does.
+     */
+    @Benchmark
+    public long computeSummary() throws SQLException {
+        return ProductDatabase.consume(database.computeSummary.executeQuery(), 5);
+    }
+
+    /**
+     * Product count and units of every supplier, the products being sorted by supplier ID rather
+     * than by email when suppliers have their own table.
+     */
+    @Benchmark
+    public long groupBySupplier() throws SQLException {
+        return ProductDatabase.consume(database.groupBySupplier.executeQuery(), 3);
+    }
+
+    /**
+     * Deleting a product only marks it, as the app does until the purge.
+     */
+    @Benchmark
+    public int delete(DeletedRow deletedRow) throws SQLException {
+        database.delete.setLong(1, System.currentTimeMillis());
+        database.delete.setLong(2, deletedRow.id);
+        return database.delete.executeUpdate();
+    }
+
+    private long randomId() {
+        return 1 + random.nextInt(rowCount);
+    }
+}